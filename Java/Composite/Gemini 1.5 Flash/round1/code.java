@@ -1,5 +1,10 @@
+import java.io.PrintStream;
+import java.nio.charset.Charset;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 // Abstract Component (ATM component)
 abstract class ATMComponent {
@@ -118,31 +123,97 @@ class PINChange extends ATMComponent {
     }
 }
 
+// Pre-rendered menu screen, encoded once per output charset and written as-is on every pass
+final class MenuScreen {
+    private final String text;
+    private final Map<Charset, byte[]> encoded = new ConcurrentHashMap<>();
+
+    MenuScreen(String text) {
+        this.text = text;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    // The bytes bypass the stream's own encoder, so charset must be the one out encodes text with
+    public void writeTo(PrintStream out, Charset charset) {
+        byte[] bytes = encoded.computeIfAbsent(charset, text::getBytes);
+        out.write(bytes, 0, bytes.length);
+        out.flush();
+    }
+}
+
 // Composite Component (ATM Menu)
 class ATMMenu extends ATMComponent {
     private Map<String, ATMComponent> operations;
+    private final Map<Locale, Map<String, String>> translations = new HashMap<>();
+    private final Map<Locale, MenuScreen> screens = new ConcurrentHashMap<>();
+    private Locale locale = Locale.ENGLISH;
+    private PrintStream out = System.out;
+    private Charset outCharset = stdoutCharset();
 
     public ATMMenu() {
         super("ATM Menu");
-        operations = new HashMap<>();
+        operations = new LinkedHashMap<>();
     }
 
     public void addOperation(ATMComponent operation) {
         operations.put(operation.getName(), operation);
+        screens.clear();
     }
 
-    @Override
-    public void execute() {
-        System.out.println("ATM Menu:");
+    // Label shown instead of the English name on terminals using the given locale
+    public void addTranslation(Locale locale, String name, String label) {
+        translations.computeIfAbsent(locale, k -> new HashMap<>()).put(name, label);
+        screens.remove(locale);
+    }
+
+    public void setLocale(Locale locale) {
+        this.locale = locale;
+    }
+
+    // Where the menu is written, and the charset that stream encodes text with
+    public void setOutput(PrintStream out, Charset charset) {
+        this.out = out;
+        this.outCharset = charset;
+    }
+
+    // Rendered once per locale; addOperation and addTranslation drop the cached copies
+    public MenuScreen getScreen(Locale locale) {
+        return screens.computeIfAbsent(locale, this::render);
+    }
+
+    // System.out encodes with stdout.encoding (sun.stdout.encoding before JDK 19) when set, else the default charset
+    static Charset stdoutCharset() {
+        for (String property : new String[] {"stdout.encoding", "sun.stdout.encoding"}) {
+            String name = System.getProperty(property);
+            if (name != null && Charset.isSupported(name)) {
+                return Charset.forName(name);
+            }
+        }
+        return Charset.defaultCharset();
+    }
+
+    private MenuScreen render(Locale locale) {
+        Map<String, String> labels = translations.getOrDefault(locale, Map.of());
+        StringBuilder screen = new StringBuilder();
+        screen.append(labels.getOrDefault(name, name)).append(':').append(System.lineSeparator());
         for (String operationName : operations.keySet()) {
-            System.out.println(operationName);
+            screen.append(labels.getOrDefault(operationName, operationName)).append(System.lineSeparator());
         }
+        return new MenuScreen(screen.toString());
+    }
+
+    @Override
+    public void execute() {
+        getScreen(locale).writeTo(out, outCharset);
 
         String choice = getMenuChoice();
         if (operations.containsKey(choice)) {
             operations.get(choice).execute();
         } else {
-            System.out.println("Invalid choice!");
+            out.println("Invalid choice!");
         }
     }
 
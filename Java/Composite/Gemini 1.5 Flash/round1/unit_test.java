@@ -1,4 +1,10 @@
 import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class ATMSystemTest {
@@ -42,48 +48,53 @@ class ATMSystemTest {
         change.execute();
         assertEquals("1234", account.getPIN()); // Assuming new PIN is "1234"
     }
-}import org.junit.jupiter.api.Test;
-import static org.junit.jupiter.api.Assertions.*;
-
-class ATMSystemTest {
 
     @Test
-    void testBalanceDisplay() {
+    void testMenuScreenKeepsInsertionOrder() {
         Account account = new Account(1000.00, "1111");
-        BalanceDisplay display = new BalanceDisplay(account);
-        display.execute();
-        assertEquals(1000.00, account.getBalance());
+        ATMMenu menu = new ATMMenu();
+        menu.addOperation(new PINChange(account));
+        menu.addOperation(new BalanceDisplay(account));
+        menu.addOperation(new Deposit(account));
+        String n = System.lineSeparator();
+        assertEquals("ATM Menu:" + n + "PIN Change" + n + "Balance Display" + n + "Deposit" + n,
+                menu.getScreen(Locale.ENGLISH).getText());
     }
 
     @Test
-    void testCashWithdrawal() {
+    void testMenuScreenCachedUntilTreeChanges() {
         Account account = new Account(1000.00, "1111");
-        CashWithdrawal withdrawal = new CashWithdrawal(account);
-        withdrawal.execute();
-        assertEquals(900.00, account.getBalance()); // Assuming withdrawal amount is 100.00
+        ATMMenu menu = new ATMMenu();
+        menu.addOperation(new BalanceDisplay(account));
+        MenuScreen first = menu.getScreen(Locale.ENGLISH);
+        assertSame(first, menu.getScreen(Locale.ENGLISH));
+        menu.addOperation(new CashWithdrawal(account));
+        assertNotSame(first, menu.getScreen(Locale.ENGLISH));
     }
 
     @Test
-    void testCashWithdrawalInsufficientFunds() {
-        Account account = new Account(100.00, "1111");
-        CashWithdrawal withdrawal = new CashWithdrawal(account);
-        withdrawal.execute();
-        assertEquals(100.00, account.getBalance());
-    }
-
-    @Test
-    void testDeposit() {
+    void testMenuScreenLocalized() {
         Account account = new Account(1000.00, "1111");
-        Deposit deposit = new Deposit(account);
-        deposit.execute();
-        assertEquals(1200.00, account.getBalance()); // Assuming deposit amount is 200.00
-    }
+        ATMMenu menu = new ATMMenu();
+        menu.addOperation(new BalanceDisplay(account));
+        menu.addTranslation(Locale.FRENCH, "ATM Menu", "Menu GAB");
+        menu.addTranslation(Locale.FRENCH, "Balance Display", "Afficher le solde");
+        String n = System.lineSeparator();
+        assertEquals("Menu GAB:" + n + "Afficher le solde" + n, menu.getScreen(Locale.FRENCH).getText());
+        assertEquals("ATM Menu:" + n + "Balance Display" + n, menu.getScreen(Locale.ENGLISH).getText());
+        menu.addTranslation(Locale.FRENCH, "Balance Display", "Relev\u00e9 du solde");
+        menu.setLocale(Locale.FRENCH);
 
-    @Test
-    void testPINChange() {
-        Account account = new Account(1000.00, "1111");
-        PINChange change = new PINChange(account);
-        change.execute();
-        assertEquals("1234", account.getPIN()); // Assuming new PIN is "1234"
+        ByteArrayOutputStream utf8 = new ByteArrayOutputStream();
+        menu.setOutput(new PrintStream(utf8, true, StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+        menu.execute();
+        assertEquals("Menu GAB:" + n + "Relev\u00e9 du solde" + n + "Invalid choice!" + n,
+                utf8.toString(StandardCharsets.UTF_8));
+
+        ByteArrayOutputStream latin1 = new ByteArrayOutputStream();
+        menu.setOutput(new PrintStream(latin1, true, StandardCharsets.ISO_8859_1), StandardCharsets.ISO_8859_1);
+        menu.execute();
+        assertEquals("Menu GAB:" + n + "Relev\u00e9 du solde" + n + "Invalid choice!" + n,
+                latin1.toString(StandardCharsets.ISO_8859_1));
     }
-}
\ No newline at end of file
+}
@@ -1,5 +1,12 @@
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
 
 // Abstract Component - Bank Account Component
 abstract class BankAccountComponent {
@@ -14,6 +21,7 @@ abstract class BankAccountComponent {
     public abstract void deposit(double amount);
     public abstract void changePIN(String oldPIN, String newPIN);
     public abstract String getAccountNumber();
+    public abstract String getPIN();
 }
 
 // Leaf - Checking Account
@@ -62,6 +70,12 @@ class CheckingAccount extends BankAccountComponent {
         return balance;
     }
 
+    @Override
+    public String getAccountNumber() {
+        return accountNumber;
+    }
+
+    @Override
     public String getPIN() {
         return pin;
     }
@@ -69,12 +83,28 @@ class CheckingAccount extends BankAccountComponent {
 
 // Composite - ATM
 class ATM {
-    private Map<String, BankAccountComponent> accounts;
-    private int pinAttempts;
+    static final String DEFAULT_TERMINAL = "ATM-0001";
+    static final int MAX_PIN_ATTEMPTS = 3;
+
+    Map<String, BankAccountComponent> accounts;
+    // Failed PIN attempts per card, so one card's (or one terminal's) failures never lock out another card.
+    // Terminals authenticate concurrently, so both are concurrent and each update is a single atomic step.
+    private ConcurrentHashMap<String, Integer> pinAttempts;
+    private Set<String> retainedCards;
+    private TokenBucketLimiter terminalLimiter;
+    private TokenBucketLimiter cardLimiter;
 
     public ATM() {
+        // A terminal may send 20 requests at once and 5 a second after that; a card 5 at once, then one every 10 s
+        this(new TokenBucketLimiter(5.0, 20), new TokenBucketLimiter(0.1, 5));
+    }
+
+    ATM(TokenBucketLimiter terminalLimiter, TokenBucketLimiter cardLimiter) {
         accounts = new HashMap<>();
-        pinAttempts = 0;
+        pinAttempts = new ConcurrentHashMap<>();
+        retainedCards = ConcurrentHashMap.newKeySet();
+        this.terminalLimiter = terminalLimiter;
+        this.cardLimiter = cardLimiter;
     }
 
     public void addAccount(String accountNumber, String pin, double initialBalance) {
@@ -82,22 +112,55 @@ class ATM {
     }
 
     public void authenticate(String accountNumber, String pin) {
+        authenticate(DEFAULT_TERMINAL, accountNumber, pin);
+    }
+
+    public void authenticate(String terminalId, String accountNumber, String pin) {
+        if (!admit(terminalId, accountNumber)) {
+            return;
+        }
+        if (retainedCards.contains(accountNumber)) {
+            System.out.println("Card retained. Please contact your bank.");
+            return;
+        }
         BankAccountComponent account = accounts.get(accountNumber);
         if (account != null && account.getPIN().equals(pin)) {
             System.out.println("Authentication successful.");
-            pinAttempts = 0; // Reset attempts
-            processTransactions(account);
+            pinAttempts.remove(accountNumber); // Reset attempts
+            processTransactions(terminalId, account);
+        } else if (account == null) {
+            System.out.println("Incorrect card number or PIN.");
         } else {
-            pinAttempts++;
-            if (pinAttempts >= 3) {
+            int attempts = pinAttempts.merge(accountNumber, 1, Integer::sum);
+            if (attempts >= MAX_PIN_ATTEMPTS) {
+                // Retain before clearing the count, so a racing attempt never sees neither
+                retainedCards.add(accountNumber);
+                pinAttempts.remove(accountNumber);
                 System.out.println("Card retained. Too many incorrect PIN attempts.");
             } else {
-                System.out.println("Incorrect PIN. Attempts remaining: " + (3 - pinAttempts));
+                System.out.println("Incorrect PIN. Attempts remaining: " + (MAX_PIN_ATTEMPTS - attempts));
             }
         }
     }
 
-    private void processTransactions(BankAccountComponent account) {
+    public boolean isCardRetained(String accountNumber) {
+        return retainedCards.contains(accountNumber);
+    }
+
+    // Checks the terminal's bucket first, so a flooding terminal is turned away before it can drain a card's
+    boolean admit(String terminalId, String accountNumber) {
+        if (!terminalLimiter.tryAcquire(terminalId)) {
+            System.out.println("Terminal " + terminalId + " is sending too many requests. Please try again later.");
+            return false;
+        }
+        if (!cardLimiter.tryAcquire(accountNumber)) {
+            System.out.println("Too many requests for this card. Please try again later.");
+            return false;
+        }
+        return true;
+    }
+
+    private void processTransactions(String terminalId, BankAccountComponent account) {
         while (true) {
             System.out.println("\nSelect an option:");
             System.out.println("1. Display Balance");
@@ -122,7 +185,9 @@ class ATM {
                     System.out.print("Enter withdrawal amount: ");
                     try {
                         double amount = Double.parseDouble(System.console().readLine());
-                        account.withdraw(amount);
+                        if (admit(terminalId, account.getAccountNumber())) {
+                            account.withdraw(amount);
+                        }
                     } catch (NumberFormatException e) {
                         System.out.println("Invalid amount. Please enter a number.");
                     }
@@ -143,6 +208,10 @@ class ATM {
                     String newPIN = System.console().readLine();
                     System.out.print("Confirm new PIN: ");
                     String confirmPIN = System.console().readLine();
+                    // The old PIN check is a PIN guess too, so it is limited like authenticate
+                    if (!admit(terminalId, account.getAccountNumber())) {
+                        break;
+                    }
                     if (newPIN.equals(confirmPIN)) {
                         account.changePIN(oldPIN, newPIN);
                     } else {
@@ -157,4 +226,106 @@ class ATM {
             }
         }
     }
-}
\ No newline at end of file
+}
+
+// Token buckets keyed by terminal or card, kept as GCRA state: one AtomicLong per key holding the time at which
+// the bucket will be full again. Taking a token is a single compare-and-set, so there is no refill thread and no
+// lock. A key whose bucket has refilled completely carries no information and is evicted by an incremental sweep
+// that examines a few keys per call.
+class TokenBucketLimiter {
+    private static final long EVICTED = Long.MIN_VALUE;
+    private static final int SWEEP_BATCH = 4;
+
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final long sweepIntervalNanos;
+    private final LongSupplier clock;
+    private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final ReentrantLock sweepLock = new ReentrantLock();
+    // Guarded by sweepLock
+    private Iterator<Map.Entry<String, AtomicLong>> sweepCursor;
+    private long nextLapAt;
+
+    // ratePerSecond tokens are added each second, up to burst tokens
+    public TokenBucketLimiter(double ratePerSecond, int burst) {
+        this(ratePerSecond, burst, TimeUnit.SECONDS.toNanos(10), System::nanoTime);
+    }
+
+    TokenBucketLimiter(double ratePerSecond, int burst, long sweepIntervalNanos, LongSupplier clock) {
+        if (!(ratePerSecond > 0) || burst < 1) {
+            throw new IllegalArgumentException("Rate must be positive and burst at least 1");
+        }
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond));
+        this.burstNanos = intervalNanos * burst;
+        this.sweepIntervalNanos = sweepIntervalNanos;
+        this.clock = clock;
+        this.nextLapAt = clock.getAsLong() + sweepIntervalNanos;
+    }
+
+    public boolean tryAcquire(String key) {
+        long now = clock.getAsLong();
+        sweep(now);
+        while (true) {
+            AtomicLong bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+            long fullAt = bucket.get();
+            if (fullAt == EVICTED) {
+                buckets.remove(key, bucket);
+                continue;
+            }
+            // An idle bucket is full; each token pushes the refill time out by one interval
+            long next = Math.max(fullAt, now) + intervalNanos;
+            if (next - now > burstNanos) {
+                return false;
+            }
+            if (bucket.compareAndSet(fullAt, next)) {
+                return true;
+            }
+        }
+    }
+
+    // Tokens key could take right now
+    public long available(String key) {
+        AtomicLong bucket = buckets.get(key);
+        long fullAt = bucket == null ? EVICTED : bucket.get();
+        if (fullAt == EVICTED) {
+            return burstNanos / intervalNanos;
+        }
+        return (burstNanos - Math.max(0, fullAt - clock.getAsLong())) / intervalNanos;
+    }
+
+    public int activeKeys() {
+        return buckets.size();
+    }
+
+    // Examines a few keys per call so idle ones are evicted without a full scan on the hot path. A bucket is only
+    // removed after it is marked, so a concurrent tryAcquire either lands before the mark or sees it and starts over
+    // with a fresh bucket; no token is handed out twice.
+    private void sweep(long now) {
+        if (!sweepLock.tryLock()) {
+            return;
+        }
+        try {
+            for (int i = 0; i < SWEEP_BATCH; i++) {
+                if (sweepCursor == null || !sweepCursor.hasNext()) {
+                    // Starting a lap allocates an iterator, so laps are limited to one per sweep interval
+                    if (now - nextLapAt < 0) {
+                        return;
+                    }
+                    nextLapAt = now + sweepIntervalNanos;
+                    sweepCursor = buckets.entrySet().iterator();
+                    if (!sweepCursor.hasNext()) {
+                        return;
+                    }
+                }
+                Map.Entry<String, AtomicLong> entry = sweepCursor.next();
+                AtomicLong bucket = entry.getValue();
+                long fullAt = bucket.get();
+                if (fullAt != EVICTED && fullAt - now <= 0 && bucket.compareAndSet(fullAt, EVICTED)) {
+                    buckets.remove(entry.getKey(), bucket);
+                }
+            }
+        } finally {
+            sweepLock.unlock();
+        }
+    }
+}
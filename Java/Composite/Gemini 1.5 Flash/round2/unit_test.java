@@ -1,5 +1,10 @@
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class ATMTest {
@@ -106,4 +111,94 @@ class ATMTest {
 
         assertEquals("1234", account.getPIN());
     }
-}
\ No newline at end of file
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void testTokenBucketBurstThenRefill() {
+        long[] now = {0};
+        TokenBucketLimiter limiter = new TokenBucketLimiter(2.0, 3, 60 * SECOND, () -> now[0]);
+        assertTrue(limiter.tryAcquire("ATM-1"));
+        assertTrue(limiter.tryAcquire("ATM-1"));
+        assertTrue(limiter.tryAcquire("ATM-1"));
+        assertFalse(limiter.tryAcquire("ATM-1"));
+        assertTrue(limiter.tryAcquire("ATM-2"));
+
+        now[0] += SECOND / 2;
+        assertEquals(1, limiter.available("ATM-1"));
+        assertTrue(limiter.tryAcquire("ATM-1"));
+        assertFalse(limiter.tryAcquire("ATM-1"));
+        now[0] += 10 * SECOND;
+        assertEquals(3, limiter.available("ATM-1"));
+    }
+
+    @Test
+    void testTokenBucketEvictsIdleKeys() {
+        long[] now = {0};
+        TokenBucketLimiter limiter = new TokenBucketLimiter(1.0, 2, 5 * SECOND, () -> now[0]);
+        for (int i = 0; i < 100; i++) {
+            limiter.tryAcquire("card-" + i);
+        }
+        assertEquals(100, limiter.activeKeys());
+
+        now[0] += 6 * SECOND;
+        assertTrue(limiter.tryAcquire("card-0"));
+        // Each call examines only a few keys
+        assertTrue(limiter.activeKeys() >= 96, "active keys: " + limiter.activeKeys());
+        for (int i = 0; i < 30; i++) {
+            limiter.tryAcquire("card-1");
+        }
+        assertEquals(2, limiter.activeKeys());
+        assertEquals(1, limiter.available("card-0"));
+    }
+
+    @Test
+    void testTokenBucketConcurrentAcquireNeverExceedsBurst() throws InterruptedException {
+        TokenBucketLimiter limiter = new TokenBucketLimiter(1.0, 100, 60 * SECOND, () -> 0L);
+        AtomicInteger granted = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 1_000; i++) {
+                    if (limiter.tryAcquire("ATM-1")) {
+                        granted.incrementAndGet();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(100, granted.get());
+    }
+
+    @Test
+    void testPinAttemptsArePerCard() {
+        ATM atm = new ATM(new TokenBucketLimiter(100.0, 100), new TokenBucketLimiter(100.0, 100));
+        atm.addAccount("1111111111", "1234", 1000);
+        atm.addAccount("2222222222", "1234", 1000);
+
+        atm.authenticate("ATM-1", "1111111111", "0000");
+        atm.authenticate("ATM-1", "1111111111", "0000");
+        atm.authenticate("ATM-1", "2222222222", "0000");
+        atm.authenticate("ATM-1", "1111111111", "0000");
+
+        assertTrue(atm.isCardRetained("1111111111"));
+        assertFalse(atm.isCardRetained("2222222222"));
+    }
+
+    @Test
+    void testFloodingTerminalIsThrottledBeforePinCheck() {
+        ATM atm = new ATM(new TokenBucketLimiter(0.001, 2), new TokenBucketLimiter(100.0, 100));
+        atm.addAccount("1111111111", "1234", 1000);
+
+        for (int i = 0; i < 10; i++) {
+            atm.authenticate("ATM-BAD", "1111111111", "0000");
+        }
+        // Only the two admitted requests reached the PIN check
+        assertFalse(atm.isCardRetained("1111111111"));
+        assertTrue(atm.admit("ATM-GOOD", "1111111111"));
+    }
+}
@@ -1,8 +1,52 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
 
 // Component interface
 interface ATMComponent {
@@ -19,15 +63,21 @@ class AuthenticateComponent implements ATMComponent {
         System.out.println("Enter your PIN:");
         String pin = scanner.nextLine();
 
+        ATMEvent event = ATMEvent.start();
+
         if (context.authenticateUser(cardNumber, pin)) {
             System.out.println("Authentication successful.");
             context.setCurrentUser(cardNumber);
+            ATMEvent.finish(event, "AUTHENTICATE", cardNumber, 0, ATMEvent.SUCCESS);
         } else {
             System.out.println("Incorrect card or PIN. Please try again.");
             context.incrementFailedAttempts();
             if (context.getFailedAttempts() >= 3) {
                 System.out.println("Card retained. Please contact your bank.");
-                context.resetFailedAttempts();
+                context.retainCard(cardNumber);
+                ATMEvent.finish(event, "AUTHENTICATE", cardNumber, 0, ATMEvent.CARD_RETAINED);
+            } else {
+                ATMEvent.finish(event, "AUTHENTICATE", cardNumber, 0, ATMEvent.FAILED);
             }
         }
     }
@@ -36,7 +86,9 @@ class AuthenticateComponent implements ATMComponent {
 class DisplayBalanceComponent implements ATMComponent {
     @Override
     public void process(ATMContext context) {
+        ATMEvent event = ATMEvent.start();
         System.out.println("Your current balance is: " + context.getBalance(context.getCurrentUser()));
+        ATMEvent.finish(event, "BALANCE_INQUIRY", context.getCurrentUser(), 0, ATMEvent.SUCCESS);
     }
 }
 
@@ -47,11 +99,33 @@ class WithdrawCashComponent implements ATMComponent {
         System.out.println("Enter the amount you wish to withdraw:");
         double amount = scanner.nextDouble();
 
+        ATMEvent event = ATMEvent.start();
+
         if (context.getBalance(context.getCurrentUser()) >= amount) {
-            context.withdraw(context.getCurrentUser(), amount);
+            if (!context.getFraudScorer().approve(context.getCurrentUser(), context.getTerminalId(), amount)) {
+                System.out.println("Withdrawal declined. Please contact your bank.");
+                ATMEvent.finish(event, "WITHDRAWAL", context.getCurrentUser(), amount, ATMEvent.DECLINED);
+                return;
+            }
+            // The limit is taken before the debit; a debit that then fails still counts against it
+            if (!context.getWithdrawalLimiter().tryWithdraw(context.getCurrentUser(), amount)) {
+                System.out.println("Withdrawal limit reached. Please try again later.");
+                ATMEvent.finish(event, "WITHDRAWAL", context.getCurrentUser(), amount, ATMEvent.LIMIT_EXCEEDED);
+                return;
+            }
+            try {
+                context.withdraw(context.getCurrentUser(), amount);
+            } catch (UncheckedIOException e) {
+                System.out.println("Withdrawals are unavailable at the moment. Your account has not been charged.");
+                ATMEvent.finish(event, "WITHDRAWAL", context.getCurrentUser(), amount, ATMEvent.FAILED);
+                return;
+            }
+            context.getFraudScorer().record(context.getCurrentUser(), context.getTerminalId(), amount);
             System.out.println("Cash dispensed. Your new balance is: " + context.getBalance(context.getCurrentUser()));
+            ATMEvent.finish(event, "WITHDRAWAL", context.getCurrentUser(), amount, ATMEvent.SUCCESS);
         } else {
             System.out.println("Insufficient funds.");
+            ATMEvent.finish(event, "WITHDRAWAL", context.getCurrentUser(), amount, ATMEvent.INVALID);
         }
     }
 }
@@ -59,12 +133,171 @@ class WithdrawCashComponent implements ATMComponent {
 class DepositCashComponent implements ATMComponent {
     @Override
     public void process(ATMContext context) {
-        Scanner scanner = new Scanner(System.in);
-        System.out.println("Enter the amount you wish to deposit:");
-        double amount = scanner.nextDouble();
+        System.out.println("Please insert your notes.");
+        NoteCounter counter = context.getNoteCounter();
+        counter.reset();
+        counter.count(context.getNoteAcceptor());
 
-        context.deposit(context.getCurrentUser(), amount);
+        ATMEvent event = ATMEvent.start();
+
+        if (counter.getRejectedNotes() > 0) {
+            System.out.println(counter.getRejectedNotes() + " note(s) could not be accepted. Please take them back.");
+        }
+        if (counter.getTotal() == 0) {
+            System.out.println("No notes were accepted.");
+            ATMEvent.finish(event, "DEPOSIT", context.getCurrentUser(), 0, ATMEvent.INVALID);
+            return;
+        }
+        System.out.print(counter.summary());
+        try {
+            context.deposit(context.getCurrentUser(), counter.getTotal());
+        } catch (UncheckedIOException e) {
+            System.out.println("Deposits are unavailable at the moment. Please take your notes back.");
+            ATMEvent.finish(event, "DEPOSIT", context.getCurrentUser(), counter.getTotal(), ATMEvent.FAILED);
+            return;
+        }
         System.out.println("Cash deposited. Your new balance is: " + context.getBalance(context.getCurrentUser()));
+        ATMEvent.finish(event, "DEPOSIT", context.getCurrentUser(), counter.getTotal(), ATMEvent.SUCCESS);
+    }
+}
+
+// Source of notes from the deposit slot; fills the buffer with note values and returns -1 once the bundle is done
+interface NoteAcceptor {
+    int read(int[] buffer);
+}
+
+// Note acceptor stand-in that feeds a fixed bundle of notes in small batches
+class SimulatedNoteAcceptor implements NoteAcceptor {
+    private final int[] notes;
+    private final int batchSize;
+    private int position;
+
+    public SimulatedNoteAcceptor(int... notes) {
+        this(16, notes);
+    }
+
+    public SimulatedNoteAcceptor(int batchSize, int[] notes) {
+        this.notes = notes;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public int read(int[] buffer) {
+        if (position == notes.length) {
+            return -1;
+        }
+        int n = Math.min(Math.min(batchSize, buffer.length), notes.length - position);
+        System.arraycopy(notes, position, buffer, 0, n);
+        position += n;
+        return n;
+    }
+}
+
+// Reads note values typed on one line (e.g. "20 20 50") for use from the console
+class ConsoleNoteAcceptor implements NoteAcceptor {
+    private SimulatedNoteAcceptor bundle;
+
+    @Override
+    public int read(int[] buffer) {
+        if (bundle == null) {
+            Scanner scanner = new Scanner(System.in);
+            System.out.println("Enter the note values separated by spaces:");
+            String[] values = scanner.nextLine().trim().split("\\s+");
+            int[] notes = new int[values.length];
+            for (int i = 0; i < values.length; i++) {
+                try {
+                    notes[i] = Integer.parseInt(values[i]);
+                } catch (NumberFormatException e) {
+                    notes[i] = NoteCounter.UNREADABLE;
+                }
+            }
+            bundle = new SimulatedNoteAcceptor(notes);
+        }
+        int n = bundle.read(buffer);
+        if (n == -1) {
+            bundle = null;
+        }
+        return n;
+    }
+}
+
+// Incremental note counting with primitive per-denomination counters
+class NoteCounter {
+    static final int UNREADABLE = -1;
+    static final int[] DENOMINATIONS = {1, 5, 10, 20, 50, 100};
+    static final int MAX_NOTES_PER_DEPOSIT = 500;
+    private static final int BATCH_SIZE = 64;
+    // Maps a note value to its index in DENOMINATIONS, or -1 for values the machine does not accept
+    private static final int[] INDEX_BY_VALUE = new int[DENOMINATIONS[DENOMINATIONS.length - 1] + 1];
+
+    static {
+        Arrays.fill(INDEX_BY_VALUE, -1);
+        for (int i = 0; i < DENOMINATIONS.length; i++) {
+            INDEX_BY_VALUE[DENOMINATIONS[i]] = i;
+        }
+    }
+
+    private final int[] buffer = new int[BATCH_SIZE];
+    private final int[] counts = new int[DENOMINATIONS.length];
+    private int acceptedNotes;
+    private int rejectedNotes;
+    private long total;
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        acceptedNotes = 0;
+        rejectedNotes = 0;
+        total = 0;
+    }
+
+    // Drains the acceptor batch by batch; notes beyond the per-deposit limit are rejected
+    public void count(NoteAcceptor acceptor) {
+        int n;
+        while ((n = acceptor.read(buffer)) != -1) {
+            for (int i = 0; i < n; i++) {
+                accept(buffer[i]);
+            }
+        }
+    }
+
+    public boolean accept(int note) {
+        int index = note > 0 && note < INDEX_BY_VALUE.length ? INDEX_BY_VALUE[note] : -1;
+        if (index < 0 || acceptedNotes == MAX_NOTES_PER_DEPOSIT) {
+            rejectedNotes++;
+            return false;
+        }
+        counts[index]++;
+        acceptedNotes++;
+        total += note;
+        return true;
+    }
+
+    public int getCount(int denomination) {
+        int index = denomination > 0 && denomination < INDEX_BY_VALUE.length ? INDEX_BY_VALUE[denomination] : -1;
+        return index < 0 ? 0 : counts[index];
+    }
+
+    public int getAcceptedNotes() {
+        return acceptedNotes;
+    }
+
+    public int getRejectedNotes() {
+        return rejectedNotes;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public String summary() {
+        StringBuilder summary = new StringBuilder();
+        for (int i = DENOMINATIONS.length - 1; i >= 0; i--) {
+            if (counts[i] > 0) {
+                summary.append(counts[i]).append(" x ").append(DENOMINATIONS[i]).append(System.lineSeparator());
+            }
+        }
+        summary.append("Total counted: ").append(total).append(System.lineSeparator());
+        return summary.toString();
     }
 }
 
@@ -79,11 +312,21 @@ class ChangePINComponent implements ATMComponent {
         System.out.println("Confirm your new PIN:");
         String confirmPIN = scanner.nextLine();
 
+        ATMEvent event = ATMEvent.start();
+
         if (newPIN.equals(confirmPIN) && context.authenticateUser(context.getCurrentUser(), oldPIN)) {
-            context.changePIN(context.getCurrentUser(), newPIN);
+            try {
+                context.changePIN(context.getCurrentUser(), newPIN);
+            } catch (UncheckedIOException e) {
+                System.out.println("PIN changes are unavailable at the moment. Your PIN has not been changed.");
+                ATMEvent.finish(event, "PIN_CHANGE", context.getCurrentUser(), 0, ATMEvent.FAILED);
+                return;
+            }
             System.out.println("PIN changed successfully.");
+            ATMEvent.finish(event, "PIN_CHANGE", context.getCurrentUser(), 0, ATMEvent.SUCCESS);
         } else {
             System.out.println("Incorrect old PIN or new PIN mismatch.");
+            ATMEvent.finish(event, "PIN_CHANGE", context.getCurrentUser(), 0, ATMEvent.FAILED);
         }
     }
 }
@@ -95,6 +338,8 @@ class PrintReceiptComponent implements ATMComponent {
         System.out.println("Do you want to print a receipt? (y/n)");
         String choice = scanner.nextLine();
 
+        ATMEvent event = ATMEvent.start();
+
         if (choice.equalsIgnoreCase("y")) {
             LocalDateTime now = LocalDateTime.now();
             DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
@@ -110,38 +355,333 @@ class PrintReceiptComponent implements ATMComponent {
             System.out.println("====================");
 
             // Implement logic to print receipt here (e.g., using a printer library)
+            ATMEvent.finish(event, "RECEIPT", context.getCurrentUser(), context.getTransactionAmount(),
+                    ATMEvent.SUCCESS);
+        } else {
+            ATMEvent.finish(event, "RECEIPT", context.getCurrentUser(), context.getTransactionAmount(),
+                    ATMEvent.DECLINED);
+        }
+    }
+}
+
+// Shows the last few transactions, or those of the last few days, for the current user
+class MiniStatementComponent implements ATMComponent {
+    static final int DEFAULT_COUNT = 10;
+    static final int MAX_DAYS = 366;
+    private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    @Override
+    public void process(ATMContext context) {
+        Scanner scanner = new Scanner(System.in);
+        int days;
+        while (true) {
+            System.out.println("Enter the number of days to show (or press Enter for the last " + DEFAULT_COUNT
+                    + " transactions):");
+            String line = scanner.nextLine().trim();
+            days = line.isEmpty() ? 0 : parseDays(line);
+            if (days >= 0) {
+                break;
+            }
+            System.out.println("Please enter a whole number of days from 1 to " + MAX_DAYS + ".");
+        }
+        ATMEvent event = ATMEvent.start();
+        Instant now = Instant.now();
+        System.out.print(days == 0
+                ? statement(context, DEFAULT_COUNT)
+                : statement(context, now.minusSeconds(days * 86_400L), now));
+        ATMEvent.finish(event, "MINI_STATEMENT", context.getCurrentUser(), 0, ATMEvent.SUCCESS);
+    }
+
+    // Days in 1..MAX_DAYS, or -1 for anything else
+    static int parseDays(String text) {
+        if (text.isEmpty() || text.length() > 3 || !text.chars().allMatch(c -> c >= '0' && c <= '9')) {
+            return -1;
+        }
+        int days = Integer.parseInt(text);
+        return days >= 1 && days <= MAX_DAYS ? days : -1;
+    }
+
+    public String statement(ATMContext context, int count) {
+        StringBuilder text = new StringBuilder();
+        AccountHistory history = context.getHistory(context.getCurrentUser());
+        int shown = history == null ? 0 : history.last(count, (time, type, amount, balance) ->
+                appendLine(text, time, type, amount, balance));
+        return finish(text, shown);
+    }
+
+    // Transactions with from <= time < to
+    public String statement(ATMContext context, Instant from, Instant to) {
+        StringBuilder text = new StringBuilder();
+        AccountHistory history = context.getHistory(context.getCurrentUser());
+        int shown = history == null ? 0 : history.between(from.toEpochMilli(), to.toEpochMilli(),
+                (time, type, amount, balance) -> appendLine(text, time, type, amount, balance));
+        return finish(text, shown);
+    }
+
+    private static void appendLine(StringBuilder text, long time, byte type, double amount, double balance) {
+        DATE.formatTo(LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault()), text);
+        text.append(String.format("  %-10s %10.2f %10.2f%n", type == AccountHistory.WITHDRAWAL ? "Withdrawal"
+                : "Deposit", type == AccountHistory.WITHDRAWAL ? -amount : amount, balance));
+    }
+
+    private static String finish(StringBuilder text, int shown) {
+        return shown == 0 ? "No transactions to show." + System.lineSeparator() : text.toString();
+    }
+}
+
+// Flight Recorder event for one ATM component run; off unless a recording enables it, cards only as keyed hashes
+@Name("atm.Operation")
+@Label("ATM Operation")
+@Category("ATM")
+@Description("One authentication, component run or receipt, with its outcome")
+@StackTrace(false)
+class ATMEvent extends Event {
+    static final String SUCCESS = "SUCCESS";
+    static final String DECLINED = "DECLINED";
+    static final String LIMIT_EXCEEDED = "LIMIT_EXCEEDED";
+    static final String INVALID = "INVALID";
+    static final String FAILED = "FAILED";
+    static final String CARD_RETAINED = "CARD_RETAINED";
+
+    private static final EventType TYPE = EventType.getEventType(ATMEvent.class);
+    private static final byte[] HASH_KEY = new byte[32];
+    private static final ThreadLocal<Mac> HMAC = ThreadLocal.withInitial(() -> {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(HASH_KEY, "HmacSHA256"));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 unavailable", e);
+        }
+    });
+
+    static {
+        new SecureRandom().nextBytes(HASH_KEY);
+    }
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Card Hash")
+    long cardHash;
+
+    @Label("Amount Bucket")
+    String amountBucket;
+
+    @Label("Outcome")
+    String outcome;
+
+    static ATMEvent start() {
+        if (!TYPE.isEnabled()) {
+            return null;
+        }
+        ATMEvent event = new ATMEvent();
+        event.begin();
+        return event;
+    }
+
+    static void finish(ATMEvent event, String operation, String cardNumber, double amount, String outcome) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.cardHash = cardHash(cardNumber);
+            event.amountBucket = amountBucket(amount);
+            event.outcome = outcome;
+            event.commit();
+        }
+    }
+
+    static long cardHash(String cardNumber) {
+        if (cardNumber == null) {
+            return 0L;
+        }
+        byte[] mac = HMAC.get().doFinal(cardNumber.getBytes(StandardCharsets.US_ASCII));
+        return ByteBuffer.wrap(mac, 0, Long.BYTES).getLong();
+    }
+
+    // Coarse buckets keep amounts out of the recording while still separating small and large transactions
+    static String amountBucket(double amount) {
+        if (!(amount > 0)) {
+            return "NONE";
+        } else if (amount < 20) {
+            return "UNDER_20";
+        } else if (amount < 100) {
+            return "UNDER_100";
+        } else if (amount < 500) {
+            return "UNDER_500";
+        } else if (amount < 1000) {
+            return "UNDER_1000";
+        }
+        return "1000_AND_OVER";
+    }
+}
+
+// Time-ordered transactions of one account in primitive columns; lookups are a binary search plus the entries
+// returned
+class AccountHistory {
+    static final byte WITHDRAWAL = 1;
+    static final byte DEPOSIT = 2;
+
+    interface EntryVisitor {
+        void entry(long epochMillis, byte type, double amount, double balance);
+    }
+
+    private long[] timestamps = new long[16];
+    private byte[] types = new byte[16];
+    private double[] amounts = new double[16];
+    private double[] balances = new double[16];
+    private int size;
+
+    // Timestamps never go backwards, so the columns stay sorted for binary search
+    public synchronized void append(long epochMillis, byte type, double amount, double balance) {
+        if (size == timestamps.length) {
+            int grown = size * 2;
+            timestamps = Arrays.copyOf(timestamps, grown);
+            types = Arrays.copyOf(types, grown);
+            amounts = Arrays.copyOf(amounts, grown);
+            balances = Arrays.copyOf(balances, grown);
+        }
+        timestamps[size] = size > 0 ? Math.max(epochMillis, timestamps[size - 1]) : epochMillis;
+        types[size] = type;
+        amounts[size] = amount;
+        balances[size] = balance;
+        size++;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    // Visits the newest n entries, oldest first
+    public synchronized int last(int n, EntryVisitor visitor) {
+        return visit(Math.max(0, size - n), size, visitor);
+    }
+
+    // Visits entries with from <= time < to, oldest first
+    public synchronized int between(long fromMillis, long toMillis, EntryVisitor visitor) {
+        return visit(firstAtOrAfter(fromMillis), firstAtOrAfter(toMillis), visitor);
+    }
+
+    private int firstAtOrAfter(long epochMillis) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[mid] < epochMillis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
         }
+        return low;
+    }
+
+    private int visit(int from, int to, EntryVisitor visitor) {
+        for (int i = from; i < to; i++) {
+            visitor.entry(timestamps[i], types[i], amounts[i], balances[i]);
+        }
+        return Math.max(0, to - from);
+    }
+}
+
+// Pre-rendered menu screen, encoded once and written as-is on every pass
+final class MenuScreen {
+    private final String text;
+    private final byte[] encoded;
+
+    MenuScreen(String text) {
+        this.text = text;
+        this.encoded = text.getBytes(Charset.defaultCharset());
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public void writeTo(PrintStream out) {
+        out.write(encoded, 0, encoded.length);
+        out.flush();
     }
 }
 
 // Composite component
 class ATMMenuComponent implements ATMComponent {
-    private Map<String, ATMComponent> menuItems = new HashMap<>();
+    static final int EXIT_CODE = 0;
+    private static final int MAX_CODE = 9;
+
+    // Menu items indexed by their single-digit choice code
+    private final ATMComponent[] menuItems = new ATMComponent[MAX_CODE + 1];
+    private final String[] labels = new String[MAX_CODE + 1];
+    private final Map<Locale, Map<String, String>> translations = new HashMap<>();
+    private final Map<Locale, MenuScreen> screens = new ConcurrentHashMap<>();
 
     public ATMMenuComponent() {
         // Add menu items
-        menuItems.put("1", new DisplayBalanceComponent());
-        menuItems.put("2", new WithdrawCashComponent());
-        menuItems.put("3", new DepositCashComponent());
-        menuItems.put("4", new ChangePINComponent());
-        menuItems.put("5", new PrintReceiptComponent());
+        register(1, "Display Balance", new DisplayBalanceComponent());
+        register(2, "Withdraw Cash", new WithdrawCashComponent());
+        register(3, "Deposit Cash", new DepositCashComponent());
+        register(4, "Change PIN", new ChangePINComponent());
+        register(5, "Print Receipt", new PrintReceiptComponent());
+        register(6, "Mini Statement", new MiniStatementComponent());
+    }
+
+    public void register(int code, String label, ATMComponent component) {
+        if (code <= EXIT_CODE || code > MAX_CODE || menuItems[code] != null) {
+            throw new IllegalArgumentException("Menu code unavailable: " + code);
+        }
+        menuItems[code] = component;
+        labels[code] = label;
+        screens.clear();
+    }
+
+    // Text shown instead of the English label on terminals using the given locale
+    public void addTranslation(Locale locale, String label, String translated) {
+        translations.computeIfAbsent(locale, k -> new HashMap<>()).put(label, translated);
+        screens.remove(locale);
+    }
+
+    // Rendered once per locale; register and addTranslation drop the cached copies
+    public MenuScreen getScreen(Locale locale) {
+        return screens.computeIfAbsent(locale, this::render);
+    }
+
+    private MenuScreen render(Locale locale) {
+        Map<String, String> text = translations.getOrDefault(locale, Map.of());
+        StringBuilder screen = new StringBuilder();
+        screen.append(text.getOrDefault("ATM Menu", "ATM Menu")).append(':').append(System.lineSeparator());
+        for (int code = 1; code <= MAX_CODE; code++) {
+            if (menuItems[code] != null) {
+                screen.append(code).append(". ").append(text.getOrDefault(labels[code], labels[code]))
+                        .append(System.lineSeparator());
+            }
+        }
+        screen.append(EXIT_CODE).append(". ").append(text.getOrDefault("Exit", "Exit")).append(System.lineSeparator());
+        screen.append(text.getOrDefault("Enter your choice", "Enter your choice")).append(':')
+                .append(System.lineSeparator());
+        return new MenuScreen(screen.toString());
+    }
+
+    // Returns the item for a choice such as "2", or null if the choice is not a registered code
+    ATMComponent resolve(String choice) {
+        if (choice.length() != 1) {
+            return null;
+        }
+        int code = choice.charAt(0) - '0';
+        return code > EXIT_CODE && code <= MAX_CODE ? menuItems[code] : null;
     }
 
     @Override
     public void process(ATMContext context) {
         Scanner scanner = new Scanner(System.in);
-        System.out.println("ATM Menu:");
-        System.out.println("1. Display Balance");
-        System.out.println("2. Withdraw Cash");
-        System.out.println("3. Deposit Cash");
-        System.out.println("4. Change PIN");
-        System.out.println("5. Print Receipt");
-        System.out.println("0. Exit");
-        System.out.println("Enter your choice:");
+        getScreen(context.getLocale()).writeTo(System.out);
         String choice = scanner.nextLine();
 
-        if (menuItems.containsKey(choice)) {
-            menuItems.get(choice).process(context);
+        ATMComponent item = resolve(choice);
+        if (item != null) {
+            item.process(context);
         } else if (choice.equals("0")) {
             System.out.println("Exiting ATM.");
         } else {
@@ -158,6 +698,15 @@ class ATMContext {
     private int failedAttempts;
     private String transactionType;
     private double transactionAmount;
+    private String terminalId = "ATM-0001";
+    private Locale locale = Locale.ENGLISH;
+    private NoteAcceptor noteAcceptor = new ConsoleNoteAcceptor();
+    private final NoteCounter noteCounter = new NoteCounter();
+    private WithdrawalLimiter withdrawalLimiter = new WithdrawalLimiter();
+    private FraudScorer fraudScorer = new FraudScorer();
+    private AuditLog auditLog = new AuditLog();
+    private final Map<String, AccountHistory> histories = new HashMap<>();
+    private LongSupplier clock = System::currentTimeMillis;
 
     public ATMContext() {
         // Initialize accounts and PINs
@@ -182,22 +731,50 @@ class ATMContext {
         return accounts.getOrDefault(cardNumber, 0.0);
     }
 
+    // The audit event is appended before the balance changes, so a log that cannot take it (UncheckedIOException)
+    // leaves the account untouched
     public void withdraw(String cardNumber, double amount) {
+        double balance = accounts.get(cardNumber) - amount;
+        auditLog.append(AuditEvent.Type.WITHDRAWAL, cardNumber, amount, balance);
         transactionType = "Withdrawal";
         transactionAmount = amount;
-        accounts.put(cardNumber, accounts.get(cardNumber) - amount);
+        accounts.put(cardNumber, balance);
+        recordHistory(cardNumber, AccountHistory.WITHDRAWAL, amount);
     }
 
     public void deposit(String cardNumber, double amount) {
+        double balance = accounts.get(cardNumber) + amount;
+        auditLog.append(AuditEvent.Type.DEPOSIT, cardNumber, amount, balance);
         transactionType = "Deposit";
         transactionAmount = amount;
-        accounts.put(cardNumber, accounts.get(cardNumber) + amount);
+        accounts.put(cardNumber, balance);
+        recordHistory(cardNumber, AccountHistory.DEPOSIT, amount);
+    }
+
+    private void recordHistory(String cardNumber, byte type, double amount) {
+        histories.computeIfAbsent(cardNumber, k -> new AccountHistory())
+                .append(clock.getAsLong(), type, amount, accounts.get(cardNumber));
+    }
+
+    // Null if the card has no recorded transactions
+    public AccountHistory getHistory(String cardNumber) {
+        return histories.get(cardNumber);
+    }
+
+    void setClock(LongSupplier clock) {
+        this.clock = clock;
     }
 
     public void changePIN(String cardNumber, String newPIN) {
+        auditLog.append(AuditEvent.Type.PIN_CHANGE, cardNumber, 0, getBalance(cardNumber));
         pins.put(cardNumber, newPIN);
     }
 
+    public void retainCard(String cardNumber) {
+        resetFailedAttempts();
+        auditLog.append(AuditEvent.Type.CARD_RETAINED, cardNumber, 0, getBalance(cardNumber));
+    }
+
     public int getFailedAttempts() {
         return failedAttempts;
     }
@@ -217,20 +794,953 @@ class ATMContext {
     public double getTransactionAmount() {
         return transactionAmount;
     }
+
+    public String getTerminalId() {
+        return terminalId;
+    }
+
+    public NoteAcceptor getNoteAcceptor() {
+        return noteAcceptor;
+    }
+
+    public void setNoteAcceptor(NoteAcceptor noteAcceptor) {
+        this.noteAcceptor = noteAcceptor;
+    }
+
+    public NoteCounter getNoteCounter() {
+        return noteCounter;
+    }
+
+    public Locale getLocale() {
+        return locale;
+    }
+
+    public void setLocale(Locale locale) {
+        this.locale = locale;
+    }
+
+    public WithdrawalLimiter getWithdrawalLimiter() {
+        return withdrawalLimiter;
+    }
+
+    public void setWithdrawalLimiter(WithdrawalLimiter withdrawalLimiter) {
+        this.withdrawalLimiter = withdrawalLimiter;
+    }
+
+    public FraudScorer getFraudScorer() {
+        return fraudScorer;
+    }
+
+    public void setFraudScorer(FraudScorer fraudScorer) {
+        this.fraudScorer = fraudScorer;
+    }
+
+    public AuditLog getAuditLog() {
+        return auditLog;
+    }
+
+    public void setAuditLog(AuditLog auditLog) {
+        this.auditLog = auditLog;
+    }
+}
+
+// One entry of the audit trail
+final class AuditEvent {
+    enum Type { WITHDRAWAL, DEPOSIT, PIN_CHANGE, CARD_RETAINED }
+
+    private final Type type;
+    private final long timestamp;
+    private final String cardNumber;
+    private final double amount;
+    private final double balance;
+
+    AuditEvent(Type type, long timestamp, String cardNumber, double amount, double balance) {
+        this.type = type;
+        this.timestamp = timestamp;
+        this.cardNumber = cardNumber;
+        this.amount = amount;
+        this.balance = balance;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getCardNumber() {
+        return cardNumber;
+    }
+
+    public double getAmount() {
+        return amount;
+    }
+
+    public double getBalance() {
+        return balance;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeByte(type.ordinal());
+        out.writeLong(timestamp);
+        out.writeUTF(cardNumber);
+        out.writeDouble(amount);
+        out.writeDouble(balance);
+    }
+
+    static AuditEvent readFrom(DataInputStream in) throws IOException {
+        return new AuditEvent(Type.values()[in.readByte()], in.readLong(), in.readUTF(), in.readDouble(),
+                in.readDouble());
+    }
+}
+
+// Append-only audit log stored as compressed blocks of events. A background writer fills and seals the blocks,
+// and a sparse in-memory index (time range plus a card filter per block) lets queries skip blocks that cannot match.
+// Each stored block starts with a header carrying its index entry, so reopening a log file rebuilds the index.
+class AuditLog implements AutoCloseable {
+    enum Compression {
+        NONE(Deflater.NO_COMPRESSION), FAST(Deflater.BEST_SPEED), SMALL(Deflater.BEST_COMPRESSION);
+
+        private final int level;
+
+        Compression(int level) {
+            this.level = level;
+        }
+    }
+
+    static final int DEFAULT_BLOCK_EVENTS = 256;
+    private static final int QUEUE_CAPACITY = 8192;
+    private static final int CARD_FILTER_WORDS = 16;
+    private static final int BLOCK_MAGIC = 0x41554431;
+    // Header layout: magic, compressed length, raw length, event count, first time, last time, CRC32, card filter
+    private static final int HEADER_BYTES = 4 * Integer.BYTES + 2 * Long.BYTES + Integer.BYTES
+            + CARD_FILTER_WORDS * Long.BYTES;
+
+    // Index entry for one sealed block; offset points at the compressed events just past the header
+    private static final class Block {
+        final long offset;
+        final int compressedLength;
+        final int rawLength;
+        final int events;
+        final long firstTime;
+        final long lastTime;
+        final int checksum;
+        final long[] cardFilter;
+
+        Block(long offset, int compressedLength, int rawLength, int events, long firstTime, long lastTime,
+              int checksum, long[] cardFilter) {
+            this.offset = offset;
+            this.compressedLength = compressedLength;
+            this.rawLength = rawLength;
+            this.events = events;
+            this.firstTime = firstTime;
+            this.lastTime = lastTime;
+            this.checksum = checksum;
+            this.cardFilter = cardFilter;
+        }
+
+        boolean mayContain(String cardNumber) {
+            return cardNumber == null || AuditLog.mayContain(cardFilter, cardNumber);
+        }
+    }
+
+    // Where sealed blocks end up: memory or an append-only file. An append either lands whole or leaves the
+    // store's size unchanged, so a failed block can be retried at the same offset.
+    interface BlockStore {
+        long append(byte[] data, int length) throws IOException;
+
+        byte[] read(long offset, int length) throws IOException;
+
+        long size() throws IOException;
+
+        // Drops a torn tail found when the log is reopened
+        void truncate(long size) throws IOException;
+
+        void close() throws IOException;
+    }
+
+    private static final class MemoryBlockStore implements BlockStore {
+        private byte[] data = new byte[4096];
+        private int size;
+
+        @Override
+        public synchronized long append(byte[] bytes, int length) {
+            if (size + length > data.length) {
+                data = Arrays.copyOf(data, Math.max(size + length, data.length * 2));
+            }
+            System.arraycopy(bytes, 0, data, size, length);
+            long offset = size;
+            size += length;
+            return offset;
+        }
+
+        @Override
+        public synchronized byte[] read(long offset, int length) {
+            return Arrays.copyOfRange(data, (int) offset, (int) offset + length);
+        }
+
+        @Override
+        public synchronized long size() {
+            return size;
+        }
+
+        @Override
+        public synchronized void truncate(long size) {
+            this.size = (int) size;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class FileBlockStore implements BlockStore {
+        private final FileChannel channel;
+        // End of the last block that was completely written and forced; only the writer thread moves it
+        private long end;
+
+        FileBlockStore(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.READ);
+            end = channel.size();
+        }
+
+        @Override
+        public long append(byte[] bytes, int length) throws IOException {
+            long offset = end;
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, offset + buffer.position());
+            }
+            channel.force(false);
+            end = offset + length;
+            return offset;
+        }
+
+        @Override
+        public byte[] read(long offset, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new IOException("Audit block truncated at " + offset);
+                }
+            }
+            return buffer.array();
+        }
+
+        @Override
+        public long size() {
+            return end;
+        }
+
+        @Override
+        public void truncate(long size) throws IOException {
+            channel.truncate(size);
+            channel.force(false);
+            end = size;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private final BlockStore store;
+    private final int blockEvents;
+    private final LongSupplier clock;
+    private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final List<Block> index = new CopyOnWriteArrayList<>();
+    private final Deflater deflater;
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private final DataOutputStream pendingOut = new DataOutputStream(pending);
+    private byte[] compressed = new byte[HEADER_BYTES + 4096];
+    private long[] pendingFilter = new long[CARD_FILTER_WORDS];
+    private int pendingEvents;
+    private long pendingFirstTime = Long.MAX_VALUE;
+    private long pendingLastTime = Long.MIN_VALUE;
+    private Thread writer;
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    // In-memory log
+    public AuditLog() {
+        this(new MemoryBlockStore(), Compression.FAST, DEFAULT_BLOCK_EVENTS, System::currentTimeMillis);
+    }
+
+    public AuditLog(Path file, Compression compression, int blockEvents) throws IOException {
+        this(new FileBlockStore(file), compression, blockEvents, System::currentTimeMillis);
+        recover();
+    }
+
+    AuditLog(Compression compression, int blockEvents, LongSupplier clock) {
+        this(new MemoryBlockStore(), compression, blockEvents, clock);
+    }
+
+    AuditLog(BlockStore store, int blockEvents) throws IOException {
+        this(store, Compression.FAST, blockEvents, System::currentTimeMillis);
+        recover();
+    }
+
+    private AuditLog(BlockStore store, Compression compression, int blockEvents, LongSupplier clock) {
+        if (blockEvents <= 0) {
+            throw new IllegalArgumentException("Block size must be positive");
+        }
+        this.store = store;
+        this.blockEvents = blockEvents;
+        this.clock = clock;
+        this.deflater = new Deflater(compression.level);
+    }
+
+    public void append(AuditEvent.Type type, String cardNumber, double amount, double balance) {
+        append(new AuditEvent(type, clock.getAsLong(), cardNumber, amount, balance));
+    }
+
+    // Hands the event to the writer thread; blocks only if the writer has fallen a full queue behind.
+    // Fails while the last block could not be stored; flush() retries it.
+    public void append(AuditEvent event) {
+        if (closed) {
+            throw new IllegalStateException("Audit log is closed");
+        }
+        IOException error = failure;
+        if (error != null) {
+            throw new UncheckedIOException("Audit log could not store a block", error);
+        }
+        startWriter();
+        try {
+            queue.put(event);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while appending to the audit log", e);
+        }
+    }
+
+    // Waits until every event appended so far is in a sealed, queryable block
+    public void flush() {
+        if (writer == null) {
+            return;
+        }
+        CompletableFuture<Void> sealed = new CompletableFuture<>();
+        try {
+            queue.put(sealed);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while flushing the audit log", e);
+        }
+        sealed.join();
+        if (failure != null) {
+            throw new UncheckedIOException(failure);
+        }
+    }
+
+    // Events with from <= timestamp < to, optionally for one card; only blocks the index cannot rule out are read
+    public List<AuditEvent> query(long from, long to, String cardNumber) {
+        List<AuditEvent> result = new ArrayList<>();
+        for (Block block : index) {
+            if (block.lastTime < from || block.firstTime >= to || !block.mayContain(cardNumber)) {
+                continue;
+            }
+            for (AuditEvent event : readBlock(block)) {
+                if (event.getTimestamp() >= from && event.getTimestamp() < to
+                        && (cardNumber == null || cardNumber.equals(event.getCardNumber()))) {
+                    result.add(event);
+                }
+            }
+        }
+        return result;
+    }
+
+    public int blockCount() {
+        return index.size();
+    }
+
+    // Number of blocks a query over the given range and card would have to decompress
+    int blocksScanned(long from, long to, String cardNumber) {
+        int count = 0;
+        for (Block block : index) {
+            if (block.lastTime >= from && block.firstTime < to && block.mayContain(cardNumber)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Events still pending when the final block cannot be stored are reported here rather than dropped silently
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        IOException error = null;
+        try {
+            flush();
+        } catch (UncheckedIOException e) {
+            error = e.getCause();
+        }
+        closed = true;
+        if (writer != null) {
+            writer.interrupt();
+        }
+        try {
+            store.close();
+        } finally {
+            deflater.end();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    // Rebuilds the index from the block headers; a torn block at the end of the file is cut off
+    private void recover() throws IOException {
+        long end = store.size();
+        long offset = 0;
+        Block last = null;
+        while (offset + HEADER_BYTES <= end) {
+            ByteBuffer header = ByteBuffer.wrap(store.read(offset, HEADER_BYTES));
+            if (header.getInt() != BLOCK_MAGIC) {
+                break;
+            }
+            int compressedLength = header.getInt();
+            int rawLength = header.getInt();
+            int events = header.getInt();
+            long firstTime = header.getLong();
+            long lastTime = header.getLong();
+            int checksum = header.getInt();
+            long[] filter = new long[CARD_FILTER_WORDS];
+            header.asLongBuffer().get(filter);
+            long payload = offset + HEADER_BYTES;
+            if (compressedLength < 0 || rawLength < 0 || events <= 0 || compressedLength > end - payload) {
+                break;
+            }
+            if (last != null) {
+                index.add(last);
+            }
+            last = new Block(payload, compressedLength, rawLength, events, firstTime, lastTime, checksum, filter);
+            offset = payload + compressedLength;
+        }
+        // Only the final block can be half-written, so it is the only one whose payload is checked up front
+        if (last != null) {
+            if (checksum(store.read(last.offset, last.compressedLength), 0, last.compressedLength)
+                    == last.checksum) {
+                index.add(last);
+            } else {
+                offset = last.offset - HEADER_BYTES;
+            }
+        }
+        if (offset < end) {
+            store.truncate(offset);
+        }
+    }
+
+    private synchronized void startWriter() {
+        if (writer == null) {
+            writer = new Thread(this::drain, "audit-log-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    private void drain() {
+        List<Object> batch = new ArrayList<>();
+        try {
+            while (!closed) {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                for (Object item : batch) {
+                    if (item instanceof AuditEvent) {
+                        add((AuditEvent) item);
+                    } else {
+                        seal();
+                        ((CompletableFuture<?>) item).complete(null);
+                    }
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+
+    private void add(AuditEvent event) {
+        try {
+            event.writeTo(pendingOut);
+        } catch (IOException e) {
+            failure = e;
+            return;
+        }
+        pendingFirstTime = Math.min(pendingFirstTime, event.getTimestamp());
+        pendingLastTime = Math.max(pendingLastTime, event.getTimestamp());
+        addToFilter(pendingFilter, event.getCardNumber());
+        if (++pendingEvents % blockEvents == 0) {
+            seal();
+        }
+    }
+
+    private void seal() {
+        if (pendingEvents == 0) {
+            return;
+        }
+        byte[] raw = pending.toByteArray();
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        int end = HEADER_BYTES;
+        while (!deflater.finished()) {
+            if (end == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            end += deflater.deflate(compressed, end, compressed.length - end);
+        }
+        int length = end - HEADER_BYTES;
+        int checksum = checksum(compressed, HEADER_BYTES, length);
+        ByteBuffer header = ByteBuffer.wrap(compressed, 0, HEADER_BYTES);
+        header.putInt(BLOCK_MAGIC).putInt(length).putInt(raw.length).putInt(pendingEvents)
+                .putLong(pendingFirstTime).putLong(pendingLastTime).putInt(checksum);
+        header.asLongBuffer().put(pendingFilter);
+        try {
+            long offset = store.append(compressed, end);
+            index.add(new Block(offset + HEADER_BYTES, length, raw.length, pendingEvents, pendingFirstTime,
+                    pendingLastTime, checksum, pendingFilter));
+            failure = null;
+        } catch (IOException e) {
+            // The events stay pending so the next seal retries the whole block
+            failure = e;
+            return;
+        }
+        pending.reset();
+        pendingFilter = new long[CARD_FILTER_WORDS];
+        pendingEvents = 0;
+        pendingFirstTime = Long.MAX_VALUE;
+        pendingLastTime = Long.MIN_VALUE;
+    }
+
+    private List<AuditEvent> readBlock(Block block) {
+        Inflater inflater = new Inflater();
+        try {
+            byte[] raw = new byte[block.rawLength];
+            byte[] data = store.read(block.offset, block.compressedLength);
+            if (checksum(data, 0, data.length) != block.checksum) {
+                throw new IllegalStateException("Corrupt audit block at " + block.offset);
+            }
+            inflater.setInput(data);
+            inflater.inflate(raw);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(raw));
+            List<AuditEvent> events = new ArrayList<>(block.events);
+            for (int i = 0; i < block.events; i++) {
+                events.add(AuditEvent.readFrom(in));
+            }
+            return events;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt audit block at " + block.offset, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static int checksum(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+
+    // Two-probe Bloom filter over card numbers; false positives only cost an extra block read
+    private static void addToFilter(long[] filter, String cardNumber) {
+        int hash = cardNumber.hashCode();
+        int bits = filter.length * 64;
+        int first = Math.floorMod(hash, bits);
+        int second = Math.floorMod(hash * 0x9E3779B9 >>> 7, bits);
+        filter[first >>> 6] |= 1L << first;
+        filter[second >>> 6] |= 1L << second;
+    }
+
+    private static boolean mayContain(long[] filter, String cardNumber) {
+        int hash = cardNumber.hashCode();
+        int bits = filter.length * 64;
+        int first = Math.floorMod(hash, bits);
+        int second = Math.floorMod(hash * 0x9E3779B9 >>> 7, bits);
+        return (filter[first >>> 6] & 1L << first) != 0 && (filter[second >>> 6] & 1L << second) != 0;
+    }
+}
+
+// Per-card rolling withdrawal limits kept in bucketed ring counters
+class WithdrawalLimiter {
+    static final double DEFAULT_AMOUNT_LIMIT = 1000.0;
+    static final int DEFAULT_COUNT_LIMIT = 10;
+    private static final int BUCKETS = 24;
+    private static final int SWEEP_BATCH = 4;
+
+    // Ring of time buckets covering one window; totals are kept incrementally
+    private static final class CardWindow {
+        final long[] bucketStart = new long[BUCKETS];
+        final long[] bucketCents = new long[BUCKETS];
+        final int[] bucketCount = new int[BUCKETS];
+        long totalCents;
+        int totalCount;
+        long lastActivity;
+        boolean evicted;
+    }
+
+    private final ConcurrentHashMap<String, CardWindow> windows = new ConcurrentHashMap<>();
+    private final ReentrantLock sweepLock = new ReentrantLock();
+    private Iterator<String> sweepCursor;
+    private long nextLapAt;
+    private final long amountLimitCents;
+    private final int countLimit;
+    private final long windowMillis;
+    private final long bucketMillis;
+    private final LongSupplier clock;
+
+    public WithdrawalLimiter() {
+        this(DEFAULT_AMOUNT_LIMIT, DEFAULT_COUNT_LIMIT, 24, TimeUnit.HOURS);
+    }
+
+    public WithdrawalLimiter(double amountLimit, int countLimit, long window, TimeUnit unit) {
+        this(amountLimit, countLimit, window, unit, System::currentTimeMillis);
+    }
+
+    WithdrawalLimiter(double amountLimit, int countLimit, long window, TimeUnit unit, LongSupplier clock) {
+        long millis = unit.toMillis(window);
+        if (amountLimit <= 0 || countLimit <= 0 || millis < BUCKETS) {
+            throw new IllegalArgumentException("Invalid withdrawal limit configuration.");
+        }
+        this.amountLimitCents = Math.round(amountLimit * 100);
+        this.countLimit = countLimit;
+        this.bucketMillis = millis / BUCKETS;
+        this.windowMillis = bucketMillis * BUCKETS;
+        this.clock = clock;
+    }
+
+    // Atomically checks the rolling limits for the card and records the withdrawal if allowed
+    public boolean tryWithdraw(String cardNumber, double amount) {
+        long cents = Math.round(amount * 100);
+        long now = clock.getAsLong();
+        sweep(now);
+        while (true) {
+            CardWindow window = windows.computeIfAbsent(cardNumber, k -> new CardWindow());
+            synchronized (window) {
+                if (window.evicted) {
+                    continue;
+                }
+                window.lastActivity = now;
+                int bucket = advance(window, now);
+                if (window.totalCount + 1 > countLimit || window.totalCents + cents > amountLimitCents) {
+                    return false;
+                }
+                window.bucketCents[bucket] += cents;
+                window.bucketCount[bucket]++;
+                window.totalCents += cents;
+                window.totalCount++;
+                return true;
+            }
+        }
+    }
+
+    public double withdrawnInWindow(String cardNumber) {
+        CardWindow window = windows.get(cardNumber);
+        if (window == null) {
+            return 0.0;
+        }
+        synchronized (window) {
+            advance(window, clock.getAsLong());
+            return window.totalCents / 100.0;
+        }
+    }
+
+    // Drops every card with no withdrawals inside the window
+    public void evictIdle() {
+        long now = clock.getAsLong();
+        for (Map.Entry<String, CardWindow> entry : windows.entrySet()) {
+            evictIfIdle(entry.getKey(), entry.getValue(), now);
+        }
+    }
+
+    public int trackedCards() {
+        return windows.size();
+    }
+
+    // Examines a few cards per check so idle ones are evicted without a full scan on the hot path
+    private void sweep(long now) {
+        if (!sweepLock.tryLock()) {
+            return;
+        }
+        try {
+            for (int i = 0; i < SWEEP_BATCH; i++) {
+                if (sweepCursor == null || !sweepCursor.hasNext()) {
+                    // Starting a lap allocates an iterator, so laps are limited to one per bucket
+                    if (now < nextLapAt) {
+                        return;
+                    }
+                    nextLapAt = now + bucketMillis;
+                    sweepCursor = windows.keySet().iterator();
+                    if (!sweepCursor.hasNext()) {
+                        return;
+                    }
+                }
+                String cardNumber = sweepCursor.next();
+                CardWindow window = windows.get(cardNumber);
+                if (window != null) {
+                    evictIfIdle(cardNumber, window, now);
+                }
+            }
+        } finally {
+            sweepLock.unlock();
+        }
+    }
+
+    private void evictIfIdle(String cardNumber, CardWindow window, long now) {
+        synchronized (window) {
+            if (!window.evicted && now - window.lastActivity >= windowMillis) {
+                window.evicted = true;
+                windows.remove(cardNumber, window);
+            }
+        }
+    }
+
+    // Clears the bucket for the current slot if it belongs to an earlier lap of the ring
+    private int advance(CardWindow window, long now) {
+        long slot = now / bucketMillis;
+        int bucket = (int) (slot % BUCKETS);
+        long start = slot * bucketMillis;
+        if (window.bucketStart[bucket] != start) {
+            // Buckets not touched for a full window may still hold old amounts; expire them too
+            for (int i = 0; i < BUCKETS; i++) {
+                if (window.bucketCount[i] != 0 && now - window.bucketStart[i] >= windowMillis) {
+                    window.totalCents -= window.bucketCents[i];
+                    window.totalCount -= window.bucketCount[i];
+                    window.bucketCents[i] = 0;
+                    window.bucketCount[i] = 0;
+                }
+            }
+            window.bucketStart[bucket] = start;
+        }
+        return bucket;
+    }
+}
+
+// Inline fraud scoring from incrementally maintained per-card features
+class FraudScorer {
+    enum LatePolicy { FAIL_OPEN, FAIL_CLOSED }
+
+    static final long DEFAULT_BUDGET_MICROS = 200;
+    static final double DECLINE_THRESHOLD = 1.0;
+    private static final double AMOUNT_ALPHA = 0.1;
+    private static final long VELOCITY_HALF_LIFE_NANOS = TimeUnit.MINUTES.toNanos(10);
+    private static final long TERMINAL_HOP_NANOS = TimeUnit.MINUTES.toNanos(30);
+    static final long DEFAULT_IDLE_NANOS = TimeUnit.DAYS.toNanos(30);
+    private static final int SWEEP_BATCH = 4;
+
+    // Streaming aggregates for one card; updated in O(1) per completed withdrawal
+    private static final class CardFeatures {
+        final ReentrantLock lock = new ReentrantLock();
+        long observations;
+        double amountMean;
+        double amountVariance;
+        double velocity;
+        long lastSeen;
+        String lastTerminal;
+        boolean evicted;
+    }
+
+    private final ConcurrentHashMap<String, CardFeatures> features = new ConcurrentHashMap<>();
+    private final LongAdder lateDecisions = new LongAdder();
+    private final long budgetNanos;
+    private final LatePolicy latePolicy;
+    private final LongSupplier clock;
+    private final long idleNanos;
+    private final ReentrantLock sweepLock = new ReentrantLock();
+    private Iterator<String> sweepCursor;
+    private long nextLapAt;
+
+    public FraudScorer() {
+        this(DEFAULT_BUDGET_MICROS, LatePolicy.FAIL_OPEN);
+    }
+
+    public FraudScorer(long budgetMicros, LatePolicy latePolicy) {
+        this(budgetMicros, latePolicy, System::nanoTime);
+    }
+
+    FraudScorer(long budgetMicros, LatePolicy latePolicy, LongSupplier clock) {
+        this(budgetMicros, latePolicy, clock, DEFAULT_IDLE_NANOS);
+    }
+
+    // Cards with no completed withdrawal for idleNanos are forgotten, so memory follows active cards only
+    FraudScorer(long budgetMicros, LatePolicy latePolicy, LongSupplier clock, long idleNanos) {
+        if (budgetMicros <= 0 || idleNanos <= 0) {
+            throw new IllegalArgumentException("Latency budget and idle time must be positive.");
+        }
+        this.budgetNanos = TimeUnit.MICROSECONDS.toNanos(budgetMicros);
+        this.latePolicy = latePolicy;
+        this.clock = clock;
+        this.idleNanos = idleNanos;
+        this.nextLapAt = clock.getAsLong() + lapNanos();
+    }
+
+    // Returns true if the withdrawal may proceed; answers by policy when the budget is exceeded. Scoring leaves the
+    // card's features alone: record() folds the withdrawal in once it has been dispensed, so declined or failed
+    // attempts never skew later scores.
+    public boolean approve(String cardNumber, String terminalId, double amount) {
+        long start = clock.getAsLong();
+        sweep(start);
+        double score = 0.0;
+        CardFeatures card = features.get(cardNumber);
+        if (card != null) {
+            boolean locked;
+            try {
+                locked = card.lock.tryLock(budgetNanos, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                locked = false;
+            }
+            if (!locked) {
+                return late();
+            }
+            try {
+                // An evicted card has been idle long enough to be scored as new
+                if (!card.evicted) {
+                    score = score(card, terminalId, amount, clock.getAsLong());
+                }
+            } finally {
+                card.lock.unlock();
+            }
+        }
+        if (clock.getAsLong() - start > budgetNanos) {
+            return late();
+        }
+        return score < DECLINE_THRESHOLD;
+    }
+
+    // Updates the card's features with a withdrawal that went through
+    public void record(String cardNumber, String terminalId, double amount) {
+        while (true) {
+            CardFeatures card = features.computeIfAbsent(cardNumber, k -> new CardFeatures());
+            card.lock.lock();
+            try {
+                if (!card.evicted) {
+                    update(card, terminalId, amount, clock.getAsLong());
+                    return;
+                }
+            } finally {
+                card.lock.unlock();
+            }
+            // lost a race with the sweep; the card starts over with fresh features
+        }
+    }
+
+    public long lateDecisions() {
+        return lateDecisions.sum();
+    }
+
+    public int trackedCards() {
+        return features.size();
+    }
+
+    // Examines a few cards per decision so idle ones are evicted without a full scan on the hot path
+    private void sweep(long now) {
+        if (!sweepLock.tryLock()) {
+            return;
+        }
+        try {
+            for (int i = 0; i < SWEEP_BATCH; i++) {
+                if (sweepCursor == null || !sweepCursor.hasNext()) {
+                    // Starting a lap allocates an iterator, so laps are limited to one per lapNanos
+                    if (now - nextLapAt < 0) {
+                        return;
+                    }
+                    nextLapAt = now + lapNanos();
+                    sweepCursor = features.keySet().iterator();
+                    if (!sweepCursor.hasNext()) {
+                        return;
+                    }
+                }
+                String cardNumber = sweepCursor.next();
+                CardFeatures card = features.get(cardNumber);
+                // A card whose lock is held is in use, so it is not idle
+                if (card != null && card.lock.tryLock()) {
+                    try {
+                        if (!card.evicted && now - card.lastSeen >= idleNanos) {
+                            card.evicted = true;
+                            features.remove(cardNumber, card);
+                        }
+                    } finally {
+                        card.lock.unlock();
+                    }
+                }
+            }
+        } finally {
+            sweepLock.unlock();
+        }
+    }
+
+    private long lapNanos() {
+        return Math.max(1, idleNanos / 24);
+    }
+
+    private boolean late() {
+        lateDecisions.increment();
+        return latePolicy == LatePolicy.FAIL_OPEN;
+    }
+
+    // Each feature contributes up to 1.0; a single strong signal is enough to decline
+    private static double score(CardFeatures card, String terminalId, double amount, long now) {
+        if (card.observations == 0) {
+            return 0.0;
+        }
+        double velocity = decayedVelocity(card, now) + 1;
+        double velocityScore = Math.max(0.0, (velocity - 3) / 3);
+        double deviation = Math.sqrt(card.amountVariance);
+        double amountScore = card.observations < 3
+                ? 0.0
+                : Math.max(0.0, ((amount - card.amountMean) / Math.max(deviation, 1.0) - 3) / 3);
+        double terminalScore = !terminalId.equals(card.lastTerminal) && now - card.lastSeen < TERMINAL_HOP_NANOS
+                ? 0.5
+                : 0.0;
+        return Math.min(velocityScore, 1.0) + Math.min(amountScore, 1.0) + terminalScore;
+    }
+
+    private static void update(CardFeatures card, String terminalId, double amount, long now) {
+        if (card.observations == 0) {
+            card.amountMean = amount;
+            card.velocity = 1;
+        } else {
+            double delta = amount - card.amountMean;
+            card.amountMean += AMOUNT_ALPHA * delta;
+            card.amountVariance = (1 - AMOUNT_ALPHA) * (card.amountVariance + AMOUNT_ALPHA * delta * delta);
+            card.velocity = decayedVelocity(card, now) + 1;
+        }
+        card.observations++;
+        card.lastSeen = now;
+        card.lastTerminal = terminalId;
+    }
+
+    private static double decayedVelocity(CardFeatures card, long now) {
+        return card.velocity * Math.pow(0.5, (double) (now - card.lastSeen) / VELOCITY_HALF_LIFE_NANOS);
+    }
 }
 
+// Usage: ATMSystem [audit log file]
 public class ATMSystem {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         ATMContext context = new ATMContext();
         ATMComponent authenticateComponent = new AuthenticateComponent();
         ATMComponent menuComponent = new ATMMenuComponent();
 
-        // Authentication process
-        authenticateComponent.process(context);
+        // Closing the log seals the last, partly filled block into the file
+        Path auditFile = Path.of(args.length > 0 ? args[0] : "atm-audit.log");
+        try (AuditLog auditLog = new AuditLog(auditFile, AuditLog.Compression.FAST, AuditLog.DEFAULT_BLOCK_EVENTS)) {
+            context.setAuditLog(auditLog);
+
+            // Authentication process
+            authenticateComponent.process(context);
 
-        // Main ATM menu
-        if (context.getCurrentUser() != null) {
-            menuComponent.process(context);
+            // Main ATM menu
+            if (context.getCurrentUser() != null) {
+                menuComponent.process(context);
+            }
         }
     }
 }
\ No newline at end of file
@@ -1,4 +1,21 @@
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class ATMSystemTest {
@@ -74,4 +91,389 @@ class ATMSystemTest {
         context.resetFailedAttempts();
         assertEquals(0, context.getFailedAttempts());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testFraudScorer_DeclinesVelocityBurst() {
+        FraudScorer scorer = new FraudScorer(200, FraudScorer.LatePolicy.FAIL_OPEN, () -> 0L);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(scorer.approve("1234567890", "ATM-1", 20.0));
+            scorer.record("1234567890", "ATM-1", 20.0);
+        }
+        assertFalse(scorer.approve("1234567890", "ATM-1", 20.0));
+    }
+
+    @Test
+    void testFraudScorer_OnlyCompletedWithdrawalsUpdateFeatures() {
+        FraudScorer scorer = new FraudScorer(200, FraudScorer.LatePolicy.FAIL_OPEN, () -> 0L);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(scorer.approve("1234567890", "ATM-1", 20.0));
+        }
+        assertEquals(0, scorer.trackedCards());
+
+        ATMContext context = new ATMContext();
+        context.setFraudScorer(scorer);
+        context.setCurrentUser("1234567890");
+        for (int i = 0; i < 5; i++) {
+            System.setIn(new ByteArrayInputStream("5000\n".getBytes()));
+            new WithdrawCashComponent().process(context);
+        }
+        assertEquals(0, scorer.trackedCards());
+        for (int i = 0; i < 5; i++) {
+            System.setIn(new ByteArrayInputStream("20\n".getBytes()));
+            new WithdrawCashComponent().process(context);
+        }
+        assertEquals(900.0, context.getBalance("1234567890"));
+        assertFalse(scorer.approve("1234567890", "ATM-0001", 20.0));
+    }
+
+    @Test
+    void testWithdrawCashComponentEnforcesRollingLimit() {
+        ATMContext context = new ATMContext();
+        context.setCurrentUser("1234567890");
+        context.setWithdrawalLimiter(new WithdrawalLimiter(300.0, 10, 24, TimeUnit.HOURS, () -> 0L));
+        for (String amount : new String[] {"200", "150", "100"}) {
+            System.setIn(new ByteArrayInputStream((amount + "\n").getBytes()));
+            new WithdrawCashComponent().process(context);
+        }
+        assertEquals(700.0, context.getBalance("1234567890"));
+        assertEquals(300.0, context.getWithdrawalLimiter().withdrawnInWindow("1234567890"));
+    }
+
+    @Test
+    void testFraudScorer_TerminalHopAddsRisk() {
+        FraudScorer scorer = new FraudScorer(200, FraudScorer.LatePolicy.FAIL_OPEN, () -> 0L);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(scorer.approve("1234567890", "ATM-1", 20.0));
+            scorer.record("1234567890", "ATM-1", 20.0);
+        }
+        assertFalse(scorer.approve("1234567890", "ATM-2", 20.0));
+    }
+
+    @Test
+    void testFraudScorer_FailClosedWhenLate() {
+        long[] now = {0};
+        FraudScorer scorer = new FraudScorer(100, FraudScorer.LatePolicy.FAIL_CLOSED, () -> now[0] += 1_000_000);
+        assertFalse(scorer.approve("1234567890", "ATM-1", 20.0));
+        assertEquals(1, scorer.lateDecisions());
+    }
+
+    @Test
+    void testFraudScorer_EvictsIdleCards() {
+        long[] now = {0};
+        long idle = TimeUnit.HOURS.toNanos(1);
+        FraudScorer scorer = new FraudScorer(200, FraudScorer.LatePolicy.FAIL_OPEN, () -> now[0], idle);
+        for (int i = 0; i < 10; i++) {
+            scorer.record("card-" + i, "ATM-1", 20.0);
+        }
+        assertEquals(10, scorer.trackedCards());
+
+        now[0] += idle;
+        for (int i = 0; i < 5; i++) {
+            scorer.approve("active", "ATM-1", 20.0);
+            scorer.record("active", "ATM-1", 20.0);
+            now[0] += 1;
+        }
+        assertEquals(1, scorer.trackedCards());
+    }
+
+    @Test
+    void testMenuResolvesChoiceCodes() {
+        ATMMenuComponent menu = new ATMMenuComponent();
+        assertTrue(menu.resolve("2") instanceof WithdrawCashComponent);
+        assertNull(menu.resolve("0"));
+        assertNull(menu.resolve("9"));
+        assertNull(menu.resolve("12"));
+        assertNull(menu.resolve("x"));
+    }
+
+    @Test
+    void testMenuRegistersNewOperation() {
+        ATMMenuComponent menu = new ATMMenuComponent();
+        ATMComponent custom = context -> context.deposit(context.getCurrentUser(), 1.0);
+        menu.register(7, "Donate", custom);
+        assertSame(custom, menu.resolve("7"));
+        assertThrows(IllegalArgumentException.class, () -> menu.register(7, "Other", custom));
+        assertThrows(IllegalArgumentException.class, () -> menu.register(0, "Exit", custom));
+    }
+
+    @Test
+    void testMenuScreenRenderedInCodeOrder() {
+        ATMMenuComponent menu = new ATMMenuComponent();
+        String n = System.lineSeparator();
+        assertEquals("ATM Menu:" + n + "1. Display Balance" + n + "2. Withdraw Cash" + n + "3. Deposit Cash" + n
+                + "4. Change PIN" + n + "5. Print Receipt" + n + "6. Mini Statement" + n + "0. Exit" + n
+                + "Enter your choice:" + n,
+                menu.getScreen(Locale.ENGLISH).getText());
+    }
+
+    @Test
+    void testMenuScreenInvalidatedOnRegister() {
+        ATMMenuComponent menu = new ATMMenuComponent();
+        MenuScreen first = menu.getScreen(Locale.ENGLISH);
+        assertSame(first, menu.getScreen(Locale.ENGLISH));
+        menu.register(7, "Fast Cash", context -> { });
+        MenuScreen second = menu.getScreen(Locale.ENGLISH);
+        assertNotSame(first, second);
+        assertTrue(second.getText().contains("7. Fast Cash"));
+    }
+
+    @Test
+    void testMenuScreenLocalized() {
+        ATMMenuComponent menu = new ATMMenuComponent();
+        menu.addTranslation(Locale.GERMAN, "Display Balance", "Kontostand anzeigen");
+        assertTrue(menu.getScreen(Locale.GERMAN).getText().contains("1. Kontostand anzeigen"));
+        assertTrue(menu.getScreen(Locale.ENGLISH).getText().contains("1. Display Balance"));
+    }
+
+    @Test
+    void testNoteCounterClassifiesNotes() {
+        NoteCounter counter = new NoteCounter();
+        counter.count(new SimulatedNoteAcceptor(3, 20, 20, 50, 7, 100, NoteCounter.UNREADABLE, 1));
+        assertEquals(2, counter.getCount(20));
+        assertEquals(1, counter.getCount(50));
+        assertEquals(0, counter.getCount(7));
+        assertEquals(5, counter.getAcceptedNotes());
+        assertEquals(3, counter.getRejectedNotes());
+        assertEquals(191, counter.getTotal());
+    }
+
+    @Test
+    void testNoteCounterBulkDepositLimit() {
+        int[] notes = new int[NoteCounter.MAX_NOTES_PER_DEPOSIT + 20];
+        Arrays.fill(notes, 10);
+        NoteCounter counter = new NoteCounter();
+        counter.count(new SimulatedNoteAcceptor(notes));
+        assertEquals(NoteCounter.MAX_NOTES_PER_DEPOSIT, counter.getCount(10));
+        assertEquals(20, counter.getRejectedNotes());
+        assertEquals(10L * NoteCounter.MAX_NOTES_PER_DEPOSIT, counter.getTotal());
+    }
+
+    @Test
+    void testDepositCashComponentCreditsCountedTotal() {
+        ATMContext context = new ATMContext();
+        context.setCurrentUser("1234567890");
+        context.setNoteAcceptor(new SimulatedNoteAcceptor(50, 50, 20, 3));
+        new DepositCashComponent().process(context);
+        assertEquals(1120.0, context.getBalance("1234567890"));
+        assertEquals(120.0, context.getTransactionAmount());
+    }
+
+    @Test
+    void testAuditLogRecordsBalanceAndPinChanges() {
+        ATMContext context = new ATMContext();
+        context.withdraw("1234567890", 100.0);
+        context.deposit("1234567890", 40.0);
+        context.changePIN("1234567890", "4321");
+        context.retainCard("1234567890");
+        context.getAuditLog().flush();
+
+        List<AuditEvent> events = context.getAuditLog().query(0, Long.MAX_VALUE, "1234567890");
+        assertEquals(4, events.size());
+        assertEquals(AuditEvent.Type.WITHDRAWAL, events.get(0).getType());
+        assertEquals(900.0, events.get(0).getBalance());
+        assertEquals(AuditEvent.Type.DEPOSIT, events.get(1).getType());
+        assertEquals(AuditEvent.Type.PIN_CHANGE, events.get(2).getType());
+        assertEquals(AuditEvent.Type.CARD_RETAINED, events.get(3).getType());
+    }
+
+    @Test
+    void testAuditLogQueryReadsOnlyMatchingBlocks() {
+        long[] now = {1_000};
+        AuditLog log = new AuditLog(AuditLog.Compression.FAST, 10, () -> now[0]++);
+        for (int i = 0; i < 100; i++) {
+            log.append(AuditEvent.Type.DEPOSIT, "card-" + (i / 10), i, i);
+        }
+        log.flush();
+
+        assertEquals(10, log.blockCount());
+        assertEquals(2, log.blocksScanned(1_015, 1_025, null));
+        List<AuditEvent> range = log.query(1_015, 1_025, null);
+        assertEquals(10, range.size());
+        assertEquals(15.0, range.get(0).getAmount());
+
+        List<AuditEvent> card = log.query(0, Long.MAX_VALUE, "card-7");
+        assertEquals(10, card.size());
+        assertTrue(log.blocksScanned(0, Long.MAX_VALUE, "card-7") < log.blockCount());
+    }
+
+    @Test
+    void testAuditLogFileRoundTrip(@TempDir Path dir) throws Exception {
+        try (AuditLog log = new AuditLog(dir.resolve("audit.log"), AuditLog.Compression.SMALL, 4)) {
+            for (int i = 0; i < 9; i++) {
+                log.append(AuditEvent.Type.WITHDRAWAL, "1234567890", 20, 1000 - 20 * (i + 1));
+            }
+            log.flush();
+            assertEquals(3, log.blockCount());
+            List<AuditEvent> events = log.query(0, Long.MAX_VALUE, "1234567890");
+            assertEquals(9, events.size());
+            assertEquals(820.0, events.get(8).getBalance());
+            assertTrue(log.query(0, Long.MAX_VALUE, "5555").isEmpty());
+        }
+    }
+
+    @Test
+    void testAuditLogReopenRebuildsIndexAndDropsTornTail(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("audit.log");
+        try (AuditLog log = new AuditLog(file, AuditLog.Compression.FAST, 4)) {
+            for (int i = 0; i < 8; i++) {
+                log.append(AuditEvent.Type.DEPOSIT, "card-" + (i / 4), i, i);
+            }
+        }
+        long intact = Files.size(file);
+        Files.write(file, new byte[] {0x41, 0x55, 0x44}, StandardOpenOption.APPEND);
+
+        try (AuditLog log = new AuditLog(file, AuditLog.Compression.FAST, 4)) {
+            assertEquals(intact, Files.size(file));
+            assertEquals(2, log.blockCount());
+            assertEquals(1, log.blocksScanned(0, Long.MAX_VALUE, "card-1"));
+            log.append(AuditEvent.Type.WITHDRAWAL, "card-1", 5, 0);
+            log.flush();
+            assertEquals(5, log.query(0, Long.MAX_VALUE, "card-1").size());
+        }
+    }
+
+    // In-memory block store that fails every append while failing is set
+    private static final class FlakyStore implements AuditLog.BlockStore {
+        boolean failing = true;
+        private byte[] data = new byte[0];
+
+        @Override
+        public long append(byte[] bytes, int length) throws IOException {
+            if (failing) {
+                throw new IOException("disk full");
+            }
+            long offset = data.length;
+            data = Arrays.copyOf(data, data.length + length);
+            System.arraycopy(bytes, 0, data, (int) offset, length);
+            return offset;
+        }
+
+        @Override
+        public byte[] read(long offset, int length) {
+            return Arrays.copyOfRange(data, (int) offset, (int) offset + length);
+        }
+
+        @Override
+        public long size() {
+            return data.length;
+        }
+
+        @Override
+        public void truncate(long size) {
+            data = Arrays.copyOf(data, (int) size);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    void testAuditLogKeepsPendingBlockWhenStoreFails() throws Exception {
+        FlakyStore store = new FlakyStore();
+        AuditLog log = new AuditLog(store, 2);
+        log.append(AuditEvent.Type.DEPOSIT, "1234", 10, 10);
+        log.append(AuditEvent.Type.DEPOSIT, "1234", 20, 30);
+        assertThrows(UncheckedIOException.class, log::flush);
+        assertThrows(UncheckedIOException.class, () -> log.append(AuditEvent.Type.DEPOSIT, "1234", 1, 31));
+
+        store.failing = false;
+        log.flush();
+        assertEquals(1, log.blockCount());
+        assertEquals(2, log.query(0, Long.MAX_VALUE, "1234").size());
+        log.close();
+    }
+
+    @Test
+    void testFailedAuditLogLeavesAccountUntouched() throws Exception {
+        FlakyStore store = new FlakyStore();
+        AuditLog log = new AuditLog(store, 1);
+        ATMContext context = new ATMContext();
+        context.setAuditLog(log);
+        context.setCurrentUser("1234567890");
+        context.deposit("1234567890", 10.0);
+        assertThrows(UncheckedIOException.class, log::flush);
+
+        assertThrows(UncheckedIOException.class, () -> context.withdraw("1234567890", 100.0));
+        assertThrows(UncheckedIOException.class, () -> context.changePIN("1234567890", "4321"));
+        context.setNoteAcceptor(new SimulatedNoteAcceptor(50));
+        new DepositCashComponent().process(context);
+        assertEquals(1010.0, context.getBalance("1234567890"));
+        assertEquals(1, context.getHistory("1234567890").size());
+        assertTrue(context.authenticateUser("1234567890", "1234"));
+
+        store.failing = false;
+        log.close();
+        assertEquals(1, log.query(0, Long.MAX_VALUE, "1234567890").size());
+    }
+
+    @Test
+    void testMiniStatementLastTransactions() {
+        ATMContext context = new ATMContext();
+        context.setCurrentUser("1234567890");
+        assertEquals("No transactions to show." + System.lineSeparator(),
+                new MiniStatementComponent().statement(context, 5));
+
+        context.withdraw("1234567890", 100.0);
+        context.deposit("1234567890", 40.0);
+        context.withdraw("1234567890", 15.0);
+        String statement = new MiniStatementComponent().statement(context, 2);
+        assertEquals(2, statement.lines().count());
+        assertTrue(statement.contains("Deposit"));
+        assertTrue(statement.contains("-15.00"));
+        assertTrue(statement.contains("925.00"));
+    }
+
+    @Test
+    void testMiniStatementDaysInputIsValidated() {
+        assertEquals(7, MiniStatementComponent.parseDays("7"));
+        assertEquals(MiniStatementComponent.MAX_DAYS, MiniStatementComponent.parseDays("366"));
+        assertEquals(-1, MiniStatementComponent.parseDays("0"));
+        assertEquals(-1, MiniStatementComponent.parseDays("-3"));
+        assertEquals(-1, MiniStatementComponent.parseDays("367"));
+        assertEquals(-1, MiniStatementComponent.parseDays("99999999999999999999"));
+        assertEquals(-1, MiniStatementComponent.parseDays("week"));
+    }
+
+    @Test
+    void testMiniStatementDateWindow() {
+        ATMContext context = new ATMContext();
+        context.setCurrentUser("1234567890");
+        long[] now = {0};
+        context.setClock(() -> now[0]);
+        for (int day = 0; day < 30; day++) {
+            now[0] = day * 86_400_000L;
+            context.deposit("1234567890", 1.0);
+        }
+        String statement = new MiniStatementComponent().statement(context,
+                Instant.ofEpochMilli(10 * 86_400_000L), Instant.ofEpochMilli(13 * 86_400_000L));
+        assertEquals(3, statement.lines().count());
+        assertTrue(statement.contains("1011.00"));
+        assertEquals(30, context.getHistory("1234567890").size());
+    }
+
+    @Test
+    void testATMEventRecordsComponentOutcomes(@TempDir Path dir) throws Exception {
+        ATMContext context = new ATMContext();
+        context.setCurrentUser("1234567890");
+        context.setNoteAcceptor(new SimulatedNoteAcceptor(50, 50, 20));
+        Path file = dir.resolve("atm.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("atm.Operation").withoutThreshold();
+            recording.start();
+            new DepositCashComponent().process(context);
+            new DisplayBalanceComponent().process(context);
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        assertEquals(2, events.size());
+        assertEquals("DEPOSIT", events.get(0).getString("operation"));
+        assertEquals("UNDER_500", events.get(0).getString("amountBucket"));
+        assertEquals(ATMEvent.SUCCESS, events.get(0).getString("outcome"));
+        assertEquals(ATMEvent.cardHash("1234567890"), events.get(0).getLong("cardHash"));
+        assertEquals("BALANCE_INQUIRY", events.get(1).getString("operation"));
+        assertNull(ATMEvent.start());
+    }
+}
@@ -1,7 +1,49 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
 
 // Component Interface for ATM Operations
 interface ATMComponent {
@@ -18,26 +60,38 @@ class CheckBalance implements ATMComponent {
 
     @Override
     public void performOperation() {
+        ATMEvent event = ATMEvent.start();
         System.out.println("Your account balance is: $" + account.getBalance());
+        ATMEvent.finish(event, "BALANCE_INQUIRY", account.getCardNumber(), 0, ATMEvent.SUCCESS);
     }
 }
 
 // Leaf: Concrete ATM Operation - Withdraw Cash
 class WithdrawCash implements ATMComponent {
     private final Account account;
+    private final ReceiptStore receipts;
 
     public WithdrawCash(Account account) {
+        this(account, null);
+    }
+
+    public WithdrawCash(Account account, ReceiptStore receipts) {
         this.account = account;
+        this.receipts = receipts;
     }
 
     @Override
     public void performOperation() {
         System.out.print("Enter withdrawal amount: $");
         double amount = ATM.scanner.nextDouble();
+        ATMEvent event = ATMEvent.start();
         if (account.withdraw(amount)) {
             System.out.println("Please collect your cash.");
+            Receipt.issue(receipts, account, "Withdrawal", BigDecimal.valueOf(amount));
+            ATMEvent.finish(event, "WITHDRAWAL", account.getCardNumber(), amount, ATMEvent.SUCCESS);
         } else {
             System.out.println("Insufficient funds.");
+            ATMEvent.finish(event, "WITHDRAWAL", account.getCardNumber(), amount, ATMEvent.INVALID);
         }
     }
 }
@@ -45,61 +99,534 @@ class WithdrawCash implements ATMComponent {
 // Leaf: Concrete ATM Operation - Deposit Funds
 class DepositFunds implements ATMComponent {
     private final Account account;
+    private final ReceiptStore receipts;
 
     public DepositFunds(Account account) {
+        this(account, null);
+    }
+
+    public DepositFunds(Account account, ReceiptStore receipts) {
         this.account = account;
+        this.receipts = receipts;
     }
 
     @Override
     public void performOperation() {
         System.out.print("Enter deposit amount: $");
         double amount = ATM.scanner.nextDouble();
+        ATMEvent event = ATMEvent.start();
         account.deposit(amount);
         System.out.println("Your deposit is successful.");
+        Receipt.issue(receipts, account, "Deposit", BigDecimal.valueOf(amount));
+        ATMEvent.finish(event, "DEPOSIT", account.getCardNumber(), amount, ATMEvent.SUCCESS);
     }
 }
 
 // Leaf: Concrete ATM Operation - Change PIN
 class ChangePIN implements ATMComponent {
     private final Account account;
+    private final HsmService hsm;
+    private final HsmBatcher hsmBatcher;
+    private final PinPad pinPad;
+    private final String keyName;
 
     public ChangePIN(Account account) {
+        this(account, null, null, null, null);
+    }
+
+    // With an HSM, the old PIN is checked as a PIN block like at login, and the new PIN is re-enrolled under
+    // keyName so the PIN block path accepts it straight away
+    public ChangePIN(Account account, HsmService hsm, HsmBatcher hsmBatcher, PinPad pinPad, String keyName) {
         this.account = account;
+        this.hsm = hsm;
+        this.hsmBatcher = hsmBatcher;
+        this.pinPad = pinPad;
+        this.keyName = keyName;
     }
 
     @Override
     public void performOperation() {
         System.out.print("Enter old PIN: ");
         String oldPIN = ATM.scanner.nextLine();
-        if (account.verifyPIN(oldPIN)) {
+        ATMEvent event = ATMEvent.start();
+        String outcome = ATMEvent.FAILED;
+        if (verifyOld(oldPIN)) {
             System.out.print("Enter new PIN: ");
             String newPIN1 = ATM.scanner.nextLine();
             System.out.print("Confirm new PIN: ");
             String newPIN2 = ATM.scanner.nextLine();
-            if (newPIN1.equals(newPIN2)) {
-                account.updatePIN(newPIN1);
+            ATMEvent.restart(event);
+            if (!newPIN1.equals(newPIN2)) {
+                System.out.println("PIN mismatch. Please try again.");
+                outcome = ATMEvent.INVALID;
+            } else if (changeTo(newPIN1)) {
                 System.out.println("PIN changed successfully.");
+                outcome = ATMEvent.SUCCESS;
             } else {
-                System.out.println("PIN mismatch. Please try again.");
+                System.out.println("PIN must be 4 to 12 digits.");
+                outcome = ATMEvent.INVALID;
             }
         } else {
             System.out.println("Incorrect PIN.");
         }
+        ATMEvent.finish(event, "PIN_CHANGE", account.getCardNumber(), 0, outcome);
+    }
+
+    private boolean verifyOld(String oldPIN) {
+        if (hsm == null) {
+            return account.verifyPIN(oldPIN);
+        }
+        byte[] pinBlock;
+        try {
+            pinBlock = pinPad.encryptPinBlock(oldPIN, account.getCardNumber());
+        } catch (IllegalArgumentException e) {
+            return false; // not a PIN the pad can encode, as at login
+        }
+        return account.verifyPinBlock(hsmBatcher, keyName, pinBlock).join();
+    }
+
+    // Enrols the new PIN before switching to it, so a PIN the HSM refuses leaves the old one working
+    private boolean changeTo(String newPIN) {
+        if (hsm == null) {
+            account.updatePIN(newPIN);
+            return true;
+        }
+        String pan = account.getCardNumber();
+        byte[] verificationValue;
+        try {
+            verificationValue = hsm.generateVerificationValue(keyName, pinPad.encryptPinBlock(newPIN, pan), pan);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        account.updatePIN(newPIN);
+        account.setPinVerificationValue(verificationValue);
+        return true;
     }
 }
 
 // Composite: ATM Transaction
 class ATMTransaction implements ATMComponent {
+    private final String name;
     private final List<ATMComponent> operations = new ArrayList<>();
+    private Tracer tracer = Tracer.OFF;
+
+    public ATMTransaction() {
+        this("ATMTransaction");
+    }
+
+    public ATMTransaction(String name) {
+        this.name = name;
+    }
 
     public void addOperation(ATMComponent operation) {
         operations.add(operation);
+        if (tracer != Tracer.OFF && operation instanceof ATMTransaction) {
+            ((ATMTransaction) operation).setTracer(tracer);
+        }
+    }
+
+    // Applies to this transaction and every nested transaction below it.
+    public void setTracer(Tracer tracer) {
+        this.tracer = tracer;
+        for (ATMComponent operation : operations) {
+            if (operation instanceof ATMTransaction) {
+                ((ATMTransaction) operation).setTracer(tracer);
+            }
+        }
     }
 
     @Override
     public void performOperation() {
-        for (ATMComponent operation : operations) {
-            operation.performOperation();
+        tracer.begin(name);
+        try {
+            for (ATMComponent operation : operations) {
+                if (operation instanceof ATMTransaction) {
+                    operation.performOperation();
+                    continue;
+                }
+                tracer.begin(operation.getClass().getSimpleName());
+                try {
+                    operation.performOperation();
+                } finally {
+                    tracer.end();
+                }
+            }
+        } finally {
+            tracer.end();
+        }
+    }
+}
+
+// Flight Recorder event for one ATM operation; off unless a recording enables it, cards only as keyed hashes
+@Name("atm.Operation")
+@Label("ATM Operation")
+@Category("ATM")
+@Description("One authentication, component run or receipt, with its outcome")
+@StackTrace(false)
+class ATMEvent extends Event {
+    static final String SUCCESS = "SUCCESS";
+    static final String DECLINED = "DECLINED";
+    static final String LIMIT_EXCEEDED = "LIMIT_EXCEEDED";
+    static final String INVALID = "INVALID";
+    static final String FAILED = "FAILED";
+    static final String CARD_RETAINED = "CARD_RETAINED";
+
+    private static final EventType TYPE = EventType.getEventType(ATMEvent.class);
+    private static final byte[] HASH_KEY = new byte[32];
+    private static final ThreadLocal<Mac> HMAC = ThreadLocal.withInitial(() -> {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(HASH_KEY, "HmacSHA256"));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 unavailable", e);
+        }
+    });
+
+    static {
+        new SecureRandom().nextBytes(HASH_KEY);
+    }
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Card Hash")
+    long cardHash;
+
+    @Label("Amount Bucket")
+    String amountBucket;
+
+    @Label("Outcome")
+    String outcome;
+
+    static ATMEvent start() {
+        if (!TYPE.isEnabled()) {
+            return null;
+        }
+        ATMEvent event = new ATMEvent();
+        event.begin();
+        return event;
+    }
+
+    // Moves the start of a running event to now, for operations that wait on the customer part way through
+    static void restart(ATMEvent event) {
+        if (event != null) {
+            event.begin();
+        }
+    }
+
+    static void finish(ATMEvent event, String operation, String cardNumber, double amount, String outcome) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.cardHash = cardHash(cardNumber);
+            event.amountBucket = amountBucket(amount);
+            event.outcome = outcome;
+            event.commit();
+        }
+    }
+
+    static long cardHash(String cardNumber) {
+        if (cardNumber == null) {
+            return 0L;
+        }
+        byte[] mac = HMAC.get().doFinal(cardNumber.getBytes(StandardCharsets.US_ASCII));
+        return ByteBuffer.wrap(mac, 0, Long.BYTES).getLong();
+    }
+
+    // Coarse buckets keep amounts out of the recording while still separating small and large transactions
+    static String amountBucket(double amount) {
+        if (!(amount > 0)) {
+            return "NONE";
+        } else if (amount < 20) {
+            return "UNDER_20";
+        } else if (amount < 100) {
+            return "UNDER_100";
+        } else if (amount < 500) {
+            return "UNDER_500";
+        } else if (amount < 1000) {
+            return "UNDER_1000";
+        }
+        return "1000_AND_OVER";
+    }
+}
+
+// Tracer: samples whole execute() trees and records one span per node with a
+// link to its parent. The sampling decision is taken once at the root, so a
+// trace is either complete or absent. Each thread writes into its own
+// fixed-size ring and publishes the count with a release store, so the hot
+// path never locks; export reads up to the published count of every ring,
+// writes Chrome trace-event JSON (chrome://tracing, ui.perfetto.dev) and
+// then frees what it wrote, so periodic exports keep tracing going.
+class Tracer {
+    static final Tracer OFF = new Tracer(0.0);
+    static final int DEFAULT_BUFFER_CAPACITY = 4096;
+
+    private final double sampleRate;
+    private final int bufferCapacity;
+    private final LongSupplier clock;
+    private final long epoch;
+    private final Queue<SpanBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger nextBufferId = new AtomicInteger();
+    private final ThreadLocal<SpanBuffer> local = ThreadLocal.withInitial(this::newBuffer);
+
+    public Tracer(double sampleRate) {
+        this(sampleRate, DEFAULT_BUFFER_CAPACITY, System::nanoTime);
+    }
+
+    Tracer(double sampleRate, int bufferCapacity, LongSupplier clock) {
+        if (sampleRate < 0.0 || sampleRate > 1.0) {
+            throw new IllegalArgumentException("Sample rate must be between 0 and 1");
+        }
+        if (bufferCapacity <= 0) {
+            throw new IllegalArgumentException("Buffer capacity must be positive");
+        }
+        this.sampleRate = sampleRate;
+        this.bufferCapacity = bufferCapacity;
+        this.clock = clock;
+        this.epoch = clock.getAsLong();
+    }
+
+    public void begin(String name) {
+        if (sampleRate == 0.0) {
+            return;
+        }
+        SpanBuffer buffer = local.get();
+        if (buffer.depth == 0) {
+            buffer.sampled = sampleRate >= 1.0 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+        }
+        buffer.push(name, buffer.sampled ? clock.getAsLong() : 0L);
+    }
+
+    public void end() {
+        if (sampleRate == 0.0) {
+            return;
+        }
+        SpanBuffer buffer = local.get();
+        if (buffer.depth == 0) {
+            throw new IllegalStateException("end() without matching begin()");
+        }
+        buffer.pop(buffer.sampled ? clock.getAsLong() : 0L);
+    }
+
+    // Spans recorded and not yet exported
+    public int spanCount() {
+        long count = 0;
+        for (SpanBuffer buffer : buffers) {
+            count += buffer.published.get() - buffer.consumed;
+        }
+        return (int) Math.min(count, Integer.MAX_VALUE);
+    }
+
+    public long droppedSpans() {
+        long dropped = 0;
+        for (SpanBuffer buffer : buffers) {
+            dropped += buffer.dropped;
+        }
+        return dropped;
+    }
+
+    // Completed spans not yet exported, of every thread, in completion order per thread.
+    public List<Span> spans() {
+        List<Span> spans = new ArrayList<>();
+        for (SpanBuffer buffer : buffers) {
+            buffer.copyTo(spans, buffer.published.get(), epoch);
+        }
+        return spans;
+    }
+
+    // Writes the spans not yet exported and then frees their slots. Rings of
+    // threads that have ended are dropped once they are empty.
+    public synchronized void export(Path file) throws IOException {
+        List<SpanBuffer> exported = new ArrayList<>(buffers);
+        long[] ends = new long[exported.size()];
+        List<Span> spans = new ArrayList<>();
+        for (int i = 0; i < ends.length; i++) {
+            ends[i] = exported.get(i).published.get();
+            exported.get(i).copyTo(spans, ends[i], epoch);
+        }
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+            boolean first = true;
+            for (SpanBuffer buffer : exported) {
+                out.write(first ? "\n" : ",\n");
+                first = false;
+                out.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + buffer.id
+                        + ",\"args\":{\"name\":" + quote(buffer.threadName) + "}}");
+            }
+            for (Span span : spans) {
+                out.write(first ? "\n" : ",\n");
+                first = false;
+                out.write("{\"name\":" + quote(span.getName())
+                        + ",\"cat\":\"atm\",\"ph\":\"X\",\"ts\":" + micros(span.getStartNanos())
+                        + ",\"dur\":" + micros(span.getDurationNanos())
+                        + ",\"pid\":1,\"tid\":" + span.getThreadId()
+                        + ",\"args\":{\"span\":" + span.getId() + ",\"parent\":" + span.getParentId() + "}}");
+            }
+            out.write("\n]}\n");
+        }
+        for (int i = 0; i < ends.length; i++) {
+            SpanBuffer buffer = exported.get(i);
+            buffer.consumed = ends[i];
+            if (!buffer.owner.isAlive() && buffer.published.get() == ends[i]) {
+                buffers.remove(buffer);
+            }
+        }
+    }
+
+    private SpanBuffer newBuffer() {
+        Thread thread = Thread.currentThread();
+        SpanBuffer buffer = new SpanBuffer(nextBufferId.incrementAndGet(), thread, bufferCapacity);
+        buffers.add(buffer);
+        return buffer;
+    }
+
+    private static String micros(long nanos) {
+        long fraction = Math.abs(nanos % 1000);
+        return nanos / 1000 + (fraction < 10 ? ".00" : fraction < 100 ? ".0" : ".") + fraction;
+    }
+
+    private static String quote(String text) {
+        StringBuilder json = new StringBuilder(text.length() + 2).append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"').toString();
+    }
+
+    // A completed span; times are relative to the tracer's creation, and the
+    // thread id is the tracer's own number for the recording thread.
+    static final class Span {
+        private final String name;
+        private final long id;
+        private final long parentId;
+        private final long startNanos;
+        private final long durationNanos;
+        private final long threadId;
+
+        Span(String name, long id, long parentId, long startNanos, long durationNanos, long threadId) {
+            this.name = name;
+            this.id = id;
+            this.parentId = parentId;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+            this.threadId = threadId;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public long getParentId() {
+            return parentId;
+        }
+
+        public long getStartNanos() {
+            return startNanos;
+        }
+
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+
+        public long getThreadId() {
+            return threadId;
+        }
+    }
+
+    // Written only by its owning thread. Completed spans live in parallel
+    // ring columns indexed by count modulo capacity; the writer drops a span
+    // rather than overwrite one export has not consumed yet. The open-span
+    // stack gives each new span its parent.
+    private static final class SpanBuffer {
+        final int id;
+        final Thread owner;
+        final String threadName;
+        final String[] names;
+        final long[] spanIds;
+        final long[] parentIds;
+        final long[] starts;
+        final long[] durations;
+        // Spans ever written, and how many of them export has consumed
+        final AtomicLong published = new AtomicLong();
+        volatile long consumed;
+        volatile long dropped;
+
+        private final long idPrefix;
+        private long nextSequence;
+        private String[] openNames = new String[16];
+        private long[] openIds = new long[16];
+        private long[] openStarts = new long[16];
+        int depth;
+        boolean sampled;
+
+        SpanBuffer(int id, Thread owner, int capacity) {
+            this.idPrefix = (long) id << 32;
+            this.id = id;
+            this.owner = owner;
+            this.threadName = owner.getName();
+            this.names = new String[capacity];
+            this.spanIds = new long[capacity];
+            this.parentIds = new long[capacity];
+            this.starts = new long[capacity];
+            this.durations = new long[capacity];
+        }
+
+        void push(String name, long start) {
+            if (depth == openNames.length) {
+                openNames = Arrays.copyOf(openNames, depth * 2);
+                openIds = Arrays.copyOf(openIds, depth * 2);
+                openStarts = Arrays.copyOf(openStarts, depth * 2);
+            }
+            openNames[depth] = name;
+            openIds[depth] = sampled ? idPrefix | ++nextSequence : 0L;
+            openStarts[depth] = start;
+            depth++;
+        }
+
+        void pop(long end) {
+            depth--;
+            String name = openNames[depth];
+            openNames[depth] = null;
+            if (!sampled) {
+                return;
+            }
+            long count = published.get();
+            if (count - consumed == names.length) {
+                dropped++;
+                return;
+            }
+            int slot = (int) (count % names.length);
+            names[slot] = name;
+            spanIds[slot] = openIds[depth];
+            parentIds[slot] = depth > 0 ? openIds[depth - 1] : 0L;
+            starts[slot] = openStarts[depth];
+            durations[slot] = end - openStarts[depth];
+            published.lazySet(count + 1);
+        }
+
+        // Reads the unconsumed spans up to end; safe alongside the writer,
+        // which never reuses a slot before it is consumed
+        void copyTo(List<Span> spans, long end, long epoch) {
+            for (long i = consumed; i < end; i++) {
+                int slot = (int) (i % names.length);
+                spans.add(new Span(names[slot], spanIds[slot], parentIds[slot], starts[slot] - epoch,
+                        durations[slot], id));
+            }
         }
     }
 }
@@ -111,13 +638,21 @@ class Account {
     private BigDecimal balance;
     private int attempts;
     private boolean cardRetained;
+    private byte[] pinVerificationValue;
+    private final Clock clock;
+    private final TransactionHistory history = new TransactionHistory();
 
     public Account(String cardNumber, String pin, BigDecimal balance) {
+        this(cardNumber, pin, balance, Clock.systemDefaultZone());
+    }
+
+    public Account(String cardNumber, String pin, BigDecimal balance, Clock clock) {
         this.cardNumber = cardNumber;
         this.pin = pin;
         this.balance = balance;
         this.attempts = 0;
         this.cardRetained = false;
+        this.clock = clock;
     }
 
     public boolean verifyPIN(String pin) {
@@ -125,8 +660,32 @@ class Account {
             System.out.println("Your card is retained. Please contact your bank.");
             return false;
         }
+        return recordAttempt(this.pin.equals(pin));
+    }
+
+    // HSM path: the PIN pad's encrypted PIN block is checked against the card's verification value inside the
+    // HSM, so no clear PIN is compared here. Counts towards the same attempt limit as verifyPIN, except while the
+    // card has no verification value: that is not a wrong PIN, so it must not count towards retaining the card.
+    public CompletableFuture<Boolean> verifyPinBlock(HsmBatcher hsm, String keyName, byte[] pinBlock) {
+        if (cardRetained) {
+            System.out.println("Your card is retained. Please contact your bank.");
+            return CompletableFuture.completedFuture(false);
+        }
+        if (pinVerificationValue == null) {
+            System.out.println("Your card is not enrolled for PIN verification. Please contact your bank.");
+            return CompletableFuture.completedFuture(false);
+        }
+        return hsm.verify(new PinVerification(keyName, pinBlock, cardNumber, pinVerificationValue))
+                .thenApply(this::recordAttempt);
+    }
+
+    // Issued by the HSM when the PIN is chosen; see HsmService.generateVerificationValue
+    public void setPinVerificationValue(byte[] pinVerificationValue) {
+        this.pinVerificationValue = pinVerificationValue;
+    }
 
-        if (this.pin.equals(pin)) {
+    private synchronized boolean recordAttempt(boolean matched) {
+        if (matched) {
             attempts = 0; // Reset attempts on successful PIN entry
             return true;
         } else {
@@ -141,6 +700,22 @@ class Account {
         }
     }
 
+    public synchronized int getAttempts() {
+        return attempts;
+    }
+
+    // Test hook: sets the failed attempt count, retaining the card once it reaches the limit
+    synchronized void setAttempts(int attempts) {
+        this.attempts = attempts;
+        if (attempts >= 3) {
+            cardRetained = true;
+        }
+    }
+
+    public synchronized boolean isCardRetained() {
+        return cardRetained;
+    }
+
     public BigDecimal getBalance() {
         return balance;
     }
@@ -148,6 +723,7 @@ class Account {
     public boolean withdraw(double amount) {
         if (balance.compareTo(BigDecimal.valueOf(amount)) >= 0) {
             balance = balance.subtract(BigDecimal.valueOf(amount));
+            history.append(clock.millis(), TransactionHistory.WITHDRAWAL, toCents(BigDecimal.valueOf(amount)), toCents(balance));
             System.out.println("Withdrawal successful. Remaining balance: $" + balance);
             return true;
         }
@@ -156,33 +732,102 @@ class Account {
 
     public void deposit(double amount) {
         balance = balance.add(BigDecimal.valueOf(amount));
+        history.append(clock.millis(), TransactionHistory.DEPOSIT, toCents(BigDecimal.valueOf(amount)), toCents(balance));
         System.out.println("Deposit successful. New balance: $" + balance);
     }
 
+    public String getCardNumber() {
+        return cardNumber;
+    }
+
+    public TransactionHistory getHistory() {
+        return history;
+    }
+
+    public ZoneId getZone() {
+        return clock.getZone();
+    }
+
+    static long toCents(BigDecimal amount) {
+        return amount.setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
     public void updatePIN(String newPIN) {
         this.pin = newPIN;
+        // The old verification value would still accept the old PIN; the card must be re-enrolled with the HSM,
+        // as ChangePIN does when it has one
+        this.pinVerificationValue = null;
     }
 }
 
 // Receipt Class
 class Receipt {
-    private final LocalDateTime timestamp;
+    static final String TERMINAL_ID = "ATM-0001";
+
+    private final Instant timestamp;
+    private final String cardNumber;
+    private final String terminalId;
     private final String transactionType;
     private final BigDecimal amount;
     private final BigDecimal remainingBalance;
 
     public Receipt(String transactionType, BigDecimal amount, BigDecimal remainingBalance) {
-        this.timestamp = LocalDateTime.now();
+        this(Instant.now(), "", TERMINAL_ID, transactionType, amount, remainingBalance);
+    }
+
+    public Receipt(Instant timestamp, String cardNumber, String terminalId, String transactionType, BigDecimal amount,
+                   BigDecimal remainingBalance) {
+        this.timestamp = timestamp;
+        this.cardNumber = cardNumber;
+        this.terminalId = terminalId;
         this.transactionType = transactionType;
         this.amount = amount;
         this.remainingBalance = remainingBalance;
     }
 
+    // Prints the receipt and hands it to the store, if there is one
+    static Receipt issue(ReceiptStore store, Account account, String transactionType, BigDecimal amount) {
+        ATMEvent event = ATMEvent.start();
+        Receipt receipt = new Receipt(Instant.now(), account.getCardNumber(), TERMINAL_ID, transactionType, amount,
+                account.getBalance());
+        receipt.printReceipt();
+        if (store != null) {
+            store.append(receipt);
+        }
+        ATMEvent.finish(event, "RECEIPT", account.getCardNumber(), amount == null ? 0 : amount.doubleValue(),
+                ATMEvent.SUCCESS);
+        return receipt;
+    }
+
+    public Instant getTimestamp() {
+        return timestamp;
+    }
+
+    public String getCardNumber() {
+        return cardNumber;
+    }
+
+    public String getTerminalId() {
+        return terminalId;
+    }
+
+    public String getTransactionType() {
+        return transactionType;
+    }
+
+    public BigDecimal getAmount() {
+        return amount;
+    }
+
+    public BigDecimal getRemainingBalance() {
+        return remainingBalance;
+    }
+
     public void printReceipt() {
         System.out.println("-----------------------------");
         System.out.println("Transaction Receipt");
         System.out.println("-----------------------------");
-        System.out.println("Date: " + timestamp);
+        System.out.println("Date: " + LocalDateTime.ofInstant(timestamp, ZoneId.systemDefault()));
         System.out.println("Transaction: " + transactionType);
         if (amount != null) {
             System.out.println("Amount: $" + amount);
@@ -192,19 +837,969 @@ class Receipt {
     }
 }
 
+// Append-only e-receipt file of fixed-width binary records. Each record links back to the previous record for the
+// same card and for the same terminal, and only the newest record per card and terminal is held in memory, so the
+// last N receipts for either take N record reads regardless of file size. Records are written in time order, which
+// also makes the file searchable by time. Writes happen on a background thread, away from the dispense path; a
+// batch that fails to write is kept and retried, and the store refuses new receipts until the retry succeeds.
+class ReceiptStore implements AutoCloseable {
+    // Record layout (52 bytes): time, card digits, amount, balance, terminal (8 ASCII bytes), previous record for
+    // the card, previous record for the terminal, type, card length, 2 bytes reserved
+    static final int RECORD_SIZE = 52;
+    static final int MAX_CARD_LENGTH = 18;
+    static final int TERMINAL_LENGTH = 8;
+    private static final long NO_AMOUNT = Long.MIN_VALUE;
+    private static final int NONE = -1;
+    private static final String[] TYPES = {"Withdrawal", "Deposit", "Balance Inquiry"};
+
+    private final FileChannel channel;
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    // Keyed by cardKey, so card numbers that differ only in leading zeros have separate chains
+    private final LongIntMap lastByCard = new LongIntMap();
+    // Keyed by terminalKey: the terminal's 8 record bytes read as one long
+    private final LongIntMap lastByTerminal = new LongIntMap();
+    private static final int WRITE_BATCH = 256;
+    private static final int REOPEN_CHUNK = 4096;
+
+    // Holds one batch, and grows only while writes are failing and receipts queued before the failure keep arriving
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(RECORD_SIZE * WRITE_BATCH);
+    // Cards and terminals of the records in writeBuffer; the heads move to them once they are written
+    private long[] pendingCards = new long[WRITE_BATCH];
+    private long[] pendingTerminals = new long[WRITE_BATCH];
+    private final Thread writer;
+    private long nextNumber;
+    private int written;
+    private long lastTimestamp = Long.MIN_VALUE;
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    // Opens or creates the store, rebuilding the per-card and per-terminal heads from the existing records
+    public ReceiptStore(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        long records = channel.size() / RECORD_SIZE;
+        if (records > Integer.MAX_VALUE) {
+            throw new IOException("Receipt store is too large: " + records + " records");
+        }
+        // Reads the records a chunk at a time rather than one read call per record
+        ByteBuffer chunk = ByteBuffer.allocate(RECORD_SIZE * REOPEN_CHUNK);
+        for (int first = 0; first < records; first += REOPEN_CHUNK) {
+            int count = (int) Math.min(REOPEN_CHUNK, records - first);
+            chunk.clear().limit(count * RECORD_SIZE);
+            long position = (long) first * RECORD_SIZE;
+            while (chunk.hasRemaining()) {
+                if (channel.read(chunk, position + chunk.position()) < 0) {
+                    throw new IOException("Receipt record " + (first + chunk.position() / RECORD_SIZE)
+                            + " is truncated.");
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                int offset = i * RECORD_SIZE;
+                lastByCard.put(cardKey(chunk.getLong(offset + 8), chunk.get(offset + 49)), first + i);
+                lastByTerminal.put(chunk.getLong(offset + 32), first + i);
+            }
+            lastTimestamp = chunk.getLong((count - 1) * RECORD_SIZE);
+        }
+        written = (int) records;
+        nextNumber = records;
+        writer = new Thread(this::drain, "receipt-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Queues the receipt and returns its receipt number, which can be used to reprint it
+    public synchronized long append(Receipt receipt) {
+        if (closed) {
+            throw new IllegalStateException("Receipt store is closed.");
+        }
+        IOException error = failure;
+        if (error != null) {
+            throw new UncheckedIOException("Receipt store cannot write; flush() retries", error);
+        }
+        typeCode(receipt.getTransactionType());
+        cardKey(receipt.getCardNumber());
+        String terminalId = receipt.getTerminalId();
+        if (terminalId.isEmpty() || terminalId.length() > TERMINAL_LENGTH || terminalId.indexOf('\0') >= 0
+                || !StandardCharsets.US_ASCII.newEncoder().canEncode(terminalId)) {
+            throw new IllegalArgumentException("Terminal id must be 1 to " + TERMINAL_LENGTH
+                    + " ASCII characters other than NUL.");
+        }
+        queue.add(receipt);
+        return nextNumber++;
+    }
+
+    // Waits until every receipt appended so far is written and visible to queries; throws if a batch is still failing
+    public void flush() {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        queue.add(done);
+        done.join();
+        if (failure != null) {
+            throw new UncheckedIOException(failure);
+        }
+    }
+
+    public synchronized int size() {
+        return written;
+    }
+
+    public Receipt get(long receiptNumber) throws IOException {
+        synchronized (this) {
+            if (receiptNumber < 0 || receiptNumber >= written) {
+                return null;
+            }
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        readRecord((int) receiptNumber, record);
+        return decode(record);
+    }
+
+    // Newest first
+    public List<Receipt> lastByCard(String cardNumber, int n) throws IOException {
+        int head;
+        synchronized (this) {
+            head = lastByCard.get(cardKey(cardNumber));
+        }
+        return walk(head, n, 40);
+    }
+
+    // Newest first
+    public List<Receipt> lastByTerminal(String terminalId, int n) throws IOException {
+        if (terminalId.isEmpty() || terminalId.length() > TERMINAL_LENGTH) {
+            return new ArrayList<>();
+        }
+        int head;
+        synchronized (this) {
+            head = lastByTerminal.get(terminalKey(terminalId));
+        }
+        return walk(head, n, 44);
+    }
+
+    // Receipts with from <= time < to, oldest first, found by binary search over the time-ordered records
+    public List<Receipt> between(Instant from, Instant to) throws IOException {
+        int size = size();
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            readRecord(mid, record);
+            if (record.getLong(0) < from.toEpochMilli()) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        List<Receipt> result = new ArrayList<>();
+        for (int i = low; i < size; i++) {
+            readRecord(i, record);
+            if (record.getLong(0) >= to.toEpochMilli()) {
+                break;
+            }
+            result.add(decode(record));
+        }
+        return result;
+    }
+
+    // Receipts that still could not be written are reported here rather than dropped silently
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        IOException error = null;
+        try {
+            flush();
+        } catch (UncheckedIOException e) {
+            error = e.getCause();
+        }
+        closed = true;
+        writer.interrupt();
+        channel.close();
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private List<Receipt> walk(int head, int n, int linkOffset) throws IOException {
+        List<Receipt> result = new ArrayList<>(Math.min(n, 64));
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        int next = head;
+        while (next != NONE && result.size() < n) {
+            readRecord(next, record);
+            result.add(decode(record));
+            next = record.getInt(linkOffset);
+        }
+        return result;
+    }
+
+    private void drain() {
+        List<Object> batch = new ArrayList<>();
+        try {
+            while (!closed) {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                for (Object item : batch) {
+                    if (item instanceof Receipt) {
+                        if (!writeBuffer.hasRemaining() && !writeBuffered()) {
+                            growBuffer();
+                        }
+                        encode((Receipt) item);
+                    } else {
+                        writeBuffered();
+                        ((CompletableFuture<?>) item).complete(null);
+                    }
+                }
+                writeBuffered();
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+
+    // Runs on the writer thread only, with room for one more record in the buffer
+    private void encode(Receipt receipt) {
+        long card = cardKey(receipt.getCardNumber());
+        String terminalId = receipt.getTerminalId();
+        long terminal = terminalKey(terminalId);
+        int pending = writeBuffer.position() / RECORD_SIZE;
+        int base;
+        int previousForCard = NONE;
+        int previousForTerminal = NONE;
+        synchronized (this) {
+            base = written;
+        }
+        for (int i = pending - 1; i >= 0 && (previousForCard == NONE || previousForTerminal == NONE); i--) {
+            if (previousForCard == NONE && pendingCards[i] == card) {
+                previousForCard = base + i;
+            }
+            if (previousForTerminal == NONE && pendingTerminals[i] == terminal) {
+                previousForTerminal = base + i;
+            }
+        }
+        synchronized (this) {
+            if (previousForCard == NONE) {
+                previousForCard = lastByCard.get(card);
+            }
+            if (previousForTerminal == NONE) {
+                previousForTerminal = lastByTerminal.get(terminal);
+            }
+        }
+        pendingCards[pending] = card;
+        pendingTerminals[pending] = terminal;
+        // Time never goes backwards in the file, so it stays sorted for binary search
+        lastTimestamp = Math.max(lastTimestamp, receipt.getTimestamp().toEpochMilli());
+        writeBuffer.putLong(lastTimestamp);
+        writeBuffer.putLong(Long.parseLong(receipt.getCardNumber()));
+        writeBuffer.putLong(receipt.getAmount() == null ? NO_AMOUNT : Account.toCents(receipt.getAmount()));
+        writeBuffer.putLong(Account.toCents(receipt.getRemainingBalance()));
+        writeBuffer.putLong(terminal);
+        writeBuffer.putInt(previousForCard);
+        writeBuffer.putInt(previousForTerminal);
+        writeBuffer.put(typeCode(receipt.getTransactionType()));
+        writeBuffer.put((byte) receipt.getCardNumber().length());
+        writeBuffer.putShort((short) 0);
+    }
+
+    // Writes and forces the buffered batch, then moves the heads to it. On failure the batch stays buffered so the
+    // next call rewrites it at the same position; returns whether the buffer is now empty.
+    private boolean writeBuffered() {
+        if (writeBuffer.position() == 0) {
+            return true;
+        }
+        ByteBuffer batch = writeBuffer.duplicate().flip();
+        int records = batch.remaining() / RECORD_SIZE;
+        try {
+            long position;
+            synchronized (this) {
+                position = (long) written * RECORD_SIZE;
+            }
+            while (batch.hasRemaining()) {
+                position += channel.write(batch, position);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            failure = e;
+            return false;
+        }
+        synchronized (this) {
+            for (int i = 0; i < records; i++) {
+                lastByCard.put(pendingCards[i], written + i);
+                lastByTerminal.put(pendingTerminals[i], written + i);
+            }
+            written += records;
+        }
+        failure = null;
+        writeBuffer.clear();
+        return true;
+    }
+
+    private void growBuffer() {
+        int records = pendingCards.length * 2;
+        writeBuffer = ByteBuffer.allocate(RECORD_SIZE * records).put(writeBuffer.flip());
+        pendingCards = Arrays.copyOf(pendingCards, records);
+        pendingTerminals = Arrays.copyOf(pendingTerminals, records);
+    }
+
+    private void readRecord(int number, ByteBuffer record) throws IOException {
+        record.clear();
+        long position = (long) number * RECORD_SIZE;
+        while (record.hasRemaining()) {
+            if (channel.read(record, position + record.position()) < 0) {
+                throw new IOException("Receipt record " + number + " is truncated.");
+            }
+        }
+    }
+
+    private static Receipt decode(ByteBuffer record) {
+        long amount = record.getLong(16);
+        String digits = Long.toString(record.getLong(8));
+        int cardLength = record.get(49);
+        return new Receipt(Instant.ofEpochMilli(record.getLong(0)), "0".repeat(cardLength - digits.length()) + digits,
+                terminalAt(record), TYPES[record.get(48)], amount == NO_AMOUNT ? null : BigDecimal.valueOf(amount, 2),
+                BigDecimal.valueOf(record.getLong(24), 2));
+    }
+
+    private static String terminalAt(ByteBuffer record) {
+        int length = 0;
+        while (length < TERMINAL_LENGTH && record.get(32 + length) != 0) {
+            length++;
+        }
+        byte[] terminal = new byte[length];
+        record.get(32, terminal);
+        return new String(terminal, StandardCharsets.US_ASCII);
+    }
+
+    // The terminal id's ASCII bytes, zero padded to TERMINAL_LENGTH, as one big-endian long: the same value
+    // getLong reads back from the record. Never 0, since ids are non-empty and contain no NUL.
+    private static long terminalKey(String terminalId) {
+        long key = 0;
+        for (int i = 0; i < TERMINAL_LENGTH; i++) {
+            key = key << 8 | (i < terminalId.length() ? terminalId.charAt(i) & 0x7F : 0);
+        }
+        return key;
+    }
+
+    private static byte typeCode(String transactionType) {
+        for (int i = 0; i < TYPES.length; i++) {
+            if (TYPES[i].equals(transactionType)) {
+                return (byte) i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown transaction type: " + transactionType);
+    }
+
+    // The card's digits with a leading 1 prepended, so "004003" and "4003" get different keys
+    private static long cardKey(String cardNumber) {
+        if (cardNumber.isEmpty() || cardNumber.length() > MAX_CARD_LENGTH
+                || !cardNumber.chars().allMatch(c -> c >= '0' && c <= '9')) {
+            throw new IllegalArgumentException("Card number must be 1 to " + MAX_CARD_LENGTH + " digits.");
+        }
+        return cardKey(Long.parseLong(cardNumber), cardNumber.length());
+    }
+
+    private static long cardKey(long digits, int length) {
+        long key = 1;
+        for (int i = 0; i < length; i++) {
+            key *= 10;
+        }
+        return key + digits;
+    }
+
+    // Open-addressing long to int map for the chain heads, so neither keys nor record numbers are boxed. Key 0 marks
+    // an empty slot; card and terminal keys are never 0.
+    private static final class LongIntMap {
+        private long[] keys = new long[64];
+        private int[] values = new int[64];
+        private int size;
+
+        int get(long key) {
+            int mask = keys.length - 1;
+            for (int slot = slot(key, mask); keys[slot] != 0; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+            }
+            return NONE;
+        }
+
+        void put(long key, int value) {
+            int mask = keys.length - 1;
+            int slot = slot(key, mask);
+            while (keys[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (keys[slot] == 0) {
+                if (++size > keys.length / 2) {
+                    grow();
+                    put(key, value);
+                    return;
+                }
+                keys[slot] = key;
+            }
+            values[slot] = value;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int slot(long key, int mask) {
+            return (int) (key * 0x9E3779B97F4A7C15L >>> 32) & mask;
+        }
+    }
+}
+
+// Time-ordered transaction record for one account, kept in primitive columns
+class TransactionHistory {
+    static final byte WITHDRAWAL = 1;
+    static final byte DEPOSIT = 2;
+
+    private long[] timestamps = new long[64];
+    private byte[] types = new byte[64];
+    private long[] amounts = new long[64];
+    private long[] balances = new long[64];
+    private int size;
+
+    // Timestamps never go backwards, so the columns stay sorted for binary search
+    public synchronized void append(long epochMillis, byte type, long amountCents, long balanceCents) {
+        if (size == timestamps.length) {
+            int grown = size * 2;
+            timestamps = Arrays.copyOf(timestamps, grown);
+            types = Arrays.copyOf(types, grown);
+            amounts = Arrays.copyOf(amounts, grown);
+            balances = Arrays.copyOf(balances, grown);
+        }
+        timestamps[size] = size > 0 ? Math.max(epochMillis, timestamps[size - 1]) : epochMillis;
+        types[size] = type;
+        amounts[size] = amountCents;
+        balances[size] = balanceCents;
+        size++;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    // Index of the first entry at or after the given time (size() if there is none)
+    public synchronized int firstAtOrAfter(long epochMillis) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[mid] < epochMillis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    synchronized long timestampAt(int index) {
+        return timestamps[index];
+    }
+
+    synchronized byte typeAt(int index) {
+        return types[index];
+    }
+
+    synchronized long amountAt(int index) {
+        return amounts[index];
+    }
+
+    synchronized long balanceAt(int index) {
+        return balances[index];
+    }
+}
+
+// Streams a date-range statement row by row; memory use does not depend on the length of the history
+class StatementWriter {
+    enum Format { CSV, FIXED_WIDTH }
+
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final Format format;
+
+    public StatementWriter(Format format) {
+        this.format = format;
+    }
+
+    // Writes entries with from <= time < to and returns how many were written
+    public int write(Account account, Instant from, Instant to, Appendable out) throws IOException {
+        TransactionHistory history = account.getHistory();
+        writeHeader(account, out);
+        int rows = 0;
+        long end = to.toEpochMilli();
+        int last = history.size();
+        StringBuilder line = new StringBuilder(80);
+        for (int i = history.firstAtOrAfter(from.toEpochMilli()); i < last; i++) {
+            long timestamp = history.timestampAt(i);
+            if (timestamp >= end) {
+                break;
+            }
+            line.setLength(0);
+            TIMESTAMP.formatTo(LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), account.getZone()), line);
+            String type = history.typeAt(i) == TransactionHistory.WITHDRAWAL ? "Withdrawal" : "Deposit";
+            if (format == Format.CSV) {
+                line.append(',').append(type).append(',');
+                appendCents(line, history.amountAt(i));
+                line.append(',');
+                appendCents(line, history.balanceAt(i));
+            } else {
+                line.append("  ");
+                pad(line, type, 12);
+                padCents(line, history.amountAt(i), 14);
+                padCents(line, history.balanceAt(i), 16);
+            }
+            out.append(line).append('\n');
+            rows++;
+        }
+        return rows;
+    }
+
+    private void writeHeader(Account account, Appendable out) throws IOException {
+        if (format == Format.CSV) {
+            out.append("date,type,amount,balance\n");
+        } else {
+            out.append("Statement for card ").append(account.getCardNumber()).append('\n');
+            out.append("Date                 Type                Amount         Balance\n");
+        }
+    }
+
+    private static void pad(StringBuilder line, String text, int width) {
+        line.append(text);
+        for (int i = text.length(); i < width; i++) {
+            line.append(' ');
+        }
+    }
+
+    private static void padCents(StringBuilder line, long cents, int width) {
+        int start = line.length();
+        appendCents(line, cents);
+        int written = line.length() - start;
+        for (int i = written; i < width; i++) {
+            line.insert(start, ' ');
+        }
+    }
+
+    private static void appendCents(StringBuilder line, long cents) {
+        if (cents < 0) {
+            line.append('-');
+            cents = -cents;
+        }
+        line.append(cents / 100).append('.');
+        long fraction = cents % 100;
+        if (fraction < 10) {
+            line.append('0');
+        }
+        line.append(fraction);
+    }
+}
+
+// ISO 9564 format 0 PIN blocks: the PIN field (control nibble 0, length, digits, F padding) XORed with the
+// twelve rightmost PAN digits excluding the check digit, encrypted under a triple-DES PIN key
+final class PinBlock {
+    static final int LENGTH = 8;
+
+    private PinBlock() {
+    }
+
+    static byte[] format0(String pin, String pan) {
+        // ASCII digits only: Character.isDigit also accepts other scripts' digits, which do not map to a nibble
+        if (pin == null || pin.length() < 4 || pin.length() > 12 || !pin.chars().allMatch(c -> c >= '0' && c <= '9')) {
+            throw new IllegalArgumentException("PIN must be 4 to 12 digits");
+        }
+        byte[] block = new byte[LENGTH];
+        byte[] panField = panField(pan);
+        for (int i = 0; i < 16; i++) {
+            int nibble = i == 0 ? 0 : i == 1 ? pin.length() : i - 2 < pin.length() ? pin.charAt(i - 2) - '0' : 0xF;
+            block[i / 2] |= (byte) (i % 2 == 0 ? nibble << 4 : nibble);
+        }
+        for (int i = 0; i < LENGTH; i++) {
+            block[i] ^= panField[i];
+        }
+        return block;
+    }
+
+    // The clear PIN, or null when the block is not a well-formed format 0 block for this PAN
+    static String extractPin(byte[] block, String pan) {
+        if (block == null || block.length != LENGTH) {
+            return null;
+        }
+        byte[] panField = panField(pan);
+        int[] nibbles = new int[16];
+        for (int i = 0; i < LENGTH; i++) {
+            int b = (block[i] ^ panField[i]) & 0xFF;
+            nibbles[2 * i] = b >>> 4;
+            nibbles[2 * i + 1] = b & 0xF;
+        }
+        int length = nibbles[1];
+        if (nibbles[0] != 0 || length < 4 || length > 12) {
+            return null;
+        }
+        StringBuilder pin = new StringBuilder(length);
+        for (int i = 2; i < 16; i++) {
+            int nibble = nibbles[i];
+            if (i - 2 < length ? nibble > 9 : nibble != 0xF) {
+                return null;
+            }
+            if (i - 2 < length) {
+                pin.append((char) ('0' + nibble));
+            }
+        }
+        return pin.toString();
+    }
+
+    static byte[] encrypt(SecretKey key, byte[] block) {
+        return crypt(Cipher.ENCRYPT_MODE, key, block);
+    }
+
+    static byte[] decrypt(SecretKey key, byte[] block) {
+        return crypt(Cipher.DECRYPT_MODE, key, block);
+    }
+
+    static SecretKey key(byte[] keyBytes) {
+        if (keyBytes.length != 24) {
+            throw new IllegalArgumentException("PIN keys are 24-byte triple-DES keys");
+        }
+        return new SecretKeySpec(keyBytes, "DESede");
+    }
+
+    private static byte[] crypt(int mode, SecretKey key, byte[] block) {
+        try {
+            Cipher cipher = Cipher.getInstance("DESede/ECB/NoPadding");
+            cipher.init(mode, key);
+            return cipher.doFinal(block);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("DESede is not available", e);
+        }
+    }
+
+    private static byte[] panField(String pan) {
+        String digits = pan.length() > 1 ? pan.substring(0, pan.length() - 1) : "";
+        digits = digits.length() > 12 ? digits.substring(digits.length() - 12) : digits;
+        byte[] field = new byte[LENGTH];
+        for (int i = 0; i < digits.length(); i++) {
+            int nibble = 16 - digits.length() + i;
+            field[nibble / 2] |= (byte) (nibble % 2 == 0 ? (digits.charAt(i) - '0') << 4 : digits.charAt(i) - '0');
+        }
+        return field;
+    }
+}
+
+// Terminal side of the PIN path: the PIN pad encrypts the PIN block under its terminal PIN key, so the clear PIN
+// never leaves it
+class PinPad {
+    private final SecretKey key;
+
+    public PinPad(byte[] terminalPinKey) {
+        this.key = PinBlock.key(terminalPinKey);
+    }
+
+    public byte[] encryptPinBlock(String pin, String pan) {
+        return PinBlock.encrypt(key, PinBlock.format0(pin, pan));
+    }
+}
+
+// Verify a PIN block encrypted under keyName against the card's PIN verification value
+final class PinVerification {
+    final String keyName;
+    final byte[] pinBlock;
+    final String pan;
+    final byte[] verificationValue;
+
+    PinVerification(String keyName, byte[] pinBlock, String pan, byte[] verificationValue) {
+        this.keyName = keyName;
+        this.pinBlock = pinBlock;
+        this.pan = pan;
+        this.verificationValue = verificationValue;
+    }
+}
+
+// Re-encrypt a PIN block from one PIN key to another, e.g. terminal key to zone key
+final class PinTranslation {
+    final String fromKey;
+    final String toKey;
+    final byte[] pinBlock;
+    final String pan;
+
+    PinTranslation(String fromKey, String toKey, byte[] pinBlock, String pan) {
+        this.fromKey = fromKey;
+        this.toKey = toKey;
+        this.pinBlock = pinBlock;
+        this.pan = pan;
+    }
+}
+
+// Hardware security module. Every method is one round trip; batch methods return results in request order.
+interface HsmService {
+    // Verification value to store for a card, derived from a PIN block; issued once at PIN selection
+    byte[] generateVerificationValue(String keyName, byte[] pinBlock, String pan);
+
+    boolean[] verifyPins(List<PinVerification> requests);
+
+    // Null entries mark requests whose block did not decrypt to a valid format 0 block
+    byte[][] translatePinBlocks(List<PinTranslation> requests);
+}
+
+// Software stand-in for an HSM. Keys live in memory, and each call sleeps for the configured latency to model the
+// network round trip and queueing of a real module.
+class SoftwareHsm implements HsmService {
+    private final Map<String, SecretKey> keys = new ConcurrentHashMap<>();
+    private final SecretKeySpec verificationKey;
+    private final long latencyNanos;
+    private final SecureRandom random = new SecureRandom();
+    private final LongAdder calls = new LongAdder();
+
+    public SoftwareHsm(long latency, TimeUnit unit) {
+        byte[] secret = new byte[32];
+        random.nextBytes(secret);
+        this.verificationKey = new SecretKeySpec(secret, "HmacSHA256");
+        this.latencyNanos = unit.toNanos(latency);
+    }
+
+    // Creates a PIN key and returns its clear value for loading into a PIN pad
+    public byte[] generateKey(String keyName) {
+        byte[] keyBytes = new byte[24];
+        random.nextBytes(keyBytes);
+        keys.put(keyName, PinBlock.key(keyBytes));
+        return keyBytes;
+    }
+
+    public long callCount() {
+        return calls.sum();
+    }
+
+    @Override
+    public byte[] generateVerificationValue(String keyName, byte[] pinBlock, String pan) {
+        roundTrip();
+        String pin = clearPin(keyName, pinBlock, pan);
+        if (pin == null) {
+            throw new IllegalArgumentException("Invalid PIN block");
+        }
+        return verificationValue(pan, pin);
+    }
+
+    @Override
+    public boolean[] verifyPins(List<PinVerification> requests) {
+        roundTrip();
+        boolean[] results = new boolean[requests.size()];
+        for (int i = 0; i < results.length; i++) {
+            PinVerification request = requests.get(i);
+            String pin = clearPin(request.keyName, request.pinBlock, request.pan);
+            results[i] = pin != null && request.verificationValue != null
+                    && MessageDigest.isEqual(request.verificationValue, verificationValue(request.pan, pin));
+        }
+        return results;
+    }
+
+    @Override
+    public byte[][] translatePinBlocks(List<PinTranslation> requests) {
+        roundTrip();
+        byte[][] results = new byte[requests.size()][];
+        for (int i = 0; i < results.length; i++) {
+            PinTranslation request = requests.get(i);
+            String pin = clearPin(request.fromKey, request.pinBlock, request.pan);
+            SecretKey to = keys.get(request.toKey);
+            if (pin != null && to != null) {
+                results[i] = PinBlock.encrypt(to, PinBlock.format0(pin, request.pan));
+            }
+        }
+        return results;
+    }
+
+    private String clearPin(String keyName, byte[] pinBlock, String pan) {
+        SecretKey key = keys.get(keyName);
+        if (key == null || pinBlock == null || pinBlock.length != PinBlock.LENGTH) {
+            return null;
+        }
+        return PinBlock.extractPin(PinBlock.decrypt(key, pinBlock), pan);
+    }
+
+    private byte[] verificationValue(String pan, String pin) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(verificationKey);
+            return mac.doFinal((pan + '|' + pin).getBytes(StandardCharsets.US_ASCII));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    private void roundTrip() {
+        calls.increment();
+        try {
+            TimeUnit.NANOSECONDS.sleep(latencyNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
+
+// Collects PIN requests from every session and sends whatever has queued up as one HSM call. While one call is in
+// flight the next batch builds up, so throughput grows with load instead of being capped at one PIN per round trip.
+class HsmBatcher implements AutoCloseable {
+    static final int DEFAULT_MAX_BATCH = 64;
+
+    private final HsmService hsm;
+    private final int maxBatch;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread dispatcher;
+    private volatile boolean closed;
+
+    public HsmBatcher(HsmService hsm) {
+        this(hsm, DEFAULT_MAX_BATCH);
+    }
+
+    public HsmBatcher(HsmService hsm, int maxBatch) {
+        this.hsm = hsm;
+        this.maxBatch = maxBatch;
+        dispatcher = new Thread(this::dispatch, "hsm-batcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    public CompletableFuture<Boolean> verify(PinVerification request) {
+        Pending pending = new Pending(request);
+        submit(pending);
+        return pending.future.thenApply(Boolean.class::cast);
+    }
+
+    public CompletableFuture<byte[]> translate(PinTranslation request) {
+        Pending pending = new Pending(request);
+        submit(pending);
+        return pending.future.thenApply(byte[].class::cast);
+    }
+
+    private void submit(Pending pending) {
+        if (closed) {
+            pending.future.completeExceptionally(new IllegalStateException("HSM batcher is closed"));
+            return;
+        }
+        queue.add(pending);
+        // close() may have drained the queue between the check above and the add; whichever of us removes the
+        // request fails it, so it cannot be left waiting forever
+        if (closed && queue.remove(pending)) {
+            pending.future.completeExceptionally(new IllegalStateException("HSM batcher is closed"));
+        }
+    }
+
+    private void dispatch() {
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        List<Pending> verifications = new ArrayList<>(maxBatch);
+        List<Pending> translations = new ArrayList<>(maxBatch);
+        while (!closed) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(batch, maxBatch - 1);
+            for (Pending pending : batch) {
+                (pending.request instanceof PinVerification ? verifications : translations).add(pending);
+            }
+            if (!verifications.isEmpty()) {
+                sendVerifications(verifications);
+            }
+            if (!translations.isEmpty()) {
+                sendTranslations(translations);
+            }
+            batch.clear();
+            verifications.clear();
+            translations.clear();
+        }
+    }
+
+    private void sendVerifications(List<Pending> pending) {
+        List<PinVerification> requests = new ArrayList<>(pending.size());
+        for (Pending p : pending) {
+            requests.add((PinVerification) p.request);
+        }
+        try {
+            boolean[] results = hsm.verifyPins(requests);
+            for (int i = 0; i < results.length; i++) {
+                pending.get(i).future.complete(results[i]);
+            }
+        } catch (RuntimeException e) {
+            pending.forEach(p -> p.future.completeExceptionally(e));
+        }
+    }
+
+    private void sendTranslations(List<Pending> pending) {
+        List<PinTranslation> requests = new ArrayList<>(pending.size());
+        for (Pending p : pending) {
+            requests.add((PinTranslation) p.request);
+        }
+        try {
+            byte[][] results = hsm.translatePinBlocks(requests);
+            for (int i = 0; i < results.length; i++) {
+                if (results[i] == null) {
+                    pending.get(i).future.completeExceptionally(new IllegalArgumentException("Invalid PIN block"));
+                } else {
+                    pending.get(i).future.complete(results[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            pending.forEach(p -> p.future.completeExceptionally(e));
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        dispatcher.interrupt();
+        try {
+            dispatcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            pending.future.completeExceptionally(new IllegalStateException("HSM batcher is closed"));
+        }
+    }
+
+    private static final class Pending {
+        final Object request;
+        final CompletableFuture<Object> future = new CompletableFuture<>();
+
+        Pending(Object request) {
+            this.request = request;
+        }
+    }
+}
+
 // ATM Class
 public class ATM {
     public static java.util.Scanner scanner = new java.util.Scanner(System.in);
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         // Create an account
         Account userAccount = new Account("1234567890", "1234", BigDecimal.valueOf(1000.00));
+        ReceiptStore receipts = new ReceiptStore(Path.of(args.length > 0 ? args[0] : "receipts.bin"));
+
+        // PIN checks go to the HSM stand-in; the PIN pad shares the terminal PIN key with it
+        SoftwareHsm hsm = new SoftwareHsm(5, TimeUnit.MILLISECONDS);
+        PinPad pinPad = new PinPad(hsm.generateKey("TPK-ATM-0001"));
+        userAccount.setPinVerificationValue(hsm.generateVerificationValue("TPK-ATM-0001",
+                pinPad.encryptPinBlock("1234", userAccount.getCardNumber()), userAccount.getCardNumber()));
+        HsmBatcher hsmBatcher = new HsmBatcher(hsm);
 
         // ATM Operations
         ATMComponent checkBalance = new CheckBalance(userAccount);
-        ATMComponent withdrawCash = new WithdrawCash(userAccount);
-        ATMComponent depositFunds = new DepositFunds(userAccount);
-        ATMComponent changePIN = new ChangePIN(userAccount);
+        ATMComponent withdrawCash = new WithdrawCash(userAccount, receipts);
+        ATMComponent depositFunds = new DepositFunds(userAccount, receipts);
+        ATMComponent changePIN = new ChangePIN(userAccount, hsm, hsmBatcher, pinPad, "TPK-ATM-0001");
 
         // Main ATM Transaction
         ATMTransaction atmTransaction = new ATMTransaction();
@@ -213,16 +1808,39 @@ public class ATM {
         atmTransaction.addOperation(depositFunds);
         atmTransaction.addOperation(changePIN);
 
+        // Optional tracing: ATM [receipts.bin] [trace.json] [sample rate]
+        Tracer tracer = Tracer.OFF;
+        if (args.length > 1) {
+            tracer = new Tracer(args.length > 2 ? Double.parseDouble(args[2]) : 0.1);
+            atmTransaction.setTracer(tracer);
+        }
+
         // Simulate ATM interaction
         System.out.println("Welcome to the ATM");
         System.out.print("Enter your PIN: ");
         String enteredPIN = scanner.nextLine();
 
-        if (userAccount.verifyPIN(enteredPIN)) {
+        ATMEvent event = ATMEvent.start();
+        boolean verified;
+        try {
+            verified = userAccount.verifyPinBlock(hsmBatcher, "TPK-ATM-0001",
+                    pinPad.encryptPinBlock(enteredPIN, userAccount.getCardNumber())).join();
+        } catch (IllegalArgumentException e) {
+            verified = false;
+        }
+        ATMEvent.finish(event, "AUTHENTICATE", userAccount.getCardNumber(), 0,
+                verified ? ATMEvent.SUCCESS : ATMEvent.FAILED);
+
+        if (verified) {
             System.out.println("PIN verified.");
             atmTransaction.performOperation();
         } else {
             System.out.println("Authentication failed.");
         }
+        hsmBatcher.close();
+        receipts.close();
+        if (tracer != Tracer.OFF) {
+            tracer.export(Path.of(args[1]));
+        }
     }
-}
\ No newline at end of file
+}
@@ -1,9 +1,22 @@
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -67,7 +80,7 @@ public class ATMTest {
 
     // ATM Interaction Tests (Using System.in redirection for simulation)
     @Test
-    void testATMActions() {
+    void testATMActions() throws IOException {
         String input = "1234\n" +              // Correct PIN
                        "1\n" +               // Select Check Balance
                        "2\n" +               // Select Withdraw Cash
@@ -88,4 +101,335 @@ public class ATMTest {
         // Add assertions based on expected output or state changes
         // (Example: Check if balance is updated correctly)
     }
-}
\ No newline at end of file
+
+    // Statement Tests
+    @Test
+    void testStatement_CsvForDateRange() throws Exception {
+        Instant start = Instant.parse("2021-01-01T10:00:00Z");
+        Instant[] now = {start};
+        Clock clock = new Clock() {
+            @Override
+            public ZoneOffset getZone() {
+                return ZoneOffset.UTC;
+            }
+
+            @Override
+            public Clock withZone(java.time.ZoneId zone) {
+                return this;
+            }
+
+            @Override
+            public Instant instant() {
+                return now[0];
+            }
+        };
+        Account account = new Account("1234567890", "1234", BigDecimal.valueOf(1000.00), clock);
+        account.deposit(200.5);
+        now[0] = start.plus(Duration.ofDays(400));
+        account.withdraw(100);
+        now[0] = start.plus(Duration.ofDays(800));
+        account.withdraw(50);
+
+        StringBuilder out = new StringBuilder();
+        int rows = new StatementWriter(StatementWriter.Format.CSV)
+                .write(account, start.plus(Duration.ofDays(1)), start.plus(Duration.ofDays(900)), out);
+        assertEquals(2, rows);
+        assertEquals("date,type,amount,balance\n"
+                + "2022-02-05 10:00:00,Withdrawal,100.00,1100.50\n"
+                + "2023-03-12 10:00:00,Withdrawal,50.00,1050.50\n", out.toString());
+    }
+
+    @Test
+    void testStatement_FixedWidthAndEmptyRange() throws Exception {
+        Account account = new Account("1234567890", "1234", BigDecimal.valueOf(1000.00),
+                Clock.fixed(Instant.parse("2024-05-01T08:30:00Z"), ZoneOffset.UTC));
+        account.withdraw(20.05);
+        StringBuilder out = new StringBuilder();
+        new StatementWriter(StatementWriter.Format.FIXED_WIDTH)
+                .write(account, Instant.parse("2024-05-01T00:00:00Z"), Instant.parse("2024-05-02T00:00:00Z"), out);
+        assertTrue(out.toString().endsWith("2024-05-01 08:30:00  Withdrawal           20.05          979.95\n"));
+        StringBuilder empty = new StringBuilder();
+        assertEquals(0, new StatementWriter(StatementWriter.Format.CSV)
+                .write(account, Instant.parse("2025-01-01T00:00:00Z"), Instant.parse("2026-01-01T00:00:00Z"), empty));
+    }
+
+    private static Receipt receipt(long epochMillis, String card, String terminal, String type, long cents) {
+        return new Receipt(Instant.ofEpochMilli(epochMillis), card, terminal, type, BigDecimal.valueOf(cents, 2),
+                BigDecimal.valueOf(100_000 - cents, 2));
+    }
+
+    @Test
+    void testReceiptStore_LastByCardAndTerminal(@TempDir Path dir) throws Exception {
+        try (ReceiptStore store = new ReceiptStore(dir.resolve("receipts.bin"))) {
+            for (int i = 0; i < 1000; i++) {
+                store.append(receipt(1_000 + i, "00" + (4000 + i % 7), "ATM-000" + i % 3, "Withdrawal", i));
+            }
+            store.flush();
+            assertEquals(1000, store.size());
+
+            List<Receipt> lastForCard = store.lastByCard("004003", 3);
+            assertEquals(3, lastForCard.size());
+            assertEquals(BigDecimal.valueOf(997, 2), lastForCard.get(0).getAmount());
+            assertEquals(BigDecimal.valueOf(990, 2), lastForCard.get(1).getAmount());
+            assertEquals("004003", lastForCard.get(0).getCardNumber());
+
+            List<Receipt> lastForTerminal = store.lastByTerminal("ATM-0001", 2);
+            assertEquals(Instant.ofEpochMilli(1_997), lastForTerminal.get(0).getTimestamp());
+            assertEquals(Instant.ofEpochMilli(1_994), lastForTerminal.get(1).getTimestamp());
+            assertTrue(store.lastByCard("999", 5).isEmpty());
+        }
+    }
+
+    @Test
+    void testReceiptStore_ReprintAndTimeRangeSurviveReopen(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("receipts.bin");
+        long number;
+        try (ReceiptStore store = new ReceiptStore(file)) {
+            store.append(receipt(5_000, "1234567890", "ATM-0001", "Deposit", 2_500));
+            number = store.append(new Receipt(Instant.ofEpochMilli(6_000), "1234567890", "ATM-0002",
+                    "Balance Inquiry", null, BigDecimal.valueOf(1025)));
+            store.append(receipt(7_000, "1234567890", "ATM-0001", "Withdrawal", 1_000));
+        }
+        try (ReceiptStore store = new ReceiptStore(file)) {
+            assertEquals(3, store.size());
+            Receipt reprint = store.get(number);
+            assertEquals("Balance Inquiry", reprint.getTransactionType());
+            assertNull(reprint.getAmount());
+            assertEquals("ATM-0002", reprint.getTerminalId());
+
+            assertEquals(2, store.between(Instant.ofEpochMilli(5_500), Instant.ofEpochMilli(8_000)).size());
+            store.append(receipt(8_000, "1234567890", "ATM-0001", "Deposit", 300));
+            store.flush();
+            List<Receipt> last = store.lastByCard("1234567890", 10);
+            assertEquals(4, last.size());
+            assertEquals(Instant.ofEpochMilli(8_000), last.get(0).getTimestamp());
+        }
+    }
+
+    @Test
+    void testReceiptStore_LeadingZerosKeepCardsApart(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("receipts.bin");
+        try (ReceiptStore store = new ReceiptStore(file)) {
+            store.append(receipt(1_000, "004003", "ATM-0001", "Withdrawal", 100));
+            store.append(receipt(2_000, "4003", "ATM-0001", "Withdrawal", 200));
+        }
+        try (ReceiptStore store = new ReceiptStore(file)) {
+            List<Receipt> padded = store.lastByCard("004003", 10);
+            assertEquals(1, padded.size());
+            assertEquals("004003", padded.get(0).getCardNumber());
+            List<Receipt> plain = store.lastByCard("4003", 10);
+            assertEquals(1, plain.size());
+            assertEquals(BigDecimal.valueOf(200, 2), plain.get(0).getAmount());
+        }
+    }
+
+    @Test
+    void testReceiptStore_ReopenRebuildsHeadsAcrossChunks(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("receipts.bin");
+        try (ReceiptStore store = new ReceiptStore(file)) {
+            for (int i = 0; i < 10_000; i++) {
+                store.append(receipt(1_000 + i, "5" + i % 101, "T" + i % 13, "Withdrawal", i));
+            }
+        }
+        try (ReceiptStore store = new ReceiptStore(file)) {
+            assertEquals(10_000, store.size());
+            List<Receipt> lastForCard = store.lastByCard("57", 2);
+            assertEquals(BigDecimal.valueOf(9_905, 2), lastForCard.get(0).getAmount());
+            assertEquals(BigDecimal.valueOf(9_804, 2), lastForCard.get(1).getAmount());
+            List<Receipt> lastForTerminal = store.lastByTerminal("T12", 2);
+            assertEquals(Instant.ofEpochMilli(10_996), lastForTerminal.get(0).getTimestamp());
+            assertEquals(Instant.ofEpochMilli(10_983), lastForTerminal.get(1).getTimestamp());
+            assertTrue(store.lastByTerminal("T13", 1).isEmpty());
+            store.append(receipt(20_000, "57", "T12", "Deposit", 1));
+            store.flush();
+            assertEquals(Instant.ofEpochMilli(10_996), store.lastByTerminal("T12", 2).get(1).getTimestamp());
+            assertEquals(BigDecimal.valueOf(9_905, 2), store.lastByCard("57", 2).get(1).getAmount());
+        }
+    }
+
+    @Test
+    void testReceiptStore_RejectsUnknownType(@TempDir Path dir) throws Exception {
+        try (ReceiptStore store = new ReceiptStore(dir.resolve("receipts.bin"))) {
+            assertThrows(IllegalArgumentException.class,
+                    () -> store.append(receipt(1, "1234", "ATM-0001", "Refund", 1)));
+            assertThrows(IllegalArgumentException.class,
+                    () -> store.append(receipt(1, "1234", "TERMINAL-LONG", "Deposit", 1)));
+            assertThrows(IllegalArgumentException.class,
+                    () -> store.append(receipt(1, "1234", "ATM\u00000001", "Deposit", 1)));
+        }
+    }
+
+    // Tracer Tests
+    @Test
+    void testTracer_NestedTransactionSpansLinkToParent() {
+        long[] now = {0};
+        Tracer tracer = new Tracer(1.0, 16, () -> now[0] += 1_000);
+        Account account = new Account("1234567890", "1234", BigDecimal.valueOf(1000.00));
+        ATMTransaction inner = new ATMTransaction("Inquiry");
+        inner.addOperation(new CheckBalance(account));
+        ATMTransaction session = new ATMTransaction("Session");
+        session.setTracer(tracer);
+        session.addOperation(inner);
+        session.performOperation();
+
+        List<Tracer.Span> spans = tracer.spans();
+        assertEquals(3, spans.size());
+        assertEquals("CheckBalance", spans.get(0).getName());
+        assertEquals(spans.get(1).getId(), spans.get(0).getParentId());
+        assertEquals(spans.get(2).getId(), spans.get(1).getParentId());
+        assertEquals(0L, spans.get(2).getParentId());
+        assertEquals(5_000, spans.get(2).getDurationNanos());
+    }
+
+    // HSM Tests
+    @Test
+    void testPinBlock_Format0RoundTrip() {
+        byte[] block = PinBlock.format0("1234", "4111111111111111");
+        assertEquals("041225eeeeeeeeee", HexFormat.of().formatHex(block));
+        assertEquals("1234", PinBlock.extractPin(block, "4111111111111111"));
+        assertNull(PinBlock.extractPin(block, "4111111111111129"));
+        assertThrows(IllegalArgumentException.class, () -> PinBlock.format0("12a4", "4111111111111111"));
+    }
+
+    @Test
+    void testSoftwareHsm_TranslateThenVerify() {
+        SoftwareHsm hsm = new SoftwareHsm(0, TimeUnit.MILLISECONDS);
+        PinPad pinPad = new PinPad(hsm.generateKey("TPK"));
+        hsm.generateKey("ZPK");
+        String pan = "1234567890";
+        byte[] pvv = hsm.generateVerificationValue("TPK", pinPad.encryptPinBlock("1234", pan), pan);
+
+        byte[] underTpk = pinPad.encryptPinBlock("1234", pan);
+        byte[][] translated = hsm.translatePinBlocks(List.of(new PinTranslation("TPK", "ZPK", underTpk, pan),
+                new PinTranslation("TPK", "UNKNOWN", underTpk, pan)));
+        assertNull(translated[1]);
+        byte[] tampered = underTpk.clone();
+        tampered[0] ^= 1;
+        boolean[] results = hsm.verifyPins(List.of(
+                new PinVerification("ZPK", translated[0], pan, pvv),
+                new PinVerification("TPK", pinPad.encryptPinBlock("4321", pan), pan, pvv),
+                new PinVerification("TPK", tampered, pan, pvv)));
+        assertArrayEquals(new boolean[] {true, false, false}, results);
+        assertEquals(3, hsm.callCount());
+    }
+
+    @Test
+    void testVerifyPinBlock_CountsAttemptsAndRetainsCard() {
+        SoftwareHsm hsm = new SoftwareHsm(1, TimeUnit.MILLISECONDS);
+        PinPad pinPad = new PinPad(hsm.generateKey("TPK"));
+        String pan = testAccount.getCardNumber();
+        testAccount.setPinVerificationValue(hsm.generateVerificationValue("TPK", pinPad.encryptPinBlock("1234", pan), pan));
+        try (HsmBatcher batcher = new HsmBatcher(hsm)) {
+            assertTrue(testAccount.verifyPinBlock(batcher, "TPK", pinPad.encryptPinBlock("1234", pan)).join());
+            for (int i = 0; i < 3; i++) {
+                assertFalse(testAccount.verifyPinBlock(batcher, "TPK", pinPad.encryptPinBlock("9999", pan)).join());
+            }
+            // Retained: even the right PIN is refused
+            assertFalse(testAccount.verifyPinBlock(batcher, "TPK", pinPad.encryptPinBlock("1234", pan)).join());
+        }
+    }
+
+    @Test
+    void testHsmBatcher_BatchesConcurrentSessions() {
+        SoftwareHsm hsm = new SoftwareHsm(5, TimeUnit.MILLISECONDS);
+        PinPad pinPad = new PinPad(hsm.generateKey("TPK"));
+        hsm.generateKey("ZPK");
+        List<Account> accounts = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            Account account = new Account(String.format("4000%012d", i), "1234", BigDecimal.TEN);
+            String pan = account.getCardNumber();
+            account.setPinVerificationValue(hsm.generateVerificationValue("TPK",
+                    pinPad.encryptPinBlock("1234", pan), pan));
+            accounts.add(account);
+        }
+        long enrolmentCalls = hsm.callCount();
+
+        try (HsmBatcher batcher = new HsmBatcher(hsm)) {
+            List<CompletableFuture<Boolean>> results = new ArrayList<>();
+            List<CompletableFuture<byte[]>> translations = new ArrayList<>();
+            for (Account account : accounts) {
+                byte[] block = pinPad.encryptPinBlock("1234", account.getCardNumber());
+                results.add(account.verifyPinBlock(batcher, "TPK", block));
+                translations.add(batcher.translate(new PinTranslation("TPK", "ZPK", block, account.getCardNumber())));
+            }
+            results.forEach(result -> assertTrue(result.join()));
+            translations.forEach(translation -> assertEquals(PinBlock.LENGTH, translation.join().length));
+        }
+        // 400 requests; each HSM call carries up to 64 of one kind
+        long calls = hsm.callCount() - enrolmentCalls;
+        assertTrue(calls >= 7 && calls <= 40, "HSM calls: " + calls);
+    }
+
+    @Test
+    void testVerifyPinBlock_NotEnrolledKeepsAttempts() {
+        SoftwareHsm hsm = new SoftwareHsm(0, TimeUnit.MILLISECONDS);
+        PinPad pinPad = new PinPad(hsm.generateKey("TPK"));
+        String pan = testAccount.getCardNumber();
+        try (HsmBatcher batcher = new HsmBatcher(hsm)) {
+            for (int i = 0; i < 5; i++) {
+                assertFalse(testAccount.verifyPinBlock(batcher, "TPK", pinPad.encryptPinBlock("1234", pan)).join());
+            }
+            assertEquals(0, hsm.callCount()); // refused before any HSM round trip
+            testAccount.setPinVerificationValue(hsm.generateVerificationValue("TPK", pinPad.encryptPinBlock("1234", pan), pan));
+            assertTrue(testAccount.verifyPinBlock(batcher, "TPK", pinPad.encryptPinBlock("1234", pan)).join());
+        }
+    }
+
+    @Test
+    void testChangePIN_ReEnrolsWithHsm() {
+        SoftwareHsm hsm = new SoftwareHsm(0, TimeUnit.MILLISECONDS);
+        PinPad pinPad = new PinPad(hsm.generateKey("TPK"));
+        String pan = testAccount.getCardNumber();
+        testAccount.setPinVerificationValue(hsm.generateVerificationValue("TPK", pinPad.encryptPinBlock("1234", pan), pan));
+        ATM.scanner = new java.util.Scanner("1234\n5678\n5678\n1234\nabcd\nabcd\n");
+        try (HsmBatcher batcher = new HsmBatcher(hsm)) {
+            ChangePIN changePIN = new ChangePIN(testAccount, hsm, batcher, pinPad, "TPK");
+            changePIN.performOperation();
+            assertTrue(testAccount.verifyPinBlock(batcher, "TPK", pinPad.encryptPinBlock("5678", pan)).join());
+            assertFalse(testAccount.verifyPinBlock(batcher, "TPK", pinPad.encryptPinBlock("1234", pan)).join());
+
+            // A PIN the PIN pad cannot encode is refused and the old one stays
+            testAccount = new Account(pan, "1234", BigDecimal.TEN);
+            testAccount.setPinVerificationValue(
+                    hsm.generateVerificationValue("TPK", pinPad.encryptPinBlock("1234", pan), pan));
+            new ChangePIN(testAccount, hsm, batcher, pinPad, "TPK").performOperation();
+            assertTrue(testAccount.verifyPIN("1234"));
+        }
+    }
+
+    @Test
+    void testChangePIN_ChecksOldPinAsPinBlock() {
+        SoftwareHsm hsm = new SoftwareHsm(0, TimeUnit.MILLISECONDS);
+        PinPad pinPad = new PinPad(hsm.generateKey("TPK"));
+        String pan = testAccount.getCardNumber();
+        try (HsmBatcher batcher = new HsmBatcher(hsm)) {
+            // Not enrolled: the clear PIN matches, but without a verification value the HSM path refuses it
+            ATM.scanner = new java.util.Scanner("1234\n5678\n5678\n");
+            new ChangePIN(testAccount, hsm, batcher, pinPad, "TPK").performOperation();
+            assertTrue(testAccount.verifyPIN("1234"));
+            assertEquals(0, testAccount.getAttempts());
+
+            testAccount.setPinVerificationValue(
+                    hsm.generateVerificationValue("TPK", pinPad.encryptPinBlock("1234", pan), pan));
+            ATM.scanner = new java.util.Scanner("9999\n");
+            new ChangePIN(testAccount, hsm, batcher, pinPad, "TPK").performOperation();
+            assertEquals(1, testAccount.getAttempts());
+        }
+    }
+
+    @Test
+    void testPinBlock_RejectsNonAsciiDigits() {
+        assertThrows(IllegalArgumentException.class, () -> PinBlock.format0("\u0661\u0662\u0663\u0664", "1234567890"));
+        assertThrows(IllegalArgumentException.class, () -> PinBlock.format0("\uFF11\uFF12\uFF13\uFF14", "1234567890"));
+        assertEquals(PinBlock.LENGTH, PinBlock.format0("1234", "1234567890").length);
+    }
+
+    @Test
+    void testHsmBatcher_FailsRequestsAfterClose() {
+        HsmBatcher batcher = new HsmBatcher(new SoftwareHsm(0, TimeUnit.MILLISECONDS));
+        batcher.close();
+        PinVerification request = new PinVerification("TPK", new byte[PinBlock.LENGTH], "1234567890", new byte[32]);
+        CompletionException e = assertThrows(CompletionException.class, () -> batcher.verify(request).join());
+        assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+}
@@ -1,7 +1,17 @@
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Currency;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 // Component interface for ATM operations
 interface ATMComponent {
@@ -61,15 +71,31 @@ class BalanceDisplay implements ATMComponent {
 // Leaf component: Cash Withdrawal
 class CashWithdrawal implements ATMComponent {
     private final Account account;
+    private final double amount;
+    private final Currency currency;
+    private final FxRateTable rates;
+    private final List<String> transactionHistory;
 
     public CashWithdrawal(Account account) {
+        this(account, 100, null, null, null); // Replace with actual amount input
+    }
+
+    // Withdrawal dispensed in the given currency, converted at the current rate snapshot when needed
+    public CashWithdrawal(Account account, double amount, Currency currency, FxRateTable rates,
+                          List<String> transactionHistory) {
         this.account = account;
+        this.amount = amount;
+        this.currency = currency;
+        this.rates = rates;
+        this.transactionHistory = transactionHistory;
     }
 
     @Override
     public void performOperation() {
-        // Simulate amount selection and withdrawal logic
-        double amount = 100; // Replace with actual amount input
+        if (rates != null) {
+            performRatedWithdrawal(currency == null ? account.getCurrency() : currency);
+            return;
+        }
         if (account.getBalance() >= amount) {
             account.withdraw(amount);
             System.out.println("$" + amount + " withdrawn successfully.");
@@ -77,22 +103,62 @@ class CashWithdrawal implements ATMComponent {
             System.out.println("Insufficient funds.");
         }
     }
+
+    // Home-currency withdrawals are priced from the same snapshot, so every history line names a rate version
+    private void performRatedWithdrawal(Currency currency) {
+        FxRateSnapshot snapshot = rates.snapshot();
+        FxWithdrawal result = account.withdraw(amount, currency, snapshot);
+        if (result.isSuccessful()) {
+            String line = String.format("Withdrawal: %.2f %s (debited %.2f %s, FX rate version %d)",
+                    amount, currency.getCurrencyCode(), result.getDebited(),
+                    result.getDebitedCurrency().getCurrencyCode(), result.getRateVersion());
+            System.out.println(line);
+            if (transactionHistory != null) {
+                transactionHistory.add(line);
+            }
+        } else {
+            System.out.println("Insufficient funds.");
+        }
+    }
 }
 
 // Leaf component: Deposit
 class Deposit implements ATMComponent {
     private final Account account;
+    private final double amount;
+    private final Currency currency;
+    private final FxRateTable rates;
+    private final List<String> transactionHistory;
 
     public Deposit(Account account) {
+        this(account, 200, null, null, null); // Replace with actual amount input
+    }
+
+    // Deposit credited in the given currency and stamped with the current rate snapshot version
+    public Deposit(Account account, double amount, Currency currency, FxRateTable rates,
+                   List<String> transactionHistory) {
         this.account = account;
+        this.amount = amount;
+        this.currency = currency;
+        this.rates = rates;
+        this.transactionHistory = transactionHistory;
     }
 
     @Override
     public void performOperation() {
-        // Simulate cash deposit logic
-        double amount = 200; // Replace with actual amount input
-        account.deposit(amount);
-        System.out.println("$" + amount + " deposited successfully.");
+        if (rates == null) {
+            account.deposit(amount);
+            System.out.println("$" + amount + " deposited successfully.");
+            return;
+        }
+        Currency credited = currency == null ? account.getCurrency() : currency;
+        account.deposit(amount, credited);
+        String line = String.format("Deposit: %.2f %s (FX rate version %d)",
+                amount, credited.getCurrencyCode(), rates.snapshot().getVersion());
+        System.out.println(line);
+        if (transactionHistory != null) {
+            transactionHistory.add(line);
+        }
     }
 }
 
@@ -116,9 +182,16 @@ class PINChange implements ATMComponent {
 // Leaf component: Receipt Printing
 class ReceiptPrinting implements ATMComponent {
     private final List<String> transactionHistory;
+    private final FxRateTable rates;
 
     public ReceiptPrinting(List<String> transactionHistory) {
+        this(transactionHistory, null);
+    }
+
+    // Also prints the rate snapshot version current when the receipt is printed
+    public ReceiptPrinting(List<String> transactionHistory, FxRateTable rates) {
         this.transactionHistory = transactionHistory;
+        this.rates = rates;
     }
 
     @Override
@@ -132,6 +205,9 @@ class ReceiptPrinting implements ATMComponent {
                 System.out.println(transaction);
             }
         }
+        if (rates != null) {
+            System.out.println("FX rate version " + rates.snapshot().getVersion());
+        }
     }
 }
 
@@ -185,15 +261,30 @@ class ATMCard {
 // Data class for Account
 class Account {
     private double balance;
+    private final Currency currency;
+    private final Map<Currency, Double> foreignBalances = new HashMap<>();
 
     public Account(double balance) {
+        this(balance, Currency.getInstance("USD"));
+    }
+
+    public Account(double balance, Currency currency) {
         this.balance = balance;
+        this.currency = currency;
     }
 
     public double getBalance() {
         return balance;
     }
 
+    public Currency getCurrency() {
+        return currency;
+    }
+
+    public double getBalance(Currency currency) {
+        return currency.equals(this.currency) ? balance : foreignBalances.getOrDefault(currency, 0.0);
+    }
+
     public void withdraw(double amount) {
         balance -= amount;
     }
@@ -201,6 +292,136 @@ class Account {
     public void deposit(double amount) {
         balance += amount;
     }
+
+    public void deposit(double amount, Currency currency) {
+        if (currency.equals(this.currency)) {
+            balance += amount;
+        } else {
+            foreignBalances.merge(currency, amount, Double::sum);
+        }
+    }
+
+    // Draws on a balance already held in the requested currency first, otherwise converts from the home balance
+    public FxWithdrawal withdraw(double amount, Currency currency, FxRateSnapshot rates) {
+        double held = getBalance(currency);
+        if (held >= amount) {
+            if (currency.equals(this.currency)) {
+                balance -= amount;
+            } else {
+                foreignBalances.put(currency, held - amount);
+            }
+            return new FxWithdrawal(true, amount, currency, rates.getVersion());
+        }
+        double debited = rates.convert(amount, currency, this.currency);
+        if (balance >= debited) {
+            balance -= debited;
+            return new FxWithdrawal(true, debited, this.currency, rates.getVersion());
+        }
+        return new FxWithdrawal(false, 0, this.currency, rates.getVersion());
+    }
+}
+
+// Outcome of a currency withdrawal, stamped with the rate snapshot version it was priced at
+final class FxWithdrawal {
+    private final boolean successful;
+    private final double debited;
+    private final Currency debitedCurrency;
+    private final long rateVersion;
+
+    FxWithdrawal(boolean successful, double debited, Currency debitedCurrency, long rateVersion) {
+        this.successful = successful;
+        this.debited = debited;
+        this.debitedCurrency = debitedCurrency;
+        this.rateVersion = rateVersion;
+    }
+
+    public boolean isSuccessful() {
+        return successful;
+    }
+
+    public double getDebited() {
+        return debited;
+    }
+
+    public Currency getDebitedCurrency() {
+        return debitedCurrency;
+    }
+
+    public long getRateVersion() {
+        return rateVersion;
+    }
+}
+
+// Immutable set of FX rates with every cross rate precomputed
+final class FxRateSnapshot {
+    private final long version;
+    private final Map<Currency, Integer> indexes;
+    private final int size;
+    // crossRates[from * size + to] = units of "to" per unit of "from"
+    private final double[] crossRates;
+
+    FxRateSnapshot(long version, Map<Currency, Double> unitsPerBase) {
+        this.version = version;
+        this.size = unitsPerBase.size();
+        Map<Currency, Integer> indexes = new HashMap<>();
+        double[] perBase = new double[size];
+        for (Map.Entry<Currency, Double> rate : unitsPerBase.entrySet()) {
+            if (!(rate.getValue() > 0)) {
+                throw new IllegalArgumentException("Invalid rate for " + rate.getKey());
+            }
+            perBase[indexes.size()] = rate.getValue();
+            indexes.put(rate.getKey(), indexes.size());
+        }
+        this.indexes = Map.copyOf(indexes);
+        this.crossRates = new double[size * size];
+        for (int from = 0; from < size; from++) {
+            for (int to = 0; to < size; to++) {
+                crossRates[from * size + to] = perBase[to] / perBase[from];
+            }
+        }
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public boolean supports(Currency currency) {
+        return indexes.containsKey(currency);
+    }
+
+    public Set<Currency> currencies() {
+        return indexes.keySet();
+    }
+
+    public double rate(Currency from, Currency to) {
+        Integer fromIndex = indexes.get(from);
+        Integer toIndex = indexes.get(to);
+        if (fromIndex == null || toIndex == null) {
+            throw new IllegalArgumentException("No rate for " + from + "/" + to);
+        }
+        return crossRates[fromIndex * size + toIndex];
+    }
+
+    public double convert(double amount, Currency from, Currency to) {
+        return from.equals(to) ? amount : amount * rate(from, to);
+    }
+}
+
+// FX rate table; new rates are published as a whole snapshot so readers never lock or see a partial update
+class FxRateTable {
+    private final AtomicReference<FxRateSnapshot> current;
+
+    public FxRateTable(Map<Currency, Double> unitsPerBase) {
+        current = new AtomicReference<>(new FxRateSnapshot(1, unitsPerBase));
+    }
+
+    public FxRateSnapshot snapshot() {
+        return current.get();
+    }
+
+    public FxRateSnapshot publish(Map<Currency, Double> unitsPerBase) {
+        return current.updateAndGet(previous -> new FxRateSnapshot(previous.getVersion() + 1, unitsPerBase));
+    }
 }
 
 public class ATMSystem {
@@ -209,18 +430,22 @@ public class ATMSystem {
         ATMCard card = new ATMCard("1234567890", 1234);
         Account account = new Account(1000);
 
+        // Rates for the two currencies this terminal dispenses
+        FxRateTable rates = new FxRateTable(Map.of(account.getCurrency(), 1.0, Currency.getInstance("THB"), 36.0));
+        Currency dispensed = chooseCurrency(new Scanner(System.in), rates.snapshot(), account.getCurrency());
+
+        // Create a transaction history list
+        List<String> transactionHistory = new ArrayList<>();
+
         // Create ATM components
         Authentication authentication = new Authentication(card);
         BalanceDisplay balanceDisplay = new BalanceDisplay(account);
-        CashWithdrawal cashWithdrawal = new CashWithdrawal(account);
-        Deposit deposit = new Deposit(account);
+        CashWithdrawal cashWithdrawal = new CashWithdrawal(account, 100, dispensed, rates, transactionHistory);
+        Deposit deposit = new Deposit(account, 200, account.getCurrency(), rates, transactionHistory);
         PINChange pinChange = new PINChange(card);
 
-        // Create a transaction history list
-        List<String> transactionHistory = new ArrayList<>();
-
         // Create a receipt printing component
-        ReceiptPrinting receiptPrinting = new ReceiptPrinting(transactionHistory);
+        ReceiptPrinting receiptPrinting = new ReceiptPrinting(transactionHistory, rates);
 
         // Create a transaction
         Transaction transaction = new Transaction();
@@ -236,12 +461,99 @@ public class ATMSystem {
         // Add transaction details to the history
         DateTimeFormatter dtf = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss");
         LocalDateTime now = LocalDateTime.now();
-        transactionHistory.add("Date: " + dtf.format(now));
-        transactionHistory.add("Withdrawal: $100.00");
-        transactionHistory.add("Deposit: $200.00");
-        transactionHistory.add("Balance: $" + account.getBalance());
+        transactionHistory.add(0, "Date: " + dtf.format(now));
+        transactionHistory.add(String.format("Balance: %.2f %s (FX rate version %d)", account.getBalance(),
+                account.getCurrency().getCurrencyCode(), rates.snapshot().getVersion()));
 
         // Print the receipt
         receiptPrinting.performOperation();
     }
+
+    // Asks which of the quoted currencies to dispense; a blank or unknown answer dispenses the home currency
+    static Currency chooseCurrency(Scanner in, FxRateSnapshot rates, Currency home) {
+        StringJoiner codes = new StringJoiner("/");
+        rates.currencies().stream().map(Currency::getCurrencyCode).sorted().forEach(codes::add);
+        System.out.print("Dispense currency (" + codes + ") [" + home.getCurrencyCode() + "]: ");
+        String answer = in.hasNextLine() ? in.nextLine().trim().toUpperCase(Locale.ROOT) : "";
+        if (answer.isEmpty()) {
+            return home;
+        }
+        for (Currency currency : rates.currencies()) {
+            if (currency.getCurrencyCode().equals(answer)) {
+                return currency;
+            }
+        }
+        System.out.println("Currency not available. Dispensing " + home.getCurrencyCode() + ".");
+        return home;
+    }
+}
+
+// Conversion cost on the withdrawal path: runs the same number of withdrawals in the home currency and in a
+// converted one, optionally while another thread keeps publishing new snapshots, and reports the cost per withdrawal
+// and how many rate versions the readers saw.
+// Usage: FxConversionBenchmark [home|converted] [withdrawals] [publish]
+class FxConversionBenchmark {
+    static final class Result {
+        final long withdrawals;
+        final long elapsedNanos;
+        final long versionsSeen;
+        final double debited;
+
+        Result(long withdrawals, long elapsedNanos, long versionsSeen, double debited) {
+            this.withdrawals = withdrawals;
+            this.elapsedNanos = elapsedNanos;
+            this.versionsSeen = versionsSeen;
+            this.debited = debited;
+        }
+
+        double nanosPerWithdrawal() {
+            return elapsedNanos / (double) Math.max(1, withdrawals);
+        }
+    }
+
+    private static final Currency HOME = Currency.getInstance("USD");
+    private static final Currency FOREIGN = Currency.getInstance("THB");
+
+    public static void main(String[] args) throws InterruptedException {
+        boolean converted = args.length == 0 || args[0].equals("converted");
+        int withdrawals = args.length > 1 ? Integer.parseInt(args[1]) : 5_000_000;
+        boolean publish = args.length > 2 && args[2].equals("publish");
+
+        run(converted, withdrawals, publish); // warm up
+        Result result = run(converted, withdrawals, publish);
+        System.out.printf("%s%s: %d withdrawals in %d ms, %.1f ns/withdrawal, %d rate versions seen%n",
+                converted ? "converted" : "home", publish ? " while publishing" : "", result.withdrawals,
+                TimeUnit.NANOSECONDS.toMillis(result.elapsedNanos), result.nanosPerWithdrawal(), result.versionsSeen);
+    }
+
+    static Result run(boolean converted, int withdrawals, boolean publish) throws InterruptedException {
+        FxRateTable rates = new FxRateTable(Map.of(HOME, 1.0, FOREIGN, 36.0, Currency.getInstance("MYR"), 4.5));
+        Account account = new Account(withdrawals);
+        Currency currency = converted ? FOREIGN : HOME;
+        AtomicBoolean done = new AtomicBoolean();
+        Thread publisher = new Thread(() -> {
+            double rate = 36.0;
+            while (publish && !done.get()) {
+                rate = rate >= 37.0 ? 35.0 : rate + 0.01;
+                rates.publish(Map.of(HOME, 1.0, FOREIGN, rate, Currency.getInstance("MYR"), 4.5));
+            }
+        }, "fx-publisher");
+        publisher.start();
+        long lastVersion = 0;
+        long versionsSeen = 0;
+        double debited = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < withdrawals; i++) {
+            FxWithdrawal result = account.withdraw(1, currency, rates.snapshot());
+            debited += result.getDebited();
+            if (result.getRateVersion() != lastVersion) {
+                lastVersion = result.getRateVersion();
+                versionsSeen++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        done.set(true);
+        publisher.join();
+        return new Result(withdrawals, elapsed, versionsSeen, debited);
+    }
 }
\ No newline at end of file
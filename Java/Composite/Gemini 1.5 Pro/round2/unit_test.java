@@ -1,7 +1,12 @@
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Currency;
 import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -120,4 +125,103 @@ class ATMSystemTest {
         receiptPrinting.performOperation();
         // Add assertions to verify successful transaction execution
     }
-}
\ No newline at end of file
+
+    private static final Currency USD = Currency.getInstance("USD");
+    private static final Currency THB = Currency.getInstance("THB");
+    private static final Currency MYR = Currency.getInstance("MYR");
+
+    @Test
+    void testFxCrossRatesPrecomputed() {
+        FxRateTable rates = new FxRateTable(Map.of(USD, 1.0, THB, 36.0, MYR, 4.5));
+        FxRateSnapshot snapshot = rates.snapshot();
+        assertEquals(1, snapshot.getVersion());
+        assertEquals(8.0, snapshot.rate(MYR, THB), 1e-9);
+        assertEquals(100.0, snapshot.convert(3600, THB, USD), 1e-9);
+        assertThrows(IllegalArgumentException.class, () -> snapshot.rate(USD, Currency.getInstance("EUR")));
+    }
+
+    @Test
+    void testFxPublishKeepsOldSnapshotIntact() {
+        FxRateTable rates = new FxRateTable(Map.of(USD, 1.0, THB, 36.0));
+        FxRateSnapshot old = rates.snapshot();
+        FxRateSnapshot published = rates.publish(Map.of(USD, 1.0, THB, 35.0));
+        assertEquals(2, published.getVersion());
+        assertSame(published, rates.snapshot());
+        assertEquals(36.0, old.rate(USD, THB), 1e-9);
+    }
+
+    @Test
+    void testForeignWithdrawalConvertsAndStampsVersion() {
+        FxRateTable rates = new FxRateTable(Map.of(USD, 1.0, THB, 40.0));
+        Account account = new Account(1000);
+        List<String> history = new ArrayList<>();
+        new CashWithdrawal(account, 2000, THB, rates, history).performOperation();
+        assertEquals(950, account.getBalance(), 1e-9);
+        assertEquals(1, history.size());
+        assertTrue(history.get(0).contains("FX rate version 1"));
+    }
+
+    @Test
+    void testForeignWithdrawalUsesHeldCurrencyFirst() {
+        FxRateTable rates = new FxRateTable(Map.of(USD, 1.0, THB, 40.0));
+        Account account = new Account(1000);
+        account.deposit(500, THB);
+        FxWithdrawal result = account.withdraw(300, THB, rates.snapshot());
+        assertTrue(result.isSuccessful());
+        assertEquals(THB, result.getDebitedCurrency());
+        assertEquals(200, account.getBalance(THB), 1e-9);
+        assertEquals(1000, account.getBalance(), 1e-9);
+    }
+
+    @Test
+    void testForeignWithdrawalInsufficientFunds() {
+        FxRateTable rates = new FxRateTable(Map.of(USD, 1.0, THB, 40.0));
+        Account account = new Account(10);
+        assertFalse(account.withdraw(2000, THB, rates.snapshot()).isSuccessful());
+        assertEquals(10, account.getBalance(), 1e-9);
+    }
+
+    @Test
+    void testEveryRatedTransactionAndReceiptCarriesRateVersion() {
+        FxRateTable rates = new FxRateTable(Map.of(USD, 1.0, THB, 40.0));
+        rates.publish(Map.of(USD, 1.0, THB, 40.0));
+        Account account = new Account(1000);
+        List<String> history = new ArrayList<>();
+        new CashWithdrawal(account, 100, null, rates, history).performOperation();
+        new Deposit(account, 200, null, rates, history).performOperation();
+        assertEquals(1100, account.getBalance(), 1e-9);
+        assertEquals(2, history.size());
+        assertTrue(history.stream().allMatch(line -> line.endsWith("FX rate version 2)")), history.toString());
+
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        PrintStream original = System.out;
+        System.setOut(new PrintStream(printed, true));
+        try {
+            new ReceiptPrinting(history, rates).performOperation();
+        } finally {
+            System.setOut(original);
+        }
+        assertTrue(printed.toString().contains("Deposit: 200.00 USD (FX rate version 2)"));
+        assertTrue(printed.toString().contains("FX rate version 2" + System.lineSeparator()));
+    }
+
+    @Test
+    void testChooseCurrencyFromQuotedRates() {
+        FxRateSnapshot snapshot = new FxRateTable(Map.of(USD, 1.0, THB, 36.0)).snapshot();
+        assertEquals(THB, ATMSystem.chooseCurrency(new Scanner("thb\n"), snapshot, USD));
+        assertEquals(USD, ATMSystem.chooseCurrency(new Scanner("\n"), snapshot, USD));
+        assertEquals(USD, ATMSystem.chooseCurrency(new Scanner("MYR\n"), snapshot, USD));
+        assertEquals(USD, ATMSystem.chooseCurrency(new Scanner(""), snapshot, USD));
+    }
+
+    @Test
+    void testFxConversionBenchmarkRunsWithdrawalPath() throws Exception {
+        FxConversionBenchmark.Result home = FxConversionBenchmark.run(false, 1_000, false);
+        FxConversionBenchmark.Result converted = FxConversionBenchmark.run(true, 1_000, true);
+        assertEquals(1_000, home.debited, 1e-9);
+        assertEquals(1, home.versionsSeen);
+        assertTrue(converted.debited > 0 && converted.debited < 1_000 / 30.0);
+        assertTrue(converted.versionsSeen >= 1);
+        assertTrue(converted.nanosPerWithdrawal() > 0);
+    }
+}
@@ -1,6 +1,30 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Queue;
 import java.util.Scanner;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
 
 // Component Interface
 interface ATMComponent {
@@ -23,6 +47,10 @@ class Account {
         return this.pin.equals(pin);
     }
 
+    public String getCardNumber() {
+        return cardNumber;
+    }
+
     public double getBalance() {
         return balance;
     }
@@ -48,6 +76,7 @@ class Account {
 class ATMOperation implements ATMComponent {
     private String name;
     private List<ATMComponent> components = new ArrayList<>();
+    private Tracer tracer = Tracer.OFF;
 
     public ATMOperation(String name) {
         this.name = name;
@@ -55,21 +84,364 @@ class ATMOperation implements ATMComponent {
 
     public void addComponent(ATMComponent component) {
         components.add(component);
+        if (tracer != Tracer.OFF && component instanceof ATMOperation) {
+            ((ATMOperation) component).setTracer(tracer);
+        }
     }
 
     public void removeComponent(ATMComponent component) {
         components.remove(component);
     }
 
+    // Applies to this operation and every nested operation below it.
+    public void setTracer(Tracer tracer) {
+        this.tracer = tracer;
+        for (ATMComponent component : components) {
+            if (component instanceof ATMOperation) {
+                ((ATMOperation) component).setTracer(tracer);
+            }
+        }
+    }
+
     @Override
     public void execute() {
-        System.out.println("---- " + name + " ----");
-        for (ATMComponent component : components) {
-            component.execute();
+        tracer.begin(name);
+        try {
+            System.out.println("---- " + name + " ----");
+            for (ATMComponent component : components) {
+                if (component instanceof ATMOperation) {
+                    component.execute();
+                    continue;
+                }
+                tracer.begin(component.getClass().getSimpleName());
+                try {
+                    component.execute();
+                } finally {
+                    tracer.end();
+                }
+            }
+        } finally {
+            tracer.end();
+        }
+    }
+}
+
+// Tracer: samples whole execute() trees and records one span per node with a
+// link to its parent. The sampling decision is taken once at the root, so a
+// trace is either complete or absent. Each thread writes into its own
+// fixed-size ring and publishes the count with a release store, so the hot
+// path never locks; export reads up to the published count of every ring,
+// writes Chrome trace-event JSON (chrome://tracing, ui.perfetto.dev) and
+// then frees what it wrote, so periodic exports keep tracing going.
+class Tracer {
+    static final Tracer OFF = new Tracer(0.0);
+    static final int DEFAULT_BUFFER_CAPACITY = 4096;
+
+    private final double sampleRate;
+    private final int bufferCapacity;
+    private final LongSupplier clock;
+    private final long epoch;
+    private final Queue<SpanBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger nextBufferId = new AtomicInteger();
+    private final ThreadLocal<SpanBuffer> local = ThreadLocal.withInitial(this::newBuffer);
+
+    public Tracer(double sampleRate) {
+        this(sampleRate, DEFAULT_BUFFER_CAPACITY, System::nanoTime);
+    }
+
+    Tracer(double sampleRate, int bufferCapacity, LongSupplier clock) {
+        if (sampleRate < 0.0 || sampleRate > 1.0) {
+            throw new IllegalArgumentException("Sample rate must be between 0 and 1");
+        }
+        if (bufferCapacity <= 0) {
+            throw new IllegalArgumentException("Buffer capacity must be positive");
+        }
+        this.sampleRate = sampleRate;
+        this.bufferCapacity = bufferCapacity;
+        this.clock = clock;
+        this.epoch = clock.getAsLong();
+    }
+
+    public void begin(String name) {
+        if (sampleRate == 0.0) {
+            return;
+        }
+        SpanBuffer buffer = local.get();
+        if (buffer.depth == 0) {
+            buffer.sampled = sampleRate >= 1.0 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+        }
+        buffer.push(name, buffer.sampled ? clock.getAsLong() : 0L);
+    }
+
+    public void end() {
+        if (sampleRate == 0.0) {
+            return;
+        }
+        SpanBuffer buffer = local.get();
+        if (buffer.depth == 0) {
+            throw new IllegalStateException("end() without matching begin()");
+        }
+        buffer.pop(buffer.sampled ? clock.getAsLong() : 0L);
+    }
+
+    // Spans recorded and not yet exported
+    public int spanCount() {
+        long count = 0;
+        for (SpanBuffer buffer : buffers) {
+            count += buffer.published.get() - buffer.consumed;
+        }
+        return (int) Math.min(count, Integer.MAX_VALUE);
+    }
+
+    public long droppedSpans() {
+        long dropped = 0;
+        for (SpanBuffer buffer : buffers) {
+            dropped += buffer.dropped;
+        }
+        return dropped;
+    }
+
+    // Completed spans not yet exported, of every thread, in completion order per thread.
+    public List<Span> spans() {
+        List<Span> spans = new ArrayList<>();
+        for (SpanBuffer buffer : buffers) {
+            buffer.copyTo(spans, buffer.published.get(), epoch);
+        }
+        return spans;
+    }
+
+    // Writes the spans not yet exported and then frees their slots. Rings of
+    // threads that have ended are dropped once they are empty.
+    public synchronized void export(Path file) throws IOException {
+        List<SpanBuffer> exported = new ArrayList<>(buffers);
+        long[] ends = new long[exported.size()];
+        List<Span> spans = new ArrayList<>();
+        for (int i = 0; i < ends.length; i++) {
+            ends[i] = exported.get(i).published.get();
+            exported.get(i).copyTo(spans, ends[i], epoch);
+        }
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+            boolean first = true;
+            for (SpanBuffer buffer : exported) {
+                out.write(first ? "\n" : ",\n");
+                first = false;
+                out.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + buffer.id
+                        + ",\"args\":{\"name\":" + quote(buffer.threadName) + "}}");
+            }
+            for (Span span : spans) {
+                out.write(first ? "\n" : ",\n");
+                first = false;
+                out.write("{\"name\":" + quote(span.getName())
+                        + ",\"cat\":\"atm\",\"ph\":\"X\",\"ts\":" + micros(span.getStartNanos())
+                        + ",\"dur\":" + micros(span.getDurationNanos())
+                        + ",\"pid\":1,\"tid\":" + span.getThreadId()
+                        + ",\"args\":{\"span\":" + span.getId() + ",\"parent\":" + span.getParentId() + "}}");
+            }
+            out.write("\n]}\n");
+        }
+        for (int i = 0; i < ends.length; i++) {
+            SpanBuffer buffer = exported.get(i);
+            buffer.consumed = ends[i];
+            if (!buffer.owner.isAlive() && buffer.published.get() == ends[i]) {
+                buffers.remove(buffer);
+            }
+        }
+    }
+
+    private SpanBuffer newBuffer() {
+        Thread thread = Thread.currentThread();
+        SpanBuffer buffer = new SpanBuffer(nextBufferId.incrementAndGet(), thread, bufferCapacity);
+        buffers.add(buffer);
+        return buffer;
+    }
+
+    private static String micros(long nanos) {
+        long fraction = Math.abs(nanos % 1000);
+        return nanos / 1000 + (fraction < 10 ? ".00" : fraction < 100 ? ".0" : ".") + fraction;
+    }
+
+    private static String quote(String text) {
+        StringBuilder json = new StringBuilder(text.length() + 2).append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"').toString();
+    }
+
+    // A completed span; times are relative to the tracer's creation, and the
+    // thread id is the tracer's own number for the recording thread.
+    static final class Span {
+        private final String name;
+        private final long id;
+        private final long parentId;
+        private final long startNanos;
+        private final long durationNanos;
+        private final long threadId;
+
+        Span(String name, long id, long parentId, long startNanos, long durationNanos, long threadId) {
+            this.name = name;
+            this.id = id;
+            this.parentId = parentId;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+            this.threadId = threadId;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public long getParentId() {
+            return parentId;
+        }
+
+        public long getStartNanos() {
+            return startNanos;
+        }
+
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+
+        public long getThreadId() {
+            return threadId;
+        }
+    }
+
+    // Written only by its owning thread. Completed spans live in parallel
+    // ring columns indexed by count modulo capacity; the writer drops a span
+    // rather than overwrite one export has not consumed yet. The open-span
+    // stack gives each new span its parent.
+    private static final class SpanBuffer {
+        final int id;
+        final Thread owner;
+        final String threadName;
+        final String[] names;
+        final long[] spanIds;
+        final long[] parentIds;
+        final long[] starts;
+        final long[] durations;
+        // Spans ever written, and how many of them export has consumed
+        final AtomicLong published = new AtomicLong();
+        volatile long consumed;
+        volatile long dropped;
+
+        private final long idPrefix;
+        private long nextSequence;
+        private String[] openNames = new String[16];
+        private long[] openIds = new long[16];
+        private long[] openStarts = new long[16];
+        int depth;
+        boolean sampled;
+
+        SpanBuffer(int id, Thread owner, int capacity) {
+            this.idPrefix = (long) id << 32;
+            this.id = id;
+            this.owner = owner;
+            this.threadName = owner.getName();
+            this.names = new String[capacity];
+            this.spanIds = new long[capacity];
+            this.parentIds = new long[capacity];
+            this.starts = new long[capacity];
+            this.durations = new long[capacity];
+        }
+
+        void push(String name, long start) {
+            if (depth == openNames.length) {
+                openNames = Arrays.copyOf(openNames, depth * 2);
+                openIds = Arrays.copyOf(openIds, depth * 2);
+                openStarts = Arrays.copyOf(openStarts, depth * 2);
+            }
+            openNames[depth] = name;
+            openIds[depth] = sampled ? idPrefix | ++nextSequence : 0L;
+            openStarts[depth] = start;
+            depth++;
+        }
+
+        void pop(long end) {
+            depth--;
+            String name = openNames[depth];
+            openNames[depth] = null;
+            if (!sampled) {
+                return;
+            }
+            long count = published.get();
+            if (count - consumed == names.length) {
+                dropped++;
+                return;
+            }
+            int slot = (int) (count % names.length);
+            names[slot] = name;
+            spanIds[slot] = openIds[depth];
+            parentIds[slot] = depth > 0 ? openIds[depth - 1] : 0L;
+            starts[slot] = openStarts[depth];
+            durations[slot] = end - openStarts[depth];
+            published.lazySet(count + 1);
+        }
+
+        // Reads the unconsumed spans up to end; safe alongside the writer,
+        // which never reuses a slot before it is consumed
+        void copyTo(List<Span> spans, long end, long epoch) {
+            for (long i = consumed; i < end; i++) {
+                int slot = (int) (i % names.length);
+                spans.add(new Span(names[slot], spanIds[slot], parentIds[slot], starts[slot] - epoch,
+                        durations[slot], id));
+            }
         }
     }
 }
 
+// Exports a tracer to numbered part files (trace.json -> trace.1.json, trace.2.json, ...) whenever the unexported
+// spans reach a threshold, so a long-running loop frees ring space before threads start dropping spans.
+class TraceExporter {
+    private final Tracer tracer;
+    private final Path file;
+    private final int threshold;
+    private int parts;
+
+    TraceExporter(Tracer tracer, Path file, int threshold) {
+        if (threshold <= 0) {
+            throw new IllegalArgumentException("Export threshold must be positive");
+        }
+        this.tracer = tracer;
+        this.file = file;
+        this.threshold = threshold;
+    }
+
+    // Called between sessions; returns the part written, or null if the threshold was not reached
+    public synchronized Path exportIfDue() throws IOException {
+        return tracer.spanCount() >= threshold ? export() : null;
+    }
+
+    // Writes whatever is left, e.g. on exit; returns null if there was nothing to write
+    public synchronized Path exportRemaining() throws IOException {
+        return tracer.spanCount() > 0 ? export() : null;
+    }
+
+    private Path export() throws IOException {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String part = dot > 0
+                ? name.substring(0, dot) + "." + (++parts) + name.substring(dot)
+                : name + "." + (++parts);
+        Path target = file.resolveSibling(part);
+        tracer.export(target);
+        return target;
+    }
+}
+
 // Leaf: User Authentication
 class UserAuthentication implements ATMComponent {
     private Account account;
@@ -85,17 +457,21 @@ class UserAuthentication implements ATMComponent {
         System.out.print("Enter PIN: ");
         String enteredPin = scanner.nextLine();
 
+        ATMEvent event = ATMEvent.start();
         if (account.verifyPin(enteredPin)) {
             System.out.println("Authentication successful.");
             attemptsLeft = 3; 
+            ATMEvent.finish(event, "AUTHENTICATE", account.getCardNumber(), 0, ATMEvent.SUCCESS);
         } else {
             attemptsLeft--;
             System.out.println("Incorrect PIN. Attempts left: " + attemptsLeft);
 
             if (attemptsLeft == 0) {
                 System.out.println("Card retained. Please contact your bank.");
+                ATMEvent.finish(event, "AUTHENTICATE", account.getCardNumber(), 0, ATMEvent.CARD_RETAINED);
                 System.exit(0);
             }
+            ATMEvent.finish(event, "AUTHENTICATE", account.getCardNumber(), 0, ATMEvent.FAILED);
         }
     }
 }
@@ -110,7 +486,9 @@ class BalanceInquiry implements ATMComponent {
 
     @Override
     public void execute() {
+        ATMEvent event = ATMEvent.start();
         System.out.println("Balance: $" + account.getBalance());
+        ATMEvent.finish(event, "BALANCE_INQUIRY", account.getCardNumber(), 0, ATMEvent.SUCCESS);
     }
 }
 
@@ -128,10 +506,13 @@ class CashWithdrawal implements ATMComponent {
         System.out.print("Enter withdrawal amount: $");
         double amount = scanner.nextDouble();
 
+        ATMEvent event = ATMEvent.start();
         if (account.withdraw(amount)) {
             System.out.println("Please collect your cash.");
+            ATMEvent.finish(event, "WITHDRAWAL", account.getCardNumber(), amount, ATMEvent.SUCCESS);
         } else {
             System.out.println("Insufficient funds.");
+            ATMEvent.finish(event, "WITHDRAWAL", account.getCardNumber(), amount, ATMEvent.INVALID);
         }
     }
 }
@@ -149,8 +530,10 @@ class Deposit implements ATMComponent {
         System.out.print("Enter deposit amount: $");
         double amount = scanner.nextDouble();
 
+        ATMEvent event = ATMEvent.start();
         account.deposit(amount);
         System.out.println("Deposit successful.");
+        ATMEvent.finish(event, "DEPOSIT", account.getCardNumber(), amount, ATMEvent.SUCCESS);
     }
 }
 
@@ -168,21 +551,27 @@ class PINChange implements ATMComponent {
         System.out.print("Enter old PIN: ");
         String oldPin = scanner.nextLine();
 
+        ATMEvent event = ATMEvent.start();
+        String outcome = ATMEvent.FAILED;
         if (account.verifyPin(oldPin)) {
             System.out.print("Enter new PIN: ");
             String newPin1 = scanner.nextLine();
             System.out.print("Confirm new PIN: ");
             String newPin2 = scanner.nextLine();
 
+            ATMEvent.restart(event);
             if (newPin1.equals(newPin2)) {
                 account.changePin(newPin1);
                 System.out.println("PIN changed successfully.");
+                outcome = ATMEvent.SUCCESS;
             } else {
                 System.out.println("New PINs do not match.");
+                outcome = ATMEvent.INVALID;
             }
         } else {
             System.out.println("Incorrect old PIN.");
         }
+        ATMEvent.finish(event, "PIN_CHANGE", account.getCardNumber(), 0, outcome);
     }
 }
 // Leaf: Receipt Printing
@@ -190,8 +579,107 @@ class ReceiptPrinting implements ATMComponent {
     // ... (Simplified for brevity)
     @Override
     public void execute() {
+        ATMEvent event = ATMEvent.start();
         System.out.println("Printing receipt...");
         // Add logic to print transaction details
+        ATMEvent.finish(event, "RECEIPT", null, 0, ATMEvent.SUCCESS);
+    }
+}
+
+// Flight Recorder event for one ATM operation; off unless a recording enables it, cards only as keyed hashes
+@Name("atm.Operation")
+@Label("ATM Operation")
+@Category("ATM")
+@Description("One authentication, component run or receipt, with its outcome")
+@StackTrace(false)
+class ATMEvent extends Event {
+    static final String SUCCESS = "SUCCESS";
+    static final String DECLINED = "DECLINED";
+    static final String LIMIT_EXCEEDED = "LIMIT_EXCEEDED";
+    static final String INVALID = "INVALID";
+    static final String FAILED = "FAILED";
+    static final String CARD_RETAINED = "CARD_RETAINED";
+
+    private static final EventType TYPE = EventType.getEventType(ATMEvent.class);
+    private static final byte[] HASH_KEY = new byte[32];
+    private static final ThreadLocal<Mac> HMAC = ThreadLocal.withInitial(() -> {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(HASH_KEY, "HmacSHA256"));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 unavailable", e);
+        }
+    });
+
+    static {
+        new SecureRandom().nextBytes(HASH_KEY);
+    }
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Card Hash")
+    long cardHash;
+
+    @Label("Amount Bucket")
+    String amountBucket;
+
+    @Label("Outcome")
+    String outcome;
+
+    static ATMEvent start() {
+        if (!TYPE.isEnabled()) {
+            return null;
+        }
+        ATMEvent event = new ATMEvent();
+        event.begin();
+        return event;
+    }
+
+    // Moves the start of a running event to now, for operations that wait on the customer part way through
+    static void restart(ATMEvent event) {
+        if (event != null) {
+            event.begin();
+        }
+    }
+
+    static void finish(ATMEvent event, String operation, String cardNumber, double amount, String outcome) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.cardHash = cardHash(cardNumber);
+            event.amountBucket = amountBucket(amount);
+            event.outcome = outcome;
+            event.commit();
+        }
+    }
+
+    static long cardHash(String cardNumber) {
+        if (cardNumber == null) {
+            return 0L;
+        }
+        byte[] mac = HMAC.get().doFinal(cardNumber.getBytes(StandardCharsets.US_ASCII));
+        return ByteBuffer.wrap(mac, 0, Long.BYTES).getLong();
+    }
+
+    // Coarse buckets keep amounts out of the recording while still separating small and large transactions
+    static String amountBucket(double amount) {
+        if (!(amount > 0)) {
+            return "NONE";
+        } else if (amount < 20) {
+            return "UNDER_20";
+        } else if (amount < 100) {
+            return "UNDER_100";
+        } else if (amount < 500) {
+            return "UNDER_500";
+        } else if (amount < 1000) {
+            return "UNDER_1000";
+        }
+        return "1000_AND_OVER";
     }
 }
 
@@ -220,6 +708,19 @@ public class ATM {
         ATMOperation completeOperation = new ATMOperation("Complete Transaction");
         completeOperation.addComponent(printReceipt); 
 
+        // Optional tracing: ATM <trace.json> [sample rate]. Spans are exported to numbered part files between
+        // sessions once half a ring is used, and whatever is left on exit.
+        TraceExporter traces = null;
+        if (args.length > 0) {
+            Tracer tracer = new Tracer(args.length > 1 ? Double.parseDouble(args[1]) : 0.1);
+            loginOperation.setTracer(tracer);
+            transactionOperation.setTracer(tracer);
+            completeOperation.setTracer(tracer);
+            TraceExporter exporter = new TraceExporter(tracer, Path.of(args[0]), Tracer.DEFAULT_BUFFER_CAPACITY / 2);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> exportTrace(exporter, true)));
+            traces = exporter;
+        }
+
         // Main ATM Loop
         Scanner scanner = new Scanner(System.in);
 
@@ -251,6 +752,9 @@ public class ATM {
                 case 5:
                     System.out.println("Thank you for using the ATM.");
                     scanner.close();
+                    if (traces != null) {
+                        exportTrace(traces, true);
+                    }
                     return;
                 default:
                     System.out.println("Invalid choice.");
@@ -263,6 +767,21 @@ public class ATM {
             if (receiptChoice.equals("yes")) {
                 completeOperation.execute();
             }
+            if (traces != null) {
+                exportTrace(traces, false);
+            }
+        }
+    }
+
+    private static void exportTrace(TraceExporter traces, boolean remaining) {
+        try {
+            if (remaining) {
+                traces.exportRemaining();
+            } else {
+                traces.exportIfDue();
+            }
+        } catch (IOException e) {
+            System.err.println("Could not write trace: " + e.getMessage());
         }
     }
 }
\ No newline at end of file
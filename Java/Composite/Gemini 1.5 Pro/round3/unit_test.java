@@ -1,7 +1,16 @@
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import static org.junit.jupiter.api.Assertions.*;
 // ... other imports 
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 
 class ATMSystemTest {
 
@@ -109,4 +118,183 @@ class ATMSystemTest {
         pinChange.execute();
         assertFalse(testAccount.verifyPin("5678"));
     }
-}
\ No newline at end of file
+
+    // Tracer Tests
+    private static Tracer steppingTracer(double rate, int capacity) {
+        AtomicLong now = new AtomicLong();
+        return new Tracer(rate, capacity, () -> now.addAndGet(1_000));
+    }
+
+    private static ATMOperation nestedTree(Account account) {
+        ATMOperation inner = new ATMOperation("Inner");
+        inner.addComponent(new BalanceInquiry(account));
+        ATMOperation root = new ATMOperation("Root");
+        root.addComponent(inner);
+        root.addComponent(new ReceiptPrinting());
+        return root;
+    }
+
+    @Test
+    void testTracerLinksNestedSpans() {
+        Tracer tracer = steppingTracer(1.0, 64);
+        ATMOperation root = nestedTree(testAccount);
+        root.setTracer(tracer);
+        root.execute();
+
+        List<Tracer.Span> spans = tracer.spans();
+        assertEquals(4, spans.size());
+        Tracer.Span balance = spans.get(0);
+        Tracer.Span inner = spans.get(1);
+        Tracer.Span receipt = spans.get(2);
+        Tracer.Span rootSpan = spans.get(3);
+        assertEquals("BalanceInquiry", balance.getName());
+        assertEquals("Inner", inner.getName());
+        assertEquals("ReceiptPrinting", receipt.getName());
+        assertEquals("Root", rootSpan.getName());
+        assertEquals(0L, rootSpan.getParentId());
+        assertEquals(rootSpan.getId(), inner.getParentId());
+        assertEquals(rootSpan.getId(), receipt.getParentId());
+        assertEquals(inner.getId(), balance.getParentId());
+        assertEquals(1_000, balance.getDurationNanos());
+        assertEquals(7_000, rootSpan.getDurationNanos());
+        assertTrue(rootSpan.getStartNanos() < inner.getStartNanos());
+    }
+
+    @Test
+    void testTracerSamplesWholeTrees() {
+        Tracer none = steppingTracer(0.0, 64);
+        ATMOperation root = nestedTree(testAccount);
+        root.setTracer(none);
+        root.execute();
+        assertEquals(0, none.spanCount());
+
+        Tracer half = steppingTracer(0.5, 8_000);
+        root.setTracer(half);
+        for (int i = 0; i < 2_000; i++) {
+            root.execute();
+        }
+        int traces = half.spanCount() / 4;
+        assertEquals(0, half.spanCount() % 4);
+        assertTrue(traces > 800 && traces < 1_200, "sampled " + traces);
+        assertThrows(IllegalArgumentException.class, () -> new Tracer(1.5));
+    }
+
+    @Test
+    void testTracerKeepsBuffersPerThreadAndCountsDrops() throws Exception {
+        Tracer tracer = steppingTracer(1.0, 4);
+        ATMOperation root = new ATMOperation("Root");
+        root.addComponent(new ReceiptPrinting());
+        root.setTracer(tracer);
+        Thread other = new Thread(() -> {
+            for (int i = 0; i < 3; i++) {
+                root.execute();
+            }
+        });
+        other.start();
+        other.join();
+        root.execute();
+
+        assertEquals(6, tracer.spanCount());
+        assertEquals(2, tracer.droppedSpans());
+        assertEquals(2, tracer.spans().stream().mapToLong(Tracer.Span::getThreadId).distinct().count());
+    }
+
+    @Test
+    void testTracerExportFreesBufferSpace(@TempDir Path dir) throws Exception {
+        Tracer tracer = steppingTracer(1.0, 4);
+        ATMOperation root = new ATMOperation("Root");
+        root.addComponent(new ReceiptPrinting());
+        root.setTracer(tracer);
+        for (int i = 0; i < 3; i++) {
+            root.execute();
+        }
+        assertEquals(4, tracer.spanCount());
+        assertEquals(2, tracer.droppedSpans());
+
+        Thread ended = new Thread(root::execute);
+        ended.start();
+        ended.join();
+        tracer.export(dir.resolve("first.json"));
+        assertEquals(0, tracer.spanCount());
+        assertTrue(Files.readString(dir.resolve("first.json")).contains("\"tid\":2"));
+
+        for (int i = 0; i < 2; i++) {
+            root.execute();
+        }
+        assertEquals(4, tracer.spanCount());
+        assertEquals(2, tracer.droppedSpans());
+        tracer.export(dir.resolve("second.json"));
+        String json = Files.readString(dir.resolve("second.json"));
+        assertEquals(4, json.split("\"ph\":\"X\"", -1).length - 1);
+        assertFalse(json.contains("\"tid\":2"));
+    }
+
+    @Test
+    void testTraceExporterWritesNumberedPartsBeforeRingsFill(@TempDir Path dir) throws Exception {
+        Tracer tracer = steppingTracer(1.0, 8);
+        ATMOperation root = new ATMOperation("Root");
+        root.addComponent(new ReceiptPrinting());
+        root.setTracer(tracer);
+        TraceExporter exporter = new TraceExporter(tracer, dir.resolve("trace.json"), 4);
+
+        for (int session = 0; session < 11; session++) {
+            root.execute();
+            exporter.exportIfDue();
+        }
+        assertEquals(0, tracer.droppedSpans());
+        assertEquals(2, tracer.spanCount());
+        assertEquals(dir.resolve("trace.6.json"), exporter.exportRemaining());
+        assertNull(exporter.exportRemaining());
+        for (int part = 1; part <= 5; part++) {
+            String json = Files.readString(dir.resolve("trace." + part + ".json"));
+            assertEquals(4, json.split("\"ph\":\"X\"", -1).length - 1);
+        }
+        assertTrue(Files.readString(dir.resolve("trace.6.json")).contains("\"name\":\"Root\""));
+        assertFalse(Files.exists(dir.resolve("trace.json")));
+        assertThrows(IllegalArgumentException.class, () -> new TraceExporter(tracer, dir.resolve("t"), 0));
+    }
+
+    @Test
+    void testTracerExportsChromeTraceJson(@TempDir Path dir) throws Exception {
+        Tracer tracer = steppingTracer(1.0, 64);
+        ATMOperation root = nestedTree(testAccount);
+        root.setTracer(tracer);
+        root.execute();
+        Tracer.Span inner = tracer.spans().get(1);
+        Path file = dir.resolve("trace.json");
+        tracer.export(file);
+
+        String json = Files.readString(file);
+        assertTrue(json.startsWith("{\"displayTimeUnit\":\"ms\",\"traceEvents\":["));
+        assertTrue(json.contains("\"name\":\"thread_name\",\"ph\":\"M\""));
+        assertTrue(json.contains("\"name\":\"BalanceInquiry\",\"cat\":\"atm\",\"ph\":\"X\""));
+        assertTrue(json.contains("\"dur\":1.000"));
+        assertTrue(json.contains("\"parent\":" + inner.getId() + "}}"));
+        assertTrue(json.trim().endsWith("]}"));
+    }
+
+    @Test
+    void testATMEventRecordsLeafOutcomes(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("atm.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("atm.Operation").withoutThreshold();
+            recording.start();
+            System.setIn(new ByteArrayInputStream("1500.00\n".getBytes()));
+            cashWithdrawal.execute();
+            System.setIn(new ByteArrayInputStream("1234\n5678\n5678\n".getBytes()));
+            pinChange.execute();
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        assertEquals(2, events.size());
+        assertEquals("WITHDRAWAL", events.get(0).getString("operation"));
+        assertEquals("1000_AND_OVER", events.get(0).getString("amountBucket"));
+        assertEquals(ATMEvent.INVALID, events.get(0).getString("outcome"));
+        assertEquals(ATMEvent.cardHash("testCard"), events.get(0).getLong("cardHash"));
+        assertEquals("PIN_CHANGE", events.get(1).getString("operation"));
+        assertEquals(ATMEvent.SUCCESS, events.get(1).getString("outcome"));
+        assertNull(ATMEvent.start());
+    }
+}
@@ -81,6 +81,7 @@ public abstract class Transaction {
     private double amount;
     private String date;
     private String time;
+    private volatile boolean approved;
 
     public Transaction(String description, double amount) {
         this.description = description;
@@ -105,6 +106,14 @@ public abstract class Transaction {
         return time;
     }
 
+    public boolean isApproved() {
+        return approved;
+    }
+
+    public void setApproved(boolean approved) {
+        this.approved = approved;
+    }
+
     public abstract void accept(Visitor visitor);
 }
 
@@ -182,6 +191,7 @@ public class ATMVisitor implements Visitor {
     @Override
     public void visit(BalanceDisplay transaction) {
         System.out.println("Your balance is: " + account.getBalance());
+        transaction.setApproved(true);
     }
 
     @Override
@@ -189,6 +199,7 @@ public class ATMVisitor implements Visitor {
         if (account.getBalance() >= transaction.getAmount()) {
             account.setBalance(account.getBalance() - transaction.getAmount());
             System.out.println("Cash withdrawn successfully.");
+            transaction.setApproved(true);
         } else {
             System.out.println("Insufficient funds.");
         }
@@ -198,6 +209,7 @@ public class ATMVisitor implements Visitor {
     public void visit(Deposit transaction) {
         account.setBalance(account.getBalance() + transaction.getAmount());
         System.out.println("Deposit successful.");
+        transaction.setApproved(true);
     }
 
     @Override
@@ -205,5 +217,252 @@ public class ATMVisitor implements Visitor {
         // Implement PIN change logic with confirmation
         account.setPIN(transaction.getNewPIN());
         System.out.println("PIN changed successfully.");
+        transaction.setApproved(true);
+    }
+}
+
+// AsyncATM.java
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+public class AsyncATM {
+    public static final String SERVICE_UNAVAILABLE_SCREEN = "Service temporarily unavailable. Please try again later.";
+
+    private final ATM atm;
+    private final Account account;
+    private final RequestScheduler scheduler;
+    private final Executor executor;
+    // Last queued stage; each operation is chained after it so one account never runs two at once
+    private CompletableFuture<?> tail = CompletableFuture.completedFuture(null);
+
+    public AsyncATM(Account account, Executor executor) {
+        this.atm = new ATM(account);
+        this.account = account;
+        this.scheduler = null;
+        this.executor = executor;
+    }
+
+    public AsyncATM(Account account, RequestScheduler scheduler) {
+        this.atm = new ATM(account);
+        this.account = account;
+        this.scheduler = scheduler;
+        this.executor = null;
+    }
+
+    public CompletableFuture<Boolean> authenticate(Card card, String pin) {
+        return enqueue(RequestScheduler.Priority.SESSION, () -> atm.authenticate(card, pin));
+    }
+
+    public CompletableFuture<Boolean> performTransaction(Transaction transaction) {
+        return enqueue(priorityOf(transaction), () -> {
+            atm.performTransaction(transaction);
+            return transaction.isApproved();
+        });
     }
-}
\ No newline at end of file
+
+    public CompletableFuture<Void> printReceipt(Transaction transaction) {
+        return enqueue(RequestScheduler.Priority.RECEIPT, () -> {
+            atm.printReceipt(transaction);
+            return null;
+        });
+    }
+
+    // Authentication -> authorization -> dispense -> receipt; completes with whether cash was dispensed
+    public CompletableFuture<Boolean> withdraw(Card card, String pin, CashWithdrawal withdrawal) {
+        return authenticate(card, pin)
+                .thenCompose(authenticated -> authenticated ? authorize(withdrawal) : CompletableFuture.completedFuture(false))
+                .thenCompose(authorized -> authorized ? performTransaction(withdrawal) : CompletableFuture.completedFuture(false))
+                .thenCompose(dispensed -> dispensed
+                        ? printReceipt(withdrawal).handle((printed, failure) -> true)
+                        : CompletableFuture.completedFuture(false))
+                .exceptionally(failure -> {
+                    Throwable cause = failure instanceof CompletionException ? failure.getCause() : failure;
+                    if (cause instanceof ServiceUnavailableException) {
+                        System.out.println(SERVICE_UNAVAILABLE_SCREEN);
+                        return false;
+                    }
+                    throw new CompletionException(cause);
+                });
+    }
+
+    private CompletableFuture<Boolean> authorize(CashWithdrawal withdrawal) {
+        return enqueue(RequestScheduler.Priority.DISPENSE,
+                () -> withdrawal.getAmount() > 0 && account.getBalance() >= withdrawal.getAmount());
+    }
+
+    private static RequestScheduler.Priority priorityOf(Transaction transaction) {
+        if (transaction instanceof CashWithdrawal || transaction instanceof Deposit) {
+            return RequestScheduler.Priority.DISPENSE;
+        } else if (transaction instanceof PINChange) {
+            return RequestScheduler.Priority.SESSION;
+        }
+        return RequestScheduler.Priority.INQUIRY;
+    }
+
+    private synchronized <T> CompletableFuture<T> enqueue(RequestScheduler.Priority priority, Supplier<T> step) {
+        CompletableFuture<Object> previous = tail.handle((result, failure) -> null);
+        CompletableFuture<T> next = scheduler != null
+                ? previous.thenCompose(ignored -> scheduler.submit(priority, step))
+                : previous.thenApplyAsync(ignored -> step.get(), executor);
+        tail = next;
+        return next;
+    }
+}
+
+// ServiceUnavailableException.java
+import java.util.concurrent.RejectedExecutionException;
+
+public class ServiceUnavailableException extends RejectedExecutionException {
+    private static final long serialVersionUID = 1L;
+
+    public ServiceUnavailableException(String message) {
+        super(message);
+    }
+}
+
+// RequestScheduler.java
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+public class RequestScheduler {
+    // Declared from most to least urgent; workers always drain the most urgent non-empty queue first
+    public enum Priority {
+        DISPENSE(TimeUnit.SECONDS.toNanos(30)),
+        SESSION(TimeUnit.SECONDS.toNanos(5)),
+        INQUIRY(TimeUnit.SECONDS.toNanos(5)),
+        RECEIPT(TimeUnit.SECONDS.toNanos(10));
+
+        private final long defaultDeadlineNanos;
+
+        Priority(long defaultDeadlineNanos) {
+            this.defaultDeadlineNanos = defaultDeadlineNanos;
+        }
+    }
+
+    private static final class Task<T> {
+        final Supplier<T> work;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final long deadline;
+
+        Task(Supplier<T> work, long deadline) {
+            this.work = work;
+            this.deadline = deadline;
+        }
+
+        void run() {
+            try {
+                result.complete(work.get());
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static final Priority[] PRIORITIES = Priority.values();
+
+    private final List<BlockingQueue<Task<?>>> queues;
+    private final Semaphore pending = new Semaphore(0);
+    private final Thread[] workers;
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongSupplier clock;
+    private volatile boolean running = true;
+
+    public RequestScheduler(int workerCount, int queueCapacity) {
+        this(workerCount, queueCapacity, System::nanoTime);
+    }
+
+    RequestScheduler(int workerCount, int queueCapacity, LongSupplier clock) {
+        if (workerCount <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("Worker count and queue capacity must be positive.");
+        }
+        this.clock = clock;
+        queues = new ArrayList<>(PRIORITIES.length);
+        for (int i = 0; i < PRIORITIES.length; i++) {
+            queues.add(new ArrayBlockingQueue<>(queueCapacity));
+        }
+        workers = new Thread[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Thread(this::runWorker, "atm-scheduler-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    public <T> CompletableFuture<T> submit(Priority priority, Supplier<T> work) {
+        return submit(priority, work, clock.getAsLong() + priority.defaultDeadlineNanos);
+    }
+
+    // Sheds the request immediately when its class queue is full instead of letting it time out later
+    public <T> CompletableFuture<T> submit(Priority priority, Supplier<T> work, long deadlineNanos) {
+        if (!running) {
+            return CompletableFuture.failedFuture(new ServiceUnavailableException("Scheduler is shut down."));
+        }
+        Task<T> task = new Task<>(work, deadlineNanos);
+        if (!queues.get(priority.ordinal()).offer(task)) {
+            shed.increment();
+            return CompletableFuture.failedFuture(
+                    new ServiceUnavailableException("Overloaded: " + priority + " queue is full."));
+        }
+        pending.release();
+        return task.result;
+    }
+
+    public long shedCount() {
+        return shed.sum();
+    }
+
+    public long expiredCount() {
+        return expired.sum();
+    }
+
+    public void shutdown() {
+        running = false;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        for (BlockingQueue<Task<?>> queue : queues) {
+            Task<?> task;
+            while ((task = queue.poll()) != null) {
+                task.result.completeExceptionally(new ServiceUnavailableException("Scheduler is shut down."));
+            }
+        }
+    }
+
+    private void runWorker() {
+        while (running) {
+            try {
+                pending.acquire();
+            } catch (InterruptedException e) {
+                return;
+            }
+            Task<?> task = null;
+            for (BlockingQueue<Task<?>> queue : queues) {
+                task = queue.poll();
+                if (task != null) {
+                    break;
+                }
+            }
+            if (task == null) {
+                continue;
+            }
+            // Work whose caller has already given up is dropped rather than run late
+            if (clock.getAsLong() - task.deadline > 0) {
+                expired.increment();
+                task.result.completeExceptionally(new ServiceUnavailableException("Deadline passed before execution."));
+                continue;
+            }
+            task.run();
+        }
+    }
+}
@@ -1,4 +1,13 @@
 import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class ATMTest {
@@ -63,4 +72,121 @@ class ATMTest {
         atm.performTransaction(transaction);
         assertEquals("5678", account.getPIN());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testAsyncWithdrawSuccess() {
+        Account account = new Account(1000, "1234");
+        Card card = new Card("1234567890", account);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        AsyncATM atm = new AsyncATM(account, pool);
+        assertTrue(atm.withdraw(card, "1234", new CashWithdrawal(300)).join());
+        assertEquals(700, account.getBalance());
+        pool.shutdown();
+    }
+
+    @Test
+    void testAsyncWithdrawWrongPin() {
+        Account account = new Account(1000, "1234");
+        Card card = new Card("1234567890", account);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        AsyncATM atm = new AsyncATM(account, pool);
+        assertFalse(atm.withdraw(card, "0000", new CashWithdrawal(300)).join());
+        assertEquals(1000, account.getBalance());
+        pool.shutdown();
+    }
+
+    @Test
+    void testAsyncWithdrawInsufficientFunds() {
+        Account account = new Account(1000, "1234");
+        Card card = new Card("1234567890", account);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        AsyncATM atm = new AsyncATM(account, pool);
+        assertFalse(atm.withdraw(card, "1234", new CashWithdrawal(1500)).join());
+        assertEquals(1000, account.getBalance());
+        pool.shutdown();
+    }
+
+    @Test
+    void testAsyncOperationsDoNotInterleave() {
+        Account account = new Account(0, "1234");
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        AsyncATM atm = new AsyncATM(account, pool);
+        List<CompletableFuture<Boolean>> deposits = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            deposits.add(atm.performTransaction(new Deposit(1)));
+        }
+        CompletableFuture.allOf(deposits.toArray(new CompletableFuture[0])).join();
+        assertEquals(1000, account.getBalance());
+        pool.shutdown();
+    }
+
+    @Test
+    void testSchedulerRunsMostUrgentFirst() throws InterruptedException {
+        RequestScheduler scheduler = new RequestScheduler(1, 10);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> order = new ArrayList<>();
+        scheduler.submit(RequestScheduler.Priority.INQUIRY, () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        });
+        Thread.sleep(50);
+        CompletableFuture<Boolean> receipt = scheduler.submit(RequestScheduler.Priority.RECEIPT, () -> order.add("receipt"));
+        CompletableFuture<Boolean> session = scheduler.submit(RequestScheduler.Priority.SESSION, () -> order.add("session"));
+        CompletableFuture<Boolean> dispense = scheduler.submit(RequestScheduler.Priority.DISPENSE, () -> order.add("dispense"));
+        release.countDown();
+        CompletableFuture.allOf(receipt, session, dispense).join();
+        assertEquals(List.of("dispense", "session", "receipt"), order);
+        scheduler.shutdown();
+    }
+
+    @Test
+    void testSchedulerShedsWhenQueueFull() {
+        RequestScheduler scheduler = new RequestScheduler(1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.submit(RequestScheduler.Priority.RECEIPT, () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        });
+        CompletableFuture<Object> last = null;
+        for (int i = 0; i < 3; i++) {
+            last = scheduler.submit(RequestScheduler.Priority.RECEIPT, () -> null);
+        }
+        CompletableFuture<Object> shed = last;
+        CompletionException failure = assertThrows(CompletionException.class, shed::join);
+        assertTrue(failure.getCause() instanceof ServiceUnavailableException);
+        assertTrue(scheduler.shedCount() >= 1);
+        release.countDown();
+        scheduler.shutdown();
+    }
+
+    @Test
+    void testSchedulerDropsExpiredRequests() {
+        RequestScheduler scheduler = new RequestScheduler(1, 10);
+        CompletableFuture<String> late = scheduler.submit(RequestScheduler.Priority.INQUIRY, () -> "late", System.nanoTime() - 1);
+        CompletionException failure = assertThrows(CompletionException.class, late::join);
+        assertTrue(failure.getCause() instanceof ServiceUnavailableException);
+        assertEquals(1, scheduler.expiredCount());
+        scheduler.shutdown();
+    }
+
+    @Test
+    void testAsyncWithdrawThroughScheduler() {
+        Account account = new Account(1000, "1234");
+        Card card = new Card("1234567890", account);
+        RequestScheduler scheduler = new RequestScheduler(2, 16);
+        AsyncATM atm = new AsyncATM(account, scheduler);
+        assertTrue(atm.withdraw(card, "1234", new CashWithdrawal(250)).join());
+        assertEquals(750, account.getBalance());
+        scheduler.shutdown();
+        assertFalse(atm.withdraw(card, "1234", new CashWithdrawal(250)).join());
+        assertEquals(750, account.getBalance());
+    }
+}
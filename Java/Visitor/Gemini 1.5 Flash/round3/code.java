@@ -1,21 +1,51 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Scanner;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
 
 // Account class
 class Account {
-    private int accountNumber;
+    private long accountNumber;
     private int pin;
     private double balance;
     private int pinAttempts;
+    private boolean retained;
 
-    public Account(int accountNumber, int pin, double balance) {
+    public Account(long accountNumber, int pin, double balance) {
         this.accountNumber = accountNumber;
         this.pin = pin;
         this.balance = balance;
         this.pinAttempts = 0;
     }
 
-    public int getAccountNumber() {
+    public long getAccountNumber() {
         return accountNumber;
     }
 
@@ -35,6 +65,10 @@ class Account {
         return pinAttempts;
     }
 
+    public void setPinAttempts(int pinAttempts) {
+        this.pinAttempts = pinAttempts;
+    }
+
     public void incrementPinAttempts() {
         this.pinAttempts++;
     }
@@ -43,30 +77,601 @@ class Account {
         this.pinAttempts = 0;
     }
 
+    // Retained cards stay unusable until the bank releases them, whatever their PIN attempt count
+    public boolean isRetained() {
+        return retained;
+    }
+
+    public void retain() {
+        this.retained = true;
+    }
+
     public void changePin(int newPin) {
         this.pin = newPin;
     }
 }
 
+// Card number codec: packs a PAN into a long after a Luhn check
+final class CardNumberCodec {
+    static final long INVALID = 0L;
+    static final int MIN_LENGTH = 8;
+    static final int MAX_LENGTH = 19;
+
+    private CardNumberCodec() {
+    }
+
+    // Returns the PAN as an unsigned long, or INVALID if it is malformed or fails the Luhn check
+    public static long parse(CharSequence cardNumber) {
+        int length = cardNumber.length();
+        if (length < MIN_LENGTH || length > MAX_LENGTH || cardNumber.charAt(0) == '0') {
+            return INVALID;
+        }
+        long value = 0;
+        int sum = 0;
+        for (int i = 0; i < length; i++) {
+            int digit = cardNumber.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return INVALID;
+            }
+            value = value * 10 + digit;
+            // Double every second digit counting from the rightmost (check) digit
+            if (((length - i) & 1) == 0) {
+                digit *= 2;
+                if (digit > 9) {
+                    digit -= 9;
+                }
+            }
+            sum += digit;
+        }
+        return sum % 10 == 0 ? value : INVALID;
+    }
+
+    public static String format(long packed) {
+        return Long.toUnsignedString(packed);
+    }
+}
+
+// Open-addressing map from packed card number to account, without boxing
+class LongAccountMap {
+    private static final long EMPTY = CardNumberCodec.INVALID;
+
+    private long[] keys;
+    private Account[] values;
+    private int mask;
+    private int size;
+
+    public LongAccountMap() {
+        this(16);
+    }
+
+    public LongAccountMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(2, expectedSize) * 2 - 1) << 1;
+        keys = new long[capacity];
+        values = new Account[capacity];
+        mask = capacity - 1;
+    }
+
+    // Single probe sequence; returns null for unknown cards
+    public Account get(long card) {
+        int slot = slotOf(keys, mask, card);
+        return keys[slot] == card ? values[slot] : null;
+    }
+
+    public void put(long card, Account account) {
+        if (card == EMPTY) {
+            throw new IllegalArgumentException("Invalid card number.");
+        }
+        int slot = slotOf(keys, mask, card);
+        if (keys[slot] == EMPTY) {
+            if ((size + 1) * 2 > keys.length) {
+                grow();
+                slot = slotOf(keys, mask, card);
+            }
+            keys[slot] = card;
+            size++;
+        }
+        values[slot] = account;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void forEach(Consumer<Account> action) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                action.accept(values[i]);
+            }
+        }
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        Account[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new Account[oldKeys.length * 2];
+        mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = slotOf(keys, mask, oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static int slotOf(long[] keys, int mask, long card) {
+        long hash = card * 0x9E3779B97F4A7C15L;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != card) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
+
+// Lookup speed and heap of LongAccountMap against the HashMap<String, Account> it replaced, both keyed from the
+// card number string a terminal sends. Each lookup uses a fresh copy of the string, as terminal input would be, so
+// the HashMap cannot reuse a cached hash code. Run each map in its own JVM with the same -Xmx.
+// Usage: LongAccountMapBenchmark long|string [accounts] [lookups]
+class LongAccountMapBenchmark {
+    static final class Result {
+        final long heapBytes;
+        final long found;
+        final long loadNanos;
+        final long lookupNanos;
+
+        Result(long heapBytes, long found, long loadNanos, long lookupNanos) {
+            this.heapBytes = heapBytes;
+            this.found = found;
+            this.loadNanos = loadNanos;
+            this.lookupNanos = lookupNanos;
+        }
+    }
+
+    public static void main(String[] args) {
+        boolean strings = args.length > 0 && args[0].equals("string");
+        int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        int lookups = args.length > 2 ? Integer.parseInt(args[2]) : 10_000_000;
+        run(strings, Math.min(accounts, 100_000), lookups / 10); // warm up
+        Result result = run(strings, accounts, lookups);
+        System.out.printf("%s, %d accounts: heap %d MB, loaded in %d ms, %.0f lookups/sec%n",
+                strings ? "HashMap<String, Account>" : "LongAccountMap", accounts, result.heapBytes >> 20,
+                TimeUnit.NANOSECONDS.toMillis(result.loadNanos),
+                lookups * (double) TimeUnit.SECONDS.toNanos(1) / Math.max(1, result.lookupNanos));
+    }
+
+    static Result run(boolean strings, int accounts, int lookups) {
+        String[] cards = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            cards[i] = card(i);
+        }
+        long heapBefore = usedHeap();
+        SplittableRandom random = new SplittableRandom(42);
+        long found = 0;
+        long start = System.nanoTime();
+        long loadNanos;
+        long heapBytes;
+        long lookupStart;
+        if (strings) {
+            Map<String, Account> map = new HashMap<>();
+            for (int i = 0; i < accounts; i++) {
+                map.put(cards[i], new Account(CardNumberCodec.parse(cards[i]), 1234, 100.0));
+            }
+            loadNanos = System.nanoTime() - start;
+            heapBytes = usedHeap() - heapBefore;
+            lookupStart = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                if (map.get(new String(cards[random.nextInt(accounts)])) != null) {
+                    found++;
+                }
+            }
+        } else {
+            LongAccountMap map = new LongAccountMap();
+            for (int i = 0; i < accounts; i++) {
+                long card = CardNumberCodec.parse(cards[i]);
+                map.put(card, new Account(card, 1234, 100.0));
+            }
+            loadNanos = System.nanoTime() - start;
+            heapBytes = usedHeap() - heapBefore;
+            lookupStart = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                if (map.get(CardNumberCodec.parse(new String(cards[random.nextInt(accounts)]))) != null) {
+                    found++;
+                }
+            }
+        }
+        return new Result(Math.max(0, heapBytes), found, loadNanos, System.nanoTime() - lookupStart);
+    }
+
+    // 16-digit PAN with a valid Luhn check digit
+    static String card(int i) {
+        String body = Long.toString(400_000_000_000_000L + i);
+        int sum = 0;
+        for (int d = 0; d < body.length(); d++) {
+            int digit = body.charAt(d) - '0';
+            // With the check digit appended, every second digit from the right of the body is doubled
+            if (((body.length() - d) & 1) == 1) {
+                digit *= 2;
+                if (digit > 9) {
+                    digit -= 9;
+                }
+            }
+            sum += digit;
+        }
+        return body + (10 - sum % 10) % 10;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
+
+// Bounded, time-expiring cache of recent idempotency keys and their outcomes. A key is claimed with a placeholder
+// future before its operation runs, and the operation runs outside any map lock, so slow operations (console I/O,
+// synchronous replication) never block other keys; concurrent retries of the same key wait for the first outcome.
+// Each key is bound to the parameters it was first used with, so a reused key cannot replay another request's outcome.
+class IdempotencyCache {
+    private static final class Entry {
+        final String key;
+        final String parameters;
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        final Thread owner = Thread.currentThread();
+        final long createdAt;
+
+        Entry(String key, String parameters, long createdAt) {
+            this.key = key;
+            this.parameters = parameters;
+            this.createdAt = createdAt;
+        }
+
+        boolean isLive(long now, long ttlNanos) {
+            return !result.isDone() || now - createdAt < ttlNanos;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Entry> insertionOrder = new ConcurrentLinkedQueue<>();
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+
+    public IdempotencyCache(int maxEntries, long ttl, TimeUnit unit) {
+        this(maxEntries, ttl, unit, System::nanoTime);
+    }
+
+    IdempotencyCache(int maxEntries, long ttl, TimeUnit unit, LongSupplier clock) {
+        if (maxEntries <= 0 || ttl <= 0) {
+            throw new IllegalArgumentException("Cache size and TTL must be positive.");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.clock = clock;
+    }
+
+    public boolean execute(String key, BooleanSupplier operation) {
+        return execute(key, "", operation);
+    }
+
+    // Runs the operation once per live key; retries with the same key and parameters get the original outcome. If
+    // the operation throws, the key is released so a later retry runs it again.
+    public boolean execute(String key, String parameters, BooleanSupplier operation) {
+        if (key == null || parameters == null) {
+            throw new IllegalArgumentException("Idempotency key and parameters are required.");
+        }
+        while (true) {
+            long now = clock.getAsLong();
+            Entry existing = entries.get(key);
+            if (existing != null && existing.isLive(now, ttlNanos)) {
+                if (existing.parameters != null && !existing.parameters.equals(parameters)) {
+                    throw new IllegalArgumentException("Idempotency key " + key + " was already used for "
+                            + existing.parameters + ".");
+                }
+                if (existing.owner == Thread.currentThread() && !existing.result.isDone()) {
+                    throw new IllegalStateException("Operation for key " + key + " is already running on this thread.");
+                }
+                try {
+                    return existing.result.join();
+                } catch (CompletionException | CancellationException e) {
+                    continue; // the first attempt failed and released the key
+                }
+            }
+            Entry claimed = new Entry(key, parameters, now);
+            boolean installed = existing == null
+                    ? entries.putIfAbsent(key, claimed) == null
+                    : entries.replace(key, existing, claimed);
+            if (!installed) {
+                continue;
+            }
+            boolean result;
+            try {
+                result = operation.getAsBoolean();
+            } catch (RuntimeException | Error e) {
+                entries.remove(key, claimed);
+                claimed.result.completeExceptionally(e);
+                throw e;
+            }
+            claimed.result.complete(result);
+            insertionOrder.add(claimed);
+            evict(clock.getAsLong());
+            return result;
+        }
+    }
+
+    // Records an outcome decided elsewhere, e.g. by the primary before this standby took over. The journal does not
+    // carry the request's parameters, so a remembered key answers any retry that reuses it.
+    public void remember(String key, boolean outcome) {
+        if (key == null) {
+            throw new IllegalArgumentException("Idempotency key is required.");
+        }
+        long now = clock.getAsLong();
+        Entry entry = new Entry(key, null, now);
+        entry.result.complete(outcome);
+        entries.put(key, entry);
+        insertionOrder.add(entry);
+        evict(now);
+    }
+
+    public boolean contains(String key) {
+        Entry entry = entries.get(key);
+        return entry != null && entry.isLive(clock.getAsLong(), ttlNanos);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    // Drops entries oldest-first while the cache is over capacity or the oldest entry has expired
+    private void evict(long now) {
+        Entry oldest;
+        while ((oldest = insertionOrder.peek()) != null
+                && (entries.size() > maxEntries || now - oldest.createdAt >= ttlNanos)) {
+            if (insertionOrder.remove(oldest)) {
+                entries.remove(oldest.key, oldest);
+            }
+        }
+    }
+}
+
+// Per-card rolling withdrawal limits kept in bucketed ring counters, keyed by packed card number
+class WithdrawalLimiter {
+    static final double DEFAULT_AMOUNT_LIMIT = 1000.0;
+    static final int DEFAULT_COUNT_LIMIT = 10;
+    private static final int BUCKETS = 24;
+    private static final int SWEEP_BATCH = 4;
+
+    // Ring of time buckets covering one window; totals are kept incrementally
+    private static final class CardWindow {
+        final long[] bucketStart = new long[BUCKETS];
+        final long[] bucketCents = new long[BUCKETS];
+        final int[] bucketCount = new int[BUCKETS];
+        long totalCents;
+        int totalCount;
+        long lastActivity;
+        boolean evicted;
+    }
+
+    private final ConcurrentHashMap<Long, CardWindow> windows = new ConcurrentHashMap<>();
+    private final ReentrantLock sweepLock = new ReentrantLock();
+    private Iterator<Long> sweepCursor;
+    private long nextLapAt;
+    private final long amountLimitCents;
+    private final int countLimit;
+    private final long windowMillis;
+    private final long bucketMillis;
+    private final LongSupplier clock;
+
+    public WithdrawalLimiter() {
+        this(DEFAULT_AMOUNT_LIMIT, DEFAULT_COUNT_LIMIT, 24, TimeUnit.HOURS);
+    }
+
+    public WithdrawalLimiter(double amountLimit, int countLimit, long window, TimeUnit unit) {
+        this(amountLimit, countLimit, window, unit, System::currentTimeMillis);
+    }
+
+    WithdrawalLimiter(double amountLimit, int countLimit, long window, TimeUnit unit, LongSupplier clock) {
+        long millis = unit.toMillis(window);
+        if (amountLimit <= 0 || countLimit <= 0 || millis < BUCKETS) {
+            throw new IllegalArgumentException("Invalid withdrawal limit configuration.");
+        }
+        this.amountLimitCents = Math.round(amountLimit * 100);
+        this.countLimit = countLimit;
+        this.bucketMillis = millis / BUCKETS;
+        this.windowMillis = bucketMillis * BUCKETS;
+        this.clock = clock;
+    }
+
+    // Atomically checks the rolling limits for the card and records the withdrawal if allowed
+    public boolean tryWithdraw(long card, double amount) {
+        long cents = Math.round(amount * 100);
+        long now = clock.getAsLong();
+        sweep(now);
+        while (true) {
+            CardWindow window = windows.computeIfAbsent(card, k -> new CardWindow());
+            synchronized (window) {
+                if (window.evicted) {
+                    continue;
+                }
+                window.lastActivity = now;
+                int bucket = advance(window, now);
+                if (window.totalCount + 1 > countLimit || window.totalCents + cents > amountLimitCents) {
+                    return false;
+                }
+                window.bucketCents[bucket] += cents;
+                window.bucketCount[bucket]++;
+                window.totalCents += cents;
+                window.totalCount++;
+                return true;
+            }
+        }
+    }
+
+    public double withdrawnInWindow(long card) {
+        CardWindow window = windows.get(card);
+        if (window == null) {
+            return 0.0;
+        }
+        synchronized (window) {
+            advance(window, clock.getAsLong());
+            return window.totalCents / 100.0;
+        }
+    }
+
+    // Drops every card with no withdrawals inside the window
+    public void evictIdle() {
+        long now = clock.getAsLong();
+        for (Map.Entry<Long, CardWindow> entry : windows.entrySet()) {
+            evictIfIdle(entry.getKey(), entry.getValue(), now);
+        }
+    }
+
+    public int trackedCards() {
+        return windows.size();
+    }
+
+    // Examines a few cards per check so idle ones are evicted without a full scan on the hot path
+    private void sweep(long now) {
+        if (!sweepLock.tryLock()) {
+            return;
+        }
+        try {
+            for (int i = 0; i < SWEEP_BATCH; i++) {
+                if (sweepCursor == null || !sweepCursor.hasNext()) {
+                    // Starting a lap allocates an iterator, so laps are limited to one per bucket
+                    if (now < nextLapAt) {
+                        return;
+                    }
+                    nextLapAt = now + bucketMillis;
+                    sweepCursor = windows.keySet().iterator();
+                    if (!sweepCursor.hasNext()) {
+                        return;
+                    }
+                }
+                Long card = sweepCursor.next();
+                CardWindow window = windows.get(card);
+                if (window != null) {
+                    evictIfIdle(card, window, now);
+                }
+            }
+        } finally {
+            sweepLock.unlock();
+        }
+    }
+
+    private void evictIfIdle(Long card, CardWindow window, long now) {
+        synchronized (window) {
+            if (!window.evicted && now - window.lastActivity >= windowMillis) {
+                window.evicted = true;
+                windows.remove(card, window);
+            }
+        }
+    }
+
+    // Clears the bucket for the current slot if it belongs to an earlier lap of the ring
+    private int advance(CardWindow window, long now) {
+        long slot = now / bucketMillis;
+        int bucket = (int) (slot % BUCKETS);
+        long start = slot * bucketMillis;
+        if (window.bucketStart[bucket] != start) {
+            // Buckets not touched for a full window may still hold old amounts; expire them too
+            for (int i = 0; i < BUCKETS; i++) {
+                if (window.bucketCount[i] != 0 && now - window.bucketStart[i] >= windowMillis) {
+                    window.totalCents -= window.bucketCents[i];
+                    window.totalCount -= window.bucketCount[i];
+                    window.bucketCents[i] = 0;
+                    window.bucketCount[i] = 0;
+                }
+            }
+            window.bucketStart[bucket] = start;
+        }
+        return bucket;
+    }
+}
+
 // ATM interface
 interface ATM {
     void authenticate(Account account, int pin);
     void displayBalance(Account account);
-    void withdraw(Account account, double amount);
-    void deposit(Account account, double amount);
+    boolean withdraw(Account account, double amount);
+    boolean withdraw(Account account, double amount, String idempotencyKey);
+    boolean deposit(Account account, double amount);
+    boolean deposit(Account account, double amount, String idempotencyKey);
     void changePin(Account account, int newPin);
     void printReceipt(Account account, String transactionType, double amount);
 }
 
 // Concrete ATM implementation
 class ConcreteATM implements ATM {
-    private Map<Integer, Account> accounts;
+    LongAccountMap accounts;
+    private final IdempotencyCache processedRequests;
+    private volatile WithdrawalLimiter withdrawalLimiter = new WithdrawalLimiter();
+    private volatile JournalReplicator replicator;
+    private volatile boolean replicationAlarmRaised;
 
     public ConcreteATM() {
-        accounts = new HashMap<>();
+        this(new LongAccountMap());
         // Initialize accounts (replace with your data source)
-        accounts.put(1234567890, new Account(1234567890, 1111, 1000.0));
-        accounts.put(9876543210, new Account(9876543210, 2222, 500.0));
+        addAccount("1234567897", 1111, 1000.0);
+        addAccount("9876543217", 2222, 500.0);
+    }
+
+    // Takes over accounts already held in memory
+    public ConcreteATM(LongAccountMap accounts) {
+        this(accounts, newIdempotencyCache());
+    }
+
+    // Takes over accounts and recently processed request keys, e.g. from a promoted standby. Withdrawal limit
+    // windows are not replicated, so a promoted standby starts them afresh.
+    public ConcreteATM(LongAccountMap accounts, IdempotencyCache processedRequests) {
+        this.accounts = accounts;
+        this.processedRequests = processedRequests;
+    }
+
+    static IdempotencyCache newIdempotencyCache() {
+        return new IdempotencyCache(100_000, 10, TimeUnit.MINUTES);
+    }
+
+    public void addAccount(String cardNumber, int pin, double balance) {
+        long card = CardNumberCodec.parse(cardNumber);
+        Account account = new Account(card, pin, balance);
+        accounts.put(card, account);
+        replicate(account);
+    }
+
+    void setWithdrawalLimiter(WithdrawalLimiter withdrawalLimiter) {
+        this.withdrawalLimiter = withdrawalLimiter;
+    }
+
+    // Streams the current state of every account, then each change as it happens
+    public void setReplicator(JournalReplicator replicator) {
+        this.replicator = replicator;
+        replicationAlarmRaised = false;
+        accounts.forEach(this::replicate);
+    }
+
+    private void replicate(Account account) {
+        replicate(account, null, false);
+    }
+
+    // A SYNC entry the standby did not confirm in time degrades replication to ASYNC instead of failing the
+    // customer's transaction; a replicator that has stopped altogether raises its alarm once
+    private void replicate(Account account, String idempotencyKey, boolean outcome) {
+        JournalReplicator current = replicator;
+        if (current == null || current.record(account, idempotencyKey, outcome)) {
+            return;
+        }
+        if (!current.isHealthy()) {
+            if (!replicationAlarmRaised) {
+                replicationAlarmRaised = true;
+                System.err.println("ALARM: replication to the standby stopped: " + current.getFailure());
+            }
+        } else if (current.degradeToAsync()) {
+            System.err.println("ALARM: standby did not acknowledge in time; replication degraded to ASYNC.");
+        }
     }
 
     @Override
@@ -81,6 +686,13 @@ class ConcreteATM implements ATM {
                 System.out.println("Card retained.");
             }
         }
+        replicate(account);
+    }
+
+    // Keeps the card out of service, here and on the standby
+    public void retainCard(Account account) {
+        account.retain();
+        replicate(account);
     }
 
     @Override
@@ -89,26 +701,69 @@ class ConcreteATM implements ATM {
     }
 
     @Override
-    public void withdraw(Account account, double amount) {
-        if (account.getBalance() >= amount) {
+    public boolean withdraw(Account account, double amount) {
+        return applyWithdrawal(account, amount, null);
+    }
+
+    @Override
+    public boolean withdraw(Account account, double amount, String idempotencyKey) {
+        return processedRequests.execute(idempotencyKey, requestParameters("withdraw", account, amount),
+                () -> applyWithdrawal(account, amount, idempotencyKey));
+    }
+
+    // Keyed requests ship their key and outcome with the account state, so a standby that takes over answers
+    // a retry from the cache instead of running it again
+    private boolean applyWithdrawal(Account account, double amount, String idempotencyKey) {
+        boolean funded = account.getBalance() >= amount;
+        if (funded && !withdrawalLimiter.tryWithdraw(account.getAccountNumber(), amount)) {
+            if (idempotencyKey != null) {
+                replicate(account, idempotencyKey, false);
+            }
+            System.out.println("Withdrawal limit reached. Please try again later.");
+            return false;
+        }
+        if (funded) {
             account.setBalance(account.getBalance() - amount);
+            replicate(account, idempotencyKey, true);
             System.out.println("Cash withdrawn: $" + amount);
             printReceipt(account, "Withdrawal", amount);
+            return true;
         } else {
+            if (idempotencyKey != null) {
+                replicate(account, idempotencyKey, false);
+            }
             System.out.println("Insufficient funds.");
+            return false;
         }
     }
 
     @Override
-    public void deposit(Account account, double amount) {
+    public boolean deposit(Account account, double amount) {
+        return applyDeposit(account, amount, null);
+    }
+
+    @Override
+    public boolean deposit(Account account, double amount, String idempotencyKey) {
+        return processedRequests.execute(idempotencyKey, requestParameters("deposit", account, amount),
+                () -> applyDeposit(account, amount, idempotencyKey));
+    }
+
+    private static String requestParameters(String operation, Account account, double amount) {
+        return operation + " " + account.getAccountNumber() + " " + amount;
+    }
+
+    private boolean applyDeposit(Account account, double amount, String idempotencyKey) {
         account.setBalance(account.getBalance() + amount);
+        replicate(account, idempotencyKey, true);
         System.out.println("Cash deposited: $" + amount);
         printReceipt(account, "Deposit", amount);
+        return true;
     }
 
     @Override
     public void changePin(Account account, int newPin) {
         account.changePin(newPin);
+        replicate(account);
         System.out.println("PIN changed successfully.");
     }
 
@@ -123,6 +778,348 @@ class ConcreteATM implements ATM {
     }
 }
 
+// Ships account state changes to a standby process over a local socket. Each journal entry carries the full state
+// of one account, so replaying an entry twice is harmless. In SYNC mode record() waits for the standby to apply the
+// entry; in ASYNC mode it only queues it. A lost connection, a dead sender or a standby that falls a full queue
+// behind stops replication; record() then returns false and getFailure() says why. Entries carry the PIN in clear
+// (hashing a four-digit PIN would not hide it), so the journal only ever goes to a standby on the same host.
+class JournalReplicator implements AutoCloseable {
+    enum AckMode { SYNC, ASYNC }
+
+    static final int DEFAULT_QUEUE_CAPACITY = 65_536;
+
+    private static final class Entry {
+        final long sequence;
+        final long card;
+        final int pin;
+        final double balance;
+        final int pinAttempts;
+        final boolean retained;
+        // Set for keyed requests so the standby can answer retries after a failover
+        final String idempotencyKey;
+        final boolean outcome;
+        final long recordedAt;
+
+        Entry(long sequence, Account account, String idempotencyKey, boolean outcome, long recordedAt) {
+            this.sequence = sequence;
+            this.card = account.getAccountNumber();
+            this.pin = account.getPin();
+            this.balance = account.getBalance();
+            this.pinAttempts = account.getPinAttempts();
+            this.retained = account.isRetained();
+            this.idempotencyKey = idempotencyKey;
+            this.outcome = outcome;
+            this.recordedAt = recordedAt;
+        }
+    }
+
+    private final Socket socket;
+    private final DataOutputStream out;
+    private final DataInputStream acks;
+    private volatile AckMode mode;
+    private final long ackTimeoutNanos;
+    private final BlockingQueue<Entry> outbound;
+    private final ConcurrentLinkedQueue<Entry> inFlight = new ConcurrentLinkedQueue<>();
+    private final LongAdder syncTimeouts = new LongAdder();
+    private final Thread sender;
+    private final Thread ackReader;
+    private long sequence;
+    private volatile long acknowledged;
+    private volatile boolean closed;
+    private volatile String failure;
+
+    public JournalReplicator(String host, int port, AckMode mode, long ackTimeout, TimeUnit unit) throws IOException {
+        this(host, port, mode, ackTimeout, unit, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    JournalReplicator(String host, int port, AckMode mode, long ackTimeout, TimeUnit unit, int queueCapacity)
+            throws IOException {
+        InetAddress address = InetAddress.getByName(host);
+        if (!address.isLoopbackAddress()) {
+            throw new IllegalArgumentException("The journal carries PINs and may only be sent to this host, not "
+                    + host + ".");
+        }
+        this.outbound = new LinkedBlockingQueue<>(queueCapacity);
+        this.socket = new Socket(address, port);
+        socket.setTcpNoDelay(true);
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        this.acks = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.mode = mode;
+        this.ackTimeoutNanos = unit.toNanos(ackTimeout);
+        this.sender = new Thread(this::send, "journal-sender");
+        this.ackReader = new Thread(this::readAcks, "journal-acks");
+        sender.setDaemon(true);
+        ackReader.setDaemon(true);
+        sender.start();
+        ackReader.start();
+    }
+
+    public boolean record(Account account) {
+        return record(account, null, false);
+    }
+
+    // Returns false when replication has stopped, or when a SYNC entry was not acknowledged within the timeout
+    // (it is still delivered later)
+    public boolean record(Account account, String idempotencyKey, boolean outcome) {
+        if (!isHealthy()) {
+            return false;
+        }
+        Entry entry;
+        synchronized (outbound) {
+            entry = new Entry(++sequence, account, idempotencyKey, outcome, System.nanoTime());
+            inFlight.add(entry);
+            if (!outbound.offer(entry)) {
+                inFlight.remove(entry);
+                sequence--;
+                fail("standby fell " + outbound.size() + " entries behind");
+                return false;
+            }
+        }
+        if (mode == AckMode.ASYNC) {
+            return true;
+        }
+        long deadline = System.nanoTime() + ackTimeoutNanos;
+        synchronized (this) {
+            while (acknowledged < entry.sequence && !closed && failure == null) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    syncTimeouts.increment();
+                    return false;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return acknowledged >= entry.sequence;
+    }
+
+    public long getAcknowledgedSequence() {
+        return acknowledged;
+    }
+
+    // Replication lag metric: entries recorded but not yet applied by the standby
+    public long lagEntries() {
+        synchronized (outbound) {
+            return sequence - acknowledged;
+        }
+    }
+
+    // Replication lag metric: age of the oldest entry the standby has not applied yet
+    public long lagNanos() {
+        Entry oldest = inFlight.peek();
+        return oldest == null ? 0 : Math.max(0, System.nanoTime() - oldest.recordedAt);
+    }
+
+    public long syncTimeouts() {
+        return syncTimeouts.sum();
+    }
+
+    public AckMode getMode() {
+        return mode;
+    }
+
+    // Stops waiting for acknowledgements; returns false if replication was already asynchronous
+    public synchronized boolean degradeToAsync() {
+        if (mode == AckMode.ASYNC) {
+            return false;
+        }
+        mode = AckMode.ASYNC;
+        return true;
+    }
+
+    public boolean isHealthy() {
+        if (failure == null && !closed && !sender.isAlive()) {
+            fail("journal sender stopped");
+        }
+        return failure == null && !closed;
+    }
+
+    // Why replication stopped, or null while it is running
+    public String getFailure() {
+        return closed && failure == null ? "replicator closed" : failure;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        sender.interrupt();
+        socket.close();
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    private void send() {
+        List<Entry> batch = new ArrayList<>();
+        try {
+            while (!closed) {
+                batch.add(outbound.take());
+                outbound.drainTo(batch);
+                for (Entry entry : batch) {
+                    out.writeLong(entry.sequence);
+                    out.writeLong(entry.card);
+                    out.writeInt(entry.pin);
+                    out.writeDouble(entry.balance);
+                    out.writeInt(entry.pinAttempts);
+                    out.writeBoolean(entry.retained);
+                    out.writeBoolean(entry.idempotencyKey != null);
+                    if (entry.idempotencyKey != null) {
+                        out.writeUTF(entry.idempotencyKey);
+                        out.writeBoolean(entry.outcome);
+                    }
+                }
+                out.flush();
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } catch (IOException e) {
+            fail("standby connection lost: " + e.getMessage());
+        }
+    }
+
+    private void readAcks() {
+        try {
+            while (!closed) {
+                long sequence = acks.readLong();
+                acknowledged = sequence;
+                Entry oldest;
+                while ((oldest = inFlight.peek()) != null && oldest.sequence <= sequence) {
+                    inFlight.poll();
+                }
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        } catch (IOException e) {
+            fail("standby connection lost: " + e.getMessage());
+        }
+    }
+
+    // Records the first reason replication stopped and wakes any SYNC caller still waiting for an ack
+    private void fail(String reason) {
+        if (closed) {
+            return;
+        }
+        synchronized (this) {
+            if (failure == null) {
+                failure = reason;
+            }
+            notifyAll();
+        }
+    }
+}
+
+// Warm standby: applies the primary's journal to its own in-memory accounts as it arrives, so taking over is
+// just handing those accounts to a new ConcreteATM
+class StandbyATM implements AutoCloseable {
+    private final ServerSocket server;
+    private final LongAccountMap accounts = new LongAccountMap();
+    private final IdempotencyCache processedRequests = ConcreteATM.newIdempotencyCache();
+    private final Thread receiver;
+    private volatile Socket primary;
+    private volatile long appliedSequence;
+
+    public StandbyATM(int port) throws IOException {
+        this.server = new ServerSocket(port, 1, InetAddress.getLoopbackAddress());
+        this.receiver = new Thread(this::receive, "standby-receiver");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    public long getAppliedSequence() {
+        return appliedSequence;
+    }
+
+    public Account getAccount(long card) {
+        synchronized (accounts) {
+            return accounts.get(card);
+        }
+    }
+
+    // Blocks until the primary disconnects or the timeout passes; returns true if the primary is gone
+    public boolean awaitPrimaryLoss(long timeout, TimeUnit unit) throws InterruptedException {
+        receiver.join(Math.max(1, unit.toMillis(timeout)));
+        return !receiver.isAlive();
+    }
+
+    // Stops replicating and serves from the replicated state
+    public ConcreteATM promote() throws IOException {
+        close();
+        try {
+            receiver.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return new ConcreteATM(accounts, processedRequests);
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        Socket connection = primary;
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    private void receive() {
+        try (Socket connection = server.accept()) {
+            primary = connection;
+            DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+            DataOutputStream acks = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+            server.close();
+            while (true) {
+                long sequence = in.readLong();
+                long card = in.readLong();
+                int pin = in.readInt();
+                double balance = in.readDouble();
+                int pinAttempts = in.readInt();
+                boolean retained = in.readBoolean();
+                apply(card, pin, balance, pinAttempts, retained);
+                if (in.readBoolean()) {
+                    String key = in.readUTF();
+                    processedRequests.remember(key, in.readBoolean());
+                }
+                appliedSequence = sequence;
+                acks.writeLong(sequence);
+                if (in.available() == 0) {
+                    acks.flush();
+                }
+            }
+        } catch (EOFException e) {
+            // primary closed the stream
+        } catch (IOException e) {
+            // primary lost, or the standby was closed
+        }
+    }
+
+    private void apply(long card, int pin, double balance, int pinAttempts, boolean retained) {
+        synchronized (accounts) {
+            Account account = accounts.get(card);
+            if (account == null) {
+                account = new Account(card, pin, balance);
+                accounts.put(card, account);
+            } else {
+                account.changePin(pin);
+                account.setBalance(balance);
+            }
+            account.setPinAttempts(pinAttempts);
+            if (retained) {
+                account.retain();
+            }
+        }
+    }
+}
+
 // Visitor interface for transaction operations
 interface TransactionVisitor {
     void visit(Account account, ATM atm);
@@ -138,27 +1135,52 @@ class BalanceVisitor implements TransactionVisitor {
 
 class WithdrawalVisitor implements TransactionVisitor {
     private double amount;
+    private String idempotencyKey;
+    private boolean dispensed;
 
     public WithdrawalVisitor(double amount) {
+        this(amount, null);
+    }
+
+    public WithdrawalVisitor(double amount, String idempotencyKey) {
         this.amount = amount;
+        this.idempotencyKey = idempotencyKey;
     }
 
     @Override
     public void visit(Account account, ATM atm) {
-        atm.withdraw(account, amount);
+        if (idempotencyKey == null) {
+            dispensed = atm.withdraw(account, amount);
+        } else {
+            dispensed = atm.withdraw(account, amount, idempotencyKey);
+        }
+    }
+
+    public boolean isDispensed() {
+        return dispensed;
     }
 }
 
 class DepositVisitor implements TransactionVisitor {
     private double amount;
+    private String idempotencyKey;
 
     public DepositVisitor(double amount) {
+        this(amount, null);
+    }
+
+    public DepositVisitor(double amount, String idempotencyKey) {
         this.amount = amount;
+        this.idempotencyKey = idempotencyKey;
     }
 
     @Override
     public void visit(Account account, ATM atm) {
-        atm.deposit(account, amount);
+        if (idempotencyKey == null) {
+            atm.deposit(account, amount);
+        } else {
+            atm.deposit(account, amount, idempotencyKey);
+        }
     }
 }
 
@@ -176,103 +1198,548 @@ class ChangePinVisitor implements TransactionVisitor {
 }
 
 // ATM system
+// One customer session as an explicit state machine: each state waits for exactly one line of input. The session
+// holds no thread, stream or Account reference, so it can be suspended between inputs, serialized, and resumed on
+// any thread; one caller at a time may drive a given session.
+class ATMSession implements Serializable {
+    private static final long serialVersionUID = 1L;
+    static final int MAX_PIN_ATTEMPTS = 3;
+    static final long PIN_ENTRY_TIMEOUT_MILLIS = 30_000;
+    static final long CASH_COLLECTION_TIMEOUT_MILLIS = 30_000;
+    static final long IDLE_TIMEOUT_MILLIS = 60_000;
+
+    enum State { IDLE, CARD_NUMBER, PIN, MENU, WITHDRAW_AMOUNT, CASH_COLLECTION, DEPOSIT_AMOUNT, NEW_PIN, CLOSED }
+
+    private State state = State.IDLE;
+    private long card = CardNumberCodec.INVALID;
+    private double uncollectedCash;
+    // Keys each amount request; the key is kept across retries of that request, e.g. after the session is resumed
+    private final String sessionId = UUID.randomUUID().toString();
+    private long requestNumber;
+    // Counts inputs and timeouts handled, so a timeout armed for an earlier step can be recognised as stale
+    private long step;
+
+    public State getState() {
+        return state;
+    }
+
+    public long getCard() {
+        return card;
+    }
+
+    public boolean isClosed() {
+        return state == State.CLOSED;
+    }
+
+    public long getStep() {
+        return step;
+    }
+
+    // Idempotency key of the current amount request
+    String requestKey() {
+        return sessionId + "-" + requestNumber;
+    }
+
+    // How long the current state may wait for input, or 0 if it may wait indefinitely
+    public long timeoutMillis() {
+        switch (state) {
+            case IDLE:
+            case CLOSED:
+                return 0;
+            case PIN:
+                return PIN_ENTRY_TIMEOUT_MILLIS;
+            case CASH_COLLECTION:
+                return CASH_COLLECTION_TIMEOUT_MILLIS;
+            default:
+                return IDLE_TIMEOUT_MILLIS;
+        }
+    }
+
+    // Handles a timeout armed at the given step; returns false if the session has moved on since
+    public boolean onTimeout(long armedAt, ConcreteATM atm) {
+        if (armedAt != step || timeoutMillis() == 0) {
+            return false;
+        }
+        step++;
+        switch (state) {
+            case PIN:
+                System.out.println("PIN entry timed out. Card retained.");
+                atm.retainCard(atm.accounts.get(card));
+                break;
+            case CASH_COLLECTION:
+                System.out.println("Cash not collected. It has been retracted and returned to your account.");
+                atm.deposit(atm.accounts.get(card), uncollectedCash);
+                uncollectedCash = 0;
+                break;
+            default:
+                System.out.println("Session timed out.");
+        }
+        endCard();
+        return true;
+    }
+
+    // Text to show while waiting for input in the current state
+    public String prompt() {
+        switch (state) {
+            case IDLE:
+                return "\nATM Menu:\n1. Insert Card\n2. Exit\n";
+            case CARD_NUMBER:
+                return "Enter your account number: ";
+            case PIN:
+                return "Enter your PIN: ";
+            case MENU:
+                return "\nATM Options:\n1. Balance Inquiry\n2. Withdraw Cash\n3. Deposit Cash\n4. Change PIN\n"
+                        + "5. Logout\n";
+            case WITHDRAW_AMOUNT:
+                return "Enter withdrawal amount: $";
+            case CASH_COLLECTION:
+                return "Please take your cash and press Enter: ";
+            case DEPOSIT_AMOUNT:
+                return "Enter deposit amount: $";
+            case NEW_PIN:
+                return "Enter new PIN (4 digits): ";
+            default:
+                return "";
+        }
+    }
+
+    // Applies one line of input and moves to the next state
+    public void onInput(String line, ConcreteATM atm) {
+        String value = line.trim();
+        step++;
+        switch (state) {
+            case IDLE:
+                onIdle(value);
+                break;
+            case CARD_NUMBER:
+                card = CardNumberCodec.parse(value);
+                Account account = atm.accounts.get(card);
+                if (account == null) {
+                    System.out.println("Invalid account number.");
+                    endCard();
+                } else if (isRetained(account)) {
+                    retainCard();
+                } else {
+                    state = State.PIN;
+                }
+                break;
+            case PIN:
+                onPin(value, atm);
+                break;
+            case MENU:
+                onMenu(value, atm);
+                break;
+            case WITHDRAW_AMOUNT:
+                onAmount(value, atm, true);
+                break;
+            case CASH_COLLECTION:
+                uncollectedCash = 0;
+                state = State.MENU;
+                break;
+            case DEPOSIT_AMOUNT:
+                onAmount(value, atm, false);
+                break;
+            case NEW_PIN:
+                int newPin = parseInt(value);
+                if (newPin >= 0 && value.length() == 4) {
+                    new ChangePinVisitor(newPin).visit(atm.accounts.get(card), atm);
+                } else {
+                    System.out.println("Invalid PIN.");
+                }
+                state = State.MENU;
+                break;
+            default:
+                throw new IllegalStateException("Session is closed.");
+        }
+    }
+
+    private void onIdle(String value) {
+        switch (parseInt(value)) {
+            case 1:
+                state = State.CARD_NUMBER;
+                break;
+            case 2:
+                System.out.println("Exiting ATM system.");
+                state = State.CLOSED;
+                break;
+            default:
+                System.out.println("Invalid option.");
+        }
+    }
+
+    private void onPin(String value, ConcreteATM atm) {
+        Account account = atm.accounts.get(card);
+        // Another session may have used up the attempts since this card was read; no PIN is checked for it
+        if (isRetained(account)) {
+            retainCard();
+            return;
+        }
+        atm.authenticate(account, parseInt(value));
+        if (account.getPinAttempts() == 0) {
+            state = State.MENU;
+        } else if (account.getPinAttempts() >= MAX_PIN_ATTEMPTS) {
+            endCard();
+        }
+    }
+
+    private void onMenu(String value, ConcreteATM atm) {
+        switch (parseInt(value)) {
+            case 1:
+                new BalanceVisitor().visit(atm.accounts.get(card), atm);
+                break;
+            case 2:
+                requestNumber++;
+                state = State.WITHDRAW_AMOUNT;
+                break;
+            case 3:
+                requestNumber++;
+                state = State.DEPOSIT_AMOUNT;
+                break;
+            case 4:
+                state = State.NEW_PIN;
+                break;
+            case 5:
+                System.out.println("Logged out.");
+                endCard();
+                break;
+            default:
+                System.out.println("Invalid option.");
+        }
+    }
+
+    private void onAmount(String value, ConcreteATM atm, boolean withdrawal) {
+        double amount;
+        try {
+            amount = Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            amount = Double.NaN;
+        }
+        state = State.MENU;
+        if (amount > 0) {
+            Account account = atm.accounts.get(card);
+            if (withdrawal) {
+                WithdrawalVisitor visitor = new WithdrawalVisitor(amount, requestKey());
+                visitor.visit(account, atm);
+                if (visitor.isDispensed()) {
+                    uncollectedCash = amount;
+                    state = State.CASH_COLLECTION;
+                }
+            } else {
+                new DepositVisitor(amount, requestKey()).visit(account, atm);
+            }
+        } else {
+            System.out.println("Invalid amount.");
+        }
+    }
+
+    private static boolean isRetained(Account account) {
+        return account.isRetained() || account.getPinAttempts() >= MAX_PIN_ATTEMPTS;
+    }
+
+    private void retainCard() {
+        System.out.println("This card has been retained. Please contact your bank.");
+        endCard();
+    }
+
+    private void endCard() {
+        card = CardNumberCodec.INVALID;
+        state = State.IDLE;
+    }
+
+    private static int parseInt(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
+
+// Hashed hierarchical timing wheel: four levels of 256 slots, each slot an intrusive doubly-linked list, so
+// scheduling and cancelling are O(1) and a timer costs one small node. A timer far in the future waits on a coarse
+// level and is cascaded down as its deadline approaches. Expired tasks run on the ticker thread.
+class TimingWheel implements AutoCloseable {
+    private static final int WHEEL_BITS = 8;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+    static final long MAX_TICKS = (1L << (WHEEL_BITS * LEVELS)) - 1;
+
+    // A scheduled task; cancel() unlinks it from its slot
+    final class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        private Timeout prev;
+        private Timeout next;
+        private int slot = -1;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        // Returns false if the timer already fired or was cancelled
+        public boolean cancel() {
+            synchronized (TimingWheel.this) {
+                if (slot < 0) {
+                    return false;
+                }
+                unlink(this);
+                return true;
+            }
+        }
+    }
+
+    private final Timeout[] slots = new Timeout[LEVELS * WHEEL_SIZE];
+    private final long tickNanos;
+    private final long startNanos;
+    private final LongSupplier clock;
+    private final LongAdder failedTasks = new LongAdder();
+    private final Thread ticker;
+    private long currentTick;
+    private int pending;
+    private volatile boolean closed;
+
+    public TimingWheel(long tick, TimeUnit unit) {
+        this(tick, unit, System::nanoTime, true);
+    }
+
+    // Without a ticker thread; the caller drives it with advance()
+    TimingWheel(long tick, TimeUnit unit, LongSupplier clock) {
+        this(tick, unit, clock, false);
+    }
+
+    private TimingWheel(long tick, TimeUnit unit, LongSupplier clock, boolean startTicker) {
+        if (tick <= 0) {
+            throw new IllegalArgumentException("Tick must be positive.");
+        }
+        this.tickNanos = unit.toNanos(tick);
+        this.clock = clock;
+        this.startNanos = clock.getAsLong();
+        if (startTicker) {
+            ticker = new Thread(this::tickLoop, "timing-wheel");
+            ticker.setDaemon(true);
+            ticker.start();
+        } else {
+            ticker = null;
+        }
+    }
+
+    // Runs the task once the delay has passed, rounded up to whole ticks
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        long ticks = Math.max(1, (unit.toNanos(delay) + tickNanos - 1) / tickNanos);
+        if (ticks > MAX_TICKS) {
+            throw new IllegalArgumentException("Delay exceeds the wheel range.");
+        }
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Timing wheel is closed.");
+            }
+            Timeout timeout = new Timeout(task, currentTick + ticks);
+            place(timeout);
+            pending++;
+            return timeout;
+        }
+    }
+
+    public synchronized int pendingTimeouts() {
+        return pending;
+    }
+
+    public long failedTasks() {
+        return failedTasks.sum();
+    }
+
+    // Processes every tick that has elapsed on the clock and runs the tasks that expired
+    void advance() {
+        long target = (clock.getAsLong() - startNanos) / tickNanos;
+        while (true) {
+            Timeout expired;
+            synchronized (this) {
+                if (currentTick >= target) {
+                    return;
+                }
+                expired = tick();
+            }
+            while (expired != null) {
+                Timeout next = expired.next;
+                expired.next = null;
+                try {
+                    expired.task.run();
+                } catch (RuntimeException e) {
+                    failedTasks.increment();
+                }
+                expired = next;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (ticker != null) {
+            ticker.interrupt();
+        }
+    }
+
+    private void tickLoop() {
+        while (!closed) {
+            advance();
+            long next = startNanos + (processedTicks() + 1) * tickNanos;
+            long sleep = next - clock.getAsLong();
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private synchronized long processedTicks() {
+        return currentTick;
+    }
+
+    // Advances one tick and returns the timers due at it, chained through next
+    private Timeout tick() {
+        currentTick++;
+        // Higher levels first, so a cascaded timer lands in a lower slot before that slot is read
+        for (int level = LEVELS - 1; level > 0; level--) {
+            if ((currentTick & ((1L << (WHEEL_BITS * level)) - 1)) == 0) {
+                cascade(level * WHEEL_SIZE + (int) (currentTick >>> (WHEEL_BITS * level) & WHEEL_MASK));
+            }
+        }
+        Timeout expired = null;
+        Timeout timeout = slots[(int) (currentTick & WHEEL_MASK)];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            unlink(timeout);
+            if (timeout.deadline <= currentTick) {
+                timeout.next = expired;
+                expired = timeout;
+            } else {
+                place(timeout);
+                pending++;
+            }
+            timeout = next;
+        }
+        return expired;
+    }
+
+    private void cascade(int slot) {
+        Timeout timeout = slots[slot];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            unlink(timeout);
+            place(timeout);
+            pending++;
+            timeout = next;
+        }
+    }
+
+    // The level is the first whose slot span covers the remaining ticks
+    private void place(Timeout timeout) {
+        long remaining = timeout.deadline - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && remaining >= 1L << (WHEEL_BITS * (level + 1))) {
+            level++;
+        }
+        int slot = level * WHEEL_SIZE + (int) (timeout.deadline >>> (WHEEL_BITS * level) & WHEEL_MASK);
+        timeout.slot = slot;
+        timeout.prev = null;
+        timeout.next = slots[slot];
+        if (slots[slot] != null) {
+            slots[slot].prev = timeout;
+        }
+        slots[slot] = timeout;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            slots[timeout.slot] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.slot = -1;
+        pending--;
+    }
+}
+
 public class ATMSystem {
     private ConcreteATM atm;
 
     public ATMSystem() {
-        atm = new ConcreteATM();
+        this(new ConcreteATM());
+    }
+
+    public ATMSystem(ConcreteATM atm) {
+        this.atm = atm;
     }
 
+    // Drives a single session from the console; the session itself never blocks, and a timeout can move it on
+    // while the console is waiting for a line
     public void run() {
         Scanner scanner = new Scanner(System.in);
-        Account currentAccount = null;
-
-        while (true) {
-            System.out.println("\nATM Menu:");
-            System.out.println("1. Insert Card");
-            System.out.println("2. Exit");
-
-            int choice = scanner.nextInt();
-            scanner.nextLine(); // Consume newline
-
-            if (choice == 1) {
-                System.out.print("Enter your account number: ");
-                int accountNumber = scanner.nextInt();
-                scanner.nextLine();
-
-                if (atm.accounts.containsKey(accountNumber)) {
-                    currentAccount = atm.accounts.get(accountNumber);
-
-                    while (true) {
-                        System.out.println("\nATM Options:");
-                        System.out.println("1. Balance Inquiry");
-                        System.out.println("2. Withdraw Cash");
-                        System.out.println("3. Deposit Cash");
-                        System.out.println("4. Change PIN");
-                        System.out.println("5. Logout");
-
-                        choice = scanner.nextInt();
-                        scanner.nextLine();
-
-                        switch (choice) {
-                            case 1:
-                                atm.authenticate(currentAccount, currentAccount.getPin());
-                                if (currentAccount.getPinAttempts() < 3) {
-                                    new BalanceVisitor().visit(currentAccount, atm);
-                                }
-                                break;
-                            case 2:
-                                atm.authenticate(currentAccount, currentAccount.getPin());
-                                if (currentAccount.getPinAttempts() < 3) {
-                                    System.out.print("Enter withdrawal amount: $");
-                                    double amount = scanner.nextDouble();
-                                    scanner.nextLine();
-                                    new WithdrawalVisitor(amount).visit(currentAccount, atm);
-                                }
-                                break;
-                            case 3:
-                                atm.authenticate(currentAccount, currentAccount.getPin());
-                                if (currentAccount.getPinAttempts() < 3) {
-                                    System.out.print("Enter deposit amount: $");
-                                    double amount = scanner.nextDouble();
-                                    scanner.nextLine();
-                                    new DepositVisitor(amount).visit(currentAccount, atm);
-                                }
-                                break;
-                            case 4:
-                                atm.authenticate(currentAccount, currentAccount.getPin());
-                                if (currentAccount.getPinAttempts() < 3) {
-                                    System.out.print("Enter new PIN (4 digits): ");
-                                    int newPin = scanner.nextInt();
-                                    scanner.nextLine();
-                                    new ChangePinVisitor(newPin).visit(currentAccount, atm);
-                                }
-                                break;
-                            case 5:
-                                currentAccount = null;
-                                System.out.println("Logged out.");
-                                break;
-                            default:
-                                System.out.println("Invalid option.");
-                        }
-                        if (choice == 5) {
-                            break;
-                        }
+        ATMSession session = new ATMSession();
+        try (TimingWheel timeouts = new TimingWheel(100, TimeUnit.MILLISECONDS)) {
+            while (!session.isClosed()) {
+                TimingWheel.Timeout timeout;
+                synchronized (session) {
+                    System.out.print(session.prompt());
+                    timeout = armTimeout(timeouts, session);
+                }
+                if (!scanner.hasNextLine()) {
+                    break;
+                }
+                String line = scanner.nextLine();
+                synchronized (session) {
+                    if (timeout != null) {
+                        timeout.cancel();
                     }
-                } else {
-                    System.out.println("Invalid account number.");
+                    session.onInput(line, atm);
                 }
-            } else if (choice == 2) {
-                System.out.println("Exiting ATM system.");
-                break;
-            } else {
-                System.out.println("Invalid option.");
             }
         }
     }
 
-    public static void main(String[] args) {
+    private TimingWheel.Timeout armTimeout(TimingWheel timeouts, ATMSession session) {
+        long timeoutMillis = session.timeoutMillis();
+        if (timeoutMillis == 0) {
+            return null;
+        }
+        long step = session.getStep();
+        return timeouts.schedule(() -> {
+            synchronized (session) {
+                if (session.onTimeout(step, atm)) {
+                    System.out.print(session.prompt());
+                }
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Usage: ATMSystem [--replicate-to <port> [sync|async]] | [--standby <port>]
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length >= 2 && args[0].equals("--standby")) {
+            StandbyATM standby = new StandbyATM(Integer.parseInt(args[1]));
+            System.out.println("Standby listening on port " + standby.getPort());
+            standby.awaitPrimaryLoss(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            System.out.println("Primary lost at journal sequence " + standby.getAppliedSequence() + ". Taking over.");
+            new ATMSystem(standby.promote()).run();
+            return;
+        }
         ATMSystem atmSystem = new ATMSystem();
+        if (args.length >= 2 && args[0].equals("--replicate-to")) {
+            JournalReplicator.AckMode mode = args.length >= 3 && args[2].equalsIgnoreCase("async")
+                    ? JournalReplicator.AckMode.ASYNC : JournalReplicator.AckMode.SYNC;
+            atmSystem.atm.setReplicator(new JournalReplicator("localhost", Integer.parseInt(args[1]), mode,
+                    200, TimeUnit.MILLISECONDS));
+        }
         atmSystem.run();
     }
 }
\ No newline at end of file
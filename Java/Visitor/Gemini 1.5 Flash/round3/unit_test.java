@@ -1,5 +1,21 @@
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class ATMSystemTest {
@@ -7,7 +23,7 @@ class ATMSystemTest {
     @Test
     void testAuthenticateSuccess() {
         ConcreteATM atm = new ConcreteATM();
-        Account account = atm.accounts.get(1234567890);
+        Account account = atm.accounts.get(1234567897L);
         atm.authenticate(account, 1111);
         assertEquals(0, account.getPinAttempts());
     }
@@ -15,7 +31,7 @@ class ATMSystemTest {
     @Test
     void testAuthenticateFailure() {
         ConcreteATM atm = new ConcreteATM();
-        Account account = atm.accounts.get(1234567890);
+        Account account = atm.accounts.get(1234567897L);
         atm.authenticate(account, 2222);
         assertEquals(1, account.getPinAttempts());
     }
@@ -23,7 +39,7 @@ class ATMSystemTest {
     @Test
     void testAuthenticateCardRetained() {
         ConcreteATM atm = new ConcreteATM();
-        Account account = atm.accounts.get(1234567890);
+        Account account = atm.accounts.get(1234567897L);
         for (int i = 0; i < 3; i++) {
             atm.authenticate(account, 2222);
         }
@@ -33,7 +49,7 @@ class ATMSystemTest {
     @Test
     void testDisplayBalance() {
         ConcreteATM atm = new ConcreteATM();
-        Account account = atm.accounts.get(1234567890);
+        Account account = atm.accounts.get(1234567897L);
         atm.displayBalance(account);
         // Assertions are not possible for output-based methods
     }
@@ -41,7 +57,7 @@ class ATMSystemTest {
     @Test
     void testWithdrawSuccess() {
         ConcreteATM atm = new ConcreteATM();
-        Account account = atm.accounts.get(1234567890);
+        Account account = atm.accounts.get(1234567897L);
         atm.withdraw(account, 500.0);
         assertEquals(500.0, account.getBalance());
     }
@@ -49,7 +65,7 @@ class ATMSystemTest {
     @Test
     void testWithdrawInsufficientFunds() {
         ConcreteATM atm = new ConcreteATM();
-        Account account = atm.accounts.get(1234567890);
+        Account account = atm.accounts.get(1234567897L);
         atm.withdraw(account, 1500.0);
         assertEquals(1000.0, account.getBalance());
     }
@@ -57,7 +73,7 @@ class ATMSystemTest {
     @Test
     void testDeposit() {
         ConcreteATM atm = new ConcreteATM();
-        Account account = atm.accounts.get(1234567890);
+        Account account = atm.accounts.get(1234567897L);
         atm.deposit(account, 200.0);
         assertEquals(1200.0, account.getBalance());
     }
@@ -65,7 +81,7 @@ class ATMSystemTest {
     @Test
     void testChangePin() {
         ConcreteATM atm = new ConcreteATM();
-        Account account = atm.accounts.get(1234567890);
+        Account account = atm.accounts.get(1234567897L);
         atm.changePin(account, 4444);
         assertEquals(4444, account.getPin());
     }
@@ -73,8 +89,476 @@ class ATMSystemTest {
     @Test
     void testPrintReceipt() {
         ConcreteATM atm = new ConcreteATM();
-        Account account = atm.accounts.get(1234567890);
+        Account account = atm.accounts.get(1234567897L);
         atm.printReceipt(account, "Withdrawal", 500.0);
         // Assertions are not possible for output-based methods
     }
-}
\ No newline at end of file
+
+    @Test
+    void testCardNumberCodecParse() {
+        assertEquals(1234567897L, CardNumberCodec.parse("1234567897"));
+        assertEquals(4111111111111111L, CardNumberCodec.parse("4111111111111111"));
+        assertEquals("9876543217", CardNumberCodec.format(CardNumberCodec.parse("9876543217")));
+    }
+
+    @Test
+    void testCardNumberCodecRejectsInvalid() {
+        assertEquals(CardNumberCodec.INVALID, CardNumberCodec.parse("1234567890"));
+        assertEquals(CardNumberCodec.INVALID, CardNumberCodec.parse("12345abc97"));
+        assertEquals(CardNumberCodec.INVALID, CardNumberCodec.parse("0123456789"));
+        assertEquals(CardNumberCodec.INVALID, CardNumberCodec.parse("1234"));
+    }
+
+    @Test
+    void testLongAccountMapGrowsAndFinds() {
+        LongAccountMap map = new LongAccountMap(2);
+        for (long card = 1; card <= 1000; card++) {
+            map.put(card, new Account(card, 1111, card));
+        }
+        assertEquals(1000, map.size());
+        assertEquals(500.0, map.get(500).getBalance());
+        assertNull(map.get(1001));
+    }
+
+    @Test
+    void testLongAccountMapBenchmarkFindsEveryCard() {
+        for (int i = 0; i < 1_000; i++) {
+            assertNotEquals(CardNumberCodec.INVALID, CardNumberCodec.parse(LongAccountMapBenchmark.card(i)));
+        }
+        assertEquals(5_000, LongAccountMapBenchmark.run(false, 10_000, 5_000).found);
+        assertEquals(5_000, LongAccountMapBenchmark.run(true, 10_000, 5_000).found);
+    }
+
+    @Test
+    void testAccountAboveIntRange() {
+        ConcreteATM atm = new ConcreteATM();
+        Account account = atm.accounts.get(9876543217L);
+        assertEquals(9876543217L, account.getAccountNumber());
+        assertEquals(500.0, account.getBalance());
+    }
+
+    @Test
+    void testWithdrawRetryIsNotDebitedTwice() {
+        ConcreteATM atm = new ConcreteATM();
+        Account account = atm.accounts.get(1234567897L);
+        assertTrue(atm.withdraw(account, 300.0, "T1-0001"));
+        assertTrue(atm.withdraw(account, 300.0, "T1-0001"));
+        assertEquals(700.0, account.getBalance());
+        new WithdrawalVisitor(300.0, "T1-0001").visit(account, atm);
+        assertEquals(700.0, account.getBalance());
+    }
+
+    @Test
+    void testRetryReturnsOriginalOutcome() {
+        ConcreteATM atm = new ConcreteATM();
+        Account account = atm.accounts.get(1234567897L);
+        assertFalse(atm.withdraw(account, 1500.0, "T1-0002"));
+        atm.deposit(account, 1000.0);
+        assertFalse(atm.withdraw(account, 1500.0, "T1-0002"));
+        assertEquals(2000.0, account.getBalance());
+    }
+
+    @Test
+    void testDepositRetryIsNotCreditedTwice() {
+        ConcreteATM atm = new ConcreteATM();
+        Account account = atm.accounts.get(1234567897L);
+        new DepositVisitor(200.0, "T2-0001").visit(account, atm);
+        new DepositVisitor(200.0, "T2-0001").visit(account, atm);
+        assertEquals(1200.0, account.getBalance());
+    }
+
+    @Test
+    void testWithdrawalVisitorEnforcesRollingLimit() {
+        ConcreteATM atm = new ConcreteATM();
+        WithdrawalLimiter limiter = new WithdrawalLimiter(500.0, 10, 24, TimeUnit.HOURS, () -> 0L);
+        atm.setWithdrawalLimiter(limiter);
+        Account account = atm.accounts.get(1234567897L);
+        WithdrawalVisitor first = new WithdrawalVisitor(300.0, "T4-0001");
+        first.visit(account, atm);
+        WithdrawalVisitor second = new WithdrawalVisitor(300.0, "T4-0002");
+        second.visit(account, atm);
+        assertTrue(first.isDispensed());
+        assertFalse(second.isDispensed());
+        assertFalse(atm.withdraw(account, 300.0, "T4-0002"));
+        assertTrue(atm.withdraw(account, 200.0));
+        assertEquals(500.0, account.getBalance());
+        assertFalse(atm.withdraw(account, 5000.0));
+        assertEquals(500.0, limiter.withdrawnInWindow(1234567897L));
+    }
+
+    @Test
+    void testIdempotencyKeyIsBoundToItsParameters() {
+        ConcreteATM atm = new ConcreteATM();
+        Account account = atm.accounts.get(1234567897L);
+        Account other = atm.accounts.get(9876543217L);
+        assertTrue(atm.withdraw(account, 100.0, "T3-0001"));
+        assertThrows(IllegalArgumentException.class, () -> atm.withdraw(account, 200.0, "T3-0001"));
+        assertThrows(IllegalArgumentException.class, () -> atm.withdraw(other, 100.0, "T3-0001"));
+        assertThrows(IllegalArgumentException.class, () -> atm.deposit(account, 100.0, "T3-0001"));
+        assertThrows(IllegalArgumentException.class, () -> atm.withdraw(account, 100.0, null));
+        assertEquals(900.0, account.getBalance());
+        assertEquals(500.0, other.getBalance());
+    }
+
+    @Test
+    void testIdempotencyCacheExpiresAndBounds() {
+        long[] now = {0};
+        IdempotencyCache cache = new IdempotencyCache(2, 1, TimeUnit.SECONDS, () -> now[0]);
+        int[] runs = {0};
+        cache.execute("a", () -> ++runs[0] > 0);
+        cache.execute("a", () -> ++runs[0] > 0);
+        assertEquals(1, runs[0]);
+        cache.execute("b", () -> true);
+        cache.execute("c", () -> true);
+        assertEquals(2, cache.size());
+        assertFalse(cache.contains("a"));
+        now[0] = TimeUnit.SECONDS.toNanos(2);
+        assertFalse(cache.contains("c"));
+        cache.execute("c", () -> ++runs[0] > 0);
+        assertEquals(2, runs[0]);
+    }
+
+    @Test
+    void testIdempotencyCacheRunsOperationOutsideMapLock() throws Exception {
+        IdempotencyCache cache = new IdempotencyCache(100, 1, TimeUnit.MINUTES);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        Thread slow = new Thread(() -> cache.execute("slow", () -> {
+            runs.incrementAndGet();
+            started.countDown();
+            try {
+                return release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }));
+        slow.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        // Other keys proceed, and a nested call on another key does not hit "Recursive update"
+        assertTrue(cache.execute("other", () -> cache.execute("nested", () -> true)));
+        assertThrows(IllegalStateException.class, () -> cache.execute("again", () -> cache.execute("again", () -> true)));
+
+        Thread retry = new Thread(() -> cache.execute("slow", () -> runs.incrementAndGet() > 0));
+        retry.start();
+        release.countDown();
+        slow.join();
+        retry.join();
+        assertEquals(1, runs.get());
+        assertTrue(cache.execute("slow", () -> false));
+
+        assertThrows(IllegalArgumentException.class, () -> cache.execute("failing", () -> {
+            throw new IllegalArgumentException("boom");
+        }));
+        assertTrue(cache.execute("failing", () -> true));
+    }
+
+    @Test
+    void testSyncReplicationKeepsStandbyCurrent() throws Exception {
+        try (StandbyATM standby = new StandbyATM(0)) {
+            ConcreteATM atm = new ConcreteATM();
+            try (JournalReplicator replicator = new JournalReplicator("localhost", standby.getPort(),
+                    JournalReplicator.AckMode.SYNC, 5, TimeUnit.SECONDS)) {
+                atm.setReplicator(replicator);
+                Account account = atm.accounts.get(1234567897L);
+                assertTrue(atm.withdraw(account, 200.0));
+                atm.changePin(account, 4321);
+
+                assertEquals(800.0, standby.getAccount(1234567897L).getBalance());
+                assertEquals(4321, standby.getAccount(1234567897L).getPin());
+                assertEquals(500.0, standby.getAccount(9876543217L).getBalance());
+                assertEquals(0, replicator.lagEntries());
+                assertEquals(0, replicator.syncTimeouts());
+            }
+        }
+    }
+
+    @Test
+    void testStandbyPromotesAfterPrimaryLoss() throws Exception {
+        StandbyATM standby = new StandbyATM(0);
+        ConcreteATM atm = new ConcreteATM();
+        JournalReplicator replicator = new JournalReplicator("localhost", standby.getPort(),
+                JournalReplicator.AckMode.ASYNC, 0, TimeUnit.MILLISECONDS);
+        atm.setReplicator(replicator);
+        atm.deposit(atm.accounts.get(9876543217L), 250.0);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (replicator.lagEntries() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(3, standby.getAppliedSequence());
+        replicator.close();
+
+        assertTrue(standby.awaitPrimaryLoss(5, TimeUnit.SECONDS));
+        ConcreteATM promoted = standby.promote();
+        assertEquals(750.0, promoted.accounts.get(9876543217L).getBalance());
+        assertEquals(1000.0, promoted.accounts.get(1234567897L).getBalance());
+    }
+
+    @Test
+    void testPromotedStandbyAnswersRetriedRequestFromReplicatedKeys() throws Exception {
+        StandbyATM standby = new StandbyATM(0);
+        ConcreteATM atm = new ConcreteATM();
+        try (JournalReplicator replicator = new JournalReplicator("localhost", standby.getPort(),
+                JournalReplicator.AckMode.SYNC, 5, TimeUnit.SECONDS)) {
+            atm.setReplicator(replicator);
+            assertTrue(atm.withdraw(atm.accounts.get(1234567897L), 100.0, "req-1"));
+            assertFalse(atm.withdraw(atm.accounts.get(9876543217L), 900.0, "req-2"));
+        }
+        assertTrue(standby.awaitPrimaryLoss(5, TimeUnit.SECONDS));
+
+        ConcreteATM promoted = standby.promote();
+        assertTrue(promoted.withdraw(promoted.accounts.get(1234567897L), 100.0, "req-1"));
+        assertFalse(promoted.withdraw(promoted.accounts.get(9876543217L), 100.0, "req-2"));
+        assertEquals(900.0, promoted.accounts.get(1234567897L).getBalance());
+        assertEquals(500.0, promoted.accounts.get(9876543217L).getBalance());
+    }
+
+    @Test
+    void testPromotedStandbyKeepsCardRetainedOnPrimary() throws Exception {
+        StandbyATM standby = new StandbyATM(0);
+        ConcreteATM atm = new ConcreteATM();
+        try (JournalReplicator replicator = new JournalReplicator("localhost", standby.getPort(),
+                JournalReplicator.AckMode.SYNC, 5, TimeUnit.SECONDS)) {
+            atm.setReplicator(replicator);
+            Account account = atm.accounts.get(1234567897L);
+            for (int i = 0; i < 3; i++) {
+                atm.authenticate(account, 9999);
+            }
+            atm.authenticate(atm.accounts.get(9876543217L), 9999);
+            atm.retainCard(atm.accounts.get(9876543217L));
+        }
+        assertTrue(standby.awaitPrimaryLoss(5, TimeUnit.SECONDS));
+
+        ConcreteATM promoted = standby.promote();
+        assertEquals(3, promoted.accounts.get(1234567897L).getPinAttempts());
+        assertEquals(1, promoted.accounts.get(9876543217L).getPinAttempts());
+        assertTrue(promoted.accounts.get(9876543217L).isRetained());
+        ATMSession session = new ATMSession();
+        feed(session, promoted, "1", "1234567897");
+        assertEquals(ATMSession.State.IDLE, session.getState());
+        feed(session, promoted, "1", "9876543217");
+        assertEquals(ATMSession.State.IDLE, session.getState());
+    }
+
+    @Test
+    void testReplicatorOnlySendsJournalToThisHost() {
+        assertThrows(IllegalArgumentException.class, () -> new JournalReplicator("192.0.2.1", 9,
+                JournalReplicator.AckMode.ASYNC, 0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void testReplicatorDegradesToAsyncWhenStandbyStopsAcking() throws Exception {
+        try (ServerSocket silent = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             JournalReplicator replicator = new JournalReplicator("localhost", silent.getLocalPort(),
+                     JournalReplicator.AckMode.SYNC, 50, TimeUnit.MILLISECONDS);
+             Socket ignored = silent.accept()) {
+            ConcreteATM atm = new ConcreteATM();
+            atm.setReplicator(replicator);
+            assertEquals(JournalReplicator.AckMode.ASYNC, replicator.getMode());
+            assertEquals(1, replicator.syncTimeouts());
+            assertTrue(atm.withdraw(atm.accounts.get(1234567897L), 100.0));
+            assertEquals(1, replicator.syncTimeouts());
+            assertTrue(replicator.isHealthy());
+        }
+    }
+
+    @Test
+    void testReplicatorReportsLostStandby() throws Exception {
+        StandbyATM standby = new StandbyATM(0);
+        ConcreteATM atm = new ConcreteATM();
+        try (JournalReplicator replicator = new JournalReplicator("localhost", standby.getPort(),
+                JournalReplicator.AckMode.SYNC, 5, TimeUnit.SECONDS)) {
+            atm.setReplicator(replicator);
+            standby.close();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (replicator.isHealthy() && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertFalse(replicator.isHealthy());
+            assertTrue(replicator.getFailure().startsWith("standby connection lost"));
+            assertFalse(replicator.record(atm.accounts.get(1234567897L)));
+            assertTrue(atm.withdraw(atm.accounts.get(1234567897L), 100.0));
+            assertEquals(900.0, atm.accounts.get(1234567897L).getBalance());
+        }
+    }
+
+    private static void feed(ATMSession session, ConcreteATM atm, String... lines) {
+        for (String line : lines) {
+            session.onInput(line, atm);
+        }
+    }
+
+    @Test
+    void testSessionWalksThroughStates() {
+        ConcreteATM atm = new ConcreteATM();
+        ATMSession session = new ATMSession();
+        feed(session, atm, "1", "1234567897");
+        assertEquals(ATMSession.State.PIN, session.getState());
+        feed(session, atm, "1111");
+        assertEquals(ATMSession.State.MENU, session.getState());
+        feed(session, atm, "2");
+        assertEquals(ATMSession.State.WITHDRAW_AMOUNT, session.getState());
+        feed(session, atm, "300");
+        assertEquals(700.0, atm.accounts.get(1234567897L).getBalance());
+        assertEquals(ATMSession.State.CASH_COLLECTION, session.getState());
+        feed(session, atm, "", "5", "2");
+        assertTrue(session.isClosed());
+    }
+
+    @Test
+    void testSessionRetainsCardAfterWrongPins() {
+        ConcreteATM atm = new ConcreteATM();
+        ATMSession session = new ATMSession();
+        feed(session, atm, "1", "1234567897", "0000", "0000");
+        assertEquals(ATMSession.State.PIN, session.getState());
+        feed(session, atm, "0000");
+        assertEquals(ATMSession.State.IDLE, session.getState());
+        assertEquals(CardNumberCodec.INVALID, session.getCard());
+    }
+
+    @Test
+    void testSessionRejectsRetainedCardWithoutCheckingPin() {
+        ConcreteATM atm = new ConcreteATM();
+        feed(new ATMSession(), atm, "1", "1234567897", "0000", "0000", "0000");
+        ATMSession session = new ATMSession();
+        feed(session, atm, "1", "1234567897");
+        assertEquals(ATMSession.State.IDLE, session.getState());
+        assertEquals(CardNumberCodec.INVALID, session.getCard());
+
+        ATMSession waiting = new ATMSession();
+        Account account = atm.accounts.get(9876543217L);
+        feed(waiting, atm, "1", "9876543217");
+        for (int i = 0; i < ATMSession.MAX_PIN_ATTEMPTS; i++) {
+            account.incrementPinAttempts();
+        }
+        feed(waiting, atm, "2222");
+        assertEquals(ATMSession.State.IDLE, waiting.getState());
+        assertEquals(ATMSession.MAX_PIN_ATTEMPTS, account.getPinAttempts());
+    }
+
+    @Test
+    void testSessionResumesOnAnotherThreadAfterSerialization() throws Exception {
+        ConcreteATM atm = new ConcreteATM();
+        ATMSession session = new ATMSession();
+        feed(session, atm, "1", "9876543217", "2222", "3");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(session);
+        }
+        ATMSession restored;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            restored = (ATMSession) in.readObject();
+        }
+        assertEquals(ATMSession.State.DEPOSIT_AMOUNT, restored.getState());
+
+        ExecutorService loop = Executors.newSingleThreadExecutor();
+        try {
+            CompletableFuture.runAsync(() -> restored.onInput("150", atm), loop).get(5, TimeUnit.SECONDS);
+        } finally {
+            loop.shutdown();
+        }
+        assertEquals(650.0, atm.accounts.get(9876543217L).getBalance());
+        assertEquals(ATMSession.State.MENU, restored.getState());
+    }
+
+    @Test
+    void testResumedSessionRetryIsNotDebitedTwice() throws Exception {
+        ConcreteATM atm = new ConcreteATM();
+        ATMSession session = new ATMSession();
+        feed(session, atm, "1", "1234567897", "1111", "2");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(session);
+        }
+        feed(session, atm, "300");
+        assertEquals(700.0, atm.accounts.get(1234567897L).getBalance());
+
+        ATMSession retried;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            retried = (ATMSession) in.readObject();
+        }
+        feed(retried, atm, "300");
+        assertEquals(700.0, atm.accounts.get(1234567897L).getBalance());
+        assertEquals(ATMSession.State.CASH_COLLECTION, retried.getState());
+
+        String firstKey = session.requestKey();
+        feed(session, atm, "", "2", "300");
+        assertNotEquals(firstKey, session.requestKey());
+        assertEquals(400.0, atm.accounts.get(1234567897L).getBalance());
+    }
+
+    @Test
+    void testTimingWheelFiresAcrossLevels() {
+        long[] now = {0};
+        TimingWheel wheel = new TimingWheel(1, TimeUnit.MILLISECONDS, () -> now[0]);
+        List<Long> fired = new ArrayList<>();
+        long[] delays = {1, 255, 256, 257, 65_535, 65_536, 70_000, 20_000_000};
+        for (long delay : delays) {
+            wheel.schedule(() -> fired.add(now[0] / 1_000_000), delay, TimeUnit.MILLISECONDS);
+        }
+        for (long delay : delays) {
+            now[0] = TimeUnit.MILLISECONDS.toNanos(delay) - 1;
+            wheel.advance();
+            assertFalse(fired.contains(delay));
+            now[0] = TimeUnit.MILLISECONDS.toNanos(delay);
+            wheel.advance();
+            assertEquals(delay, fired.get(fired.size() - 1));
+        }
+        assertEquals(delays.length, fired.size());
+        assertEquals(0, wheel.pendingTimeouts());
+    }
+
+    @Test
+    void testTimingWheelCancelsAndHoldsManyTimers() {
+        long[] now = {0};
+        TimingWheel wheel = new TimingWheel(1, TimeUnit.MILLISECONDS, () -> now[0]);
+        int[] fired = {0};
+        List<TimingWheel.Timeout> timeouts = new ArrayList<>();
+        for (int i = 0; i < 200_000; i++) {
+            timeouts.add(wheel.schedule(() -> fired[0]++, 1 + i % 120_000, TimeUnit.MILLISECONDS));
+        }
+        assertEquals(200_000, wheel.pendingTimeouts());
+        for (int i = 0; i < timeouts.size(); i += 2) {
+            assertTrue(timeouts.get(i).cancel());
+        }
+        assertFalse(timeouts.get(0).cancel());
+        now[0] = TimeUnit.MILLISECONDS.toNanos(120_000);
+        wheel.advance();
+        assertEquals(100_000, fired[0]);
+        assertEquals(0, wheel.pendingTimeouts());
+    }
+
+    @Test
+    void testPinEntryTimeoutRetainsCard() {
+        ConcreteATM atm = new ConcreteATM();
+        ATMSession session = new ATMSession();
+        feed(session, atm, "1", "1234567897");
+        long armedAt = session.getStep();
+        assertEquals(ATMSession.PIN_ENTRY_TIMEOUT_MILLIS, session.timeoutMillis());
+        assertTrue(session.onTimeout(armedAt, atm));
+        assertEquals(ATMSession.State.IDLE, session.getState());
+        assertFalse(session.onTimeout(armedAt, atm));
+        assertTrue(atm.accounts.get(1234567897L).isRetained());
+
+        ATMSession next = new ATMSession();
+        feed(next, atm, "1", "1234567897");
+        assertEquals(ATMSession.State.IDLE, next.getState());
+    }
+
+    @Test
+    void testUncollectedCashIsRetracted() {
+        ConcreteATM atm = new ConcreteATM();
+        ATMSession session = new ATMSession();
+        feed(session, atm, "1", "9876543217", "2222", "2", "100");
+        assertEquals(400.0, atm.accounts.get(9876543217L).getBalance());
+        long armedAt = session.getStep();
+        feed(session, atm, "");
+        assertFalse(session.onTimeout(armedAt, atm));
+
+        feed(session, atm, "2", "100");
+        assertTrue(session.onTimeout(session.getStep(), atm));
+        assertEquals(400.0, atm.accounts.get(9876543217L).getBalance());
+        assertEquals(ATMSession.State.IDLE, session.getState());
+    }
+}
@@ -1,26 +1,117 @@
+// Build note: AccountTable and AccountImporter use java.lang.foreign, so this file needs JDK 21 with --enable-preview
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.List;
 import java.util.Scanner;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
 
 // ATM class representing the context
 public class ATM {
-    private Map<String, Account> accounts;
+    private AccountTable accounts;
     private Account currentAccount;
     private int maxAttempts;
-    private Scanner input;
+    private TerminalInput input;
+    private TerminalOutput out;
+    private WithdrawalLimiter withdrawalLimiter;
+    private FraudScorer fraudScorer;
+    private StatementIndex statementIndex;
+    private String terminalId;
+
+    private static final byte[] MENU = TerminalOutput.encode("\nSelect an option:\n1. Check Balance\n"
+            + "2. Withdraw Cash\n3. Deposit Cash\n4. Change PIN\n5. Mini Statement\n6. Exit\n");
+    private static final byte[] GOODBYE = TerminalOutput.encode("Thank you for using the ATM. Goodbye!");
+    private static final byte[] INVALID_OPTION = TerminalOutput.encode("Invalid option. Please try again.");
+    private static final int EXIT_CHOICE = 6;
+    // Operations are stateless, so one shared instance of each serves every session
+    private static final ATMOperation[] OPERATIONS = {
+            null, new BalanceInquiry(), new CashWithdrawal(), new CashDeposit(), new PinChange(),
+            MiniStatement.prompted()
+    };
 
     public ATM() {
-        accounts = new HashMap<>();
-        accounts.put("1234567890123456", new Account("1234567890123456", "1234", 1000.0));
+        this(sampleAccounts());
+    }
+
+    public ATM(AccountTable accounts) {
+        this(accounts, new ByteInput(System.in), new TerminalOutput(System.out), new WithdrawalLimiter(),
+                new FraudScorer());
+    }
+
+    ATM(AccountTable accounts, TerminalInput input, TerminalOutput out, WithdrawalLimiter withdrawalLimiter,
+        FraudScorer fraudScorer) {
+        this.accounts = accounts;
         maxAttempts = 3;
-        input = new Scanner(System.in);
+        this.withdrawalLimiter = withdrawalLimiter;
+        this.fraudScorer = fraudScorer;
+        statementIndex = new StatementIndex();
+        terminalId = "ATM-0001";
+        this.input = input;
+        this.out = out;
     }
 
-    public static void main(String[] args) {
-        ATM atm = new ATM();
+    public static void main(String[] args) throws IOException {
+        ATM atm;
+        if (args.length > 0) {
+            // Usage: ATM <accounts.csv> <capacity>
+            AccountTable table = new AccountTable(args.length > 1 ? Integer.parseInt(args[1]) : 1 << 20);
+            AccountImporter.Result result = new AccountImporter(table).importCsv(Path.of(args[0]), 0,
+                    (rows, bytes, totalBytes) -> System.out.printf("Imported %d accounts (%d%%)%n",
+                            rows, totalBytes == 0 ? 100 : bytes * 100 / totalBytes));
+            System.out.println(result);
+            atm = new ATM(table);
+        } else {
+            atm = new ATM();
+        }
         atm.start();
     }
 
+    private static AccountTable sampleAccounts() {
+        AccountTable table = new AccountTable(16);
+        table.put("1234567890123456", "1234", 1000.0);
+        return table;
+    }
+
     public void start() {
         System.out.println("Welcome to the ATM!");
 
@@ -37,95 +128,379 @@ public class ATM {
 
     private boolean authenticate() {
         System.out.print("Enter card number: ");
-        String cardNumber = input.nextLine();
+        String cardNumber = input.readLine();
 
-        if (accounts.containsKey(cardNumber)) {
-            currentAccount = accounts.get(cardNumber);
+        int record = cardNumber == null ? -1 : accounts.find(cardNumber);
+        if (record >= 0) {
+            currentAccount = accounts.view(record);
             int attempts = 0;
+            // One event per PIN attempt, timed from the moment the PIN is in, so the customer's typing is not
+            // counted as processing time
             while (attempts < maxAttempts) {
                 System.out.print("Enter PIN: ");
-                String pin = input.nextLine();
+                String pin = input.readLine();
+                ATMEvent event = ATMEvent.start();
                 if (currentAccount.validatePin(pin)) {
+                    ATMEvent.finish(event, "AUTHENTICATE", cardNumber, 0, ATMEvent.SUCCESS);
                     return true;
                 } else {
                     attempts++;
-                    System.out.println("Incorrect PIN. Attempts remaining: " + (maxAttempts - attempts));
+                    if (attempts < maxAttempts) {
+                        System.out.println("Incorrect PIN. Attempts remaining: " + (maxAttempts - attempts));
+                        ATMEvent.finish(event, "AUTHENTICATE", cardNumber, 0, ATMEvent.FAILED);
+                    } else {
+                        System.out.println("Incorrect PIN. Attempts remaining: 0");
+                        ATMEvent.finish(event, "AUTHENTICATE", cardNumber, 0, ATMEvent.CARD_RETAINED);
+                    }
                 }
             }
             System.out.println("Card retained due to exceeding maximum attempts.");
         } else {
+            ATMEvent event = ATMEvent.start();
             System.out.println("Invalid card number.");
+            ATMEvent.finish(event, "AUTHENTICATE", cardNumber, 0, ATMEvent.INVALID);
         }
         return false;
     }
 
     private void showMenu() {
-        ATMVisitor visitor = new ATMVisitorImpl(currentAccount, input);
-        while (true) {
-            System.out.println("\nSelect an option:");
-            System.out.println("1. Check Balance");
-            System.out.println("2. Withdraw Cash");
-            System.out.println("3. Deposit Cash");
-            System.out.println("4. Change PIN");
-            System.out.println("5. Exit");
-
-            int choice = input.nextInt();
-            input.nextLine(); // consume newline
-
-            switch (choice) {
-                case 1:
-                    visitor.visit(new BalanceInquiry());
-                    break;
-                case 2:
-                    visitor.visit(new CashWithdrawal());
-                    break;
-                case 3:
-                    visitor.visit(new CashDeposit());
-                    break;
-                case 4:
-                    visitor.visit(new PinChange());
-                    break;
-                case 5:
-                    System.out.println("Thank you for using the ATM. Goodbye!");
-                    return;
-                default:
-                    System.out.println("Invalid option. Please try again.");
-            }
+        ATMVisitor visitor = newSession(currentAccount);
+        while (step(visitor)) {
+            // one menu round per iteration
+        }
+    }
+
+    ATMVisitor newSession(Account account) {
+        currentAccount = account;
+        return new ATMVisitorImpl(account, input, out, withdrawalLimiter, fraudScorer, statementIndex, terminalId);
+    }
+
+    // Shows the menu and runs one choice; returns false once the session is over. Allocation-free apart from
+    // PIN changes and mini statements.
+    boolean step(ATMVisitor visitor) {
+        out.print(MENU).flush();
+        int choice = input.readChoice();
+        if (choice == TerminalInput.END_OF_INPUT || choice == EXIT_CHOICE) {
+            out.print(GOODBYE).println();
+            return false;
+        }
+        if (choice > 0 && choice < OPERATIONS.length) {
+            OPERATIONS[choice].accept(visitor);
+        } else {
+            out.print(INVALID_OPTION).println();
         }
+        return true;
     }
 }
 
-// Account class
+// Account class (flyweight view over one record of an AccountTable)
 class Account {
+    private final AccountTable table;
+    private final int record;
     private String cardNumber;
-    private String pin;
-    private double balance;
 
     public Account(String cardNumber, String pin, double balance) {
-        this.cardNumber = cardNumber;
-        this.pin = pin;
-        this.balance = balance;
+        this(AccountTable.single(cardNumber, pin, balance), 0);
+    }
+
+    Account(AccountTable table, int record) {
+        this.table = table;
+        this.record = record;
     }
 
     public boolean validatePin(String pin) {
-        return this.pin.equals(pin);
+        return table.pinMatches(record, pin);
     }
 
     // Getters and setters
     public String getCardNumber() {
+        // Decoded once; the card number of a record never changes
+        if (cardNumber == null) {
+            cardNumber = table.cardNumber(record);
+        }
         return cardNumber;
     }
 
     public double getBalance() {
-        return balance;
+        return table.balance(record);
     }
 
     public void setBalance(double balance) {
-        this.balance = balance;
+        table.setBalance(record, balance);
     }
 
     public void setPin(String pin) {
-        this.pin = pin;
+        table.setPin(record, pin);
+    }
+}
+
+// Off-heap account table: fixed-width records plus an open-addressing index keyed by card number. Inserts are
+// serialised on the table and publish a record by writing size last, so lookups may run alongside them.
+class AccountTable implements AutoCloseable {
+    // Record layout (32 bytes): card digits as unsigned long, balance, PIN bytes, PIN length, card length
+    static final int RECORD_SIZE = 32;
+    static final int MAX_PIN_LENGTH = 12;
+    static final int MAX_CARD_LENGTH = 19;
+    private static final long CARD_OFFSET = 0;
+    private static final long BALANCE_OFFSET = 8;
+    private static final long PIN_OFFSET = 16;
+    private static final long PIN_LENGTH_OFFSET = PIN_OFFSET + MAX_PIN_LENGTH;
+    private static final long CARD_LENGTH_OFFSET = PIN_LENGTH_OFFSET + 1;
+
+    private final Arena arena;
+    private final MemorySegment records;
+    private final MemorySegment index;
+    private final int capacity;
+    private final int mask;
+    // Written last by an insert, after the record and its index slot; readers read it first
+    private volatile int size;
+
+    public AccountTable(int capacity) {
+        this(Arena.ofShared(), capacity);
+    }
+
+    private AccountTable(Arena arena, int capacity) {
+        if (capacity <= 0 || capacity > (1 << 29)) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        this.arena = arena;
+        this.capacity = capacity;
+        // Index slots hold record + 1 (0 means empty) and are kept at most half full
+        int slots = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        this.mask = slots - 1;
+        this.records = arena.allocate((long) capacity * RECORD_SIZE, 8);
+        this.index = arena.allocate((long) slots * Integer.BYTES, 4);
+        this.index.fill((byte) 0);
+    }
+
+    // Single-record table for standalone accounts; released by the GC instead of close()
+    static AccountTable single(String cardNumber, String pin, double balance) {
+        AccountTable table = new AccountTable(Arena.ofAuto(), 1);
+        table.put(cardNumber, pin, balance);
+        return table;
+    }
+
+    public synchronized Account put(String cardNumber, String pin, double balance) {
+        long card = parseCard(cardNumber);
+        if (card == -1) {
+            throw new IllegalArgumentException("Invalid card number.");
+        }
+        checkPin(pin);
+        int slot = freeSlot(card, cardNumber.length());
+        int record = reserve(card, cardNumber.length(), balance);
+        writePin((long) record * RECORD_SIZE, pin);
+        publish(slot, record);
+        return new Account(this, record);
+    }
+
+    // Bulk-load path: the PIN is copied straight from the source segment without building a String
+    synchronized int putRaw(long card, int cardLength, double balance, MemorySegment source, long pinOffset,
+                            int pinLength) {
+        if (cardLength <= 0 || cardLength > MAX_CARD_LENGTH || pinLength <= 0 || pinLength > MAX_PIN_LENGTH) {
+            throw new IllegalArgumentException("Invalid card number or PIN length.");
+        }
+        for (long i = pinOffset; i < pinOffset + pinLength; i++) {
+            byte b = source.get(ValueLayout.JAVA_BYTE, i);
+            if (b < '0' || b > '9') {
+                throw new IllegalArgumentException("PIN must be digits only.");
+            }
+        }
+        int slot = freeSlot(card, cardLength);
+        int record = reserve(card, cardLength, balance);
+        long base = (long) record * RECORD_SIZE;
+        MemorySegment.copy(source, pinOffset, records, base + PIN_OFFSET, pinLength);
+        records.set(ValueLayout.JAVA_BYTE, base + PIN_LENGTH_OFFSET, (byte) pinLength);
+        publish(slot, record);
+        return record;
+    }
+
+    // Copies one record in this table's own layout, as written by writeRecords
+    int putRecord(MemorySegment source, long offset) {
+        return putRaw(source.get(ValueLayout.JAVA_LONG, offset + CARD_OFFSET),
+                source.get(ValueLayout.JAVA_BYTE, offset + CARD_LENGTH_OFFSET),
+                source.get(ValueLayout.JAVA_DOUBLE, offset + BALANCE_OFFSET),
+                source, offset + PIN_OFFSET,
+                source.get(ValueLayout.JAVA_BYTE, offset + PIN_LENGTH_OFFSET));
+    }
+
+    // Writes all records in their fixed-width layout; the file can be reloaded with AccountImporter.importBinary
+    public void writeRecords(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long length = (long) size * RECORD_SIZE;
+            long chunk = (long) RECORD_SIZE << 20;
+            for (long offset = 0; offset < length; offset += chunk) {
+                ByteBuffer buffer = records.asSlice(offset, Math.min(chunk, length - offset)).asByteBuffer();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        }
+    }
+
+    // The index slot a new card will take; the caller holds the table's lock
+    private int freeSlot(long card, int cardLength) {
+        int slot = slotOf(card, cardLength, Integer.MAX_VALUE);
+        if (index.getAtIndex(ValueLayout.JAVA_INT, slot) != 0) {
+            throw new IllegalArgumentException("Duplicate card number.");
+        }
+        return slot;
+    }
+
+    // Writes the next record without making it visible
+    private int reserve(long card, int cardLength, double balance) {
+        int record = size;
+        if (record == capacity) {
+            throw new IllegalStateException("Account table is full.");
+        }
+        long base = (long) record * RECORD_SIZE;
+        records.set(ValueLayout.JAVA_LONG, base + CARD_OFFSET, card);
+        records.set(ValueLayout.JAVA_BYTE, base + CARD_LENGTH_OFFSET, (byte) cardLength);
+        records.set(ValueLayout.JAVA_DOUBLE, base + BALANCE_OFFSET, balance);
+        return record;
+    }
+
+    private void publish(int slot, int record) {
+        index.setAtIndex(ValueLayout.JAVA_INT, slot, record + 1);
+        size = record + 1;
+    }
+
+    // Returns the record number for the card, or -1 if it is unknown
+    public int find(String cardNumber) {
+        long card = parseCard(cardNumber);
+        if (card == -1) {
+            return -1;
+        }
+        // Records at or past the size read here may still be half written, so they count as absent
+        int published = size;
+        int record = index.getAtIndex(ValueLayout.JAVA_INT, slotOf(card, cardNumber.length(), published)) - 1;
+        return record < published ? record : -1;
+    }
+
+    public Account view(int record) {
+        checkRecord(record);
+        return new Account(this, record);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Off-heap bytes held by the records and the index
+    public long memoryBytes() {
+        return records.byteSize() + index.byteSize();
+    }
+
+    String cardNumber(int record) {
+        long base = checkRecord(record);
+        String digits = Long.toUnsignedString(records.get(ValueLayout.JAVA_LONG, base + CARD_OFFSET));
+        int length = records.get(ValueLayout.JAVA_BYTE, base + CARD_LENGTH_OFFSET);
+        return "0".repeat(length - digits.length()) + digits;
+    }
+
+    double balance(int record) {
+        return records.get(ValueLayout.JAVA_DOUBLE, checkRecord(record) + BALANCE_OFFSET);
+    }
+
+    void setBalance(int record, double balance) {
+        records.set(ValueLayout.JAVA_DOUBLE, checkRecord(record) + BALANCE_OFFSET, balance);
+    }
+
+    boolean pinMatches(int record, String pin) {
+        long base = checkRecord(record);
+        int length = records.get(ValueLayout.JAVA_BYTE, base + PIN_LENGTH_OFFSET);
+        if (pin == null || pin.length() != length) {
+            return false;
+        }
+        // Digits only: a wider char would be truncated to a byte and could match a different stored digit
+        for (int i = 0; i < length; i++) {
+            char c = pin.charAt(i);
+            if (c < '0' || c > '9' || records.get(ValueLayout.JAVA_BYTE, base + PIN_OFFSET + i) != (byte) c) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void setPin(int record, String pin) {
+        checkPin(pin);
+        writePin(checkRecord(record), pin);
+    }
+
+    private void writePin(long base, String pin) {
+        for (int i = 0; i < pin.length(); i++) {
+            records.set(ValueLayout.JAVA_BYTE, base + PIN_OFFSET + i, (byte) pin.charAt(i));
+        }
+        records.set(ValueLayout.JAVA_BYTE, base + PIN_LENGTH_OFFSET, (byte) pin.length());
+    }
+
+    private static void checkPin(String pin) {
+        if (!isValidPin(pin)) {
+            throw new IllegalArgumentException("PIN must be 1 to " + MAX_PIN_LENGTH + " digits.");
+        }
+    }
+
+    static boolean isValidPin(String pin) {
+        if (pin == null || pin.isEmpty() || pin.length() > MAX_PIN_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < pin.length(); i++) {
+            if (pin.charAt(i) < '0' || pin.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        arena.close();
+    }
+
+    private long checkRecord(int record) {
+        if (record < 0 || record >= size) {
+            throw new IndexOutOfBoundsException("No such account record: " + record);
+        }
+        return (long) record * RECORD_SIZE;
+    }
+
+    // Linear probing; stops at the slot holding the card or at the first empty slot. Entries for records at or
+    // past limit are probed past without reading them.
+    private int slotOf(long card, int length, int limit) {
+        int slot = (int) mix(card) & mask;
+        while (true) {
+            int entry = index.getAtIndex(ValueLayout.JAVA_INT, slot);
+            if (entry == 0) {
+                return slot;
+            }
+            long base = (long) (entry - 1) * RECORD_SIZE;
+            if (entry <= limit && records.get(ValueLayout.JAVA_LONG, base + CARD_OFFSET) == card
+                    && records.get(ValueLayout.JAVA_BYTE, base + CARD_LENGTH_OFFSET) == length) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private static long mix(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return key ^ (key >>> 32);
+    }
+
+    // Packs up to 19 decimal digits as an unsigned long; -1 marks an invalid card number
+    private static long parseCard(String cardNumber) {
+        if (cardNumber == null || cardNumber.isEmpty() || cardNumber.length() > MAX_CARD_LENGTH) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < cardNumber.length(); i++) {
+            char c = cardNumber.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
     }
 }
 
@@ -163,72 +538,1530 @@ class PinChange implements ATMOperation {
     }
 }
 
+// Either the last few transactions or those inside a time window; the menu's instance asks the customer which
+class MiniStatement implements ATMOperation {
+    static final int DEFAULT_COUNT = 10;
+    static final int MAX_DAYS = 366;
+
+    private final int count;
+    private final Instant from;
+    private final Instant to;
+    private final boolean prompted;
+
+    public MiniStatement() {
+        this(DEFAULT_COUNT);
+    }
+
+    public MiniStatement(int count) {
+        this(count, null, null, false);
+    }
+
+    // Transactions with from <= time < to
+    public MiniStatement(Instant from, Instant to) {
+        this(0, from, to, false);
+    }
+
+    private MiniStatement(int count, Instant from, Instant to, boolean prompted) {
+        this.count = count;
+        this.from = from;
+        this.to = to;
+        this.prompted = prompted;
+    }
+
+    // Asks for a number of days when visited; an empty answer shows the last DEFAULT_COUNT transactions
+    static MiniStatement prompted() {
+        return new MiniStatement(DEFAULT_COUNT, null, null, true);
+    }
+
+    // Days in 1..MAX_DAYS, 0 for an empty answer, or -1 for anything else
+    static int parseDays(String text) {
+        String days = text.trim();
+        if (days.isEmpty()) {
+            return 0;
+        }
+        if (days.length() > 3 || !days.chars().allMatch(c -> c >= '0' && c <= '9')) {
+            return -1;
+        }
+        int value = Integer.parseInt(days);
+        return value >= 1 && value <= MAX_DAYS ? value : -1;
+    }
+
+    public boolean isPrompted() {
+        return prompted;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public Instant getFrom() {
+        return from;
+    }
+
+    public Instant getTo() {
+        return to;
+    }
+
+    public boolean isWindow() {
+        return from != null;
+    }
+
+    @Override
+    public void accept(ATMVisitor visitor) {
+        visitor.visit(this);
+    }
+}
+
 // Visitor interface
 interface ATMVisitor {
     void visit(BalanceInquiry balanceInquiry);
     void visit(CashWithdrawal cashWithdrawal);
     void visit(CashDeposit cashDeposit);
     void visit(PinChange pinChange);
+    void visit(MiniStatement miniStatement);
 }
 
 // Concrete visitor class implementing ATMVisitor
 class ATMVisitorImpl implements ATMVisitor {
+    private static final byte[] BALANCE = TerminalOutput.encode("Your balance is: $");
+    private static final byte[] ENTER_WITHDRAWAL = TerminalOutput.encode("Enter withdrawal amount: $");
+    private static final byte[] DECLINED = TerminalOutput.encode("Withdrawal declined. Please contact your bank.");
+    private static final byte[] LIMIT_EXCEEDED = TerminalOutput.encode(
+            "Withdrawal limit exceeded. Please try a smaller amount or try again later.");
+    private static final byte[] TAKE_CASH = TerminalOutput.encode("Withdrawal successful. Please take your cash.");
+    private static final byte[] REMAINING = TerminalOutput.encode("Remaining balance: $");
+    private static final byte[] INVALID_WITHDRAWAL = TerminalOutput.encode(
+            "Insufficient funds or invalid withdrawal amount.");
+    private static final byte[] ENTER_DEPOSIT = TerminalOutput.encode("Enter deposit amount: $");
+    private static final byte[] DEPOSITED = TerminalOutput.encode("Deposit successful.");
+    private static final byte[] NEW_BALANCE = TerminalOutput.encode("New balance: $");
+    private static final byte[] INVALID_DEPOSIT = TerminalOutput.encode("Invalid deposit amount.");
+    private static final byte[] STATEMENT_HEADER = TerminalOutput.encode("Date              Type              Amount"
+            + "         Balance");
+    private static final byte[] NO_TRANSACTIONS = TerminalOutput.encode("No transactions to show.");
+    private static final byte[] ENTER_DAYS = TerminalOutput.encode("Enter the number of days to show (or press "
+            + "Enter for the last " + MiniStatement.DEFAULT_COUNT + " transactions): ");
+    private static final byte[] INVALID_DAYS = TerminalOutput.encode("Please enter a whole number of days from 1 to "
+            + MiniStatement.MAX_DAYS + ".");
+    private static final DateTimeFormatter STATEMENT_DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
     private Account account;
-    private Scanner input;
+    private TerminalInput input;
+    private TerminalOutput out;
+    private WithdrawalLimiter withdrawalLimiter;
+    private FraudScorer fraudScorer;
+    private StatementIndex statementIndex;
+    private String terminalId;
 
     public ATMVisitorImpl(Account account, Scanner input) {
+        this(account, input, new WithdrawalLimiter(), new FraudScorer(), "ATM-0001");
+    }
+
+    public ATMVisitorImpl(Account account, Scanner input, WithdrawalLimiter withdrawalLimiter,
+                          FraudScorer fraudScorer, String terminalId) {
+        this(account, new ScannerInput(input), new TerminalOutput(System.out), withdrawalLimiter, fraudScorer,
+                new StatementIndex(), terminalId);
+    }
+
+    ATMVisitorImpl(Account account, TerminalInput input, TerminalOutput out, WithdrawalLimiter withdrawalLimiter,
+                   FraudScorer fraudScorer, StatementIndex statementIndex, String terminalId) {
         this.account = account;
         this.input = input;
+        this.out = out;
+        this.withdrawalLimiter = withdrawalLimiter;
+        this.fraudScorer = fraudScorer;
+        this.statementIndex = statementIndex;
+        this.terminalId = terminalId;
     }
 
     @Override
     public void visit(BalanceInquiry balanceInquiry) {
-        System.out.println("Your balance is: $" + account.getBalance());
+        ATMEvent event = ATMEvent.start();
+        out.print(BALANCE).printMoney(account.getBalance()).println();
+        ATMEvent.finish(event, "BALANCE_INQUIRY", account.getCardNumber(), 0, ATMEvent.SUCCESS);
     }
 
     @Override
     public void visit(CashWithdrawal cashWithdrawal) {
-        System.out.print("Enter withdrawal amount: $");
-        double amount = input.nextDouble();
+        out.print(ENTER_WITHDRAWAL).flush();
+        double amount = input.readAmount();
+        ATMEvent event = ATMEvent.start();
         if (amount > 0 && amount <= account.getBalance()) {
+            if (!fraudScorer.approve(account.getCardNumber(), terminalId, amount)) {
+                out.print(DECLINED).println();
+                ATMEvent.finish(event, "WITHDRAWAL", account.getCardNumber(), amount, ATMEvent.DECLINED);
+                return;
+            }
+            if (!withdrawalLimiter.tryWithdraw(account.getCardNumber(), amount)) {
+                out.print(LIMIT_EXCEEDED).println();
+                ATMEvent.finish(event, "WITHDRAWAL", account.getCardNumber(), amount, ATMEvent.LIMIT_EXCEEDED);
+                return;
+            }
             account.setBalance(account.getBalance() - amount);
-            System.out.println("Withdrawal successful. Please take your cash.");
-            System.out.println("Remaining balance: $" + account.getBalance());
+            fraudScorer.record(account.getCardNumber(), terminalId, amount);
+            statementIndex.record(account, AccountHistory.WITHDRAWAL, amount);
+            out.print(TAKE_CASH).newline();
+            out.print(REMAINING).printMoney(account.getBalance()).println();
+            ATMEvent.finish(event, "WITHDRAWAL", account.getCardNumber(), amount, ATMEvent.SUCCESS);
         } else {
-            System.out.println("Insufficient funds or invalid withdrawal amount.");
+            out.print(INVALID_WITHDRAWAL).println();
+            ATMEvent.finish(event, "WITHDRAWAL", account.getCardNumber(), amount, ATMEvent.INVALID);
         }
     }
 
     @Override
     public void visit(CashDeposit cashDeposit) {
-        System.out.print("Enter deposit amount: $");
-        double amount = input.nextDouble();
+        out.print(ENTER_DEPOSIT).flush();
+        double amount = input.readAmount();
+        ATMEvent event = ATMEvent.start();
         if (amount > 0) {
             account.setBalance(account.getBalance() + amount);
-            System.out.println("Deposit successful.");
-            System.out.println("New balance: $" + account.getBalance());
+            statementIndex.record(account, AccountHistory.DEPOSIT, amount);
+            out.print(DEPOSITED).newline();
+            out.print(NEW_BALANCE).printMoney(account.getBalance()).println();
+            ATMEvent.finish(event, "DEPOSIT", account.getCardNumber(), amount, ATMEvent.SUCCESS);
         } else {
-            System.out.println("Invalid deposit amount.");
+            out.print(INVALID_DEPOSIT).println();
+            ATMEvent.finish(event, "DEPOSIT", account.getCardNumber(), amount, ATMEvent.INVALID);
         }
     }
 
     @Override
     public void visit(PinChange pinChange) {
-        System.out.print("Enter old PIN: ");
-        String oldPin = input.nextLine();
+        out.print("Enter old PIN: ").flush();
+        String oldPin = input.readLine();
+        ATMEvent event = ATMEvent.start();
+        String outcome = ATMEvent.FAILED;
         if (account.validatePin(oldPin)) {
-            System.out.print("Enter new PIN: ");
-            String newPin1 = input.nextLine();
-            System.out.print("Confirm new PIN: ");
-            String newPin2 = input.nextLine();
-            if (newPin1.equals(newPin2)) {
-                account.setPin(newPin1);
-                System.out.println("PIN changed successfully.");
+            out.print("Enter new PIN: ").flush();
+            String newPin1 = input.readLine();
+            out.print("Confirm new PIN: ").flush();
+            String newPin2 = input.readLine();
+            // Time the change itself, not the customer typing the new PIN twice
+            ATMEvent.restart(event);
+            if (newPin1 == null || !newPin1.equals(newPin2)) {
+                out.print("New PINs do not match.").println();
+                outcome = ATMEvent.INVALID;
+            } else if (!AccountTable.isValidPin(newPin1)) {
+                out.print("PIN must be digits only.").println();
+                outcome = ATMEvent.INVALID;
             } else {
-                System.out.println("New PINs do not match.");
+                account.setPin(newPin1);
+                out.print("PIN changed successfully.").println();
+                outcome = ATMEvent.SUCCESS;
             }
         } else {
-            System.out.println("Incorrect old PIN.");
+            out.print("Incorrect old PIN.").println();
+        }
+        ATMEvent.finish(event, "PIN_CHANGE", account.getCardNumber(), 0, outcome);
+    }
+
+    @Override
+    public void visit(MiniStatement miniStatement) {
+        if (miniStatement.isPrompted()) {
+            int days;
+            while (true) {
+                out.print(ENTER_DAYS).flush();
+                String answer = input.readLine();
+                if (answer == null) {
+                    ATMEvent.finish(ATMEvent.start(), "MINI_STATEMENT", account.getCardNumber(), 0,
+                            ATMEvent.INVALID);
+                    return;
+                }
+                days = MiniStatement.parseDays(answer);
+                if (days >= 0) {
+                    break;
+                }
+                out.print(INVALID_DAYS).println();
+            }
+            if (days > 0) {
+                long now = statementIndex.now();
+                miniStatement = new MiniStatement(Instant.ofEpochMilli(now - TimeUnit.DAYS.toMillis(days)),
+                        Instant.ofEpochMilli(now + 1));
+            }
+        }
+        ATMEvent event = ATMEvent.start();
+        AccountHistory history = statementIndex.historyOf(account);
+        if (history == null) {
+            out.print(NO_TRANSACTIONS).println();
+            ATMEvent.finish(event, "MINI_STATEMENT", account.getCardNumber(), 0, ATMEvent.SUCCESS);
+            return;
+        }
+        out.print(STATEMENT_HEADER).newline();
+        AccountHistory.EntryVisitor line = (epochMillis, type, amountCents, balanceCents) -> {
+            out.print(STATEMENT_DATE.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis),
+                    ZoneId.systemDefault()))).print("  ");
+            out.print(type == AccountHistory.WITHDRAWAL ? "Withdrawal    " : "Deposit       ");
+            out.printMoney((type == AccountHistory.WITHDRAWAL ? -amountCents : amountCents) / 100.0).print("    ");
+            out.printMoney(balanceCents / 100.0).newline();
+        };
+        int shown = miniStatement.isWindow()
+                ? history.between(miniStatement.getFrom().toEpochMilli(), miniStatement.getTo().toEpochMilli(), line)
+                : history.last(miniStatement.getCount(), line);
+        if (shown == 0) {
+            out.print(NO_TRANSACTIONS).newline();
+        }
+        out.flush();
+        ATMEvent.finish(event, "MINI_STATEMENT", account.getCardNumber(), 0, ATMEvent.SUCCESS);
+    }
+}
+
+// Flight Recorder event for one ATM operation; off unless a recording enables it, cards only as keyed hashes
+@Name("atm.Operation")
+@Label("ATM Operation")
+@Category("ATM")
+@Description("One authentication, visitor operation or receipt, with its outcome")
+@StackTrace(false)
+class ATMEvent extends Event {
+    static final String SUCCESS = "SUCCESS";
+    static final String DECLINED = "DECLINED";
+    static final String LIMIT_EXCEEDED = "LIMIT_EXCEEDED";
+    static final String INVALID = "INVALID";
+    static final String FAILED = "FAILED";
+    static final String CARD_RETAINED = "CARD_RETAINED";
+
+    private static final EventType TYPE = EventType.getEventType(ATMEvent.class);
+    private static final byte[] HASH_KEY = new byte[32];
+    private static final ThreadLocal<Mac> HMAC = ThreadLocal.withInitial(() -> {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(HASH_KEY, "HmacSHA256"));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 unavailable", e);
+        }
+    });
+
+    static {
+        new SecureRandom().nextBytes(HASH_KEY);
+    }
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Card Hash")
+    long cardHash;
+
+    @Label("Amount Bucket")
+    String amountBucket;
+
+    @Label("Outcome")
+    String outcome;
+
+    static ATMEvent start() {
+        if (!TYPE.isEnabled()) {
+            return null;
+        }
+        ATMEvent event = new ATMEvent();
+        event.begin();
+        return event;
+    }
+
+    // Moves the start of a running event to now, for operations that wait on the customer part way through
+    static void restart(ATMEvent event) {
+        if (event != null) {
+            event.begin();
+        }
+    }
+
+    static void finish(ATMEvent event, String operation, String cardNumber, double amount, String outcome) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.cardHash = cardHash(cardNumber);
+            event.amountBucket = amountBucket(amount);
+            event.outcome = outcome;
+            event.commit();
+        }
+    }
+
+    static long cardHash(String cardNumber) {
+        if (cardNumber == null) {
+            return 0L;
+        }
+        byte[] mac = HMAC.get().doFinal(cardNumber.getBytes(StandardCharsets.US_ASCII));
+        return ByteBuffer.wrap(mac, 0, Long.BYTES).getLong();
+    }
+
+    // Coarse buckets keep amounts out of the recording while still separating small and large transactions
+    static String amountBucket(double amount) {
+        if (!(amount > 0)) {
+            return "NONE";
+        } else if (amount < 20) {
+            return "UNDER_20";
+        } else if (amount < 100) {
+            return "UNDER_100";
+        } else if (amount < 500) {
+            return "UNDER_500";
+        } else if (amount < 1000) {
+            return "UNDER_1000";
         }
+        return "1000_AND_OVER";
     }
-}
\ No newline at end of file
+}
+
+// Recent transactions of one account in time order, kept in preallocated primitive columns used as a ring: once it
+// is full the oldest entry is overwritten, so recording never allocates
+final class AccountHistory {
+    static final byte WITHDRAWAL = 1;
+    static final byte DEPOSIT = 2;
+
+    interface EntryVisitor {
+        void entry(long epochMillis, byte type, long amountCents, long balanceCents);
+    }
+
+    private final long[] timestamps;
+    private final byte[] types;
+    private final long[] amounts;
+    private final long[] balances;
+    private final int capacity;
+    private long appended;
+
+    AccountHistory(int capacity) {
+        this.capacity = capacity;
+        timestamps = new long[capacity];
+        types = new byte[capacity];
+        amounts = new long[capacity];
+        balances = new long[capacity];
+    }
+
+    // Timestamps never go backwards, so the retained entries stay sorted for binary search
+    synchronized void append(long epochMillis, byte type, long amountCents, long balanceCents) {
+        int slot = (int) (appended % capacity);
+        timestamps[slot] = appended > 0 ? Math.max(epochMillis, timestampAt(size() - 1)) : epochMillis;
+        types[slot] = type;
+        amounts[slot] = amountCents;
+        balances[slot] = balanceCents;
+        appended++;
+    }
+
+    synchronized int size() {
+        return (int) Math.min(appended, capacity);
+    }
+
+    // Visits the newest n entries, oldest first
+    synchronized int last(int n, EntryVisitor visitor) {
+        int size = size();
+        return visit(Math.max(0, size - n), size, visitor);
+    }
+
+    // Visits entries with from <= time < to, oldest first
+    synchronized int between(long fromMillis, long toMillis, EntryVisitor visitor) {
+        return visit(firstAtOrAfter(fromMillis), firstAtOrAfter(toMillis), visitor);
+    }
+
+    // Logical index (0 = oldest retained) of the first entry at or after the given time
+    private int firstAtOrAfter(long epochMillis) {
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestampAt(mid) < epochMillis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int visit(int from, int to, EntryVisitor visitor) {
+        for (int i = from; i < to; i++) {
+            int slot = slotOf(i);
+            visitor.entry(timestamps[slot], types[slot], amounts[slot], balances[slot]);
+        }
+        return Math.max(0, to - from);
+    }
+
+    private long timestampAt(int index) {
+        return timestamps[slotOf(index)];
+    }
+
+    private int slotOf(int index) {
+        long oldest = appended > capacity ? appended - capacity : 0;
+        return (int) ((oldest + index) % capacity);
+    }
+}
+
+// Per-account transaction histories, looked up by card number so a mini statement never scans other accounts
+class StatementIndex {
+    static final int DEFAULT_CAPACITY = 256;
+
+    private final ConcurrentHashMap<String, AccountHistory> histories = new ConcurrentHashMap<>();
+    private final int capacityPerAccount;
+    private final LongSupplier clock;
+
+    public StatementIndex() {
+        this(DEFAULT_CAPACITY, System::currentTimeMillis);
+    }
+
+    StatementIndex(int capacityPerAccount, LongSupplier clock) {
+        if (capacityPerAccount <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+        this.capacityPerAccount = capacityPerAccount;
+        this.clock = clock;
+    }
+
+    // Records a transaction that has just been applied to the account's balance
+    void record(Account account, byte type, double amount) {
+        AccountHistory history = histories.get(account.getCardNumber());
+        if (history == null) {
+            history = histories.computeIfAbsent(account.getCardNumber(), k -> new AccountHistory(capacityPerAccount));
+        }
+        history.append(clock.getAsLong(), type, Math.round(amount * 100), Math.round(account.getBalance() * 100));
+    }
+
+    // Current time on the clock transactions are recorded with
+    long now() {
+        return clock.getAsLong();
+    }
+
+    // Null if the account has no recorded transactions
+    AccountHistory historyOf(Account account) {
+        return histories.get(account.getCardNumber());
+    }
+}
+
+// Line-oriented terminal input
+interface TerminalInput {
+    int END_OF_INPUT = -1;
+    int NOT_A_NUMBER = -2;
+
+    // The next line as a non-negative integer, NOT_A_NUMBER, or END_OF_INPUT
+    int readChoice();
+
+    // The next amount, or NaN if it is missing or malformed
+    double readAmount();
+
+    // The next line, "" if it is longer than the terminal accepts, or null at end of input
+    String readLine();
+}
+
+// Reads lines into a reusable byte buffer and parses numbers in place, so choices and amounts allocate nothing.
+// A line longer than MAX_LINE is consumed in full and rejected as malformed rather than cut short.
+final class ByteInput implements TerminalInput {
+    private static final int MAX_LINE = 64;
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18};
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[512];
+    // One spare byte for a '\r' ending a line of exactly MAX_LINE characters
+    private final byte[] line = new byte[MAX_LINE + 1];
+    private int position;
+    private int limit;
+    private int lineLength;
+    private boolean tooLong;
+
+    ByteInput(InputStream in) {
+        this.in = in;
+    }
+
+    @Override
+    public int readChoice() {
+        if (!nextLine()) {
+            return END_OF_INPUT;
+        }
+        if (tooLong) {
+            return NOT_A_NUMBER;
+        }
+        int start = skipBlanks(0);
+        int end = trimBlanks(start);
+        if (start == end || end - start > 9) {
+            return NOT_A_NUMBER;
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = line[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return NOT_A_NUMBER;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    @Override
+    public double readAmount() {
+        if (!nextLine() || tooLong) {
+            return Double.NaN;
+        }
+        int start = skipBlanks(0);
+        int end = trimBlanks(start);
+        long digits = 0;
+        int digitCount = 0;
+        int fractionDigits = -1;
+        for (int i = start; i < end; i++) {
+            byte c = line[i];
+            if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else if (c >= '0' && c <= '9' && digitCount < POWERS_OF_TEN.length - 1) {
+                digits = digits * 10 + (c - '0');
+                digitCount++;
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else {
+                return Double.NaN;
+            }
+        }
+        if (digitCount == 0) {
+            return Double.NaN;
+        }
+        return fractionDigits > 0 ? digits / POWERS_OF_TEN[fractionDigits] : digits;
+    }
+
+    @Override
+    public String readLine() {
+        if (!nextLine()) {
+            return null;
+        }
+        return tooLong ? "" : new String(line, 0, lineLength, Charset.defaultCharset());
+    }
+
+    // Copies the next line into the line buffer. A line past MAX_LINE is read to its end and flagged tooLong.
+    private boolean nextLine() {
+        lineLength = 0;
+        tooLong = false;
+        boolean readAny = false;
+        while (true) {
+            if (position == limit && !fill()) {
+                tooLong |= lineLength > MAX_LINE;
+                return readAny;
+            }
+            readAny = true;
+            byte c = buffer[position++];
+            if (c == '\n') {
+                if (lineLength > 0 && line[lineLength - 1] == '\r') {
+                    lineLength--;
+                }
+                tooLong |= lineLength > MAX_LINE;
+                return true;
+            }
+            if (lineLength < line.length) {
+                line[lineLength++] = c;
+            } else {
+                tooLong = true;
+            }
+        }
+    }
+
+    private boolean fill() {
+        try {
+            int n = in.read(buffer, 0, buffer.length);
+            if (n <= 0) {
+                return false;
+            }
+            position = 0;
+            limit = n;
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private int skipBlanks(int start) {
+        while (start < lineLength && line[start] == ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private int trimBlanks(int start) {
+        int end = lineLength;
+        while (end > start && line[end - 1] == ' ') {
+            end--;
+        }
+        return end;
+    }
+}
+
+// Adapter for callers that already read from a Scanner
+final class ScannerInput implements TerminalInput {
+    private final Scanner scanner;
+
+    ScannerInput(Scanner scanner) {
+        this.scanner = scanner;
+    }
+
+    @Override
+    public int readChoice() {
+        if (!scanner.hasNextLine()) {
+            return END_OF_INPUT;
+        }
+        if (!scanner.hasNextInt()) {
+            scanner.nextLine();
+            return NOT_A_NUMBER;
+        }
+        int choice = scanner.nextInt();
+        scanner.nextLine(); // consume newline
+        return choice;
+    }
+
+    @Override
+    public double readAmount() {
+        return scanner.nextDouble();
+    }
+
+    @Override
+    public String readLine() {
+        return scanner.hasNextLine() ? scanner.nextLine() : null;
+    }
+}
+
+// Buffered terminal output for pre-encoded text and money amounts, written without building strings
+final class TerminalOutput {
+    private static final byte[] NEWLINE = encode(System.lineSeparator());
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[512];
+    private int length;
+
+    TerminalOutput(OutputStream out) {
+        this.out = out;
+    }
+
+    static byte[] encode(String text) {
+        return text.getBytes(Charset.defaultCharset());
+    }
+
+    TerminalOutput print(byte[] text) {
+        if (length + text.length > buffer.length) {
+            flush();
+            if (text.length > buffer.length) {
+                write(text, text.length);
+                return this;
+            }
+        }
+        System.arraycopy(text, 0, buffer, length, text.length);
+        length += text.length;
+        return this;
+    }
+
+    // For rarely shown messages that are not worth a constant
+    TerminalOutput print(String text) {
+        return print(encode(text));
+    }
+
+    // Writes the amount with two decimals, e.g. 1234.5 as "1234.50"
+    TerminalOutput printMoney(double amount) {
+        if (length + 24 > buffer.length) {
+            flush();
+        }
+        long cents = Math.round(amount * 100);
+        if (cents < 0) {
+            buffer[length++] = '-';
+            cents = -cents;
+        }
+        long whole = cents / 100;
+        int start = length;
+        do {
+            buffer[length++] = (byte) ('0' + whole % 10);
+            whole /= 10;
+        } while (whole > 0);
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            byte digit = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = digit;
+        }
+        buffer[length++] = '.';
+        buffer[length++] = (byte) ('0' + cents % 100 / 10);
+        buffer[length++] = (byte) ('0' + cents % 10);
+        return this;
+    }
+
+    TerminalOutput newline() {
+        return print(NEWLINE);
+    }
+
+    // Ends the line and flushes
+    void println() {
+        newline().flush();
+    }
+
+    TerminalOutput flush() {
+        write(buffer, length);
+        length = 0;
+        return this;
+    }
+
+    private void write(byte[] bytes, int count) {
+        try {
+            out.write(bytes, 0, count);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
+
+// Bulk account loader: memory-maps the file, parses newline-aligned chunks in parallel and indexes them in order
+class AccountImporter {
+    static final long DEFAULT_CHUNK_SIZE = 64L << 20;
+
+    interface Progress {
+        void onProgress(long rows, long bytesRead, long totalBytes);
+    }
+
+    static final class Result {
+        final long rowsImported;
+        final long rowsRejected;
+        final long nextOffset;
+        final long elapsedNanos;
+        // Set when the import stopped early because the table ran out of capacity; resume from nextOffset
+        final boolean tableFull;
+
+        Result(long rowsImported, long rowsRejected, long nextOffset, long elapsedNanos, boolean tableFull) {
+            this.rowsImported = rowsImported;
+            this.rowsRejected = rowsRejected;
+            this.nextOffset = nextOffset;
+            this.elapsedNanos = elapsedNanos;
+            this.tableFull = tableFull;
+        }
+
+        public double rowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : rowsImported * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Imported %d accounts, rejected %d rows, next offset %d, %.0f rows/s%s",
+                    rowsImported, rowsRejected, nextOffset, rowsPerSecond(), tableFull ? ", table full" : "");
+        }
+    }
+
+    // Primitive columns for one parsed chunk; PINs stay in the mapped file and are referenced by offset
+    private static final class Chunk {
+        final long end;
+        int rows;
+        int rejected;
+        long[] cards = new long[1024];
+        byte[] cardLengths = new byte[1024];
+        double[] balances = new double[1024];
+        long[] pinOffsets = new long[1024];
+        byte[] pinLengths = new byte[1024];
+        // Rows rejected by the parser ahead of each accepted row, so a partial commit counts them exactly
+        int[] rejectedBefore = new int[1024];
+
+        Chunk(long end) {
+            this.end = end;
+        }
+
+        void add(long card, int cardLength, double balance, long pinOffset, int pinLength) {
+            if (rows == cards.length) {
+                int grown = rows * 2;
+                cards = Arrays.copyOf(cards, grown);
+                cardLengths = Arrays.copyOf(cardLengths, grown);
+                balances = Arrays.copyOf(balances, grown);
+                pinOffsets = Arrays.copyOf(pinOffsets, grown);
+                pinLengths = Arrays.copyOf(pinLengths, grown);
+                rejectedBefore = Arrays.copyOf(rejectedBefore, grown);
+            }
+            cards[rows] = card;
+            cardLengths[rows] = (byte) cardLength;
+            balances[rows] = balance;
+            pinOffsets[rows] = pinOffset;
+            pinLengths[rows] = (byte) pinLength;
+            rejectedBefore[rows] = rejected;
+            rows++;
+        }
+    }
+
+    private final AccountTable table;
+    private final long chunkSize;
+    private final int parallelism;
+
+    public AccountImporter(AccountTable table) {
+        this(table, DEFAULT_CHUNK_SIZE, Runtime.getRuntime().availableProcessors());
+    }
+
+    public AccountImporter(AccountTable table, long chunkSize, int parallelism) {
+        if (chunkSize <= 0 || parallelism <= 0) {
+            throw new IllegalArgumentException("Chunk size and parallelism must be positive.");
+        }
+        this.table = table;
+        this.chunkSize = chunkSize;
+        this.parallelism = parallelism;
+    }
+
+    // Imports "cardNumber,pin,balance" rows starting at startOffset (use Result.nextOffset to resume)
+    public Result importCsv(Path file, long startOffset, Progress progress) throws IOException {
+        long started = System.nanoTime();
+        long imported = 0;
+        long rejected = 0;
+        long committed = startOffset;
+        boolean full = false;
+        try (Arena arena = Arena.ofShared();
+             FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            MemorySegment data = channel.map(FileChannel.MapMode.READ_ONLY, 0, length, arena);
+            long offset = alignToLine(data, startOffset, length);
+            committed = offset;
+            ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+            try {
+                // Parse one wave of chunks in parallel, then index them in file order so nextOffset stays exact
+                while (offset < length && !full) {
+                    List<CompletableFuture<Chunk>> wave = new ArrayList<>();
+                    for (int i = 0; i < parallelism && offset < length; i++) {
+                        long chunkStart = offset;
+                        long chunkEnd = alignToLine(data, Math.min(length, offset + chunkSize), length);
+                        wave.add(CompletableFuture.supplyAsync(() -> parse(data, chunkStart, chunkEnd), pool));
+                        offset = chunkEnd;
+                    }
+                    for (CompletableFuture<Chunk> future : wave) {
+                        // Parsed chunks are still joined after the table fills so no task reads the closed mapping
+                        Chunk chunk = future.join();
+                        if (full) {
+                            continue;
+                        }
+                        int row = 0;
+                        for (; row < chunk.rows; row++) {
+                            try {
+                                table.putRaw(chunk.cards[row], chunk.cardLengths[row], chunk.balances[row],
+                                        data, chunk.pinOffsets[row], chunk.pinLengths[row]);
+                                imported++;
+                            } catch (IllegalArgumentException e) {
+                                rejected++;
+                            } catch (IllegalStateException e) {
+                                full = true;
+                                break;
+                            }
+                        }
+                        if (full) {
+                            // The row that did not fit starts at its card number, just before the first comma
+                            rejected += chunk.rejectedBefore[row];
+                            committed = chunk.pinOffsets[row] - chunk.cardLengths[row] - 1;
+                        } else {
+                            rejected += chunk.rejected;
+                            committed = chunk.end;
+                        }
+                        if (progress != null) {
+                            progress.onProgress(imported, committed, length);
+                        }
+                    }
+                }
+            } finally {
+                pool.shutdown();
+            }
+        }
+        return new Result(imported, rejected, committed, System.nanoTime() - started, full);
+    }
+
+    // Imports records written by AccountTable.writeRecords, starting at a record-aligned byte offset
+    public Result importBinary(Path file, long startOffset, Progress progress) throws IOException {
+        if (startOffset % AccountTable.RECORD_SIZE != 0) {
+            throw new IllegalArgumentException("Offset must be a multiple of " + AccountTable.RECORD_SIZE);
+        }
+        long started = System.nanoTime();
+        long imported = 0;
+        long rejected = 0;
+        long offset = startOffset;
+        boolean full = false;
+        try (Arena arena = Arena.ofConfined();
+             FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size() - channel.size() % AccountTable.RECORD_SIZE;
+            MemorySegment data = channel.map(FileChannel.MapMode.READ_ONLY, 0, length, arena);
+            for (; offset < length; offset += AccountTable.RECORD_SIZE) {
+                try {
+                    table.putRecord(data, offset);
+                    imported++;
+                } catch (IllegalArgumentException e) {
+                    rejected++;
+                } catch (IllegalStateException e) {
+                    full = true;
+                    break;
+                }
+                if (progress != null && (imported + rejected) % (1 << 20) == 0) {
+                    progress.onProgress(imported, offset + AccountTable.RECORD_SIZE, length);
+                }
+            }
+            if (progress != null) {
+                progress.onProgress(imported, offset, length);
+            }
+        }
+        return new Result(imported, rejected, offset, System.nanoTime() - started, full);
+    }
+
+    // Moves an offset forward to the start of the next line, unless it already is one
+    private static long alignToLine(MemorySegment data, long offset, long length) {
+        if (offset == 0 || offset >= length) {
+            return Math.min(offset, length);
+        }
+        while (offset < length && data.get(ValueLayout.JAVA_BYTE, offset - 1) != '\n') {
+            offset++;
+        }
+        return offset;
+    }
+
+    // Splits [start, end) into lines and fields by scanning bytes in place
+    private static Chunk parse(MemorySegment data, long start, long end) {
+        Chunk chunk = new Chunk(end);
+        long position = start;
+        while (position < end) {
+            long lineEnd = position;
+            while (lineEnd < end && data.get(ValueLayout.JAVA_BYTE, lineEnd) != '\n') {
+                lineEnd++;
+            }
+            long contentEnd = lineEnd;
+            if (contentEnd > position && data.get(ValueLayout.JAVA_BYTE, contentEnd - 1) == '\r') {
+                contentEnd--;
+            }
+            if (contentEnd > position && !parseRow(data, position, contentEnd, chunk)) {
+                chunk.rejected++;
+            }
+            position = lineEnd + 1;
+        }
+        return chunk;
+    }
+
+    private static boolean parseRow(MemorySegment data, long start, long end, Chunk chunk) {
+        long firstComma = indexOf(data, start, end, (byte) ',');
+        long secondComma = firstComma < 0 ? -1 : indexOf(data, firstComma + 1, end, (byte) ',');
+        if (secondComma < 0) {
+            return false;
+        }
+        int cardLength = (int) (firstComma - start);
+        int pinLength = (int) (secondComma - firstComma - 1);
+        if (cardLength <= 0 || cardLength > AccountTable.MAX_CARD_LENGTH
+                || pinLength <= 0 || pinLength > AccountTable.MAX_PIN_LENGTH) {
+            return false;
+        }
+        long card = 0;
+        for (long i = start; i < firstComma; i++) {
+            int digit = data.get(ValueLayout.JAVA_BYTE, i) - '0';
+            if (digit < 0 || digit > 9) {
+                return false;
+            }
+            card = card * 10 + digit;
+        }
+        double balance = parseDecimal(data, secondComma + 1, end);
+        if (Double.isNaN(balance)) {
+            return false;
+        }
+        chunk.add(card, cardLength, balance, firstComma + 1, pinLength);
+        return true;
+    }
+
+    // Parses [-]digits[.digits]; returns NaN if the field is malformed
+    private static double parseDecimal(MemorySegment data, long start, long end) {
+        boolean negative = start < end && data.get(ValueLayout.JAVA_BYTE, start) == '-';
+        long position = negative ? start + 1 : start;
+        long mantissa = 0;
+        int scale = -1;
+        int digits = 0;
+        for (; position < end; position++) {
+            byte b = data.get(ValueLayout.JAVA_BYTE, position);
+            if (b == '.' && scale < 0) {
+                scale = 0;
+            } else if (b >= '0' && b <= '9' && digits < 18) {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else {
+                return Double.NaN;
+            }
+        }
+        if (digits == 0) {
+            return Double.NaN;
+        }
+        double value = scale > 0 ? mantissa / Math.pow(10, scale) : mantissa;
+        return negative ? -value : value;
+    }
+
+    private static long indexOf(MemorySegment data, long start, long end, byte value) {
+        for (long i = start; i < end; i++) {
+            if (data.get(ValueLayout.JAVA_BYTE, i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
+
+// Per-card rolling withdrawal limits kept in bucketed ring counters
+class WithdrawalLimiter {
+    static final double DEFAULT_AMOUNT_LIMIT = 1000.0;
+    static final int DEFAULT_COUNT_LIMIT = 10;
+    private static final int BUCKETS = 24;
+    private static final int SWEEP_BATCH = 4;
+
+    // Ring of time buckets covering one window; totals are kept incrementally
+    private static final class CardWindow {
+        final long[] bucketStart = new long[BUCKETS];
+        final long[] bucketCents = new long[BUCKETS];
+        final int[] bucketCount = new int[BUCKETS];
+        long totalCents;
+        int totalCount;
+        long lastActivity;
+        boolean evicted;
+    }
+
+    private final ConcurrentHashMap<String, CardWindow> windows = new ConcurrentHashMap<>();
+    private final ReentrantLock sweepLock = new ReentrantLock();
+    private Iterator<String> sweepCursor;
+    private long nextLapAt;
+    private final long amountLimitCents;
+    private final int countLimit;
+    private final long windowMillis;
+    private final long bucketMillis;
+    private final LongSupplier clock;
+
+    public WithdrawalLimiter() {
+        this(DEFAULT_AMOUNT_LIMIT, DEFAULT_COUNT_LIMIT, 24, TimeUnit.HOURS);
+    }
+
+    public WithdrawalLimiter(double amountLimit, int countLimit, long window, TimeUnit unit) {
+        this(amountLimit, countLimit, window, unit, System::currentTimeMillis);
+    }
+
+    WithdrawalLimiter(double amountLimit, int countLimit, long window, TimeUnit unit, LongSupplier clock) {
+        long millis = unit.toMillis(window);
+        if (amountLimit <= 0 || countLimit <= 0 || millis < BUCKETS) {
+            throw new IllegalArgumentException("Invalid withdrawal limit configuration.");
+        }
+        this.amountLimitCents = Math.round(amountLimit * 100);
+        this.countLimit = countLimit;
+        this.bucketMillis = millis / BUCKETS;
+        this.windowMillis = bucketMillis * BUCKETS;
+        this.clock = clock;
+    }
+
+    // Atomically checks the rolling limits for the card and records the withdrawal if allowed
+    public boolean tryWithdraw(String cardNumber, double amount) {
+        long cents = Math.round(amount * 100);
+        long now = clock.getAsLong();
+        sweep(now);
+        while (true) {
+            CardWindow window = windows.computeIfAbsent(cardNumber, k -> new CardWindow());
+            synchronized (window) {
+                if (window.evicted) {
+                    continue;
+                }
+                window.lastActivity = now;
+                int bucket = advance(window, now);
+                if (window.totalCount + 1 > countLimit || window.totalCents + cents > amountLimitCents) {
+                    return false;
+                }
+                window.bucketCents[bucket] += cents;
+                window.bucketCount[bucket]++;
+                window.totalCents += cents;
+                window.totalCount++;
+                return true;
+            }
+        }
+    }
+
+    public double withdrawnInWindow(String cardNumber) {
+        CardWindow window = windows.get(cardNumber);
+        if (window == null) {
+            return 0.0;
+        }
+        synchronized (window) {
+            advance(window, clock.getAsLong());
+            return window.totalCents / 100.0;
+        }
+    }
+
+    // Drops every card with no withdrawals inside the window
+    public void evictIdle() {
+        long now = clock.getAsLong();
+        for (Map.Entry<String, CardWindow> entry : windows.entrySet()) {
+            evictIfIdle(entry.getKey(), entry.getValue(), now);
+        }
+    }
+
+    public int trackedCards() {
+        return windows.size();
+    }
+
+    // Examines a few cards per check so idle ones are evicted without a full scan on the hot path
+    private void sweep(long now) {
+        if (!sweepLock.tryLock()) {
+            return;
+        }
+        try {
+            for (int i = 0; i < SWEEP_BATCH; i++) {
+                if (sweepCursor == null || !sweepCursor.hasNext()) {
+                    // Starting a lap allocates an iterator, so laps are limited to one per bucket
+                    if (now < nextLapAt) {
+                        return;
+                    }
+                    nextLapAt = now + bucketMillis;
+                    sweepCursor = windows.keySet().iterator();
+                    if (!sweepCursor.hasNext()) {
+                        return;
+                    }
+                }
+                String cardNumber = sweepCursor.next();
+                CardWindow window = windows.get(cardNumber);
+                if (window != null) {
+                    evictIfIdle(cardNumber, window, now);
+                }
+            }
+        } finally {
+            sweepLock.unlock();
+        }
+    }
+
+    private void evictIfIdle(String cardNumber, CardWindow window, long now) {
+        synchronized (window) {
+            if (!window.evicted && now - window.lastActivity >= windowMillis) {
+                window.evicted = true;
+                windows.remove(cardNumber, window);
+            }
+        }
+    }
+
+    // Clears the bucket for the current slot if it belongs to an earlier lap of the ring
+    private int advance(CardWindow window, long now) {
+        long slot = now / bucketMillis;
+        int bucket = (int) (slot % BUCKETS);
+        long start = slot * bucketMillis;
+        if (window.bucketStart[bucket] != start) {
+            // Buckets not touched for a full window may still hold old amounts; expire them too
+            for (int i = 0; i < BUCKETS; i++) {
+                if (window.bucketCount[i] != 0 && now - window.bucketStart[i] >= windowMillis) {
+                    window.totalCents -= window.bucketCents[i];
+                    window.totalCount -= window.bucketCount[i];
+                    window.bucketCents[i] = 0;
+                    window.bucketCount[i] = 0;
+                }
+            }
+            window.bucketStart[bucket] = start;
+        }
+        return bucket;
+    }
+}
+
+// Inline fraud scoring from incrementally maintained per-card features
+class FraudScorer {
+    enum LatePolicy { FAIL_OPEN, FAIL_CLOSED }
+
+    static final long DEFAULT_BUDGET_MICROS = 200;
+    static final double DECLINE_THRESHOLD = 1.0;
+    private static final double AMOUNT_ALPHA = 0.1;
+    private static final long VELOCITY_HALF_LIFE_NANOS = TimeUnit.MINUTES.toNanos(10);
+    private static final long TERMINAL_HOP_NANOS = TimeUnit.MINUTES.toNanos(30);
+    static final long DEFAULT_IDLE_NANOS = TimeUnit.DAYS.toNanos(30);
+    private static final int SWEEP_BATCH = 4;
+
+    // Streaming aggregates for one card; updated in O(1) per completed withdrawal
+    private static final class CardFeatures {
+        final ReentrantLock lock = new ReentrantLock();
+        long observations;
+        double amountMean;
+        double amountVariance;
+        double velocity;
+        long lastSeen;
+        String lastTerminal;
+        boolean evicted;
+    }
+
+    private final ConcurrentHashMap<String, CardFeatures> features = new ConcurrentHashMap<>();
+    private final LongAdder lateDecisions = new LongAdder();
+    private final long budgetNanos;
+    private final LatePolicy latePolicy;
+    private final LongSupplier clock;
+    private final long idleNanos;
+    private final ReentrantLock sweepLock = new ReentrantLock();
+    private Iterator<String> sweepCursor;
+    private long nextLapAt;
+
+    public FraudScorer() {
+        this(DEFAULT_BUDGET_MICROS, LatePolicy.FAIL_OPEN);
+    }
+
+    public FraudScorer(long budgetMicros, LatePolicy latePolicy) {
+        this(budgetMicros, latePolicy, System::nanoTime);
+    }
+
+    FraudScorer(long budgetMicros, LatePolicy latePolicy, LongSupplier clock) {
+        this(budgetMicros, latePolicy, clock, DEFAULT_IDLE_NANOS);
+    }
+
+    // Cards with no completed withdrawal for idleNanos are forgotten, so memory follows active cards only
+    FraudScorer(long budgetMicros, LatePolicy latePolicy, LongSupplier clock, long idleNanos) {
+        if (budgetMicros <= 0 || idleNanos <= 0) {
+            throw new IllegalArgumentException("Latency budget and idle time must be positive.");
+        }
+        this.budgetNanos = TimeUnit.MICROSECONDS.toNanos(budgetMicros);
+        this.latePolicy = latePolicy;
+        this.clock = clock;
+        this.idleNanos = idleNanos;
+        this.nextLapAt = clock.getAsLong() + lapNanos();
+    }
+
+    // Returns true if the withdrawal may proceed; answers by policy when the budget is exceeded. Scoring leaves the
+    // card's features alone: record() folds the withdrawal in once it has been dispensed, so declined or failed
+    // attempts never skew later scores.
+    public boolean approve(String cardNumber, String terminalId, double amount) {
+        long start = clock.getAsLong();
+        sweep(start);
+        double score = 0.0;
+        CardFeatures card = features.get(cardNumber);
+        if (card != null) {
+            boolean locked;
+            try {
+                locked = card.lock.tryLock(budgetNanos, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                locked = false;
+            }
+            if (!locked) {
+                return late();
+            }
+            try {
+                // An evicted card has been idle long enough to be scored as new
+                if (!card.evicted) {
+                    score = score(card, terminalId, amount, clock.getAsLong());
+                }
+            } finally {
+                card.lock.unlock();
+            }
+        }
+        if (clock.getAsLong() - start > budgetNanos) {
+            return late();
+        }
+        return score < DECLINE_THRESHOLD;
+    }
+
+    // Updates the card's features with a withdrawal that went through
+    public void record(String cardNumber, String terminalId, double amount) {
+        while (true) {
+            CardFeatures card = features.computeIfAbsent(cardNumber, k -> new CardFeatures());
+            card.lock.lock();
+            try {
+                if (!card.evicted) {
+                    update(card, terminalId, amount, clock.getAsLong());
+                    return;
+                }
+            } finally {
+                card.lock.unlock();
+            }
+            // lost a race with the sweep; the card starts over with fresh features
+        }
+    }
+
+    public long lateDecisions() {
+        return lateDecisions.sum();
+    }
+
+    public int trackedCards() {
+        return features.size();
+    }
+
+    // Examines a few cards per decision so idle ones are evicted without a full scan on the hot path
+    private void sweep(long now) {
+        if (!sweepLock.tryLock()) {
+            return;
+        }
+        try {
+            for (int i = 0; i < SWEEP_BATCH; i++) {
+                if (sweepCursor == null || !sweepCursor.hasNext()) {
+                    // Starting a lap allocates an iterator, so laps are limited to one per lapNanos
+                    if (now - nextLapAt < 0) {
+                        return;
+                    }
+                    nextLapAt = now + lapNanos();
+                    sweepCursor = features.keySet().iterator();
+                    if (!sweepCursor.hasNext()) {
+                        return;
+                    }
+                }
+                String cardNumber = sweepCursor.next();
+                CardFeatures card = features.get(cardNumber);
+                // A card whose lock is held is in use, so it is not idle
+                if (card != null && card.lock.tryLock()) {
+                    try {
+                        if (!card.evicted && now - card.lastSeen >= idleNanos) {
+                            card.evicted = true;
+                            features.remove(cardNumber, card);
+                        }
+                    } finally {
+                        card.lock.unlock();
+                    }
+                }
+            }
+        } finally {
+            sweepLock.unlock();
+        }
+    }
+
+    private long lapNanos() {
+        return Math.max(1, idleNanos / 24);
+    }
+
+    private boolean late() {
+        lateDecisions.increment();
+        return latePolicy == LatePolicy.FAIL_OPEN;
+    }
+
+    // Each feature contributes up to 1.0; a single strong signal is enough to decline
+    private static double score(CardFeatures card, String terminalId, double amount, long now) {
+        if (card.observations == 0) {
+            return 0.0;
+        }
+        double velocity = decayedVelocity(card, now) + 1;
+        double velocityScore = Math.max(0.0, (velocity - 3) / 3);
+        double deviation = Math.sqrt(card.amountVariance);
+        double amountScore = card.observations < 3
+                ? 0.0
+                : Math.max(0.0, ((amount - card.amountMean) / Math.max(deviation, 1.0) - 3) / 3);
+        double terminalScore = !terminalId.equals(card.lastTerminal) && now - card.lastSeen < TERMINAL_HOP_NANOS
+                ? 0.5
+                : 0.0;
+        return Math.min(velocityScore, 1.0) + Math.min(amountScore, 1.0) + terminalScore;
+    }
+
+    private static void update(CardFeatures card, String terminalId, double amount, long now) {
+        if (card.observations == 0) {
+            card.amountMean = amount;
+            card.velocity = 1;
+        } else {
+            double delta = amount - card.amountMean;
+            card.amountMean += AMOUNT_ALPHA * delta;
+            card.amountVariance = (1 - AMOUNT_ALPHA) * (card.amountVariance + AMOUNT_ALPHA * delta * delta);
+            card.velocity = decayedVelocity(card, now) + 1;
+        }
+        card.observations++;
+        card.lastSeen = now;
+        card.lastTerminal = terminalId;
+    }
+
+    private static double decayedVelocity(CardFeatures card, long now) {
+        return card.velocity * Math.pow(0.5, (double) (now - card.lastSeen) / VELOCITY_HALF_LIFE_NANOS);
+    }
+}
+
+// Heap and GC cost of the account table against the HashMap<String, Account> it replaced: loads the accounts, then
+// looks cards up at random. Run each layout in its own JVM with the same -Xmx, e.g. at 10M and 50M accounts.
+// Usage: AccountTableBenchmark table|heap [accounts] [lookups]
+class AccountTableBenchmark {
+    // The record the table replaced: one object per account plus its two strings
+    private static final class HeapAccount {
+        final String cardNumber;
+        final String pin;
+        double balance;
+
+        HeapAccount(String cardNumber, String pin, double balance) {
+            this.cardNumber = cardNumber;
+            this.pin = pin;
+            this.balance = balance;
+        }
+    }
+
+    static final class Result {
+        final long heapBytes;
+        final long offHeapBytes;
+        final long gcCount;
+        final long gcMillis;
+        final long found;
+        final long lookupNanos;
+
+        Result(long heapBytes, long offHeapBytes, long gcCount, long gcMillis, long found, long lookupNanos) {
+            this.heapBytes = heapBytes;
+            this.offHeapBytes = offHeapBytes;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+            this.found = found;
+            this.lookupNanos = lookupNanos;
+        }
+    }
+
+    public static void main(String[] args) {
+        boolean heap = args.length > 0 && args[0].equals("heap");
+        int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 10_000_000;
+        int lookups = args.length > 2 ? Integer.parseInt(args[2]) : 10_000_000;
+        Result result = run(heap, accounts, lookups);
+        System.out.printf("%s, %d accounts: heap %d MB, off-heap %d MB, %d GCs taking %d ms, %.0f lookups/sec%n",
+                heap ? "HashMap" : "AccountTable", accounts, result.heapBytes >> 20, result.offHeapBytes >> 20,
+                result.gcCount, result.gcMillis,
+                lookups * (double) TimeUnit.SECONDS.toNanos(1) / Math.max(1, result.lookupNanos));
+    }
+
+    // GC counts cover loading and lookups, not the collections forced to measure the heap
+    static Result run(boolean heap, int accounts, int lookups) {
+        long heapBefore = usedHeap();
+        long gcCountBefore = gcCount();
+        long gcMillisBefore = gcMillis();
+        SplittableRandom random = new SplittableRandom(42);
+        long found = 0;
+        long heapBytes;
+        long offHeapBytes = 0;
+        long start;
+        if (heap) {
+            Map<String, HeapAccount> map = new HashMap<>();
+            for (int i = 0; i < accounts; i++) {
+                String card = card(i);
+                map.put(card, new HeapAccount(card, "1234", 100.0));
+            }
+            gcCountBefore -= gcCount();
+            gcMillisBefore -= gcMillis();
+            heapBytes = usedHeap() - heapBefore;
+            gcCountBefore += gcCount();
+            gcMillisBefore += gcMillis();
+            start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                if (map.get(card(random.nextInt(accounts))) != null) {
+                    found++;
+                }
+            }
+        } else {
+            try (AccountTable table = new AccountTable(accounts)) {
+                for (int i = 0; i < accounts; i++) {
+                    table.put(card(i), "1234", 100.0);
+                }
+                gcCountBefore -= gcCount();
+                gcMillisBefore -= gcMillis();
+                heapBytes = usedHeap() - heapBefore;
+                gcCountBefore += gcCount();
+                gcMillisBefore += gcMillis();
+                offHeapBytes = table.memoryBytes();
+                start = System.nanoTime();
+                for (int i = 0; i < lookups; i++) {
+                    if (table.find(card(random.nextInt(accounts))) >= 0) {
+                        found++;
+                    }
+                }
+            }
+        }
+        long lookupNanos = System.nanoTime() - start;
+        return new Result(Math.max(0, heapBytes), offHeapBytes, gcCount() - gcCountBefore,
+                gcMillis() - gcMillisBefore, found, lookupNanos);
+    }
+
+    // 16-digit card numbers
+    private static String card(int i) {
+        return Long.toString(4_000_000_000_000_000L + i);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+}
@@ -1,9 +1,25 @@
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -124,4 +140,482 @@ class ATMTest {
         assertFalse(account.validatePin("5678"));
         System.setIn(System.in); // Reset to standard input
     }
-}
\ No newline at end of file
+
+    // Test AccountTable
+    @Test
+    void testAccountTable_PutAndFind() {
+        try (AccountTable table = new AccountTable(4)) {
+            table.put("1234567890123456", "1234", 1000.0);
+            table.put("0000000000000042", "9999", 50.0);
+            Account view = table.view(table.find("0000000000000042"));
+            assertEquals("0000000000000042", view.getCardNumber());
+            assertEquals(50.0, view.getBalance());
+            assertTrue(view.validatePin("9999"));
+            assertEquals(-1, table.find("42"));
+            assertEquals(-1, table.find("invalid"));
+        }
+    }
+
+    @Test
+    void testAccountTable_ViewWritesThrough() {
+        try (AccountTable table = new AccountTable(2)) {
+            Account account = table.put("1234567890123456", "1234", 1000.0);
+            account.setBalance(750.0);
+            account.setPin("4321");
+            Account other = table.view(table.find("1234567890123456"));
+            assertEquals(750.0, other.getBalance());
+            assertTrue(other.validatePin("4321"));
+            assertFalse(other.validatePin("1234"));
+        }
+    }
+
+    @Test
+    void testAccountTable_DuplicateAndFull() {
+        try (AccountTable table = new AccountTable(1)) {
+            table.put("1234567890123456", "1234", 1000.0);
+            assertThrows(IllegalArgumentException.class, () -> table.put("1234567890123456", "1111", 0.0));
+            assertThrows(IllegalStateException.class, () -> table.put("6543210987654321", "1111", 0.0));
+        }
+    }
+
+    // Test WithdrawalLimiter
+    @Test
+    void testCashWithdrawal_LimitExceeded() {
+        String input = "600\n600\n";
+        InputStream in = new ByteArrayInputStream(input.getBytes());
+        System.setIn(in);
+        Account rich = new Account("1234567890123456", "1234", 5000.0);
+        ATMVisitor visitor = new ATMVisitorImpl(rich, new Scanner(System.in));
+        visitor.visit(new CashWithdrawal());
+        visitor.visit(new CashWithdrawal());
+        assertEquals(4400.0, rich.getBalance());
+        System.setIn(System.in); // Reset to standard input
+    }
+
+    @Test
+    void testWithdrawalLimiter_WindowSlides() {
+        long[] now = {0};
+        WithdrawalLimiter limiter = new WithdrawalLimiter(500.0, 3, 24, TimeUnit.HOURS, () -> now[0]);
+        assertTrue(limiter.tryWithdraw("1111", 300.0));
+        now[0] = TimeUnit.HOURS.toMillis(12);
+        assertTrue(limiter.tryWithdraw("1111", 200.0));
+        assertFalse(limiter.tryWithdraw("1111", 0.01));
+        assertTrue(limiter.tryWithdraw("2222", 500.0));
+        now[0] = TimeUnit.HOURS.toMillis(24);
+        assertEquals(200.0, limiter.withdrawnInWindow("1111"));
+        assertTrue(limiter.tryWithdraw("1111", 300.0));
+    }
+
+    @Test
+    void testWithdrawalLimiter_CountLimit() {
+        WithdrawalLimiter limiter = new WithdrawalLimiter(1000.0, 2, 1, TimeUnit.HOURS, () -> 0L);
+        assertTrue(limiter.tryWithdraw("1111", 10.0));
+        assertTrue(limiter.tryWithdraw("1111", 10.0));
+        assertFalse(limiter.tryWithdraw("1111", 10.0));
+    }
+
+    @Test
+    void testWithdrawalLimiter_EvictsIdleCards() {
+        long[] now = {0};
+        WithdrawalLimiter limiter = new WithdrawalLimiter(1000.0, 10, 1, TimeUnit.HOURS, () -> now[0]);
+        limiter.tryWithdraw("1111", 10.0);
+        limiter.tryWithdraw("2222", 10.0);
+        now[0] = TimeUnit.HOURS.toMillis(2);
+        limiter.evictIdle();
+        assertEquals(0, limiter.trackedCards());
+        assertEquals(0.0, limiter.withdrawnInWindow("1111"));
+    }
+
+    // Test FraudScorer
+    @Test
+    void testFraudScorer_DeclinesVelocityBurst() {
+        FraudScorer scorer = new FraudScorer(200, FraudScorer.LatePolicy.FAIL_OPEN, () -> 0L);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(scorer.approve("1111", "ATM-1", 20.0));
+            scorer.record("1111", "ATM-1", 20.0);
+        }
+        assertFalse(scorer.approve("1111", "ATM-1", 20.0));
+        assertTrue(scorer.approve("2222", "ATM-1", 20.0));
+    }
+
+    @Test
+    void testFraudScorer_OnlyDispensedWithdrawalsUpdateFeatures() {
+        FraudScorer scorer = new FraudScorer(200, FraudScorer.LatePolicy.FAIL_OPEN, () -> 0L);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(scorer.approve("1111", "ATM-1", 20.0));
+        }
+        assertEquals(0, scorer.trackedCards());
+
+        WithdrawalLimiter limiter = new WithdrawalLimiter(1000.0, 1, 1, TimeUnit.HOURS, () -> 0L);
+        for (int i = 0; i < 6; i++) {
+            System.setIn(new ByteArrayInputStream("20\n".getBytes()));
+            new ATMVisitorImpl(account, new Scanner(System.in), limiter, scorer, "ATM-1").visit(new CashWithdrawal());
+        }
+        assertEquals(980.0, account.getBalance());
+        assertTrue(scorer.approve(account.getCardNumber(), "ATM-1", 20.0));
+        assertEquals(1, scorer.trackedCards());
+    }
+
+    @Test
+    void testFraudScorer_DeclinesAmountOutlier() {
+        long[] now = {0};
+        FraudScorer scorer = new FraudScorer(200, FraudScorer.LatePolicy.FAIL_OPEN, () -> now[0]);
+        for (int i = 0; i < 10; i++) {
+            now[0] += TimeUnit.DAYS.toNanos(1);
+            assertTrue(scorer.approve("1111", "ATM-1", 40.0 + i % 3));
+            scorer.record("1111", "ATM-1", 40.0 + i % 3);
+        }
+        now[0] += TimeUnit.DAYS.toNanos(1);
+        assertFalse(scorer.approve("1111", "ATM-1", 900.0));
+    }
+
+    @Test
+    void testFraudScorer_LatePolicy() {
+        long[] now = {0};
+        LongSupplier slowClock = () -> now[0] += TimeUnit.MICROSECONDS.toNanos(250);
+        FraudScorer failOpen = new FraudScorer(200, FraudScorer.LatePolicy.FAIL_OPEN, slowClock);
+        FraudScorer failClosed = new FraudScorer(200, FraudScorer.LatePolicy.FAIL_CLOSED, slowClock);
+        assertTrue(failOpen.approve("1111", "ATM-1", 20.0));
+        assertFalse(failClosed.approve("1111", "ATM-1", 20.0));
+        assertEquals(1, failClosed.lateDecisions());
+    }
+
+    @Test
+    void testFraudScorer_EvictsIdleCards() {
+        long[] now = {0};
+        long idle = TimeUnit.HOURS.toNanos(1);
+        FraudScorer scorer = new FraudScorer(200, FraudScorer.LatePolicy.FAIL_OPEN, () -> now[0], idle);
+        for (int i = 0; i < 10; i++) {
+            scorer.record("card-" + i, "ATM-1", 20.0);
+        }
+        assertEquals(10, scorer.trackedCards());
+
+        now[0] += idle;
+        for (int i = 0; i < 5; i++) {
+            scorer.approve("active", "ATM-1", 20.0);
+            scorer.record("active", "ATM-1", 20.0);
+            now[0] += 1;
+        }
+        assertEquals(1, scorer.trackedCards());
+    }
+
+    @Test
+    void testCashWithdrawal_DeclinedByFraudScorer() {
+        String input = "20\n";
+        InputStream in = new ByteArrayInputStream(input.getBytes());
+        System.setIn(in);
+        FraudScorer scorer = new FraudScorer(200, FraudScorer.LatePolicy.FAIL_CLOSED, () -> 0L);
+        for (int i = 0; i < 5; i++) {
+            scorer.record(account.getCardNumber(), "ATM-1", 20.0);
+        }
+        ATMVisitor visitor = new ATMVisitorImpl(account, new Scanner(System.in), new WithdrawalLimiter(), scorer, "ATM-1");
+        visitor.visit(new CashWithdrawal());
+        assertEquals(1000.0, account.getBalance());
+        System.setIn(System.in); // Reset to standard input
+    }
+
+    // Test AccountImporter
+    @Test
+    void testAccountImporter_CsvInParallelChunks(@TempDir Path dir) throws IOException {
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            csv.append(4000000000000000L + i).append(',').append(1000 + i).append(',').append(i).append(".25\n");
+        }
+        csv.append("not-a-card,1234,5.0\n");
+        csv.append("4000000000000001,1234,5.0\r\n");
+        Path file = dir.resolve("accounts.csv");
+        Files.writeString(file, csv);
+        try (AccountTable table = new AccountTable(2000)) {
+            AccountImporter.Result result = new AccountImporter(table, 1024, 4).importCsv(file, 0, null);
+            assertEquals(1000, result.rowsImported);
+            assertEquals(2, result.rowsRejected);
+            assertEquals(Files.size(file), result.nextOffset);
+            Account account = table.view(table.find("4000000000000999"));
+            assertEquals(999.25, account.getBalance());
+            assertTrue(account.validatePin("1999"));
+        }
+    }
+
+    @Test
+    void testAccountImporter_ResumeFromOffset(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("accounts.csv");
+        Files.writeString(file, "1111222233334444,1111,10\n5555666677778888,2222,20.5\n");
+        try (AccountTable table = new AccountTable(4)) {
+            AccountImporter.Result result = new AccountImporter(table).importCsv(file, 5, null);
+            assertEquals(1, result.rowsImported);
+            assertEquals(-1, table.find("1111222233334444"));
+            assertEquals(20.5, table.view(table.find("5555666677778888")).getBalance());
+        }
+    }
+
+    @Test
+    void testAccountImporter_BinaryRoundTrip(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("accounts.bin");
+        try (AccountTable source = new AccountTable(3)) {
+            source.put("1234567890123456", "1234", 1000.0);
+            source.put("0000000000000042", "987654", 42.5);
+            source.writeRecords(file);
+        }
+        try (AccountTable table = new AccountTable(3)) {
+            long[] reported = new long[1];
+            AccountImporter.Result result = new AccountImporter(table).importBinary(file, 0,
+                    (rows, bytes, total) -> reported[0] = rows);
+            assertEquals(2, result.rowsImported);
+            assertEquals(2, reported[0]);
+            Account account = table.view(table.find("0000000000000042"));
+            assertEquals(42.5, account.getBalance());
+            assertTrue(account.validatePin("987654"));
+        }
+    }
+
+    @Test
+    void testAccountImporter_StopsAtLastCommittedRowWhenTableIsFull(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("accounts.csv");
+        String first = "1111222233334444,1111,10\n";
+        Files.writeString(file, first + "bad,1,1\n2222333344445555,12a4,5\n"
+                + "3333444455556666,3333,30\n4444555566667777,4444,40\n");
+        try (AccountTable table = new AccountTable(2)) {
+            AccountImporter.Result result = new AccountImporter(table, 16, 2).importCsv(file, 0, null);
+            assertTrue(result.tableFull);
+            assertEquals(2, result.rowsImported);
+            assertEquals(2, result.rowsRejected);
+            assertEquals(-1, table.find("2222333344445555"));
+            String rest = Files.readString(file).substring((int) result.nextOffset);
+            assertEquals("4444555566667777,4444,40\n", rest);
+        }
+    }
+
+    // Allocation regression suite: the steady-state menu loop must not allocate
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getCurrentThreadAllocatedBytes();
+    }
+
+    private static long bytesPerRound(String round) {
+        int warmup = 20_000;
+        int measured = 5_000;
+        InputStream in = new ByteArrayInputStream(round.repeat(warmup + measured).getBytes());
+        long[] now = {0};
+        ATM session = new ATM(new AccountTable(16), new ByteInput(in),
+                new TerminalOutput(OutputStream.nullOutputStream()),
+                new WithdrawalLimiter(1e12, Integer.MAX_VALUE, 24, TimeUnit.HOURS, () -> now[0]), new FraudScorer());
+        ATMVisitor visitor = session.newSession(new Account("1234567890123456", "1234", 1e9));
+        for (int i = 0; i < warmup; i++) {
+            assertTrue(session.step(visitor));
+        }
+        allocatedBytes();
+        long before = allocatedBytes();
+        for (int i = 0; i < measured; i++) {
+            session.step(visitor);
+        }
+        return (allocatedBytes() - before) / measured;
+    }
+
+    @Test
+    void testBalanceInquiryAllocatesNothing() {
+        assertEquals(0, bytesPerRound("1\n"));
+    }
+
+    @Test
+    void testWithdrawalAndDepositAllocateNothing() {
+        assertEquals(0, bytesPerRound("2\n20\n3\n20.50\n"));
+    }
+
+    @Test
+    void testInvalidChoiceAllocatesNothing() {
+        assertEquals(0, bytesPerRound("x\n"));
+    }
+
+    @Test
+    void testByteInputParsing() {
+        ByteInput input = new ByteInput(new ByteArrayInputStream(" 2 \r\n12.5\nabc\n1234\n".getBytes()));
+        assertEquals(2, input.readChoice());
+        assertEquals(12.5, input.readAmount());
+        assertTrue(Double.isNaN(input.readAmount()));
+        assertEquals("1234", input.readLine());
+        assertEquals(TerminalInput.END_OF_INPUT, input.readChoice());
+    }
+
+    @Test
+    void testByteInputRejectsOverlongLines() {
+        String max = "1".repeat(64);
+        String over = "2".repeat(65);
+        String input = max + "\r\n" + over + "\n" + "1" + "0".repeat(600) + "\n"
+                + "3".repeat(200) + "\n" + "7\n" + over;
+        ByteInput lines = new ByteInput(new ByteArrayInputStream(input.getBytes()));
+        assertEquals(max, lines.readLine());
+        assertEquals("", lines.readLine());
+        assertEquals(TerminalInput.NOT_A_NUMBER, lines.readChoice());
+        assertTrue(Double.isNaN(lines.readAmount()));
+        assertEquals(7, lines.readChoice());
+        assertEquals("", lines.readLine());
+        assertNull(lines.readLine());
+    }
+
+    @Test
+    void testTerminalOutputFormatsMoney() {
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        new TerminalOutput(sink).printMoney(1234.5).print(TerminalOutput.encode(" ")).printMoney(-0.07).flush();
+        assertEquals("1234.50 -0.07", sink.toString());
+    }
+
+    @Test
+    void testMiniStatementShowsLastTransactions() {
+        long[] now = {1_000};
+        StatementIndex index = new StatementIndex(4, () -> now[0]++);
+        InputStream in = new ByteArrayInputStream("100\n50\n25\n".getBytes());
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        ATMVisitor visitor = new ATMVisitorImpl(account, new ByteInput(in), new TerminalOutput(sink),
+                new WithdrawalLimiter(), new FraudScorer(), index, "ATM-0001");
+        visitor.visit(new CashWithdrawal());
+        visitor.visit(new CashDeposit());
+        visitor.visit(new CashWithdrawal());
+        visitor.visit(new MiniStatement(2));
+
+        String statement = sink.toString();
+        assertFalse(statement.contains("-100.00"));
+        assertTrue(statement.contains("50.00    950.00"));
+        assertTrue(statement.contains("-25.00    925.00"));
+    }
+
+    @Test
+    void testMenuMiniStatementPromptsForDays() {
+        long day = TimeUnit.DAYS.toMillis(1);
+        long[] now = {day};
+        StatementIndex index = new StatementIndex(4, () -> now[0]);
+        InputStream in = new ByteArrayInputStream("100\n50\nweek\n400\n2\n".getBytes());
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        ATMVisitor visitor = new ATMVisitorImpl(account, new ByteInput(in), new TerminalOutput(sink),
+                new WithdrawalLimiter(), new FraudScorer(), index, "ATM-0001");
+        visitor.visit(new CashWithdrawal());
+        now[0] = 5 * day;
+        visitor.visit(new CashDeposit());
+        now[0] = 6 * day;
+        visitor.visit(MiniStatement.prompted());
+
+        String statement = sink.toString();
+        assertEquals(2, statement.split("Please enter a whole number of days", -1).length - 1);
+        assertTrue(statement.contains("50.00    950.00"));
+        assertFalse(statement.contains("-100.00"));
+        assertEquals(-1, MiniStatement.parseDays("-1"));
+        assertEquals(0, MiniStatement.parseDays(" "));
+    }
+
+    @Test
+    void testAccountHistoryRingAndWindow() {
+        AccountHistory history = new AccountHistory(3);
+        for (int i = 1; i <= 5; i++) {
+            history.append(i * 100L, AccountHistory.DEPOSIT, i, i * 10L);
+        }
+        assertEquals(3, history.size());
+        List<Long> seen = new ArrayList<>();
+        assertEquals(2, history.last(2, (time, type, amount, balance) -> seen.add(time)));
+        assertEquals(List.of(400L, 500L), seen);
+
+        seen.clear();
+        assertEquals(2, history.between(250, 450, (time, type, amount, balance) -> seen.add(amount)));
+        assertEquals(List.of(3L, 4L), seen);
+        assertEquals(0, history.between(0, 250, (time, type, amount, balance) -> fail()));
+    }
+
+    @Test
+    void testMiniStatementWithoutHistory() {
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        ATMVisitor visitor = new ATMVisitorImpl(account, new ByteInput(InputStream.nullInputStream()),
+                new TerminalOutput(sink), new WithdrawalLimiter(), new FraudScorer(), new StatementIndex(), "ATM-0001");
+        visitor.visit(new MiniStatement(Instant.EPOCH, Instant.now()));
+        assertTrue(sink.toString().startsWith("No transactions to show."));
+    }
+
+    // Flight Recorder events
+    @Test
+    void testATMEventRecordsVisitorOutcomes(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("atm.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("atm.Operation").withoutThreshold();
+            recording.start();
+            InputStream in = new ByteArrayInputStream("150\n0\n".getBytes());
+            ATMVisitor visitor = new ATMVisitorImpl(account, new ByteInput(in),
+                    new TerminalOutput(OutputStream.nullOutputStream()), new WithdrawalLimiter(), new FraudScorer(),
+                    new StatementIndex(), "ATM-0001");
+            visitor.visit(new CashWithdrawal());
+            visitor.visit(new CashDeposit());
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        assertEquals(2, events.size());
+        RecordedEvent withdrawal = events.get(0);
+        assertEquals("WITHDRAWAL", withdrawal.getString("operation"));
+        assertEquals("UNDER_500", withdrawal.getString("amountBucket"));
+        assertEquals(ATMEvent.SUCCESS, withdrawal.getString("outcome"));
+        assertEquals(ATMEvent.cardHash("1234567890123456"), withdrawal.getLong("cardHash"));
+        RecordedEvent deposit = events.get(1);
+        assertEquals("DEPOSIT", deposit.getString("operation"));
+        assertEquals("NONE", deposit.getString("amountBucket"));
+        assertEquals(ATMEvent.INVALID, deposit.getString("outcome"));
+    }
+
+    @Test
+    void testATMEventIsSkippedWithoutRecording() {
+        assertNull(ATMEvent.start());
+        ATMEvent.finish(null, "WITHDRAWAL", "1234567890123456", 10, ATMEvent.SUCCESS);
+        assertEquals("1000_AND_OVER", ATMEvent.amountBucket(1000));
+        assertNotEquals(0L, ATMEvent.cardHash("1234567890123456"));
+    }
+
+    @Test
+    void testAccountTable_PinIsDigitsOnly() {
+        try (AccountTable table = new AccountTable(4)) {
+            Account account = table.put("1234567890123456", "1234", 1000.0);
+            // U+0131 truncates to 0x31 ('1') as a byte
+            assertFalse(account.validatePin("\u0131234"));
+            assertFalse(account.validatePin("123\u0134"));
+            assertThrows(IllegalArgumentException.class, () -> account.setPin("12a4"));
+            assertThrows(IllegalArgumentException.class, () -> table.put("6543210987654321", "\u0131234", 0.0));
+            assertTrue(account.validatePin("1234"));
+        }
+    }
+
+    @Test
+    void testAccountTable_ConcurrentPuts() throws Exception {
+        int threads = 4;
+        int perThread = 2_000;
+        AtomicInteger missed = new AtomicInteger();
+        try (AccountTable table = new AccountTable(threads * perThread)) {
+            List<Thread> writers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int first = t * perThread;
+                writers.add(new Thread(() -> {
+                    for (int i = first; i < first + perThread; i++) {
+                        table.put(Long.toString(4_000_000_000_000_000L + i), "1234", i);
+                        if (table.find(Long.toString(4_000_000_000_000_000L + i)) < 0) {
+                            missed.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            writers.forEach(Thread::start);
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            assertEquals(0, missed.get());
+            assertEquals(threads * perThread, table.size());
+            for (int i = 0; i < threads * perThread; i++) {
+                int record = table.find(Long.toString(4_000_000_000_000_000L + i));
+                assertEquals(i, table.view(record).getBalance());
+            }
+        }
+    }
+
+    @Test
+    void testAccountTableBenchmarkComparesLayouts() {
+        AccountTableBenchmark.Result table = AccountTableBenchmark.run(false, 10_000, 1_000);
+        AccountTableBenchmark.Result heap = AccountTableBenchmark.run(true, 10_000, 1_000);
+        assertEquals(1_000, table.found);
+        assertEquals(1_000, heap.found);
+        assertTrue(table.offHeapBytes >= 10_000L * AccountTable.RECORD_SIZE);
+        assertEquals(0, heap.offHeapBytes);
+    }
+}
@@ -1,12 +1,29 @@
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
 
 // ATM class representing the context
 public class ATM {
     private Map<String, Account> accounts;
-    private Account currentAccount;
+    Account currentAccount;
     private Scanner input;
+    private PinVerifier pinVerifier;
 
     public ATM() {
         accounts = new HashMap<>();
@@ -14,6 +31,7 @@ public class ATM {
         accounts.put("1234567890", new Account("1234567890", "1234", 1000.00));
         accounts.put("9876543210", new Account("9876543210", "4321", 500.00));
         input = new Scanner(System.in);
+        pinVerifier = new PinVerifier();
     }
 
     public static void main(String[] args) {
@@ -26,8 +44,8 @@ public class ATM {
         while (true) {
             if (currentAccount == null) {
                 authenticateUser();
-            } else {
-                showMenu();
+            } else if (!showMenu()) {
+                return;
             }
         }
     }
@@ -39,15 +57,27 @@ public class ATM {
         String pin = input.nextLine();
 
         Account account = accounts.get(cardNumber);
-        if (account != null && account.validatePin(pin)) {
-            currentAccount = account;
-            System.out.println("Authentication successful!\n");
-        } else {
+        if (account == null) {
             System.out.println("Invalid card number or PIN.\n");
+            return;
+        }
+        try {
+            if (pinVerifier.verify(account, pin).join()) {
+                currentAccount = account;
+                System.out.println("Authentication successful!\n");
+            } else {
+                System.out.println("Invalid card number or PIN.\n");
+            }
+        } catch (CompletionException e) {
+            if (!(e.getCause() instanceof RejectedExecutionException)) {
+                throw e;
+            }
+            System.out.println("The ATM is busy. Please try again.\n");
         }
     }
 
-    private void showMenu() {
+    // Returns false once the customer chooses Exit
+    private boolean showMenu() {
         System.out.println("\nSelect an option:");
         System.out.println("1. Check Balance");
         System.out.println("2. Withdraw Cash");
@@ -59,7 +89,7 @@ public class ATM {
         input.nextLine(); // Consume newline character
 
         // Using a Visitor to handle operations
-        ATMVisitor visitor = new ATMOperationVisitor(currentAccount, input);
+        ATMVisitor visitor = new ATMOperationVisitor(currentAccount, input, pinVerifier);
         switch (choice) {
             case 1:
                 currentAccount.accept(visitor);
@@ -75,27 +105,35 @@ public class ATM {
                 break;
             case 5:
                 System.out.println("Thank you for using the ATM. Goodbye!");
-                System.exit(0);
+                return false;
             default:
                 System.out.println("Invalid option. Please try again.\n");
         }
+        return true;
     }
 }
 
 // Account class representing the element
 class Account {
     private String cardNumber;
-    private String pin;
+    private PinHash pin;
     private double balance;
+    private PinHasher hasher;
 
     public Account(String cardNumber, String pin, double balance) {
+        this(cardNumber, pin, balance, PinHasher.DEFAULT);
+    }
+
+    Account(String cardNumber, String pin, double balance, PinHasher hasher) {
         this.cardNumber = cardNumber;
-        this.pin = pin;
+        this.hasher = hasher;
+        this.pin = hasher.hash(pin);
         this.balance = balance;
     }
 
+    // Deliberately slow, as is setPin; ATM sessions go through PinVerifier rather than calling either directly
     public boolean validatePin(String pin) {
-        return this.pin.equals(pin);
+        return this.pin.matches(pin);
     }
 
     public double getBalance() {
@@ -107,7 +145,7 @@ class Account {
     }
 
     public void setPin(String pin) {
-        this.pin = pin;
+        this.pin = hasher.hash(pin);
     }
 
     // Accepting the visitor
@@ -125,10 +163,12 @@ interface ATMVisitor {
 class ATMOperationVisitor implements ATMVisitor {
     private Account account;
     private Scanner input;
+    private PinVerifier pinVerifier;
 
-    public ATMOperationVisitor(Account account, Scanner input) {
+    public ATMOperationVisitor(Account account, Scanner input, PinVerifier pinVerifier) {
         this.account = account;
         this.input = input;
+        this.pinVerifier = pinVerifier;
     }
 
     @Override
@@ -188,20 +228,214 @@ class ATMOperationVisitor implements ATMVisitor {
     private void changePin() {
         System.out.print("Enter old PIN: ");
         String oldPin = input.nextLine();
-        if (account.validatePin(oldPin)) {
-            System.out.print("Enter new PIN: ");
-            String newPin1 = input.nextLine();
-            System.out.print("Confirm new PIN: ");
-            String newPin2 = input.nextLine();
-
-            if (newPin1.equals(newPin2)) {
-                account.setPin(newPin1);
-                System.out.println("PIN changed successfully.\n");
+        try {
+            if (pinVerifier.verify(account, oldPin).join()) {
+                System.out.print("Enter new PIN: ");
+                String newPin1 = input.nextLine();
+                System.out.print("Confirm new PIN: ");
+                String newPin2 = input.nextLine();
+
+                if (newPin1.equals(newPin2)) {
+                    pinVerifier.rehash(account, newPin1).join();
+                    System.out.println("PIN changed successfully.\n");
+                } else {
+                    System.out.println("New PINs do not match.\n");
+                }
             } else {
-                System.out.println("New PINs do not match.\n");
+                System.out.println("Incorrect old PIN.\n");
             }
-        } else {
-            System.out.println("Incorrect old PIN.\n");
+        } catch (CompletionException e) {
+            if (!(e.getCause() instanceof RejectedExecutionException)) {
+                throw e;
+            }
+            System.out.println("The ATM is busy. Please try again.\n");
+        }
+    }
+}
+
+// Salted PBKDF2 hash of a PIN. The iteration count is kept with each hash, so the cost can be raised later without
+// invalidating PINs hashed at the old cost.
+final class PinHash {
+    private final int iterations;
+    private final byte[] salt;
+    private final byte[] hash;
+
+    PinHash(int iterations, byte[] salt, byte[] hash) {
+        this.iterations = iterations;
+        this.salt = salt;
+        this.hash = hash;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    // Constant-time comparison, so the time taken does not reveal how much of the PIN was right
+    public boolean matches(String pin) {
+        return pin != null && MessageDigest.isEqual(hash, PinHasher.derive(pin, salt, iterations));
+    }
+}
+
+// Hashes PINs with PBKDF2-HMAC-SHA256 and a fresh random salt per PIN
+class PinHasher {
+    static final int DEFAULT_ITERATIONS = 100_000;
+    static final int MIN_ITERATIONS = 10_000;
+    static final PinHasher DEFAULT = new PinHasher(DEFAULT_ITERATIONS);
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    private final int iterations;
+    private final SecureRandom random = new SecureRandom();
+
+    PinHasher(int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("Iterations must be positive");
+        }
+        this.iterations = iterations;
+    }
+
+    public PinHash hash(String pin) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        return new PinHash(iterations, salt, derive(pin, salt, iterations));
+    }
+
+    static byte[] derive(String pin, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(pin.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2WithHmacSHA256 is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    // Iteration count at which one hash takes about targetMillis on this machine. Run it on the production
+    // hardware, then check PinVerifier throughput at that cost before changing DEFAULT_ITERATIONS.
+    static int calibrate(long targetMillis) {
+        byte[] salt = new byte[SALT_BYTES];
+        derive("0000", salt, MIN_ITERATIONS); // warm up
+        long start = System.nanoTime();
+        derive("0000", salt, MIN_ITERATIONS);
+        long elapsed = Math.max(1, System.nanoTime() - start);
+        long iterations = MIN_ITERATIONS * TimeUnit.MILLISECONDS.toNanos(targetMillis) / elapsed;
+        return (int) Math.max(MIN_ITERATIONS, Math.min(Integer.MAX_VALUE, iterations));
+    }
+}
+
+// Runs PIN checks on a fixed pool of workers with a bounded queue. A burst of logins waits in the queue, or is
+// turned away once the queue is full, instead of taking CPU from transaction processing.
+class PinVerifier implements AutoCloseable {
+    static final int DEFAULT_QUEUE_LIMIT = 64;
+
+    private final ThreadPoolExecutor pool;
+    private final LongAdder rejected = new LongAdder();
+
+    public PinVerifier() {
+        this(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), DEFAULT_QUEUE_LIMIT);
+    }
+
+    public PinVerifier(int workers, int queueLimit) {
+        AtomicInteger threads = new AtomicInteger();
+        pool = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueLimit), task -> {
+                    Thread thread = new Thread(task, "pin-verifier-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    // Completes with the result, or exceptionally with RejectedExecutionException when the queue is full
+    public CompletableFuture<Boolean> verify(Account account, String pin) {
+        return submit(() -> account.validatePin(pin));
+    }
+
+    // Hashes a new PIN on the pool too, since it costs as much as a check
+    public CompletableFuture<Boolean> rehash(Account account, String pin) {
+        return submit(() -> {
+            account.setPin(pin);
+            return true;
+        });
+    }
+
+    CompletableFuture<Boolean> submit(BooleanSupplier check) {
+        try {
+            return CompletableFuture.supplyAsync(check::getAsBoolean, pool);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            return CompletableFuture.failedFuture(e);
         }
     }
-}
\ No newline at end of file
+
+    public int queueDepth() {
+        return pool.getQueue().size();
+    }
+
+    public long rejectedCount() {
+        return rejected.sum();
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+}
+
+// Login throughput at a given hash cost: fires a burst of logins at a PinVerifier and reports how many were
+// verified per second and how many the full queue turned away. Run it with the iteration count from
+// PinHasher.calibrate before changing DEFAULT_ITERATIONS or the pool size.
+// Usage: PinVerifierBenchmark [iterations] [logins] [workers] [queue limit]
+class PinVerifierBenchmark {
+    static final class Result {
+        final long verified;
+        final long rejected;
+        final long elapsedNanos;
+
+        Result(long verified, long rejected, long elapsedNanos) {
+            this.verified = verified;
+            this.rejected = rejected;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        double loginsPerSecond() {
+            return verified * (double) TimeUnit.SECONDS.toNanos(1) / Math.max(1, elapsedNanos);
+        }
+    }
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : PinHasher.DEFAULT_ITERATIONS;
+        int logins = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int workers = args.length > 2 ? Integer.parseInt(args[2])
+                : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        int queueLimit = args.length > 3 ? Integer.parseInt(args[3]) : PinVerifier.DEFAULT_QUEUE_LIMIT;
+
+        run(iterations, Math.min(logins, queueLimit), workers, queueLimit); // warm up
+        Result result = run(iterations, logins, workers, queueLimit);
+        System.out.printf("%d iterations, %d workers, queue %d: %d logins in %d ms, %.1f logins/sec, %d rejected%n",
+                iterations, workers, queueLimit, result.verified, TimeUnit.NANOSECONDS.toMillis(result.elapsedNanos),
+                result.loginsPerSecond(), result.rejected);
+    }
+
+    static Result run(int iterations, int logins, int workers, int queueLimit) {
+        Account account = new Account("1234567890", "1234", 0, new PinHasher(iterations));
+        try (PinVerifier verifier = new PinVerifier(workers, queueLimit)) {
+            List<CompletableFuture<Boolean>> pending = new ArrayList<>(logins);
+            long start = System.nanoTime();
+            for (int i = 0; i < logins; i++) {
+                pending.add(verifier.verify(account, "1234"));
+            }
+            long verified = 0;
+            for (CompletableFuture<Boolean> login : pending) {
+                try {
+                    if (login.join()) {
+                        verified++;
+                    }
+                } catch (CompletionException e) {
+                    // Turned away by the full queue; counted by the verifier
+                }
+            }
+            return new Result(verified, verifier.rejectedCount(), System.nanoTime() - start);
+        }
+    }
+}
@@ -1,6 +1,10 @@
 import org.junit.jupiter.api.Test;
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import static org.junit.jupiter.api.Assertions.*;
 
 class ATMTest {
@@ -112,4 +116,69 @@ class ATMTest {
 
         System.setIn(System.in);
     }
-}
\ No newline at end of file
+
+    @Test
+    void testPinHashIsSaltedAndVerifies() {
+        PinHasher hasher = new PinHasher(PinHasher.MIN_ITERATIONS);
+        PinHash first = hasher.hash("1234");
+        PinHash second = hasher.hash("1234");
+        assertTrue(first.matches("1234"));
+        assertTrue(second.matches("1234"));
+        assertFalse(first.matches("4321"));
+        assertFalse(first.matches(null));
+        assertFalse(second.matches("12345"));
+    }
+
+    @Test
+    void testAccountRehashesOnPinChange() {
+        Account account = new Account("1234567890", "1234", 100.0, new PinHasher(PinHasher.MIN_ITERATIONS));
+        assertTrue(account.validatePin("1234"));
+        account.setPin("5678");
+        assertFalse(account.validatePin("1234"));
+        assertTrue(account.validatePin("5678"));
+    }
+
+    @Test
+    void testPinVerifierRejectsWhenQueueIsFull() throws Exception {
+        try (PinVerifier verifier = new PinVerifier(1, 1)) {
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch running = new CountDownLatch(1);
+            CompletableFuture<Boolean> busy = verifier.submit(() -> {
+                running.countDown();
+                try {
+                    return release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            });
+            assertTrue(running.await(5, TimeUnit.SECONDS));
+            Account account = new Account("1234567890", "1234", 100.0, new PinHasher(PinHasher.MIN_ITERATIONS));
+            CompletableFuture<Boolean> queued = verifier.verify(account, "1234");
+            assertEquals(1, verifier.queueDepth());
+
+            CompletableFuture<Boolean> rejected = verifier.verify(account, "1234");
+            assertTrue(rejected.isCompletedExceptionally());
+            assertEquals(1, verifier.rejectedCount());
+            Throwable cause = assertThrows(Exception.class, rejected::join).getCause();
+            assertTrue(cause instanceof RejectedExecutionException);
+
+            release.countDown();
+            assertTrue(busy.get(5, TimeUnit.SECONDS));
+            assertTrue(queued.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void testPinHasherCalibrateHasFloor() {
+        assertEquals(PinHasher.MIN_ITERATIONS, PinHasher.calibrate(0));
+        assertTrue(PinHasher.calibrate(50) >= PinHasher.MIN_ITERATIONS);
+    }
+
+    @Test
+    void testPinVerifierBenchmarkCountsVerifiedAndRejected() {
+        PinVerifierBenchmark.Result result = PinVerifierBenchmark.run(PinHasher.MIN_ITERATIONS, 20, 2, 4);
+        assertEquals(20, result.verified + result.rejected);
+        assertTrue(result.verified >= 4);
+        assertTrue(result.loginsPerSecond() > 0);
+    }
+}
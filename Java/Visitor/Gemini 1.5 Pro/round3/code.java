@@ -1,12 +1,16 @@
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 // ATM class representing the Context
 public class ATM {
 
     private static final int MAX_PIN_ATTEMPTS = 3;
-    private Map<String, Account> accounts;
+    Map<String, Account> accounts;
     private Account currentAccount;
 
     public ATM() {
@@ -43,7 +47,7 @@ public class ATM {
         performTransactions(scanner);
     }
 
-    private boolean authenticateUser(String cardNumber, String pin) {
+    boolean authenticateUser(String cardNumber, String pin) {
         Account account = accounts.get(cardNumber);
         if (account != null) {
             int attempts = 0;
@@ -60,42 +64,27 @@ public class ATM {
     }
 
     private void performTransactions(Scanner scanner) {
-        TransactionVisitor visitor = new TransactionVisitor(scanner, currentAccount);
+        OperationRegistry registry = OperationRegistry.DEFAULT;
+        TransactionVisitor visitor = new TransactionVisitor(scanner, currentAccount, registry);
 
         while (true) {
-            printMenu();
+            printMenu(registry);
             int choice = scanner.nextInt();
             scanner.nextLine(); // Consume newline
 
-            switch (choice) {
-                case 1:
-                    currentAccount.accept(visitor, "BalanceInquiry");
-                    break;
-                case 2:
-                    currentAccount.accept(visitor, "CashWithdrawal");
-                    break;
-                case 3:
-                    currentAccount.accept(visitor, "Deposit");
-                    break;
-                case 4:
-                    currentAccount.accept(visitor, "PinChange");
-                    break;
-                case 5:
-                    System.out.println("Thank you for using the ATM. Goodbye!");
-                    return;
-                default:
-                    System.out.println("Invalid option. Please try again.");
+            if (choice == registry.getExitCode()) {
+                System.out.println("Thank you for using the ATM. Goodbye!");
+                return;
+            } else if (registry.isRegistered(choice)) {
+                currentAccount.accept(visitor, choice);
+            } else {
+                System.out.println("Invalid option. Please try again.");
             }
         }
     }
 
-    private void printMenu() {
-        System.out.println("\nSelect an option:");
-        System.out.println("1. Balance Inquiry");
-        System.out.println("2. Cash Withdrawal");
-        System.out.println("3. Deposit");
-        System.out.println("4. Change PIN");
-        System.out.println("5. Exit");
+    private void printMenu(OperationRegistry registry) {
+        System.out.print("\nSelect an option:" + System.lineSeparator() + registry.menu());
         System.out.print("Enter your choice: ");
     }
 }
@@ -116,6 +105,10 @@ class Account {
         visitor.visit(this, operation);
     }
 
+    public void accept(TransactionVisitor visitor, int operationCode) {
+        visitor.visit(this, operationCode);
+    }
+
     // Getters and setters
     public String getCardNumber() {
         return cardNumber;
@@ -138,55 +131,253 @@ class Account {
     }
 }
 
+// A single transaction type, registered once in the OperationRegistry
+interface AccountOperation {
+    void perform(Account account, Scanner scanner);
+}
+
+// Operation registry: compact integer codes resolved through an array-indexed table
+class OperationRegistry {
+    static final OperationRegistry DEFAULT = new OperationRegistry();
+
+    static {
+        DEFAULT.register(1, "BalanceInquiry", "Balance Inquiry", (account, scanner) ->
+                System.out.println("Your balance is: $" + account.getBalance()));
+        DEFAULT.register(2, "CashWithdrawal", "Cash Withdrawal", (account, scanner) -> {
+            System.out.print("Enter amount to withdraw: $");
+            double amountToWithdraw = scanner.nextDouble();
+            if (amountToWithdraw <= account.getBalance()) {
+                account.setBalance(account.getBalance() - amountToWithdraw);
+                System.out.println("Withdrawal successful. Please take your cash.");
+            } else {
+                System.out.println("Insufficient funds.");
+            }
+        });
+        DEFAULT.register(3, "Deposit", "Deposit", (account, scanner) -> {
+            System.out.print("Enter amount to deposit: $");
+            double amountToDeposit = scanner.nextDouble();
+            account.setBalance(account.getBalance() + amountToDeposit);
+            System.out.println("Deposit successful.");
+        });
+        DEFAULT.register(4, "PinChange", "Change PIN", (account, scanner) -> {
+            System.out.print("Enter old PIN: ");
+            String oldPin = scanner.nextLine();
+            if (oldPin.equals(account.getPin())) {
+                System.out.print("Enter new PIN: ");
+                String newPin1 = scanner.nextLine();
+                System.out.print("Confirm new PIN: ");
+                String newPin2 = scanner.nextLine();
+                if (newPin1.equals(newPin2)) {
+                    account.setPin(newPin1);
+                    System.out.println("PIN change successful.");
+                } else {
+                    System.out.println("New PINs do not match.");
+                }
+            } else {
+                System.out.println("Incorrect old PIN.");
+            }
+        });
+    }
+
+    static final int DEFAULT_EXIT_CODE = 5;
+    // Codes are menu choices, so they stay small; this also bounds the table and the menu rendering
+    static final int MAX_CODE = 99;
+
+    private final int exitCode;
+    // Writes happen under the registry's lock and publish a new table and menu; reads need no lock
+    private volatile AccountOperation[] operations = new AccountOperation[8];
+    private volatile String[] labels = new String[8];
+    private volatile String menu;
+    private final Map<String, Integer> codesByName = new ConcurrentHashMap<>();
+
+    public OperationRegistry() {
+        this(DEFAULT_EXIT_CODE);
+    }
+
+    // The exit code is reserved: it is always listed in the menu and cannot be taken by an operation
+    public OperationRegistry(int exitCode) {
+        if (exitCode < 0 || exitCode > MAX_CODE) {
+            throw new IllegalArgumentException("Exit code must be between 0 and " + MAX_CODE + ": " + exitCode);
+        }
+        this.exitCode = exitCode;
+        this.menu = renderMenu(labels);
+    }
+
+    public void register(int code, String name, AccountOperation operation) {
+        register(code, name, name, operation);
+    }
+
+    public synchronized void register(int code, String name, String label, AccountOperation operation) {
+        if (code < 0 || code > MAX_CODE) {
+            throw new IllegalArgumentException("Operation code must be between 0 and " + MAX_CODE + ": " + code);
+        }
+        if (code == exitCode) {
+            throw new IllegalArgumentException("Operation code " + code + " is reserved for Exit");
+        }
+        if (isRegistered(code) || codesByName.containsKey(name)) {
+            throw new IllegalArgumentException("Operation already registered: " + code + " " + name);
+        }
+        AccountOperation[] table = operations;
+        String[] names = labels;
+        if (code >= table.length) {
+            int length = Math.min(Math.max(code + 1, table.length * 2), MAX_CODE + 1);
+            table = Arrays.copyOf(table, length);
+            names = Arrays.copyOf(names, length);
+        } else {
+            table = table.clone();
+            names = names.clone();
+        }
+        table[code] = operation;
+        names[code] = label;
+        codesByName.put(name, code);
+        labels = names;
+        menu = renderMenu(names);
+        operations = table;
+    }
+
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    // Every registered operation and the exit entry, in code order
+    public String menu() {
+        return menu;
+    }
+
+    // Name lookup is meant for callers resolving a code once, not for per-operation dispatch
+    public int codeOf(String name) {
+        Integer code = codesByName.get(name);
+        return code == null ? -1 : code;
+    }
+
+    public boolean isRegistered(int code) {
+        AccountOperation[] table = operations;
+        return code >= 0 && code < table.length && table[code] != null;
+    }
+
+    public AccountOperation lookup(int code) {
+        AccountOperation[] table = operations;
+        return code >= 0 && code < table.length ? table[code] : null;
+    }
+
+    private String renderMenu(String[] names) {
+        StringBuilder text = new StringBuilder();
+        for (int code = 0; code < Math.max(names.length, exitCode + 1); code++) {
+            String label = code == exitCode ? "Exit" : code < names.length ? names[code] : null;
+            if (label != null) {
+                text.append(code).append(". ").append(label).append(System.lineSeparator());
+            }
+        }
+        return text.toString();
+    }
+}
+
 // TransactionVisitor class representing the Visitor
 class TransactionVisitor {
     private Scanner scanner;
     private Account account;
+    private OperationRegistry registry;
 
     public TransactionVisitor(Scanner scanner, Account account) {
+        this(scanner, account, OperationRegistry.DEFAULT);
+    }
+
+    public TransactionVisitor(Scanner scanner, Account account, OperationRegistry registry) {
         this.scanner = scanner;
         this.account = account;
+        this.registry = registry;
+    }
+
+    public void visit(Account account, int operationCode) {
+        AccountOperation operation = registry.lookup(operationCode);
+        if (operation != null) {
+            operation.perform(account, scanner);
+        }
     }
 
     public void visit(Account account, String operation) {
+        visit(account, registry.codeOf(operation));
+    }
+}
+
+// Dispatch cost per operation, before and after the registry: resolves a stream of requests either through the
+// string switch TransactionVisitor used before, or through the registry's array-indexed table, and runs a trivial
+// operation for each.
+// Usage: DispatchBenchmark [switch|table] [dispatches]
+class DispatchBenchmark {
+    static final class Result {
+        final long dispatches;
+        final long elapsedNanos;
+        final long checksum;
+
+        Result(long dispatches, long elapsedNanos, long checksum) {
+            this.dispatches = dispatches;
+            this.elapsedNanos = elapsedNanos;
+            this.checksum = checksum;
+        }
+
+        double nanosPerDispatch() {
+            return elapsedNanos / (double) Math.max(1, dispatches);
+        }
+    }
+
+    private static final String[] NAMES = {"BalanceInquiry", "CashWithdrawal", "Deposit", "PinChange"};
+    private static final int REQUESTS = 1024;
+
+    public static void main(String[] args) {
+        boolean table = args.length == 0 || args[0].equals("table");
+        int dispatches = args.length > 1 ? Integer.parseInt(args[1]) : 50_000_000;
+
+        run(table, dispatches); // warm up
+        Result result = run(table, dispatches);
+        System.out.printf("%s: %d dispatches in %d ms, %.2f ns/dispatch%n", table ? "table" : "switch",
+                result.dispatches, TimeUnit.NANOSECONDS.toMillis(result.elapsedNanos), result.nanosPerDispatch());
+    }
+
+    static Result run(boolean table, int dispatches) {
+        long[] sum = new long[1];
+        AccountOperation[] byName = new AccountOperation[NAMES.length];
+        OperationRegistry registry = new OperationRegistry();
+        for (int i = 0; i < NAMES.length; i++) {
+            int weight = i + 1;
+            byName[i] = (account, scanner) -> sum[0] += weight;
+            registry.register(i + 1, NAMES[i], byName[i]);
+        }
+        // A fixed mix of requests, cycled so the request stream itself stays in cache
+        SplittableRandom random = new SplittableRandom(42);
+        int[] codes = new int[REQUESTS];
+        String[] names = new String[REQUESTS];
+        for (int i = 0; i < REQUESTS; i++) {
+            codes[i] = 1 + random.nextInt(NAMES.length);
+            names[i] = NAMES[codes[i] - 1];
+        }
+        Account account = new Account("0000000000", "0000", 0);
+        long start = System.nanoTime();
+        if (table) {
+            for (int i = 0; i < dispatches; i++) {
+                registry.lookup(codes[i & (REQUESTS - 1)]).perform(account, null);
+            }
+        } else {
+            for (int i = 0; i < dispatches; i++) {
+                switchDispatch(byName, names[i & (REQUESTS - 1)]).perform(account, null);
+            }
+        }
+        return new Result(dispatches, System.nanoTime() - start, sum[0]);
+    }
+
+    // The string switch TransactionVisitor.visit(Account, String) dispatched through before the registry
+    private static AccountOperation switchDispatch(AccountOperation[] byName, String operation) {
         switch (operation) {
             case "BalanceInquiry":
-                System.out.println("Your balance is: $" + account.getBalance());
-                break;
+                return byName[0];
             case "CashWithdrawal":
-                System.out.print("Enter amount to withdraw: $");
-                double amountToWithdraw = scanner.nextDouble();
-                if (amountToWithdraw <= account.getBalance()) {
-                    account.setBalance(account.getBalance() - amountToWithdraw);
-                    System.out.println("Withdrawal successful. Please take your cash.");
-                } else {
-                    System.out.println("Insufficient funds.");
-                }
-                break;
+                return byName[1];
             case "Deposit":
-                System.out.print("Enter amount to deposit: $");
-                double amountToDeposit = scanner.nextDouble();
-                account.setBalance(account.getBalance() + amountToDeposit);
-                System.out.println("Deposit successful.");
-                break;
+                return byName[2];
             case "PinChange":
-                System.out.print("Enter old PIN: ");
-                String oldPin = scanner.nextLine();
-                if (oldPin.equals(account.getPin())) {
-                    System.out.print("Enter new PIN: ");
-                    String newPin1 = scanner.nextLine();
-                    System.out.print("Confirm new PIN: ");
-                    String newPin2 = scanner.nextLine();
-                    if (newPin1.equals(newPin2)) {
-                        account.setPin(newPin1);
-                        System.out.println("PIN change successful.");
-                    } else {
-                        System.out.println("New PINs do not match.");
-                    }
-                } else {
-                    System.out.println("Incorrect old PIN.");
-                }
-                break;
+                return byName[3];
+            default:
+                throw new IllegalArgumentException("Unknown operation: " + operation);
         }
     }
-}
\ No newline at end of file
+}
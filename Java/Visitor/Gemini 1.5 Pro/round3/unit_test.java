@@ -111,4 +111,69 @@ public class ATMTest {
         System.setIn(System.in);
         assertEquals("1234", atm.accounts.get("1234567890").getPin());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testOperationRegistry_DispatchesByCode() {
+        Account account = new Account("1234567890", "1234", 1000.0);
+        Scanner scanner = new Scanner(new ByteArrayInputStream("300\n".getBytes()));
+        TransactionVisitor visitor = new TransactionVisitor(scanner, account);
+        account.accept(visitor, OperationRegistry.DEFAULT.codeOf("CashWithdrawal"));
+        assertEquals(700.0, account.getBalance());
+    }
+
+    @Test
+    void testOperationRegistry_StringOperationStillSupported() {
+        Account account = new Account("1234567890", "1234", 1000.0);
+        Scanner scanner = new Scanner(new ByteArrayInputStream("200\n".getBytes()));
+        account.accept(new TransactionVisitor(scanner, account), "Deposit");
+        assertEquals(1200.0, account.getBalance());
+    }
+
+    @Test
+    void testOperationRegistry_CustomOperationPlugsIn() {
+        OperationRegistry registry = new OperationRegistry();
+        registry.register(12, "Bonus", (account, scanner) -> account.setBalance(account.getBalance() + 1));
+        Account account = new Account("1234567890", "1234", 1000.0);
+        account.accept(new TransactionVisitor(new Scanner(""), account, registry), 12);
+        assertEquals(1001.0, account.getBalance());
+        assertTrue(registry.isRegistered(12));
+        assertFalse(registry.isRegistered(1));
+        assertEquals(-1, registry.codeOf("BalanceInquiry"));
+        assertThrows(IllegalArgumentException.class, () -> registry.register(12, "Other", (a, s) -> { }));
+    }
+
+    @Test
+    void testOperationRegistry_BoundsCodes() {
+        OperationRegistry registry = new OperationRegistry();
+        registry.register(OperationRegistry.MAX_CODE, "Last", (account, scanner) -> { });
+        assertTrue(registry.isRegistered(OperationRegistry.MAX_CODE));
+        assertThrows(IllegalArgumentException.class,
+                () -> registry.register(OperationRegistry.MAX_CODE + 1, "TooBig", (a, s) -> { }));
+        assertThrows(IllegalArgumentException.class,
+                () -> registry.register(Integer.MAX_VALUE, "Huge", (a, s) -> { }));
+        assertThrows(IllegalArgumentException.class, () -> new OperationRegistry(OperationRegistry.MAX_CODE + 1));
+        assertFalse(registry.isRegistered(OperationRegistry.MAX_CODE + 1));
+    }
+
+    @Test
+    void testDispatchBenchmarkRunsBothPaths() {
+        DispatchBenchmark.Result table = DispatchBenchmark.run(true, 10_000);
+        DispatchBenchmark.Result strings = DispatchBenchmark.run(false, 10_000);
+        assertEquals(table.checksum, strings.checksum);
+        assertTrue(table.checksum >= 10_000 && table.checksum <= 40_000);
+        assertTrue(table.nanosPerDispatch() > 0);
+    }
+
+    @Test
+    void testOperationRegistry_MenuListsRegisteredCodesAndReservesExit() {
+        OperationRegistry registry = new OperationRegistry();
+        registry.register(6, "Bonus", "Bonus Credit", (account, scanner) -> { });
+        String n = System.lineSeparator();
+        assertEquals("5. Exit" + n + "6. Bonus Credit" + n, registry.menu());
+        assertThrows(IllegalArgumentException.class,
+                () -> registry.register(registry.getExitCode(), "Other", (a, s) -> { }));
+        assertFalse(registry.isRegistered(5));
+        assertTrue(OperationRegistry.DEFAULT.menu().startsWith("1. Balance Inquiry" + n));
+        assertTrue(OperationRegistry.DEFAULT.menu().endsWith("4. Change PIN" + n + "5. Exit" + n));
+    }
+}